@@ -0,0 +1,126 @@
+plugins {
+    id("java")
+    id("me.champeau.jmh")
+}
+
+// The Android-independent parts of the app that are benchmarked, compiled from the app's own sources.
+// Whatever they reference from the Android framework, appkit or the UI is replaced by the JVM stand-ins in src/stubs.
+val appSources = listOf(
+    "com/twitter/twittertext/**",
+    "app/kabinka/social/api/AllFieldsAreRequired.java",
+    "app/kabinka/social/api/LocalNotificationGrouper.java",
+    "app/kabinka/social/api/ObjectValidationException.java",
+    "app/kabinka/social/api/RequiredField.java",
+    "app/kabinka/social/api/StatusSearchIndex.java",
+    "app/kabinka/social/api/gson/**",
+    "app/kabinka/social/events/StatusCountersUpdatedEvent.java",
+    "app/kabinka/social/model/Account.java",
+    "app/kabinka/social/model/AccountField.java",
+    "app/kabinka/social/model/AccountWarning.java",
+    "app/kabinka/social/model/Application.java",
+    "app/kabinka/social/model/Attachment.java",
+    "app/kabinka/social/model/BaseModel.java",
+    "app/kabinka/social/model/Card.java",
+    "app/kabinka/social/model/DisplayItemsParent.java",
+    "app/kabinka/social/model/Emoji.java",
+    "app/kabinka/social/model/Filter.java",
+    "app/kabinka/social/model/FilterAction.java",
+    "app/kabinka/social/model/FilterContext.java",
+    "app/kabinka/social/model/FilterKeyword.java",
+    "app/kabinka/social/model/FilterResult.java",
+    "app/kabinka/social/model/FilterStatus.java",
+    "app/kabinka/social/model/Hashtag.java",
+    "app/kabinka/social/model/History.java",
+    "app/kabinka/social/model/Instance.java",
+    "app/kabinka/social/model/InstanceV2.java",
+    "app/kabinka/social/model/LegacyFilter.java",
+    "app/kabinka/social/model/Mention.java",
+    "app/kabinka/social/model/Notification.java",
+    "app/kabinka/social/model/NotificationGroup.java",
+    "app/kabinka/social/model/NotificationType.java",
+    "app/kabinka/social/model/Poll.java",
+    "app/kabinka/social/model/Quote.java",
+    "app/kabinka/social/model/QuoteApproval.java",
+    "app/kabinka/social/model/RelationshipSeveranceEvent.java",
+    "app/kabinka/social/model/Source.java",
+    "app/kabinka/social/model/Status.java",
+    "app/kabinka/social/model/StatusPrivacy.java",
+    "app/kabinka/social/model/StatusQuotePolicy.java",
+    "app/kabinka/social/model/Translation.java",
+    "app/kabinka/social/model/catalog/CatalogInstance.java",
+    "app/kabinka/social/model/viewmodel/NotificationViewModel.java",
+    "app/kabinka/social/ui/PhotoLayoutHelper.java",
+    "app/kabinka/social/ui/text/CharCounter.java",
+    "app/kabinka/social/ui/text/JsoupHtmlTokenizer.java",
+    "app/kabinka/social/ui/text/MastodonHtmlTokenizer.java",
+    "app/kabinka/social/ui/utils/BlurHashDecoder.java",
+    "app/kabinka/social/utils/ObjectIdComparator.java",
+)
+
+val syncAppSources = tasks.register<Sync>("syncAppSources") {
+    from(rootProject.file("kabinka-social/src/main/java")) {
+        include(appSources)
+    }
+    into(layout.buildDirectory.dir("generated/appSources"))
+}
+
+sourceSets {
+    named("jmh") {
+        java.srcDir(syncAppSources)
+        java.srcDir("src/stubs/java")
+    }
+    // Regression tests for the same code, against the same sources and fixtures
+    named("test") {
+        java.srcDir(syncAppSources)
+        java.srcDir("src/stubs/java")
+        resources.srcDir("src/jmh/resources")
+    }
+}
+
+java {
+    sourceCompatibility = JavaVersion.VERSION_17
+    targetCompatibility = JavaVersion.VERSION_17
+}
+
+tasks.withType<JavaCompile>().configureEach {
+    options.encoding = "UTF-8"
+}
+
+// Same versions as in the app
+val appDependencies = listOf(
+    "com.google.code.gson:gson:2.8.9",
+    "org.jsoup:jsoup:1.14.3",
+    "org.parceler:parceler-api:1.1.13",
+    "androidx.annotation:annotation:1.3.0",
+)
+
+dependencies {
+    appDependencies.forEach {
+        jmhImplementation(it)
+        testImplementation(it)
+    }
+    // SQLite for the local search benchmarks, since the one in Android isn't available on the JVM
+    jmhImplementation("org.xerial:sqlite-jdbc:3.46.1.3")
+    testImplementation("junit:junit:4.13.2")
+}
+
+// Results are kept per commit so that runs can be compared, e.g. build/results/jmh/1a2b3c4.json
+val commitHash = providers.exec {
+    commandLine("git", "rev-parse", "--short", "HEAD")
+    isIgnoreExitValue = true
+}.standardOutput.asText.map { it.trim().ifEmpty { "unknown" } }
+
+jmh {
+    jmhVersion = "1.37"
+    // The tests compile the same app sources, which would end up in the benchmark jar twice
+    includeTests = false
+    resultFormat = "JSON"
+    resultsFile = layout.buildDirectory.file(commitHash.map { "results/jmh/$it.json" })
+    // ./gradlew :benchmarks:jmh -PjmhIncludes=BlurHash
+    providers.gradleProperty("jmhIncludes").orNull?.let { includes = listOf(it) }
+    fork = 1
+    warmupIterations = 3
+    iterations = 5
+    benchmarkMode = listOf("avgt")
+    timeUnit = "us"
+}
@@ -0,0 +1,145 @@
+package app.kabinka.social.api;
+
+import com.google.gson.Gson;
+
+import app.kabinka.social.api.gson.MastodonGson;
+import app.kabinka.social.benchmarks.Fixtures;
+import app.kabinka.social.model.Status;
+
+import org.jsoup.Jsoup;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Query latency of the local search over cached posts ({@link CacheController#searchCachedStatuses}) with the same schema and
+ * queries, on SQLite through JDBC. The index is capped at 10k posts in the app, 100k shows how it would scale past that.
+ * <p>
+ * The index is filled with posts made of random words from the home timeline fixture, by 1000 different authors.
+ * Only the query and reading the JSON of the results are measured, parsing the 5 results is what {@link app.kabinka.social.benchmarks.ModelParsingBenchmark} does.
+ */
+@State(Scope.Benchmark)
+public class StatusSearchIndexBenchmark{
+	private static final int RESULT_COUNT=5; // Same as SearchQueryFragment
+	private static final int WORDS_PER_POST=40;
+	private static final int AUTHOR_COUNT=1000;
+
+	@Param({"10000", "100000"})
+	public int posts;
+
+	private File dbFile;
+	private Connection connection;
+	private PreparedStatement query;
+
+	@Setup
+	public void setUp() throws IOException, SQLException{
+		Gson gson=MastodonGson.create();
+		List<Status> fixture=Fixtures.loadHomeTimeline();
+		ArrayList<String> json=new ArrayList<>();
+		LinkedHashSet<String> vocabulary=new LinkedHashSet<>();
+		for(Status status:fixture){
+			json.add(gson.toJson(status));
+			for(String word:Jsoup.parse(status.content).text().toLowerCase().split("[^\\p{L}\\p{N}_]+")){
+				if(!word.isEmpty())
+					vocabulary.add(word);
+			}
+		}
+		String[] words=vocabulary.toArray(new String[0]);
+
+		dbFile=File.createTempFile("search", ".db");
+		connection=DriverManager.getConnection("jdbc:sqlite:"+dbFile.getAbsolutePath());
+		try(Statement st=connection.createStatement()){
+			for(String sql:StatusSearchIndex.CREATE_TABLES)
+				st.execute(sql);
+		}
+		connection.setAutoCommit(false);
+		Random rand=new Random(42);
+		try(PreparedStatement insert=connection.prepareStatement("INSERT INTO `search_statuses` (`id`, `json`, `time`) VALUES (?, ?, ?)");
+			PreparedStatement insertFts=connection.prepareStatement("INSERT INTO `search_statuses_fts` (`docid`, `text`, `author`, `hashtags`) VALUES (?, ?, ?, ?)")){
+			StringBuilder text=new StringBuilder();
+			for(int i=0;i<posts;i++){
+				int rowid=i+1;
+				insert.setString(1, String.valueOf(100_000_000L+i));
+				insert.setString(2, json.get(i%json.size()));
+				insert.setLong(3, 1_700_000_000L+i*60L);
+				insert.executeUpdate();
+
+				text.setLength(0);
+				for(int j=0;j<WORDS_PER_POST;j++){
+					if(j>0)
+						text.append(' ');
+					text.append(words[rand.nextInt(words.length)]);
+				}
+				int author=rand.nextInt(AUTHOR_COUNT);
+				insertFts.setInt(1, rowid);
+				insertFts.setString(2, text.toString());
+				insertFts.setString(3, "User "+author+" user"+author+"@example.social");
+				insertFts.setString(4, rand.nextInt(4)==0 ? words[rand.nextInt(words.length)] : "");
+				insertFts.executeUpdate();
+			}
+		}
+		connection.commit();
+		connection.setAutoCommit(true);
+		query=connection.prepareStatement(StatusSearchIndex.buildSearchQuery(RESULT_COUNT));
+	}
+
+	@TearDown
+	public void tearDown() throws SQLException{
+		connection.close();
+		dbFile.delete();
+	}
+
+	/**
+	 * A single letter, as the first keystroke, matches almost every post
+	 */
+	@Benchmark
+	public List<String> firstLetter() throws SQLException{
+		return search("t");
+	}
+
+	@Benchmark
+	public List<String> commonWord() throws SQLException{
+		return search("which");
+	}
+
+	@Benchmark
+	public List<String> twoWords() throws SQLException{
+		return search("water fir");
+	}
+
+	@Benchmark
+	public List<String> author() throws SQLException{
+		return search("user123");
+	}
+
+	@Benchmark
+	public List<String> noMatch() throws SQLException{
+		return search("xylophone");
+	}
+
+	private List<String> search(String text) throws SQLException{
+		query.setString(1, StatusSearchIndex.buildMatchExpression(text));
+		ArrayList<String> result=new ArrayList<>();
+		try(ResultSet rs=query.executeQuery()){
+			while(rs.next())
+				result.add(rs.getString(1));
+		}
+		return result;
+	}
+}
@@ -0,0 +1,30 @@
+package app.kabinka.social.benchmarks;
+
+import app.kabinka.social.ui.utils.BlurHashDecoder;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Decoding blurhash placeholders into pixels. Attachments and cards decode theirs at 16x16 when they're parsed.
+ */
+@State(Scope.Benchmark)
+public class BlurHashBenchmark{
+	@Param({"LEHV6nWB2yk8pyo0adR*.7kCMdnj", "LKO2?U%2Tw=w]~RBVZRi};RPxuwH"})
+	public String blurhash;
+
+	@Param({"16", "32"})
+	public int size;
+
+	@Benchmark
+	public int[] decodeCached(){
+		return BlurHashDecoder.decodeToPixels(blurhash, size, size, 1f, true);
+	}
+
+	@Benchmark
+	public int[] decodeUncached(){
+		return BlurHashDecoder.decodeToPixels(blurhash, size, size, 1f, false);
+	}
+}
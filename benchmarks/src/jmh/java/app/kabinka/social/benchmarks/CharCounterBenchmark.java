@@ -0,0 +1,43 @@
+package app.kabinka.social.benchmarks;
+
+import app.kabinka.social.ui.text.CharCounter;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * The regular expressions that run on every keystroke in the composer to count characters: twitter-text's URL and emoji
+ * patterns and the remote mention pattern. Counting graphemes afterwards is left out because the app uses ICU's
+ * BreakIterator from the Android framework for it.
+ */
+@State(Scope.Benchmark)
+public class CharCounterBenchmark{
+	@Param({"plain", "links", "mentions", "emoji"})
+	public String kind;
+
+	private String text;
+
+	@Setup
+	public void setUp(){
+		String base=switch(kind){
+			case "plain" -> "Just had the best coffee of my life at a tiny place near the station, would recommend to anyone passing by. ";
+			case "links" -> "Release notes are at https://github.com/mastodon/mastodon/releases/tag/v4.3.0 and the blog post is https://blog.joinmastodon.org/2024/10/mastodon-4.3/ ";
+			case "mentions" -> "@Gargron@mastodon.social @someone@fosstodon.org thanks for the reply, cc @another_user@hachyderm.io ";
+			case "emoji" -> "Good morning ☀️☕ feeling 👍🏽 today 🎉🎉 👨‍👩‍👧‍👦 🏳️‍🌈 ";
+			default -> throw new IllegalArgumentException(kind);
+		};
+		// About as long as a post that's close to the default 500 character limit
+		StringBuilder sb=new StringBuilder();
+		while(sb.length()<450)
+			sb.append(base);
+		text=sb.toString();
+	}
+
+	@Benchmark
+	public String getCountableText(){
+		return CharCounter.getCountableText(text);
+	}
+}
@@ -0,0 +1,69 @@
+package app.kabinka.social.benchmarks;
+
+import com.google.gson.Gson;
+import com.google.gson.reflect.TypeToken;
+
+import app.kabinka.social.api.ObjectValidationException;
+import app.kabinka.social.api.gson.MastodonGson;
+import app.kabinka.social.model.BaseModel;
+import app.kabinka.social.model.InstanceV2;
+import app.kabinka.social.model.Notification;
+import app.kabinka.social.model.Status;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/**
+ * API responses as Mastodon 4.3 returns them, with made-up accounts and posts, used as input for the benchmarks.
+ * They're loaded from {@code src/jmh/resources/fixtures}.
+ */
+public class Fixtures{
+	public static final String HOME_TIMELINE="home_timeline.json";
+	public static final String NOTIFICATIONS="notifications.json";
+	public static final String INSTANCE="instance_v2.json";
+
+	public static final TypeToken<List<Status>> STATUS_LIST_TYPE=new TypeToken<>(){};
+	public static final TypeToken<List<Notification>> NOTIFICATION_LIST_TYPE=new TypeToken<>(){};
+
+	private Fixtures(){}
+
+	public static String load(String name){
+		try(InputStream in=Fixtures.class.getResourceAsStream("/fixtures/"+name)){
+			if(in==null)
+				throw new IllegalArgumentException("No fixture named "+name);
+			return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+		}catch(IOException x){
+			throw new UncheckedIOException(x);
+		}
+	}
+
+	public static List<Status> loadHomeTimeline(){
+		return postprocess(MastodonGson.create().fromJson(load(HOME_TIMELINE), STATUS_LIST_TYPE.getType()));
+	}
+
+	public static List<Notification> loadNotifications(){
+		return postprocess(MastodonGson.create().fromJson(load(NOTIFICATIONS), NOTIFICATION_LIST_TYPE.getType()));
+	}
+
+	public static InstanceV2 loadInstance(){
+		Gson gson=MastodonGson.create();
+		InstanceV2 instance=gson.fromJson(load(INSTANCE), InstanceV2.class);
+		return postprocess(List.of(instance)).get(0);
+	}
+
+	/**
+	 * Same as what MastodonAPIRequest does with responses
+	 */
+	public static <T extends BaseModel> List<T> postprocess(List<T> objects){
+		try{
+			for(T obj:objects)
+				obj.postprocess();
+		}catch(ObjectValidationException x){
+			throw new IllegalStateException("Fixture failed validation", x);
+		}
+		return objects;
+	}
+}
@@ -0,0 +1,57 @@
+package app.kabinka.social.benchmarks;
+
+import com.google.gson.Gson;
+
+import app.kabinka.social.api.gson.MastodonGson;
+import app.kabinka.social.model.LegacyFilter;
+import app.kabinka.social.model.Status;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Matching a page of posts against a set of keyword filters from servers that don't support filters v2.
+ * The plain text of each post is cached after it's first needed, like it is in the app.
+ */
+@State(Scope.Benchmark)
+public class LegacyFilterBenchmark{
+	private static final String[] PHRASES={"spoilers", "election", "crypto", "nft", "the game", "ai art", "sports", "diet", "water", "politics"};
+
+	@Param({"false", "true"})
+	public boolean wholeWord;
+
+	private List<LegacyFilter> filters;
+	private List<Status> homeTimeline;
+
+	@Setup
+	public void setUp(){
+		Gson gson=MastodonGson.create();
+		filters=new ArrayList<>();
+		for(int i=0;i<PHRASES.length;i++){
+			String json="{\"id\":\""+i+"\",\"phrase\":\""+PHRASES[i]+"\",\"context\":[\"home\",\"public\"],\"whole_word\":"+wholeWord+",\"irreversible\":false}";
+			filters.add(gson.fromJson(json, LegacyFilter.class));
+		}
+		Fixtures.postprocess(filters);
+		homeTimeline=Fixtures.loadHomeTimeline();
+	}
+
+	@Benchmark
+	public int matchHomeTimeline(){
+		int matched=0;
+		for(Status s:homeTimeline){
+			for(LegacyFilter f:filters){
+				if(f.matches(s)){
+					matched++;
+					break;
+				}
+			}
+		}
+		return matched;
+	}
+}
@@ -0,0 +1,48 @@
+package app.kabinka.social.benchmarks;
+
+import com.google.gson.Gson;
+
+import app.kabinka.social.api.gson.MastodonGson;
+import app.kabinka.social.model.InstanceV2;
+import app.kabinka.social.model.Notification;
+import app.kabinka.social.model.Status;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.List;
+
+/**
+ * Parsing whole API responses into models with the same Gson setup as MastodonAPIController,
+ * without {@link app.kabinka.social.model.BaseModel#postprocess()}, which is measured by {@link PostprocessBenchmark}.
+ */
+@State(Scope.Benchmark)
+public class ModelParsingBenchmark{
+	private Gson gson;
+	private String homeTimelineJson, notificationsJson, instanceJson;
+
+	@Setup
+	public void setUp(){
+		gson=MastodonGson.create();
+		homeTimelineJson=Fixtures.load(Fixtures.HOME_TIMELINE);
+		notificationsJson=Fixtures.load(Fixtures.NOTIFICATIONS);
+		instanceJson=Fixtures.load(Fixtures.INSTANCE);
+	}
+
+	@Benchmark
+	public List<Status> homeTimeline(){
+		return gson.fromJson(homeTimelineJson, Fixtures.STATUS_LIST_TYPE.getType());
+	}
+
+	@Benchmark
+	public List<Notification> notifications(){
+		return gson.fromJson(notificationsJson, Fixtures.NOTIFICATION_LIST_TYPE.getType());
+	}
+
+	@Benchmark
+	public InstanceV2 instance(){
+		return gson.fromJson(instanceJson, InstanceV2.class);
+	}
+}
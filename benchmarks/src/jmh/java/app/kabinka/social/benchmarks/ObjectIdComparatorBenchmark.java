@@ -0,0 +1,45 @@
+package app.kabinka.social.benchmarks;
+
+import app.kabinka.social.utils.ObjectIdComparator;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Sorting IDs the way timelines and the cache do when merging pages. Mastodon IDs are snowflakes of 18 digits,
+ * with some older ones that are shorter, so lengths differ now and then.
+ */
+@State(Scope.Benchmark)
+public class ObjectIdComparatorBenchmark{
+	@Param({"40", "1000"})
+	public int count;
+
+	private List<String> ids;
+
+	@Setup
+	public void setUp(){
+		Random rand=new Random(42);
+		ids=new ArrayList<>(count);
+		for(int i=0;i<count;i++){
+			if(rand.nextInt(10)==0)
+				ids.add(String.valueOf(rand.nextInt(10_000_000)));
+			else
+				ids.add(String.valueOf(109_000_000_000_000_000L+(rand.nextLong() & 0xFFFFFFFFFFFFL)));
+		}
+	}
+
+	@Benchmark
+	public List<String> sortDescending(){
+		ArrayList<String> sorted=new ArrayList<>(ids);
+		sorted.sort(Collections.reverseOrder(ObjectIdComparator.INSTANCE));
+		return sorted;
+	}
+}
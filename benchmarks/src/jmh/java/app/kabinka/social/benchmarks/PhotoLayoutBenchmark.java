@@ -0,0 +1,45 @@
+package app.kabinka.social.benchmarks;
+
+import app.kabinka.social.model.Attachment;
+import app.kabinka.social.ui.PhotoLayoutHelper;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Laying out the media grid of a post, which happens for every post with attachments that's bound.
+ * The sizes cycle through common photo and video aspect ratios.
+ */
+@State(Scope.Benchmark)
+public class PhotoLayoutBenchmark{
+	private static final int[][] SIZES={{1920, 1080}, {1080, 1350}, {1200, 1200}, {800, 1600}, {3000, 2000}, {1080, 1920}};
+
+	@Param({"1", "2", "3", "4", "6"})
+	public int count;
+
+	private List<Attachment> attachments;
+
+	@Setup
+	public void setUp(){
+		attachments=new ArrayList<>(count);
+		for(int i=0;i<count;i++){
+			Attachment att=new Attachment();
+			att.type=Attachment.Type.IMAGE;
+			att.meta=new Attachment.Metadata();
+			att.meta.width=SIZES[i%SIZES.length][0];
+			att.meta.height=SIZES[i%SIZES.length][1];
+			attachments.add(att);
+		}
+	}
+
+	@Benchmark
+	public PhotoLayoutHelper.TiledLayoutResult processThumbs(){
+		return PhotoLayoutHelper.processThumbs(attachments);
+	}
+}
@@ -0,0 +1,46 @@
+package app.kabinka.social.benchmarks;
+
+import app.kabinka.social.model.InstanceV2;
+import app.kabinka.social.model.Notification;
+import app.kabinka.social.model.Status;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.List;
+
+/**
+ * {@link app.kabinka.social.model.BaseModel#postprocess()} over whole parsed responses: required field validation by reflection,
+ * plus whatever the models do on top of it, like decoding blurhash placeholders for attachments.
+ * Postprocessing is idempotent, so the same objects are processed again on every invocation.
+ */
+@State(Scope.Benchmark)
+public class PostprocessBenchmark{
+	private List<Status> homeTimeline;
+	private List<Notification> notifications;
+	private List<InstanceV2> instance;
+
+	@Setup
+	public void setUp(){
+		homeTimeline=Fixtures.loadHomeTimeline();
+		notifications=Fixtures.loadNotifications();
+		instance=List.of(Fixtures.loadInstance());
+	}
+
+	@Benchmark
+	public List<Status> homeTimeline(){
+		return Fixtures.postprocess(homeTimeline);
+	}
+
+	@Benchmark
+	public List<Notification> notifications(){
+		return Fixtures.postprocess(notifications);
+	}
+
+	@Benchmark
+	public List<InstanceV2> instance(){
+		return Fixtures.postprocess(instance);
+	}
+}
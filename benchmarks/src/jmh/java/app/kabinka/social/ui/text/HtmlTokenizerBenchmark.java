@@ -0,0 +1,72 @@
+package app.kabinka.social.ui.text;
+
+import app.kabinka.social.benchmarks.Fixtures;
+import app.kabinka.social.model.Status;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reporting the HTML of every post in the home timeline fixture to a handler, with {@link MastodonHtmlTokenizer} and with
+ * the Jsoup parse and traversal it replaced. The handler does nothing, so this is the cost of HtmlParser.parse without the spans.
+ * It's in this package because both tokenizers are package-private.
+ */
+@State(Scope.Benchmark)
+public class HtmlTokenizerBenchmark{
+	private List<String> contents;
+
+	@Setup
+	public void setUp(){
+		contents=new ArrayList<>();
+		for(Status status:Fixtures.loadHomeTimeline()){
+			Status s=status.getContentStatus();
+			if(s.content!=null)
+				contents.add(s.content);
+		}
+	}
+
+	@Benchmark
+	public void tokenizer(Blackhole bh){
+		BlackholeHandler handler=new BlackholeHandler(bh);
+		for(String content:contents){
+			if(!MastodonHtmlTokenizer.tokenize(content, false, handler))
+				throw new IllegalStateException("Unsupported markup in the fixture: "+content);
+		}
+	}
+
+	@Benchmark
+	public void jsoup(Blackhole bh){
+		BlackholeHandler handler=new BlackholeHandler(bh);
+		for(String content:contents)
+			JsoupHtmlTokenizer.tokenize(content, false, handler);
+	}
+
+	private static class BlackholeHandler implements MastodonHtmlTokenizer.Handler{
+		private final Blackhole bh;
+
+		private BlackholeHandler(Blackhole bh){
+			this.bh=bh;
+		}
+
+		@Override
+		public void onText(CharSequence wholeText){
+			bh.consume(wholeText.length());
+		}
+
+		@Override
+		public void onElementStart(MastodonHtmlTokenizer.Tag tag){
+			bh.consume(tag);
+		}
+
+		@Override
+		public void onElementEnd(MastodonHtmlTokenizer.Tag tag){
+			bh.consume(tag);
+		}
+	}
+}
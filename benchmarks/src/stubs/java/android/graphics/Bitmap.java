@@ -0,0 +1,35 @@
+package android.graphics;
+
+/**
+ * JVM stand-in for the framework class, with only what the benchmarked code uses. Keeps the pixels it was created from.
+ */
+public final class Bitmap{
+	private final int[] pixels;
+	private final int width, height;
+
+	private Bitmap(int[] pixels, int width, int height){
+		this.pixels=pixels;
+		this.width=width;
+		this.height=height;
+	}
+
+	public static Bitmap createBitmap(int[] colors, int width, int height, Config config){
+		return new Bitmap(colors, width, height);
+	}
+
+	public int getWidth(){
+		return width;
+	}
+
+	public int getHeight(){
+		return height;
+	}
+
+	public int getPixel(int x, int y){
+		return pixels[x+width*y];
+	}
+
+	public enum Config{
+		ARGB_8888
+	}
+}
@@ -0,0 +1,9 @@
+package android.graphics;
+
+/**
+ * JVM stand-in for the framework class, for the focal point in attachment metadata.
+ */
+public class PointF{
+	public float x;
+	public float y;
+}
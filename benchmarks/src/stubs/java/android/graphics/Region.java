@@ -0,0 +1,7 @@
+package android.graphics;
+
+/**
+ * JVM stand-in for the framework class. Only imported, never used, by the benchmarked code.
+ */
+public class Region{
+}
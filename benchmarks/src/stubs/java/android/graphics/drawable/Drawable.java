@@ -0,0 +1,7 @@
+package android.graphics.drawable;
+
+/**
+ * JVM stand-in for the framework class, for the blurhash placeholders of attachments and cards.
+ */
+public abstract class Drawable{
+}
@@ -0,0 +1,21 @@
+package android.util;
+
+/**
+ * JVM stand-in for the framework class, with only what the benchmarked code uses. Prints to stderr.
+ */
+public class Log{
+	public static int w(String tag, String msg){
+		System.err.println(tag+": "+msg);
+		return 0;
+	}
+
+	public static int w(String tag, Throwable tr){
+		System.err.println(tag+": "+tr);
+		return 0;
+	}
+
+	public static int w(String tag, String msg, Throwable tr){
+		System.err.println(tag+": "+msg+" "+tr);
+		return 0;
+	}
+}
@@ -0,0 +1,28 @@
+package android.util;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * JVM stand-in for the framework class, with only what the benchmarked code uses. Every entry has a size of 1.
+ */
+public class LruCache<K, V>{
+	private final LinkedHashMap<K, V> map;
+
+	public LruCache(int maxSize){
+		map=new LinkedHashMap<>(0, 0.75f, true){
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<K, V> eldest){
+				return size()>maxSize;
+			}
+		};
+	}
+
+	public final synchronized V get(K key){
+		return map.get(key);
+	}
+
+	public final synchronized V put(K key, V value){
+		return map.put(key, value);
+	}
+}
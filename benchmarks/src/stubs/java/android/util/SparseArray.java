@@ -0,0 +1,22 @@
+package android.util;
+
+import java.util.HashMap;
+
+/**
+ * JVM stand-in for the framework class, with only what the benchmarked code uses.
+ */
+public class SparseArray<E>{
+	private final HashMap<Integer, E> map=new HashMap<>();
+
+	public E get(int key){
+		return map.get(key);
+	}
+
+	public void put(int key, E value){
+		map.put(key, value);
+	}
+
+	public void clear(){
+		map.clear();
+	}
+}
@@ -0,0 +1,14 @@
+package app.kabinka.social;
+
+/**
+ * JVM stand-in for the generated resource IDs that the benchmarked code references. The values are meaningless.
+ */
+public final class R{
+	public static final class string{
+		public static final int filter_context_home_lists=1;
+		public static final int filter_context_notifications=2;
+		public static final int filter_context_public_timelines=3;
+		public static final int filter_context_threads_replies=4;
+		public static final int filter_context_profiles=5;
+	}
+}
@@ -0,0 +1,7 @@
+package app.kabinka.social.ui.text;
+
+/**
+ * JVM stand-in for the real class. Only used as a field type by the benchmarked code.
+ */
+public class CustomEmojiSpan{
+}
@@ -0,0 +1,14 @@
+package app.kabinka.social.ui.text;
+
+import org.jsoup.Jsoup;
+import org.jsoup.safety.Safelist;
+
+/**
+ * JVM stand-in for the real class, which depends on Android for everything else. {@link #strip(String)} is the same as
+ * in the app because it's part of filtering posts.
+ */
+public class HtmlParser{
+	public static String strip(String html){
+		return Jsoup.clean(html, Safelist.none());
+	}
+}
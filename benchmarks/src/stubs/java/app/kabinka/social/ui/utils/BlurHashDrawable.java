@@ -0,0 +1,12 @@
+package app.kabinka.social.ui.utils;
+
+import android.graphics.Bitmap;
+import android.graphics.drawable.Drawable;
+
+/**
+ * JVM stand-in for the real class. Parsing attachments still decodes their blurhash before creating one of these.
+ */
+public class BlurHashDrawable extends Drawable{
+	public BlurHashDrawable(Bitmap bitmap, int width, int height){
+	}
+}
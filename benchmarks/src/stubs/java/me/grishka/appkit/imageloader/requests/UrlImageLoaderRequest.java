@@ -0,0 +1,12 @@
+package me.grishka.appkit.imageloader.requests;
+
+/**
+ * JVM stand-in for the appkit class, with only what the benchmarked code uses.
+ */
+public class UrlImageLoaderRequest{
+	public final String url;
+
+	public UrlImageLoaderRequest(String url, int desiredMaxWidth, int desiredMaxHeight){
+		this.url=url;
+	}
+}
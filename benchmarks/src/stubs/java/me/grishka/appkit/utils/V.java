@@ -0,0 +1,10 @@
+package me.grishka.appkit.utils;
+
+/**
+ * JVM stand-in for the appkit class, with only what the benchmarked code uses. Assumes a density of 1.
+ */
+public class V{
+	public static int dp(float dp){
+		return Math.round(dp);
+	}
+}
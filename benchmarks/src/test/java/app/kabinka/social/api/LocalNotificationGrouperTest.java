@@ -0,0 +1,171 @@
+package app.kabinka.social.api;
+
+import app.kabinka.social.model.Account;
+import app.kabinka.social.model.Notification;
+import app.kabinka.social.model.NotificationGroup;
+import app.kabinka.social.model.NotificationType;
+import app.kabinka.social.model.Status;
+import app.kabinka.social.model.viewmodel.NotificationViewModel;
+
+import org.junit.Test;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * The groups made for servers without grouped notifications have to look like what the v2 API returns,
+ * and their page bounds decide where the next page starts, both from the network and from the cache.
+ */
+public class LocalNotificationGrouperTest{
+	private static final Instant NOW=Instant.parse("2024-05-15T13:00:00Z");
+
+	private long nextID=1000;
+
+	@Test
+	public void groupsFavoritesAndBoostsOfTheSamePost(){
+		List<Notification> page=List.of(
+				notification(NotificationType.FAVORITE, "a1", "p1", 0),
+				notification(NotificationType.REBLOG, "a2", "p1", 1),
+				notification(NotificationType.FAVORITE, "a3", "p2", 2),
+				notification(NotificationType.FAVORITE, "a4", "p1", 3),
+				notification(NotificationType.REBLOG, "a5", "p1", 4)
+		);
+		List<NotificationViewModel> groups=LocalNotificationGrouper.group(page, last(page));
+
+		assertEquals(List.of("grouped-FAVORITE-p1-"+page.get(0).id, "grouped-REBLOG-p1-"+page.get(1).id, "grouped-FAVORITE-p2-"+page.get(2).id), groupKeys(groups));
+		assertEquals(List.of(2, 2, 1), groups.stream().map(g->g.notification.notificationsCount).collect(Collectors.toList()));
+		assertEquals(List.of("a1", "a4"), groups.get(0).notification.sampleAccountIds);
+		assertEquals(List.of("a1", "a4"), groups.get(0).accounts.stream().map(a->a.id).collect(Collectors.toList()));
+		assertEquals("p1", groups.get(0).notification.statusId);
+		assertSame(page.get(0).status, groups.get(0).status);
+	}
+
+	@Test
+	public void groupsFollowsRegardlessOfPost(){
+		List<Notification> page=List.of(
+				notification(NotificationType.FOLLOW, "a1", null, 0),
+				notification(NotificationType.FAVORITE, "a2", "p1", 1),
+				notification(NotificationType.FOLLOW, "a3", null, 2)
+		);
+		List<NotificationViewModel> groups=LocalNotificationGrouper.group(page, last(page));
+
+		assertEquals(List.of("grouped-FOLLOW-"+page.get(0).id, "grouped-FAVORITE-p1-"+page.get(1).id), groupKeys(groups));
+		assertEquals(List.of("a1", "a3"), groups.get(0).notification.sampleAccountIds);
+	}
+
+	@Test
+	public void leavesOtherTypesUngrouped(){
+		List<Notification> page=List.of(
+				notification(NotificationType.MENTION, "a1", "p1", 0),
+				notification(NotificationType.MENTION, "a1", "p1", 1),
+				notification(NotificationType.POLL, "a2", "p2", 2),
+				notification(NotificationType.FAVORITE, "a3", null, 3)
+		);
+		List<NotificationViewModel> groups=LocalNotificationGrouper.group(page, last(page));
+
+		assertEquals(page.stream().map(n->"converted-"+n.id).collect(Collectors.toList()), groupKeys(groups));
+		for(NotificationViewModel g:groups)
+			assertEquals(1, g.notification.notificationsCount);
+	}
+
+	@Test
+	public void keepsServerOrderNewestFirst(){
+		List<Notification> page=List.of(
+				notification(NotificationType.FAVORITE, "a1", "p1", 0),
+				notification(NotificationType.MENTION, "a2", "p2", 1),
+				notification(NotificationType.FAVORITE, "a3", "p1", 2),
+				notification(NotificationType.REBLOG, "a4", "p3", 3)
+		);
+		List<NotificationViewModel> groups=LocalNotificationGrouper.group(page, last(page));
+
+		// A group is where its most recent notification was
+		assertEquals(List.of(page.get(0).id, page.get(1).id, page.get(3).id), groups.stream().map(g->g.notification.mostRecentNotificationId).collect(Collectors.toList()));
+		assertEquals(page.get(0).createdAt, groups.get(0).notification.latestPageNotificationAt);
+	}
+
+	@Test
+	public void startsNewGroupOutsideTheWindow(){
+		List<Notification> page=List.of(
+				notification(NotificationType.FAVORITE, "a1", "p1", 0),
+				notification(NotificationType.FAVORITE, "a2", "p1", 60*23),
+				notification(NotificationType.FAVORITE, "a3", "p1", 60*25)
+		);
+		List<NotificationViewModel> groups=LocalNotificationGrouper.group(page, last(page));
+
+		assertEquals(List.of(2, 1), groups.stream().map(g->g.notification.notificationsCount).collect(Collectors.toList()));
+		assertEquals(page.get(2).id, groups.get(1).notification.mostRecentNotificationId);
+	}
+
+	@Test
+	public void limitsSampleAccounts(){
+		ArrayList<Notification> page=new ArrayList<>();
+		for(int i=0;i<12;i++)
+			page.add(notification(NotificationType.FAVORITE, "a"+i, "p1", i));
+		// Repeated accounts are counted, but only listed once
+		page.add(notification(NotificationType.FAVORITE, "a0", "p1", 12));
+		List<NotificationViewModel> groups=LocalNotificationGrouper.group(page, last(page));
+
+		assertEquals(1, groups.size());
+		assertEquals(13, groups.get(0).notification.notificationsCount);
+		assertEquals(8, groups.get(0).notification.sampleAccountIds.size());
+		assertEquals(8, groups.get(0).accounts.size());
+	}
+
+	@Test
+	public void pageBoundsComeFromTheUnfilteredPage(){
+		List<Notification> page=List.of(
+				notification(NotificationType.FAVORITE, "a1", "p1", 0),
+				notification(NotificationType.MENTION, "a2", "p2", 1),
+				notification(NotificationType.FAVORITE, "a3", "p1", 2)
+		);
+		// As if the oldest notification of the page the server returned had been removed by a filter
+		String pageMinID=String.valueOf(nextID++);
+		List<NotificationViewModel> groups=LocalNotificationGrouper.group(page, pageMinID);
+
+		for(NotificationViewModel g:groups){
+			NotificationGroup group=g.notification;
+			assertEquals(pageMinID, group.pageMinId);
+			assertEquals(group.mostRecentNotificationId, group.pageMaxId);
+		}
+		assertEquals(page.get(0).id, groups.get(0).notification.pageMaxId);
+		assertEquals(page.get(1).id, groups.get(1).notification.pageMaxId);
+	}
+
+	@Test
+	public void emptyPageMakesNoGroups(){
+		assertTrue(LocalNotificationGrouper.group(List.of(), "1").isEmpty());
+	}
+
+	/**
+	 * @param minutesAgo how long before {@link #NOW} the notification was created. Later notifications in a page have to be older.
+	 */
+	private Notification notification(NotificationType type, String accountID, String statusID, int minutesAgo){
+		Notification n=new Notification();
+		// IDs go down like in a page from the server
+		n.id=String.valueOf(100_000-(nextID++));
+		n.type=type;
+		n.createdAt=NOW.minus(Duration.ofMinutes(minutesAgo));
+		n.account=new Account();
+		n.account.id=accountID;
+		if(statusID!=null){
+			n.status=new Status();
+			n.status.id=statusID;
+		}
+		return n;
+	}
+
+	private static String last(List<Notification> page){
+		return page.get(page.size()-1).id;
+	}
+
+	private static List<String> groupKeys(List<NotificationViewModel> groups){
+		return groups.stream().map(g->g.notification.groupKey).collect(Collectors.toList());
+	}
+}
@@ -0,0 +1,213 @@
+package app.kabinka.social.api.gson;
+
+import com.google.gson.Gson;
+import com.google.gson.reflect.TypeToken;
+
+import app.kabinka.social.api.ObjectValidationException;
+import app.kabinka.social.model.BaseModel;
+import app.kabinka.social.model.Notification;
+import app.kabinka.social.model.Status;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Array;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Heap budget for parsed posts, so that changes to the models or to {@link MastodonGson} that make them bigger, or that stop
+ * interning strings or sharing emoji, fail here instead of going unnoticed.
+ * <p>
+ * Sizes are computed by walking the object graph and adding up the shallow sizes of all distinct objects in it, as laid out
+ * by a 64-bit HotSpot JVM with compressed references. That isn't exactly what ART does, but it's deterministic and changes
+ * the same way, which is what matters for a regression test.
+ */
+public class ModelHeapSizeTest{
+	private static final TypeToken<List<Status>> STATUS_LIST_TYPE=new TypeToken<>(){};
+	private static final TypeToken<List<Notification>> NOTIFICATION_LIST_TYPE=new TypeToken<>(){};
+	// One instance for everything, as in MastodonAPIController, so that the emoji caches are shared too
+	private static final Gson GSON=MastodonGson.create();
+
+	/**
+	 * Retained size of a post in the home timeline fixture
+	 */
+	private static final long HOME_TIMELINE_BYTES_PER_STATUS=5000;
+	/**
+	 * Retained size of a notification in the notifications fixture, including its post
+	 */
+	private static final long NOTIFICATIONS_BYTES_PER_NOTIFICATION=5400;
+	/**
+	 * What loading the home timeline fixture again costs per post while the first copy is still in memory,
+	 * as when the same posts are in several tabs. Everything interned or shared is only counted once.
+	 */
+	private static final long REPEATED_HOME_TIMELINE_BYTES_PER_STATUS=4000;
+
+	@Test
+	public void homeTimelineFitsBudget() throws Exception{
+		List<Status> statuses=parse("home_timeline.json", STATUS_LIST_TYPE);
+		long perStatus=new HeapSize().add(statuses)/statuses.size();
+		assertTrue("Home timeline takes "+perStatus+" bytes per post, budget is "+HOME_TIMELINE_BYTES_PER_STATUS, perStatus<=HOME_TIMELINE_BYTES_PER_STATUS);
+	}
+
+	@Test
+	public void notificationsFitBudget() throws Exception{
+		List<Notification> notifications=parse("notifications.json", NOTIFICATION_LIST_TYPE);
+		long perNotification=new HeapSize().add(notifications)/notifications.size();
+		assertTrue("Notifications take "+perNotification+" bytes each, budget is "+NOTIFICATIONS_BYTES_PER_NOTIFICATION, perNotification<=NOTIFICATIONS_BYTES_PER_NOTIFICATION);
+	}
+
+	@Test
+	public void repeatedPostsShareStringsAndEmoji() throws Exception{
+		List<Status> first=parse("home_timeline.json", STATUS_LIST_TYPE);
+		List<Status> second=parse("home_timeline.json", STATUS_LIST_TYPE);
+		for(int i=0;i<first.size();i++){
+			Status a=first.get(i), b=second.get(i);
+			assertSame(a.account.acct, b.account.acct);
+			assertSame(a.account.avatar, b.account.avatar);
+			for(int j=0;j<a.account.emojis.size();j++)
+				assertSame(a.account.emojis.get(j), b.account.emojis.get(j));
+			for(int j=0;j<a.emojis.size();j++)
+				assertSame(a.emojis.get(j), b.emojis.get(j));
+		}
+
+		HeapSize size=new HeapSize();
+		size.add(first);
+		long perStatus=size.add(second)/second.size();
+		assertTrue("Loading the home timeline again takes "+perStatus+" bytes per post, budget is "+REPEATED_HOME_TIMELINE_BYTES_PER_STATUS,
+				perStatus<=REPEATED_HOME_TIMELINE_BYTES_PER_STATUS);
+	}
+
+	/**
+	 * Same as what MastodonAPIRequest does with responses
+	 */
+	private static <T extends BaseModel> List<T> parse(String fixture, TypeToken<List<T>> type) throws IOException, ObjectValidationException{
+		String json;
+		try(InputStream in=ModelHeapSizeTest.class.getResourceAsStream("/fixtures/"+fixture)){
+			if(in==null)
+				throw new IllegalArgumentException("No fixture named "+fixture);
+			json=new String(in.readAllBytes(), StandardCharsets.UTF_8);
+		}
+		List<T> result=GSON.fromJson(json, type.getType());
+		for(T obj:result)
+			obj.postprocess();
+		return result;
+	}
+
+	/**
+	 * Adds up the sizes of objects reachable from the ones passed to {@link #add(Object)}, counting each object once across calls.
+	 * App classes are walked by reflection. The JDK doesn't allow that for its own classes, so the few the models use are sized by hand.
+	 */
+	private static class HeapSize{
+		private static final int HEADER=12, ARRAY_HEADER=16, REFERENCE=4;
+
+		private final IdentityHashMap<Object, Boolean> seen=new IdentityHashMap<>();
+		private final ArrayDeque<Object> queue=new ArrayDeque<>();
+
+		/**
+		 * @return the size of everything reachable from root that wasn't already counted
+		 */
+		public long add(Object root){
+			long total=0;
+			enqueue(root);
+			Object obj;
+			while((obj=queue.poll())!=null)
+				total+=sizeOf(obj);
+			return total;
+		}
+
+		private void enqueue(Object obj){
+			if(obj!=null && !(obj instanceof Enum<?>) && !(obj instanceof Class<?>) && seen.put(obj, Boolean.TRUE)==null)
+				queue.add(obj);
+		}
+
+		private long sizeOf(Object obj){
+			Class<?> cls=obj.getClass();
+			if(obj instanceof String s){
+				boolean latin1=s.chars().allMatch(c->c<256);
+				return align(HEADER+REFERENCE+4+1+1)+align(ARRAY_HEADER+(long) s.length()*(latin1 ? 1 : 2));
+			}
+			if(obj instanceof Instant)
+				return align(HEADER+8+4);
+			if(obj instanceof LocalDate)
+				return align(HEADER+4+2+2);
+			if(obj instanceof Boolean || obj instanceof Integer || obj instanceof Float)
+				return align(HEADER+4);
+			if(obj instanceof Long || obj instanceof Double)
+				return align(HEADER+8);
+			if(cls.isArray()){
+				int length=Array.getLength(obj);
+				Class<?> component=cls.getComponentType();
+				if(!component.isPrimitive()){
+					for(int i=0;i<length;i++)
+						enqueue(Array.get(obj, i));
+				}
+				return align(ARRAY_HEADER+(long) length*primitiveSize(component));
+			}
+			if(obj instanceof Collection<?> c && cls.getName().startsWith("java.")){
+				// ArrayList: header, size, modCount and a reference array
+				for(Object item:c)
+					enqueue(item);
+				return align(HEADER+4+4+REFERENCE)+align(ARRAY_HEADER+(long) c.size()*REFERENCE);
+			}
+			if(obj instanceof Map<?, ?> m && cls.getName().startsWith("java.")){
+				// HashMap: the map itself, its table and one node per entry
+				for(Map.Entry<?, ?> e:m.entrySet()){
+					enqueue(e.getKey());
+					enqueue(e.getValue());
+				}
+				int tableSize=Integer.highestOneBit(Math.max(1, m.size()*4/3)*2-1);
+				return align(HEADER+4*4+REFERENCE*3)+align(ARRAY_HEADER+(long) tableSize*REFERENCE)+(long) m.size()*align(HEADER+4+REFERENCE*3);
+			}
+			if(cls.getName().startsWith("java.") || cls.getName().startsWith("com.google.gson."))
+				throw new IllegalStateException("Don't know the size of "+cls.getName()+", add it to HeapSize");
+
+			long size=HEADER;
+			for(Class<?> c=cls;c!=Object.class;c=c.getSuperclass()){
+				for(Field field:c.getDeclaredFields()){
+					if(Modifier.isStatic(field.getModifiers()))
+						continue;
+					Class<?> type=field.getType();
+					size+=primitiveSize(type);
+					if(!type.isPrimitive()){
+						field.setAccessible(true);
+						try{
+							enqueue(field.get(obj));
+						}catch(IllegalAccessException x){
+							throw new IllegalStateException(x);
+						}
+					}
+				}
+			}
+			return align(size);
+		}
+
+		private static int primitiveSize(Class<?> type){
+			if(type==long.class || type==double.class)
+				return 8;
+			if(type==int.class || type==float.class)
+				return 4;
+			if(type==short.class || type==char.class)
+				return 2;
+			if(type==byte.class || type==boolean.class)
+				return 1;
+			return REFERENCE;
+		}
+
+		private static long align(long size){
+			return (size+7)/8*8;
+		}
+	}
+}
@@ -0,0 +1,209 @@
+package app.kabinka.social.ui.text;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Differential test of {@link MastodonHtmlTokenizer} against {@link JsoupHtmlTokenizer}, the Jsoup-based path it replaces.
+ * Whenever the tokenizer accepts a source, the text and elements it reports must be the same ones Jsoup reports for it,
+ * because HtmlParser builds the spans from them without knowing which one ran.
+ */
+public class MastodonHtmlTokenizerTest{
+	private static final String[] FIXTURES={"home_timeline.json", "notifications.json", "instance_v2.json"};
+
+	/**
+	 * Markup Mastodon produces, and the edge cases of it that the tokenizer has to get exactly right
+	 */
+	private static final String[] SUPPORTED={
+			"",
+			"plain text",
+			"<p>Hello world</p>",
+			"<p>First paragraph</p><p>Second<br>line<br />break</p>",
+			"<p><span class=\"h-card\" translate=\"no\"><a href=\"https://mastodon.social/@Gargron\" class=\"u-url mention\">@<span>Gargron</span></a></span> hi</p>",
+			"<p><a href=\"https://mastodon.social/tags/Mastodon\" class=\"mention hashtag\" rel=\"tag\">#<span>Mastodon</span></a> <a href=\"https://example.com/tags/caf%C3%A9\" class=\"mention hashtag\" rel=\"tag\">#<span>café</span></a></p>",
+			"<p><a href=\"https://example.com/tags/a\" class=\"hashtag\">  #<span> spaced\n out </span>&nbsp;tag </a></p>",
+			"<p><a href=\"https://joinmastodon.org/apps\" target=\"_blank\" rel=\"nofollow noopener noreferrer\" translate=\"no\"><span class=\"invisible\">https://</span><span class=\"ellipsis\">joinmastodon.org/apps/with/a/v</span><span class=\"invisible\">ery/long/path</span></a></p>",
+			"<p>Entities: &amp; &lt;b&gt; &quot;quoted&quot; &apos;single&apos; a&nbsp;b &#169; &#x1F600; &#X41; & lone ampersand &;</p>",
+			"<p>Line\u2028separator and paragraph\u2029separator</p>",
+			"<p>Tabs\tand\nnewlines  and   spaces</p>",
+			"<pre>\nfirst line is skipped\n  indented</pre>",
+			"<pre><code>int x=1;\n\nreturn x;</code></pre>",
+			"<blockquote><p>Quoted</p><p>twice</p></blockquote><p>reply</p>",
+			"<ul><li>one</li><li>two <b>bold</b></li><li><ul><li>nested</li></ul></li></ul>",
+			"<ol start=\"3\"><li>three</li><li>four</li></ol><ol><li>one</li></ol><ol start=\"x\"><li>zero</li></ol>",
+			"<ol start='5'><li>single quoted</li></ol><ol start=7><li>unquoted</li></ol>",
+			"<p><b>bold</b> <strong>strong</strong> <i>italic</i> <em>em</em> <s>struck</s> <del>deleted</del> <u>under</u> <code>code</code></p>",
+			"<p class=\"quote-inline\">RE: <a href=\"https://example.com/@a/1\">https://example.com/@a/1</a></p><p>after the quote</p>",
+			"<p>Before<span class=\"quote-inline\"><br>RE: <a href=\"https://example.com/@a/1\">link</a></span> after</p>",
+			"<p>Text<br class=\"quote-inline\">more</p>",
+			"<p class=\"QUOTE-INLINE other\">mixed case class</p>",
+			"<p><a href=\"https://example.com\" href=\"https://duplicate.example\" class=\"first\" class=\"second\">duplicate attributes</a></p>",
+			"<p><a href=\"https://example.com/?a=1&amp;b=2\">query &amp; string</a></p>",
+			"<p>unclosed paragraph",
+			"<p>unclosed <b>bold",
+			"<p>\u00a0</p><p>\u200b</p>",
+	};
+
+	/**
+	 * Markup the tokenizer must leave to Jsoup
+	 */
+	private static final String[] UNSUPPORTED={
+			"<p>first<p>second</p>",
+			"<p><ul><li>list in a paragraph</li></ul></p>",
+			"<b><i>misnested</b></i>",
+			"<p>stray end tag</b></p>",
+			"<a href=\"a\"><a href=\"b\">nested links</a></a>",
+			"<li>list item without a list</li>",
+			"<P>uppercase</P>",
+			"<p>unknown <img src=\"x.png\"> tag</p>",
+			"<p><!-- comment --></p>",
+			"<p>&copy; named reference</p>",
+			"<p>&amp missing semicolon</p>",
+			"<p>&#128; C1 control</p>",
+			"<p>carriage\rreturn</p>",
+			"<p class=\"unterminated>text</p>",
+			"<p/>",
+			"<p>unterminated tag<b",
+			"<p><a href=\"https://example.com/tags/a\" class=\"hashtag\">#<b>a</b></a></p>",
+	};
+
+	@Test
+	public void matchesJsoupOnSupportedMarkup(){
+		for(String source:SUPPORTED){
+			for(boolean removeQuoteInline:new boolean[]{false, true}){
+				assertTrue("Should be supported: "+source, tokenize(source, removeQuoteInline)!=null);
+				assertSameAsJsoup(source, removeQuoteInline);
+			}
+		}
+	}
+
+	@Test
+	public void rejectsUnsupportedMarkup(){
+		for(String source:UNSUPPORTED){
+			assertFalse("Should not be supported: "+source, MastodonHtmlTokenizer.tokenize(source, false, new Recorder()));
+		}
+	}
+
+	@Test
+	public void matchesJsoupOnFixtures() throws IOException{
+		int count=0;
+		for(String fixture:FIXTURES){
+			for(String source:loadHtmlFields(fixture)){
+				// Everything in the fixtures is real Mastodon output, which should never need the fallback
+				assertTrue("Should be supported: "+source, tokenize(source, false)!=null);
+				assertSameAsJsoup(source, false);
+				assertSameAsJsoup(source, true);
+				count++;
+			}
+		}
+		assertTrue("No HTML found in the fixtures", count>0);
+	}
+
+	private static void assertSameAsJsoup(String source, boolean removeQuoteInline){
+		List<String> events=tokenize(source, removeQuoteInline);
+		if(events==null)
+			return;
+		Recorder jsoup=new Recorder();
+		JsoupHtmlTokenizer.tokenize(source, removeQuoteInline, jsoup);
+		assertEquals("removeQuoteInline="+removeQuoteInline+", source: "+source, jsoup.getEvents(), events);
+	}
+
+	/**
+	 * @return the events, or null if the tokenizer didn't accept the source
+	 */
+	private static List<String> tokenize(String source, boolean removeQuoteInline){
+		Recorder recorder=new Recorder();
+		return MastodonHtmlTokenizer.tokenize(source, removeQuoteInline, recorder) ? recorder.getEvents() : null;
+	}
+
+	/**
+	 * Post contents, bios, profile fields and the like: all string values in the fixture that look like HTML
+	 */
+	private static List<String> loadHtmlFields(String fixture) throws IOException{
+		try(InputStream in=MastodonHtmlTokenizerTest.class.getResourceAsStream("/fixtures/"+fixture)){
+			if(in==null)
+				throw new IllegalArgumentException("No fixture named "+fixture);
+			ArrayList<String> result=new ArrayList<>();
+			collectHtml(JsonParser.parseString(new String(in.readAllBytes(), StandardCharsets.UTF_8)), result);
+			return result;
+		}
+	}
+
+	private static void collectHtml(JsonElement el, List<String> out){
+		if(el.isJsonArray()){
+			for(JsonElement child:el.getAsJsonArray())
+				collectHtml(child, out);
+		}else if(el.isJsonObject()){
+			JsonObject obj=el.getAsJsonObject();
+			for(Map.Entry<String, JsonElement> e:obj.entrySet())
+				collectHtml(e.getValue(), out);
+		}else if(el.isJsonPrimitive() && el.getAsJsonPrimitive().isString()){
+			String s=el.getAsString();
+			if(s.startsWith("<") && s.endsWith(">"))
+				out.add(s);
+		}
+	}
+
+	/**
+	 * Writes down what the handler receives, with the tag fields HtmlParser reads. Jsoup can split text into several nodes,
+	 * so consecutive text is merged.
+	 */
+	private static class Recorder implements MastodonHtmlTokenizer.Handler{
+		private final ArrayList<String> events=new ArrayList<>();
+		private final StringBuilder text=new StringBuilder();
+
+		@Override
+		public void onText(CharSequence wholeText){
+			text.append(wholeText);
+		}
+
+		@Override
+		public void onElementStart(MastodonHtmlTokenizer.Tag tag){
+			flushText();
+			StringBuilder sb=new StringBuilder("<").append(tag.name);
+			if(tag.block)
+				sb.append(" block");
+			if(tag.className!=null && !tag.className.isEmpty())
+				sb.append(" class=").append(tag.className);
+			if(!tag.href.isEmpty())
+				sb.append(" href=").append(tag.href);
+			if(tag.text!=null)
+				sb.append(" text=").append(tag.text);
+			if("li".equals(tag.name))
+				sb.append(" parent=").append(tag.parentName).append(" start=").append(tag.listStart).append(" index=").append(tag.index);
+			events.add(sb.append('>').toString());
+		}
+
+		@Override
+		public void onElementEnd(MastodonHtmlTokenizer.Tag tag){
+			flushText();
+			events.add("</"+tag.name+">");
+		}
+
+		public List<String> getEvents(){
+			flushText();
+			return events;
+		}
+
+		private void flushText(){
+			if(text.length()>0){
+				events.add(text.toString());
+				text.setLength(0);
+			}
+		}
+	}
+}
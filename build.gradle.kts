@@ -6,4 +6,5 @@ plugins {
     id("org.jetbrains.kotlin.plugin.serialization") version "2.1.0" apply false
     id("com.google.devtools.ksp") version "2.1.0-1.0.28" apply false
     id("com.google.dagger.hilt.android") version "2.51.1" apply false
+    id("me.champeau.jmh") version "0.7.2" apply false
 }
@@ -20,12 +20,12 @@ import androidx.compose.ui.text.font.FontWeight
 import androidx.compose.ui.text.style.TextDecoration
 import androidx.compose.ui.text.style.TextOverflow
 import androidx.compose.ui.unit.dp
+import app.kabinka.frontend.timeline.StatusCountersState
 import app.kabinka.social.model.Account
 import app.kabinka.social.model.Status
 import app.kabinka.social.ui.text.HtmlParser
 import app.kabinka.social.ui.text.LinkSpan
 import app.kabinka.social.api.session.AccountSessionManager
-import app.kabinka.social.api.StatusInteractionController
 import coil.compose.AsyncImage
 import compose.icons.LineAwesomeIcons
 import compose.icons.lineawesomeicons.EllipsisVSolid
@@ -82,6 +82,7 @@ fun StatusCardComplete(
     onHashtagClick: (String) -> Unit = {},
     onMentionClick: (String) -> Unit = {},
     isProfileView: Boolean = false,
+    counters: StatusCountersState? = null,
     modifier: Modifier = Modifier
 ) {
     val context = LocalContext.current
@@ -90,25 +91,19 @@ fun StatusCardComplete(
     val displayedStatus = status.reblog ?: status
     val boostAccount = if (isBoost) status.account else null
     
-    // Local state for immediate UI updates
-    var isFavorited by remember(displayedStatus.id) { mutableStateOf(displayedStatus.favourited) }
-    var isReblogged by remember(displayedStatus.id) { mutableStateOf(displayedStatus.reblogged) }
-    var isBookmarked by remember(displayedStatus.id) { mutableStateOf(displayedStatus.bookmarked) }
-    var favoritesCount by remember(displayedStatus.id) { mutableStateOf(displayedStatus.favouritesCount.toInt()) }
-    var reblogsCount by remember(displayedStatus.id) { mutableStateOf(displayedStatus.reblogsCount.toInt()) }
+    // Lists that keep counters per item pass them in, otherwise the card keeps its own for immediate UI updates
+    val localCounters = remember(displayedStatus.id) { StatusCountersState(displayedStatus) }
+    val state = counters ?: localCounters
     
     // Sync with status object when it changes
     LaunchedEffect(displayedStatus.favourited, displayedStatus.reblogged, displayedStatus.bookmarked) {
-        isFavorited = displayedStatus.favourited
-        isReblogged = displayedStatus.reblogged
-        isBookmarked = displayedStatus.bookmarked
-        favoritesCount = displayedStatus.favouritesCount.toInt()
-        reblogsCount = displayedStatus.reblogsCount.toInt()
+        if (counters == null)
+            localCounters.readFrom(displayedStatus)
     }
     
     val accountId = AccountSessionManager.getInstance().lastActiveAccountID
     val controller = remember(accountId) { 
-        if (accountId != null) StatusInteractionController(accountId) else null 
+        accountId?.let { AccountSessionManager.getInstance().tryGetAccount(it)?.statusInteractionController }
     }
     
     Card(
@@ -201,28 +196,28 @@ fun StatusCardComplete(
             
             // Action buttons
             StatusActions(
-                repliesCount = displayedStatus.repliesCount.toInt(),
-                reblogsCount = reblogsCount,
-                favouritesCount = favoritesCount,
-                reblogged = isReblogged,
-                favourited = isFavorited,
-                bookmarked = isBookmarked,
+                repliesCount = state.repliesCount,
+                reblogsCount = state.reblogsCount,
+                favouritesCount = state.favouritesCount,
+                reblogged = state.reblogged,
+                favourited = state.favourited,
+                bookmarked = state.bookmarked,
                 onReply = { onReply(displayedStatus.id) },
                 onBoost = {
-                    val newState = !isReblogged
-                    isReblogged = newState
-                    reblogsCount = if (newState) reblogsCount + 1 else reblogsCount - 1
+                    val newState = !state.reblogged
+                    state.reblogged = newState
+                    state.reblogsCount = if (newState) state.reblogsCount + 1 else state.reblogsCount - 1
                     controller?.setReblogged(displayedStatus, newState)
                 },
                 onFavorite = {
-                    val newState = !isFavorited
-                    isFavorited = newState
-                    favoritesCount = if (newState) favoritesCount + 1 else favoritesCount - 1
+                    val newState = !state.favourited
+                    state.favourited = newState
+                    state.favouritesCount = if (newState) state.favouritesCount + 1 else state.favouritesCount - 1
                     controller?.setFavorited(displayedStatus, newState)
                 },
                 onBookmark = {
-                    isBookmarked = !isBookmarked
-                    controller?.setBookmarked(displayedStatus, isBookmarked)
+                    state.bookmarked = !state.bookmarked
+                    controller?.setBookmarked(displayedStatus, state.bookmarked)
                 },
                 onShare = {
                     val shareIntent = Intent().apply {
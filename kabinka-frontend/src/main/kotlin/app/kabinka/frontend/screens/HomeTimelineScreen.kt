@@ -5,6 +5,7 @@ import androidx.compose.foundation.clickable
 import androidx.compose.foundation.layout.*
 import androidx.compose.foundation.lazy.LazyColumn
 import androidx.compose.foundation.lazy.items
+import androidx.compose.foundation.lazy.rememberLazyListState
 import androidx.compose.foundation.shape.CircleShape
 import androidx.compose.foundation.shape.RoundedCornerShape
 import androidx.compose.material3.*
@@ -22,6 +23,7 @@ import app.kabinka.frontend.auth.SessionStateManager
 import app.kabinka.frontend.timeline.TimelineUiState
 import app.kabinka.frontend.timeline.TimelineViewModel
 import app.kabinka.frontend.timeline.TimelineType
+import kotlinx.coroutines.flow.distinctUntilChanged
 import app.kabinka.social.model.Status
 import app.kabinka.social.model.Attachment
 import app.kabinka.frontend.components.ImageViewerDialog
@@ -78,6 +80,20 @@ fun HomeTimelineScreen(
     var selectedTab by remember { mutableStateOf(0) }
     val tabs = listOf("Personal", "Local", "Beyond")
     val context = LocalContext.current
+    val listState = rememberLazyListState()
+    
+    // Load the next page when the last few posts come into view. Keyed on the number of posts so that a page
+    // that's still too short to fill the screen triggers the next one. The footer isn't counted: it comes and goes
+    // with every load, and a failed load would then trigger the next one right away.
+    LaunchedEffect(listState) {
+        snapshotFlow {
+            val postCount = (uiState as? TimelineUiState.Content)?.items?.size ?: return@snapshotFlow -1
+            val lastVisible = listState.layoutInfo.visibleItemsInfo.lastOrNull()?.index ?: return@snapshotFlow -1
+            if (lastVisible >= postCount - LOAD_MORE_THRESHOLD) postCount else -1
+        }
+            .distinctUntilChanged()
+            .collect { itemCount -> if (itemCount != -1) viewModel.loadMore() }
+    }
     
     // Image viewer state
     var showImageViewer by remember { mutableStateOf(false) }
@@ -207,13 +223,20 @@ fun HomeTimelineScreen(
                 
                 is TimelineUiState.Content -> {
                     LazyColumn(
+                        state = listState,
                         modifier = Modifier.fillMaxSize(),
                         contentPadding = PaddingValues(16.dp),
                         verticalArrangement = Arrangement.spacedBy(12.dp)
                     ) {
-                        items(state.statuses) { status ->
+                        items(
+                            items = state.items,
+                            key = { it.key },
+                            contentType = { it.contentType }
+                        ) { item ->
+                            val status = item.status
                             app.kabinka.frontend.components.timeline.StatusCardComplete(
                                 status = status,
+                                counters = item.counters,
                                 onStatusClick = { onNavigateToThread(status.id) },
                                 onProfileClick = onNavigateToUser,
                                 onReply = { statusId -> onNavigateToReply(statusId) },
@@ -246,6 +269,61 @@ fun HomeTimelineScreen(
                                 }
                             )
                         }
+                        if (state.isLoadingMore) {
+                            item(key = "loading_more", contentType = "loading_more") {
+                                Box(
+                                    modifier = Modifier
+                                        .fillMaxWidth()
+                                        .padding(vertical = 16.dp),
+                                    contentAlignment = Alignment.Center
+                                ) {
+                                    CircularProgressIndicator(
+                                        modifier = Modifier.size(24.dp),
+                                        color = MaterialTheme.colorScheme.primary
+                                    )
+                                }
+                            }
+                        } else if (state.loadMoreError != null) {
+                            item(key = "load_more_error", contentType = "load_more_error") {
+                                Column(
+                                    modifier = Modifier
+                                        .fillMaxWidth()
+                                        .padding(vertical = 16.dp),
+                                    horizontalAlignment = Alignment.CenterHorizontally
+                                ) {
+                                    Text(
+                                        text = "Couldn't load more posts",
+                                        style = MaterialTheme.typography.bodyMedium,
+                                        color = MaterialTheme.colorScheme.onSurfaceVariant
+                                    )
+                                    TextButton(onClick = { viewModel.retryLoadMore() }) {
+                                        Text("Retry")
+                                    }
+                                }
+                            }
+                        }
+                    }
+                    if (state.isRefreshing) {
+                        LinearProgressIndicator(
+                            modifier = Modifier
+                                .fillMaxWidth()
+                                .align(Alignment.TopCenter),
+                            color = MaterialTheme.colorScheme.primary
+                        )
+                    }
+                    state.refreshError?.let { message ->
+                        Snackbar(
+                            modifier = Modifier
+                                .align(Alignment.BottomCenter)
+                                .padding(16.dp),
+                            action = {
+                                TextButton(onClick = { viewModel.refresh() }) {
+                                    Text("Retry")
+                                }
+                            }
+                        ) {
+                            Text("Couldn't load new posts: $message", maxLines = 2, overflow = TextOverflow.Ellipsis)
+                        }
                     }
                 }
                 
@@ -353,6 +431,8 @@ fun HomeTimelineScreen(
     }
 }
 
+private const val LOAD_MORE_THRESHOLD = 5
+
 @Composable
 private fun ModernStatusCard(status: Status) {
     Card(
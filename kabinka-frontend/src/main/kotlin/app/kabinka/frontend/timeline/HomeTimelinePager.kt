@@ -0,0 +1,124 @@
+package app.kabinka.frontend.timeline
+
+import app.kabinka.social.api.requests.timelines.GetHomeTimeline
+import app.kabinka.social.api.session.AccountSessionManager
+import app.kabinka.social.model.CacheablePaginatedResponse
+import app.kabinka.social.model.FilterContext
+import app.kabinka.social.model.Status
+import me.grishka.appkit.api.Callback
+import me.grishka.appkit.api.ErrorResponse
+
+/**
+ * Pages through the home timeline of one account.
+ *
+ * Older pages come from [app.kabinka.social.api.CacheController.getHomeTimeline], which returns cached posts while it has
+ * a full page of them and loads from the server (and caches the result) after that. Newer posts are loaded the same way
+ * HomeTimelineFragment does it: asking for the posts after the second one we have, so that if the response ends with
+ * our first one, we know there's nothing missing in between.
+ *
+ * Callbacks are invoked on the main thread. Results of loads started before the last [reset] are dropped.
+ */
+class HomeTimelinePager(private val accountID: String) {
+    private var maxID: String? = null
+    private var generation = 0
+
+    var hasMore = true
+        private set
+    var isLoading = false
+        private set
+
+    fun reset() {
+        generation++
+        maxID = null
+        hasMore = true
+        isLoading = false
+    }
+
+    /**
+     * @param forceReload skip the cache
+     * @param onLoaded the posts and whether they came from the cache
+     */
+    fun loadFirstPage(forceReload: Boolean, onLoaded: (List<Status>, Boolean) -> Unit, onError: (ErrorResponse?) -> Unit) {
+        reset()
+        loadPage(forceReload, onLoaded, onError)
+    }
+
+    fun loadNextPage(onLoaded: (List<Status>) -> Unit, onError: (ErrorResponse?) -> Unit) {
+        if (isLoading || !hasMore || maxID == null)
+            return
+        loadPage(false, { posts, _ -> onLoaded(posts) }, onError)
+    }
+
+    private fun loadPage(forceReload: Boolean, onLoaded: (List<Status>, Boolean) -> Unit, onError: (ErrorResponse?) -> Unit) {
+        val session = AccountSessionManager.getInstance().tryGetAccount(accountID) ?: return
+        val gen = generation
+        isLoading = true
+        session.cacheController.getHomeTimeline(maxID, PAGE_SIZE, forceReload, object : Callback<CacheablePaginatedResponse<List<Status>>> {
+            override fun onSuccess(result: CacheablePaginatedResponse<List<Status>>) {
+                if (gen != generation)
+                    return
+                isLoading = false
+                // The page can be short or even empty because of filters, only a page without a max id is the end
+                hasMore = result.maxID != null && result.maxID != maxID
+                maxID = result.maxID
+                onLoaded(result.items, result.isFromCache)
+            }
+
+            override fun onError(error: ErrorResponse?) {
+                if (gen != generation)
+                    return
+                isLoading = false
+                onError(error)
+            }
+        })
+    }
+
+    /**
+     * Loads the posts newer than [current] from the server. Does nothing while another page is loading, check [isLoading] first.
+     *
+     * @param onLoaded the posts to prepend, or null if there were more new posts than fit in a page and the timeline
+     * should be loaded again from the top
+     */
+    fun loadNewer(current: List<Status>, onLoaded: (List<Status>?) -> Unit, onError: (ErrorResponse?) -> Unit) {
+        if (isLoading || current.isEmpty())
+            return
+        val session = AccountSessionManager.getInstance().tryGetAccount(accountID) ?: return
+        val gen = generation
+        val sinceID = if (current.size > 1) current[1].id else "1"
+        isLoading = true
+        GetHomeTimeline(null, null, PAGE_SIZE, sinceID)
+            .setCallback(object : Callback<List<Status>> {
+                override fun onSuccess(result: List<Status>) {
+                    if (gen != generation)
+                        return
+                    isLoading = false
+                    if (result.isEmpty()) {
+                        onLoaded(emptyList())
+                        return
+                    }
+                    if (result.last().id != current[0].id) {
+                        onLoaded(null)
+                        return
+                    }
+                    val existingIDs = current.mapTo(HashSet()) { it.id }
+                    val toAdd = result.filterTo(ArrayList()) { it.id !in existingIDs }
+                    session.filterStatuses(toAdd, FilterContext.HOME)
+                    if (toAdd.isNotEmpty())
+                        session.cacheController.putHomeTimeline(toAdd, false)
+                    onLoaded(toAdd)
+                }
+
+                override fun onError(error: ErrorResponse?) {
+                    if (gen != generation)
+                        return
+                    isLoading = false
+                    onError(error)
+                }
+            })
+            .exec(accountID)
+    }
+
+    companion object {
+        const val PAGE_SIZE = 40
+    }
+}
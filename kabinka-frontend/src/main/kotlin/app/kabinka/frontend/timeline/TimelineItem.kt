@@ -0,0 +1,67 @@
+package app.kabinka.frontend.timeline
+
+import androidx.compose.runtime.Stable
+import androidx.compose.runtime.getValue
+import androidx.compose.runtime.mutableIntStateOf
+import androidx.compose.runtime.mutableStateOf
+import androidx.compose.runtime.setValue
+import app.kabinka.social.events.StatusCountersUpdatedEvent
+import app.kabinka.social.model.Status
+
+/**
+ * One post in a timeline list.
+ * The [Status] it wraps is a shared, mutable object, so the item keeps its stability promise this way:
+ * - counters and interaction state change often, and live in [counters], so only the card that reads them recomposes
+ * - everything else changes with an edit or a poll update, and then [TimelineViewModel] replaces the item with a new one
+ *   for the same post, so the card gets a new parameter and recomposes
+ * Nothing should be read from [status] that changes without one of those two.
+ */
+@Stable
+class TimelineItem(val status: Status) {
+    /** The post whose content and counters are shown, which is the boosted one for boosts */
+    val displayedStatus: Status = status.reblog ?: status
+
+    /** Stable key for lazy lists. Boosts have their own ids, so a post and its boost don't clash. */
+    val key: String = status.id
+
+    /** Cards of the same content type have the same layout, so lazy lists can reuse them for each other */
+    val contentType: String = when {
+        displayedStatus.poll != null -> "poll"
+        !displayedStatus.mediaAttachments.isNullOrEmpty() -> "media"
+        displayedStatus.card != null -> "card"
+        else -> "text"
+    }
+
+    val counters = StatusCountersState(displayedStatus)
+}
+
+/**
+ * Observable counters and interaction state of a post
+ */
+@Stable
+class StatusCountersState(status: Status) {
+    var favourited by mutableStateOf(status.favourited)
+    var reblogged by mutableStateOf(status.reblogged)
+    var bookmarked by mutableStateOf(status.bookmarked)
+    var favouritesCount by mutableIntStateOf(status.favouritesCount.toInt())
+    var reblogsCount by mutableIntStateOf(status.reblogsCount.toInt())
+    var repliesCount by mutableIntStateOf(status.repliesCount.toInt())
+
+    fun readFrom(status: Status) {
+        favourited = status.favourited
+        reblogged = status.reblogged
+        bookmarked = status.bookmarked
+        favouritesCount = status.favouritesCount.toInt()
+        reblogsCount = status.reblogsCount.toInt()
+        repliesCount = status.repliesCount.toInt()
+    }
+
+    fun applyEvent(event: StatusCountersUpdatedEvent) {
+        favourited = event.favorited
+        reblogged = event.reblogged
+        bookmarked = event.bookmarked
+        favouritesCount = event.favorites.toInt()
+        reblogsCount = event.reblogs.toInt()
+        repliesCount = event.replies.toInt()
+    }
+}
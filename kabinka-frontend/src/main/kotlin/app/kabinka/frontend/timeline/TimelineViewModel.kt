@@ -5,17 +5,19 @@ import androidx.lifecycle.ViewModel
 import androidx.lifecycle.viewModelScope
 import app.kabinka.frontend.auth.SessionStateManager
 import app.kabinka.social.E
-import app.kabinka.social.api.requests.timelines.GetHomeTimeline
 import app.kabinka.social.api.requests.timelines.GetPublicTimeline
 import app.kabinka.social.api.requests.statuses.GetBookmarkedStatuses
 import app.kabinka.social.api.requests.statuses.GetFavoritedStatuses
+import app.kabinka.social.events.PollUpdatedEvent
 import app.kabinka.social.events.StatusCountersUpdatedEvent
+import app.kabinka.social.events.StatusUpdatedEvent
 import app.kabinka.social.model.Status
 import com.squareup.otto.Subscribe
 import kotlinx.coroutines.flow.MutableStateFlow
 import kotlinx.coroutines.flow.StateFlow
 import kotlinx.coroutines.flow.asStateFlow
 import kotlinx.coroutines.launch
+import java.util.IdentityHashMap
 import me.grishka.appkit.api.Callback
 import me.grishka.appkit.api.ErrorResponse
 
@@ -34,6 +36,12 @@ class TimelineViewModel(
     val uiState: StateFlow<TimelineUiState> = _uiState.asStateFlow()
     
     private var currentTimelineType = initialTimelineType
+    private var homePager: HomeTimelinePager? = null
+    // A refresh that was asked for while the next page was loading, done when that's finished
+    private var refreshPending = false
+    
+    // Every item under the id of its post, and also of the boosted post for boosts, so that updates don't have to search the list
+    private val itemsByStatusId = HashMap<String, MutableList<TimelineItem>>()
     
     init {
         Log.d(TAG, "TimelineViewModel initialized with timeline type: $initialTimelineType")
@@ -56,47 +64,81 @@ class TimelineViewModel(
                 "favorited=${event.favorited}, reblogged=${event.reblogged}, bookmarked=${event.bookmarked}")
         
         viewModelScope.launch {
-            val currentState = _uiState.value as? TimelineUiState.Content ?: return@launch
-            
-            // Create a new list with updated status objects
-            // This is necessary for Compose to detect the change
-            val updatedStatuses = currentState.statuses.toMutableList()
-            var foundAndUpdated = false
-            
-            for (i in updatedStatuses.indices) {
-                val status = updatedStatuses[i]
-                val statusToUpdate = status.reblog ?: status
-                
-                if (statusToUpdate.id == event.id) {
-                    // Update the status with new counters
-                    statusToUpdate.favouritesCount = event.favorites
-                    statusToUpdate.favourited = event.favorited
-                    statusToUpdate.reblogsCount = event.reblogs
-                    statusToUpdate.reblogged = event.reblogged
-                    statusToUpdate.repliesCount = event.replies
-                    statusToUpdate.bookmarked = event.bookmarked
-                    foundAndUpdated = true
-                    Log.d(TAG, "Updated status in UI: favorited=${statusToUpdate.favourited}, " +
-                            "reblogged=${statusToUpdate.reblogged}, bookmarked=${statusToUpdate.bookmarked}")
-                    break
-                }
-            }
-            
-            if (foundAndUpdated) {
-                // Create new TimelineUiState.Content with the updated list
-                _uiState.value = TimelineUiState.Content(ArrayList(updatedStatuses))
-            } else {
+            val items = itemsByStatusId[event.id]
+            if (items == null) {
                 Log.w(TAG, "Status ${event.id} not found in current timeline")
+                return@launch
+            }
+            // Only the cards showing this post read these, so nothing else recomposes
+            for (item in items) {
+                val status = item.displayedStatus
+                status.favouritesCount = event.favorites
+                status.favourited = event.favorited
+                status.reblogsCount = event.reblogs
+                status.reblogged = event.reblogged
+                status.repliesCount = event.replies
+                status.bookmarked = event.bookmarked
+                item.counters.applyEvent(event)
             }
         }
     }
     
+    /**
+     * A post was edited, or changed in some other way than its counters. The cards showing it get new items, see [TimelineItem].
+     */
+    @Subscribe
+    fun onStatusUpdated(event: StatusUpdatedEvent) {
+        val updated = event.status
+        viewModelScope.launch {
+            val items = itemsByStatusId[updated.id] ?: return@launch
+            replaceItems(items.toList()) { item ->
+                if (item.status.id == updated.id) {
+                    TimelineItem(updated)
+                } else {
+                    // A boost of the updated post
+                    item.status.reblog = updated
+                    TimelineItem(item.status)
+                }
+            }
+        }
+    }
+
+    @Subscribe
+    fun onPollUpdated(event: PollUpdatedEvent) {
+        if (event.accountID != sessionManager.getCurrentSession()?.getID())
+            return
+        val poll = event.poll
+        viewModelScope.launch {
+            val items = itemsByStatusId.values.flatten().filter { it.displayedStatus.poll?.id == poll.id }.distinct()
+            if (items.isEmpty())
+                return@launch
+            replaceItems(items) { item ->
+                item.displayedStatus.poll = poll
+                TimelineItem(item.status)
+            }
+        }
+    }
+
+    private fun replaceItems(items: List<TimelineItem>, makeReplacement: (TimelineItem) -> TimelineItem) {
+        val state = _uiState.value as? TimelineUiState.Content ?: return
+        val replacements = IdentityHashMap<TimelineItem, TimelineItem>()
+        for (item in items) {
+            replacements[item] = makeReplacement(item)
+            unindex(item)
+        }
+        index(replacements.values.toList())
+        _uiState.value = state.copy(items = state.items.map { replacements[it] ?: it })
+    }
+
     /**
      * Load timeline based on type
      * @param type The type of timeline to load (HOME, LOCAL, or FEDERATED)
      */
     fun loadTimeline(type: TimelineType) {
         currentTimelineType = type
+        homePager?.reset()
+        homePager = null
+        refreshPending = false
         viewModelScope.launch {
             _uiState.value = TimelineUiState.Loading
             
@@ -128,28 +170,137 @@ class TimelineViewModel(
         
         Log.d(TAG, "Loading HOME timeline for account: ${session.getID()}")
         
-        GetHomeTimeline(null, null, 40, null)
-            .setCallback(object : Callback<List<Status>> {
-                override fun onSuccess(result: List<Status>) {
-                    Log.d(TAG, "Home timeline loaded: ${result.size} posts from followed accounts")
-                    if (result.isEmpty()) {
-                        _uiState.value = TimelineUiState.Empty(
-                            message = "Your home timeline is quiet. Follow some accounts to see their posts here!",
-                            isLoginRequired = false
-                        )
-                    } else {
-                        _uiState.value = TimelineUiState.Content(result)
-                    }
-                }
-                
-                override fun onError(error: ErrorResponse?) {
-                    Log.e(TAG, "Home timeline loading failed: ${error?.toString()}")
-                    _uiState.value = TimelineUiState.Error(
-                        error?.toString() ?: "Failed to load home timeline"
-                    )
-                }
-            })
-            .exec(session.getID())
+        val pager = HomeTimelinePager(session.getID())
+        homePager = pager
+        pager.loadFirstPage(false, { result, fromCache ->
+            Log.d(TAG, "Home timeline loaded: ${result.size} posts from followed accounts, from cache: $fromCache")
+            if (result.isEmpty() && !pager.hasMore) {
+                _uiState.value = TimelineUiState.Empty(
+                    message = "Your home timeline is quiet. Follow some accounts to see their posts here!",
+                    isLoginRequired = false
+                )
+            } else {
+                setContent(result.map(::TimelineItem), pager.hasMore)
+                // Cached posts are shown right away, then whatever was posted since is added on top
+                if (fromCache)
+                    loadNewerHomePosts(pager)
+            }
+        }, { error ->
+            Log.e(TAG, "Home timeline loading failed: ${error?.toString()}")
+            _uiState.value = TimelineUiState.Error(
+                error?.toString() ?: "Failed to load home timeline"
+            )
+        })
+    }
+    
+    /**
+     * Load the next page of the current timeline. Does nothing for timelines that are loaded as a single page.
+     * After a page failed to load, does nothing until [retryLoadMore], so that scrolling doesn't retry over and over.
+     */
+    fun loadMore() {
+        val pager = homePager ?: return
+        val currentState = _uiState.value as? TimelineUiState.Content ?: return
+        if (pager.isLoading || !pager.hasMore || currentState.loadMoreError != null)
+            return
+        _uiState.value = currentState.copy(isLoadingMore = true)
+        pager.loadNextPage({ result ->
+            val state = _uiState.value as? TimelineUiState.Content ?: return@loadNextPage
+            val existingKeys = state.items.mapTo(HashSet()) { it.key }
+            val newItems = result.filter { it.id !in existingKeys }.map(::TimelineItem)
+            index(newItems)
+            _uiState.value = state.copy(items = state.items + newItems, isLoadingMore = false, hasMore = pager.hasMore)
+            runPendingRefresh(pager)
+        }, { error ->
+            Log.e(TAG, "Loading more posts failed: ${error?.toString()}")
+            (_uiState.value as? TimelineUiState.Content)?.let {
+                _uiState.value = it.copy(isLoadingMore = false, loadMoreError = error?.toString() ?: "Failed to load more posts")
+            }
+            runPendingRefresh(pager)
+        })
+    }
+    
+    fun retryLoadMore() {
+        val state = _uiState.value as? TimelineUiState.Content ?: return
+        _uiState.value = state.copy(loadMoreError = null)
+        loadMore()
+    }
+    
+    private fun runPendingRefresh(pager: HomeTimelinePager) {
+        if (refreshPending) {
+            refreshPending = false
+            requestNewerHomePosts(pager)
+        }
+    }
+    
+    private fun loadNewerHomePosts(pager: HomeTimelinePager) {
+        val currentState = _uiState.value as? TimelineUiState.Content ?: return
+        if (currentState.isRefreshing)
+            return
+        if (currentState.items.isEmpty()) {
+            loadTimeline(currentTimelineType)
+            return
+        }
+        _uiState.value = currentState.copy(isRefreshing = true, refreshError = null)
+        if (pager.isLoading) {
+            // The next page is loading, the pager does one thing at a time
+            refreshPending = true
+            return
+        }
+        requestNewerHomePosts(pager)
+    }
+    
+    private fun requestNewerHomePosts(pager: HomeTimelinePager) {
+        val currentState = _uiState.value as? TimelineUiState.Content ?: return
+        pager.loadNewer(currentState.statuses, { result ->
+            if (result == null) {
+                // Too many new posts to connect to the ones we have, start over from the top
+                pager.loadFirstPage(true, { posts, _ -> setContent(posts.map(::TimelineItem), pager.hasMore) }, { error ->
+                    Log.e(TAG, "Home timeline reloading failed: ${error?.toString()}")
+                    showRefreshError(error)
+                })
+            } else {
+                val state = _uiState.value as? TimelineUiState.Content ?: return@loadNewer
+                val newItems = result.map(::TimelineItem)
+                index(newItems)
+                // Items are keyed, so the list stays at the post that was at the top
+                _uiState.value = state.copy(items = newItems + state.items, isRefreshing = false)
+            }
+        }, { error ->
+            Log.e(TAG, "Loading newer posts failed: ${error?.toString()}")
+            showRefreshError(error)
+        })
+    }
+    
+    private fun showRefreshError(error: ErrorResponse?) {
+        val state = _uiState.value as? TimelineUiState.Content ?: return
+        _uiState.value = state.copy(isRefreshing = false, refreshError = error?.toString() ?: "Failed to load new posts")
+    }
+    
+    private fun setContent(items: List<TimelineItem>, hasMore: Boolean = false) {
+        itemsByStatusId.clear()
+        index(items)
+        _uiState.value = TimelineUiState.Content(items, hasMore = hasMore)
+    }
+    
+    private fun index(items: List<TimelineItem>) {
+        for (item in items) {
+            itemsByStatusId.getOrPut(item.status.id) { ArrayList() }.add(item)
+            if (item.displayedStatus !== item.status)
+                itemsByStatusId.getOrPut(item.displayedStatus.id) { ArrayList() }.add(item)
+        }
+    }
+    
+    private fun unindex(item: TimelineItem) {
+        for (id in listOf(item.status.id, item.displayedStatus.id)) {
+            val items = itemsByStatusId[id] ?: continue
+            items.removeAll { it === item }
+            if (items.isEmpty())
+                itemsByStatusId.remove(id)
+        }
+    }
+    
+    private fun findStatus(statusId: String): Status? {
+        return itemsByStatusId[statusId]?.firstOrNull()?.displayedStatus
     }
     
     /**
@@ -179,7 +330,7 @@ class TimelineViewModel(
                         isLoginRequired = false
                     )
                 } else {
-                    _uiState.value = TimelineUiState.Content(result)
+                    setContent(result.map(::TimelineItem))
                 }
             }
             
@@ -225,7 +376,7 @@ class TimelineViewModel(
                         isLoginRequired = false
                     )
                 } else {
-                    _uiState.value = TimelineUiState.Content(result)
+                    setContent(result.map(::TimelineItem))
                 }
             }
             
@@ -270,7 +421,7 @@ class TimelineViewModel(
                             isLoginRequired = false
                         )
                     } else {
-                        _uiState.value = TimelineUiState.Content(result)
+                        setContent(result.map(::TimelineItem))
                     }
                 }
                 
@@ -310,7 +461,7 @@ class TimelineViewModel(
                             isLoginRequired = false
                         )
                     } else {
-                        _uiState.value = TimelineUiState.Content(result)
+                        setContent(result.map(::TimelineItem))
                     }
                 }
                 
@@ -328,7 +479,11 @@ class TimelineViewModel(
      * Refresh the current timeline
      */
     fun refresh() {
-        loadTimeline(currentTimelineType)
+        val pager = homePager
+        if (pager != null && _uiState.value is TimelineUiState.Content)
+            loadNewerHomePosts(pager)
+        else
+            loadTimeline(currentTimelineType)
     }
     
     /**
@@ -336,15 +491,7 @@ class TimelineViewModel(
      */
     fun toggleFavorite(statusId: String) {
         val session = sessionManager.getCurrentSession() ?: return
-        val currentState = _uiState.value as? TimelineUiState.Content ?: return
-        
-        // Find the status
-        val status = currentState.statuses.find { 
-            it.id == statusId || it.reblog?.id == statusId 
-        } ?: return
-        
-        // Get the actual status (in case it's a reblog)
-        val targetStatus = status.reblog ?: status
+        val targetStatus = findStatus(statusId) ?: return
         
         Log.d(TAG, "Toggling favorite for status ${targetStatus.id}, current: ${targetStatus.favourited}")
         
@@ -357,15 +504,7 @@ class TimelineViewModel(
      */
     fun toggleReblog(statusId: String) {
         val session = sessionManager.getCurrentSession() ?: return
-        val currentState = _uiState.value as? TimelineUiState.Content ?: return
-        
-        // Find the status
-        val status = currentState.statuses.find { 
-            it.id == statusId || it.reblog?.id == statusId 
-        } ?: return
-        
-        // Get the actual status (in case it's a reblog)
-        val targetStatus = status.reblog ?: status
+        val targetStatus = findStatus(statusId) ?: return
         
         Log.d(TAG, "Toggling reblog for status ${targetStatus.id}, current: ${targetStatus.reblogged}")
         
@@ -378,15 +517,7 @@ class TimelineViewModel(
      */
     fun toggleBookmark(statusId: String) {
         val session = sessionManager.getCurrentSession() ?: return
-        val currentState = _uiState.value as? TimelineUiState.Content ?: return
-        
-        // Find the status
-        val status = currentState.statuses.find { 
-            it.id == statusId || it.reblog?.id == statusId 
-        } ?: return
-        
-        // Get the actual status (in case it's a reblog)
-        val targetStatus = status.reblog ?: status
+        val targetStatus = findStatus(statusId) ?: return
         
         Log.d(TAG, "Toggling bookmark for status ${targetStatus.id}, current: ${targetStatus.bookmarked}")
         
@@ -413,7 +544,19 @@ enum class TimelineType {
 
 sealed class TimelineUiState {
     object Loading : TimelineUiState()
-    data class Content(val statuses: List<Status>) : TimelineUiState()
+    data class Content(
+        val items: List<TimelineItem>,
+        val isLoadingMore: Boolean = false,
+        val hasMore: Boolean = false,
+        /** Why the last page failed to load. More pages are only loaded again when the user retries. */
+        val loadMoreError: String? = null,
+        /** Newer posts are being loaded, the ones shown stay in place meanwhile */
+        val isRefreshing: Boolean = false,
+        /** Why loading the newer posts failed */
+        val refreshError: String? = null
+    ) : TimelineUiState() {
+        val statuses: List<Status> by lazy { items.map { it.status } }
+    }
     data class Error(val message: String) : TimelineUiState()
     data class Empty(val message: String, val isLoginRequired: Boolean) : TimelineUiState()
 }
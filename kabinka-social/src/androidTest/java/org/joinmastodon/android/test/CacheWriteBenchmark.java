@@ -0,0 +1,123 @@
+package app.kabinka.social.test;
+
+import android.content.ContentValues;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.os.SystemClock;
+import android.util.Log;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.util.Locale;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.filters.LargeTest;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+/**
+ * Measures how fast pages of posts can be written to the cache, one transaction per row like CacheController used to do,
+ * and in one transaction with a compiled statement like it does now, with and without WAL. The timings are logged.
+ * <p>
+ * Uses its own throwaway database with the same home timeline table, so the actual cache isn't affected.
+ */
+@RunWith(AndroidJUnit4.class)
+@LargeTest
+public class CacheWriteBenchmark{
+	private static final String TAG="CacheWriteBenchmark";
+	private static final int[] ROW_COUNTS={40, 400};
+	private static final int ITERATIONS=5;
+
+	@Test
+	public void batchedWritesAreFaster(){
+		File file=new File(InstrumentationRegistry.getInstrumentation().getTargetContext().getCacheDir(), "write_benchmark.db");
+		String json=makeFakeStatusJson();
+		try{
+			for(boolean wal:new boolean[]{false, true}){
+				SQLiteDatabase.deleteDatabase(file);
+				SQLiteDatabase db=SQLiteDatabase.openOrCreateDatabase(file, null);
+				try{
+					if(wal)
+						db.enableWriteAheadLogging();
+					db.execSQL("""
+						CREATE TABLE `home_timeline` (
+							`id` VARCHAR(25) NOT NULL PRIMARY KEY,
+							`json` TEXT NOT NULL,
+							`flags` INTEGER NOT NULL DEFAULT 0,
+							`time` INTEGER NOT NULL
+						)""");
+					for(int count:ROW_COUNTS){
+						double rowByRow=measure(db, count, json, false);
+						double batched=measure(db, count, json, true);
+						Log.i(TAG, String.format(Locale.US, "%s, %d rows: %.1f ms row by row, %.1f ms batched (%.0f rows/s)", wal ? "WAL" : "Rollback journal",
+								count, rowByRow, batched, count*1000/batched));
+						// Only for the big page, a few rows can be within the noise
+						if(count==ROW_COUNTS[ROW_COUNTS.length-1])
+							Assert.assertTrue("Batched writes of "+count+" rows took "+batched+" ms, row by row "+rowByRow+" ms", batched<rowByRow);
+					}
+				}finally{
+					db.close();
+				}
+			}
+		}finally{
+			SQLiteDatabase.deleteDatabase(file);
+		}
+	}
+
+	/**
+	 * @return the average time in milliseconds
+	 */
+	private static double measure(SQLiteDatabase db, int count, String json, boolean batched){
+		long total=0;
+		for(int i=0;i<ITERATIONS;i++){
+			db.delete("home_timeline", null, null);
+			long start=SystemClock.elapsedRealtimeNanos();
+			if(batched)
+				writeBatched(db, count, json);
+			else
+				writeRowByRow(db, count, json);
+			total+=SystemClock.elapsedRealtimeNanos()-start;
+		}
+		return total/(double)ITERATIONS/1_000_000.0;
+	}
+
+	private static void writeRowByRow(SQLiteDatabase db, int count, String json){
+		ContentValues values=new ContentValues(4);
+		for(int i=0;i<count;i++){
+			values.put("id", String.valueOf(i));
+			values.put("json", json);
+			values.put("flags", 0);
+			values.put("time", i);
+			db.insertWithOnConflict("home_timeline", null, values, SQLiteDatabase.CONFLICT_REPLACE);
+		}
+	}
+
+	private static void writeBatched(SQLiteDatabase db, int count, String json){
+		db.beginTransaction();
+		try(SQLiteStatement insert=db.compileStatement("INSERT OR REPLACE INTO `home_timeline` (`id`, `json`, `flags`, `time`) VALUES (?, ?, ?, ?)")){
+			for(int i=0;i<count;i++){
+				insert.bindString(1, String.valueOf(i));
+				insert.bindString(2, json);
+				insert.bindLong(3, 0);
+				insert.bindLong(4, i);
+				insert.executeInsert();
+			}
+			db.setTransactionSuccessful();
+		}finally{
+			db.endTransaction();
+		}
+	}
+
+	/**
+	 * About the size of a serialized post with a few paragraphs of text and an attachment
+	 */
+	/*package*/ static String makeFakeStatusJson(){
+		StringBuilder sb=new StringBuilder("{\"id\":\"0\",\"content\":\"");
+		for(int i=0;i<60;i++)
+			sb.append("Lorem ipsum dolor sit amet. ");
+		sb.append("\",\"media_attachments\":[{\"url\":\"https://example.com/media/0.jpg\"}]}");
+		return sb.toString();
+	}
+}
@@ -0,0 +1,193 @@
+package app.kabinka.social.test;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.SystemClock;
+import android.util.Log;
+
+import app.kabinka.social.api.CacheController;
+import app.kabinka.social.api.DatabaseExecutor;
+import app.kabinka.social.utils.LatencyHistogram;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.filters.LargeTest;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+/**
+ * Measures how long reads that the UI would be waiting for take while several accounts write big batches to their caches at the same time,
+ * with everything on one shared thread like {@link CacheController} used to do, and with {@link DatabaseExecutor}s like it does now.
+ * The results are logged.
+ * <p>
+ * Uses its own throwaway databases with the same home timeline table, so the actual caches aren't affected.
+ */
+@RunWith(AndroidJUnit4.class)
+@LargeTest
+public class DatabaseContentionBenchmark{
+	private static final String TAG="DatabaseContentionBenchmark";
+	private static final int ACCOUNTS=3;
+	private static final int READS=90;
+	private static final long READ_INTERVAL=16;
+	private static final int READ_PAGE_SIZE=20;
+	private static final int WRITE_BATCH_SIZE=200;
+
+	@Test
+	public void perAccountExecutorsKeepReadsFast(){
+		String json=CacheWriteBenchmark.makeFakeStatusJson();
+		SQLiteDatabase[] dbs=new SQLiteDatabase[ACCOUNTS];
+		File[] files=new File[ACCOUNTS];
+		File cacheDir=InstrumentationRegistry.getInstrumentation().getTargetContext().getCacheDir();
+		StringBuilder sb=new StringBuilder();
+		Result shared, perAccount;
+		try{
+			for(int i=0;i<ACCOUNTS;i++){
+				files[i]=new File(cacheDir, "contention_benchmark_"+i+".db");
+				SQLiteDatabase.deleteDatabase(files[i]);
+				dbs[i]=SQLiteDatabase.openOrCreateDatabase(files[i], null);
+				dbs[i].enableWriteAheadLogging();
+				dbs[i].execSQL("""
+					CREATE TABLE `home_timeline` (
+						`id` VARCHAR(25) NOT NULL PRIMARY KEY,
+						`json` TEXT NOT NULL,
+						`flags` INTEGER NOT NULL DEFAULT 0,
+						`time` INTEGER NOT NULL
+					)""");
+				writeBatch(dbs[i], json, 0);
+			}
+			sb.append(ACCOUNTS).append(" accounts writing ").append(WRITE_BATCH_SIZE).append("-row batches, ")
+					.append(READS).append(" reads of ").append(READ_PAGE_SIZE).append(" rows\n");
+			appendResult(sb, "One shared thread", shared=measure(dbs, json, false));
+			appendResult(sb, "Per-account executors", perAccount=measure(dbs, json, true));
+		}finally{
+			for(int i=0;i<ACCOUNTS;i++){
+				if(dbs[i]!=null)
+					dbs[i].close();
+				if(files[i]!=null)
+					SQLiteDatabase.deleteDatabase(files[i]);
+			}
+		}
+		Log.i(TAG, sb.toString().trim());
+		long sharedP90=shared.readLatency.getPercentileMicros(90), perAccountP90=perAccount.readLatency.getPercentileMicros(90);
+		Assert.assertTrue("90th percentile read latency is "+LatencyHistogram.formatMicros(perAccountP90)+" with per-account executors, "
+				+LatencyHistogram.formatMicros(sharedP90)+" with one shared thread", perAccountP90<sharedP90);
+	}
+
+	private static void appendResult(StringBuilder sb, String name, Result result){
+		sb.append('\n').append(name).append(":\nread latency ").append(result.readLatency.getSummary())
+				.append(", max ").append(LatencyHistogram.formatMicros(result.readLatency.getMaxMicros()))
+				.append("\n").append(result.batchesWritten).append(" batches written\n");
+	}
+
+	private static Result measure(SQLiteDatabase[] dbs, String json, boolean perAccount){
+		Result result=new Result();
+		HandlerThread sharedThread=null;
+		Handler sharedHandler=null;
+		DatabaseExecutor[] executors=new DatabaseExecutor[ACCOUNTS];
+		if(perAccount){
+			for(int i=0;i<ACCOUNTS;i++)
+				executors[i]=new DatabaseExecutor("contentionBenchmark"+i);
+		}else{
+			sharedThread=new HandlerThread("contentionBenchmark");
+			sharedThread.start();
+			sharedHandler=new Handler(sharedThread.getLooper());
+		}
+		AtomicBoolean writing=new AtomicBoolean(true);
+		AtomicInteger rowOffset=new AtomicInteger(WRITE_BATCH_SIZE);
+		CountDownLatch writesStopped=new CountDownLatch(ACCOUNTS);
+		for(int i=0;i<ACCOUNTS;i++){
+			SQLiteDatabase db=dbs[i];
+			DatabaseExecutor executor=executors[i];
+			Handler handler=sharedHandler;
+			// Keeps writing until all reads are done, one batch at a time, like pages of notifications arriving one after another
+			Runnable writeLoop=new Runnable(){
+				@Override
+				public void run(){
+					if(!writing.get()){
+						writesStopped.countDown();
+						return;
+					}
+					writeBatch(db, json, rowOffset.getAndAdd(WRITE_BATCH_SIZE));
+					result.batchesWritten.incrementAndGet();
+					if(perAccount)
+						executor.write(this);
+					else
+						handler.post(this);
+				}
+			};
+			if(perAccount)
+				executor.write(writeLoop);
+			else
+				handler.post(writeLoop);
+		}
+		CountDownLatch readsDone=new CountDownLatch(READS);
+		for(int i=0;i<READS;i++){
+			SQLiteDatabase db=dbs[i%ACCOUNTS];
+			long submitted=SystemClock.elapsedRealtimeNanos();
+			Runnable read=()->{
+				readPage(db);
+				result.readLatency.recordNanos(SystemClock.elapsedRealtimeNanos()-submitted);
+				readsDone.countDown();
+			};
+			if(perAccount)
+				executors[i%ACCOUNTS].read(DatabaseExecutor.Priority.UI, read);
+			else
+				sharedHandler.post(read);
+			SystemClock.sleep(READ_INTERVAL);
+		}
+		try{
+			readsDone.await();
+		}catch(InterruptedException ignore){}
+		writing.set(false);
+		// Let the last batches finish before the next measurement or closing the databases
+		try{
+			writesStopped.await();
+		}catch(InterruptedException ignore){}
+		if(perAccount){
+			for(DatabaseExecutor executor:executors)
+				executor.quit();
+		}else{
+			sharedThread.quitSafely();
+		}
+		return result;
+	}
+
+	private static void writeBatch(SQLiteDatabase db, String json, int offset){
+		db.beginTransaction();
+		try(SQLiteStatement insert=db.compileStatement("INSERT OR REPLACE INTO `home_timeline` (`id`, `json`, `flags`, `time`) VALUES (?, ?, ?, ?)")){
+			for(int i=offset;i<offset+WRITE_BATCH_SIZE;i++){
+				insert.bindString(1, String.valueOf(i));
+				insert.bindString(2, json);
+				insert.bindLong(3, 0);
+				insert.bindLong(4, i);
+				insert.executeInsert();
+			}
+			db.setTransactionSuccessful();
+		}finally{
+			db.endTransaction();
+		}
+	}
+
+	private static void readPage(SQLiteDatabase db){
+		try(Cursor cursor=db.query("home_timeline", new String[]{"json", "flags"}, null, null, null, null, "`time` DESC", String.valueOf(READ_PAGE_SIZE))){
+			while(cursor.moveToNext()){
+				cursor.getString(0);
+				cursor.getInt(1);
+			}
+		}
+	}
+
+	private static class Result{
+		public final LatencyHistogram readLatency=new LatencyHistogram();
+		public final AtomicInteger batchesWritten=new AtomicInteger();
+	}
+}
@@ -0,0 +1,215 @@
+package app.kabinka.social.test;
+
+import android.os.Bundle;
+
+import app.kabinka.social.MainActivity;
+import app.kabinka.social.api.MastodonAPIController;
+import app.kabinka.social.api.ObjectValidationException;
+import app.kabinka.social.api.requests.timelines.GetHomeTimeline;
+import app.kabinka.social.api.session.AccountSession;
+import app.kabinka.social.api.session.AccountSessionManager;
+import app.kabinka.social.fragments.StatusListFragment;
+import app.kabinka.social.model.Status;
+import app.kabinka.social.ui.displayitems.ReleasedStatusDisplayItem;
+import app.kabinka.social.ui.displayitems.StatusDisplayItem;
+import app.kabinka.social.ui.utils.UiUtils;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.CyclicBarrier;
+
+import androidx.test.ext.junit.rules.ActivityScenarioRule;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.filters.LargeTest;
+import me.grishka.appkit.api.Callback;
+import me.grishka.appkit.api.ErrorResponse;
+
+/**
+ * Scrolls a timeline of ten thousand posts from top to bottom and checks how much the Java heap grows per post.
+ * The posts far from the visible part are released, together with their display items, and only small placeholders stay
+ * in the list, so the budget is what a placeholder costs. It's a fraction of what a parsed post with its display items takes,
+ * so a list that kept the posts would go over it long before the end.
+ * <p>
+ * Like {@link StoreScreenshotsGenerator}, this needs a logged in account. One page of its home timeline is used as the
+ * template for the posts of the long timeline, so they look like real ones.
+ */
+@RunWith(AndroidJUnit4.class)
+@LargeTest
+public class LongScrollMemoryTest{
+	private static final int POST_COUNT=10_000;
+	private static final int PAGE_SIZE=20;
+	// Measured from here, so that the images, caches and the like that every list needs are already there
+	private static final int BASELINE_POSTS=400;
+	private static final long BUDGET_BYTES_PER_POST=2*1024;
+	// Visible posts plus twice the distance after which posts are released in BaseStatusListFragment, with some slack for the update step
+	private static final int MAX_BUILT_POSTS=220;
+	private static final long LOAD_WAIT_TIMEOUT=20_000;
+
+	private static volatile List<String> templates;
+
+	@Rule
+	public ActivityScenarioRule<MainActivity> activityScenarioRule=new ActivityScenarioRule<>(MainActivity.class);
+
+	@Test
+	public void heapStaysBoundedWhileScrolling() throws Exception{
+		AccountSession session=AccountSessionManager.getInstance().getAccount(AccountSessionManager.getInstance().getLastActiveAccountID());
+		templates=loadTemplates(session.getID());
+
+		LongTimelineFragment[] _fragment={null};
+		activityScenarioRule.getScenario().onActivity(activity->{
+			Bundle args=new Bundle();
+			args.putString("account", session.getID());
+			args.putBoolean("_can_go_back", true);
+			LongTimelineFragment fragment=new LongTimelineFragment();
+			fragment.setArguments(args);
+			activity.showFragment(fragment);
+			_fragment[0]=fragment;
+		});
+		LongTimelineFragment fragment=_fragment[0];
+
+		int baselinePosts=scrollUntil(fragment, BASELINE_POSTS);
+		long baseline=usedHeapAfterGC();
+
+		int posts=scrollUntil(fragment, POST_COUNT)-baselinePosts;
+		long end=usedHeapAfterGC();
+
+		long perPost=Math.max(0, end-baseline)/posts;
+		int[] built={0, 0};
+		activityScenarioRule.getScenario().onActivity(activity->{
+			built[0]=fragment.getBuiltPostCount();
+			built[1]=fragment.getFullPostCount();
+		});
+		Assert.assertTrue("Heap grew by "+perPost+" bytes per post while scrolling "+posts+" posts, budget is "+BUDGET_BYTES_PER_POST, perPost<=BUDGET_BYTES_PER_POST);
+		Assert.assertTrue(built[0]+" posts still have their display items, expected at most "+MAX_BUILT_POSTS, built[0]<=MAX_BUILT_POSTS);
+		Assert.assertTrue(built[1]+" posts are still in memory, expected at most "+MAX_BUILT_POSTS, built[1]<=MAX_BUILT_POSTS);
+	}
+
+	/**
+	 * @return how many posts are loaded
+	 */
+	private int scrollUntil(LongTimelineFragment fragment, int postCount) throws InterruptedException{
+		long lastProgress=System.currentTimeMillis();
+		int lastCount=0;
+		while(true){
+			int[] count={0};
+			activityScenarioRule.getScenario().onActivity(activity->{
+				fragment.scrollByScreen();
+				count[0]=fragment.getLoadedPostCount();
+			});
+			if(count[0]>=postCount){
+				lastCount=count[0];
+				break;
+			}
+			if(count[0]!=lastCount){
+				lastCount=count[0];
+				lastProgress=System.currentTimeMillis();
+			}else if(System.currentTimeMillis()-lastProgress>LOAD_WAIT_TIMEOUT){
+				Assert.fail("Timeline stopped loading at "+count[0]+" posts");
+			}
+			// About a frame, so that the memory window gets updated as it would during a fling
+			Thread.sleep(16);
+		}
+		// Let the last update of the window happen
+		Thread.sleep(500);
+		return lastCount;
+	}
+
+	private static long usedHeapAfterGC() throws InterruptedException{
+		Runtime runtime=Runtime.getRuntime();
+		for(int i=0;i<3;i++){
+			runtime.gc();
+			System.runFinalization();
+			Thread.sleep(100);
+		}
+		return runtime.totalMemory()-runtime.freeMemory();
+	}
+
+	private static List<String> loadTemplates(String accountID) throws Exception{
+		ArrayList<String> result=new ArrayList<>();
+		CyclicBarrier barrier=new CyclicBarrier(2);
+		new GetHomeTimeline(null, null, 40, null)
+				.setCallback(new Callback<>(){
+					@Override
+					public void onSuccess(List<Status> page){
+						for(Status s:page)
+							result.add(MastodonAPIController.gson.toJson(s));
+						try{
+							barrier.await();
+						}catch(Exception ignore){}
+					}
+
+					@Override
+					public void onError(ErrorResponse error){
+						try{
+							barrier.await();
+						}catch(Exception ignore){}
+					}
+				})
+				.exec(accountID);
+		barrier.await();
+		Assert.assertFalse("The home timeline of the test account is empty", result.isEmpty());
+		return result;
+	}
+
+	/**
+	 * A timeline of {@link #POST_COUNT} posts made from the templates, each a separate object with its own ID, as if they all came from the server.
+	 * Like API responses, they go through the {@link app.kabinka.social.api.StatusStore}, so their authors are shared.
+	 */
+	public static class LongTimelineFragment extends StatusListFragment{
+		@Override
+		public void onCreate(Bundle savedInstanceState){
+			super.onCreate(savedInstanceState);
+			loadData();
+		}
+
+		@Override
+		protected void doLoadData(int offset, int count){
+			ArrayList<Status> page=new ArrayList<>();
+			for(int i=offset;i<Math.min(POST_COUNT, offset+PAGE_SIZE);i++){
+				Status s=MastodonAPIController.gson.fromJson(templates.get(i%templates.size()), Status.class);
+				s.id=String.valueOf(1_000_000_000L-i);
+				try{
+					s.postprocess();
+				}catch(ObjectValidationException x){
+					throw new IllegalStateException(x);
+				}
+				page.add(s);
+			}
+			AccountSessionManager.get(accountID).getStatusStore().intern(page);
+			// Like a response from the server, not right away
+			UiUtils.runOnUiThread(()->onDataLoaded(page, offset+PAGE_SIZE<POST_COUNT), 50);
+		}
+
+		public void scrollByScreen(){
+			if(list!=null)
+				list.scrollBy(0, list.getHeight());
+		}
+
+		public int getLoadedPostCount(){
+			return data.size();
+		}
+
+		public int getFullPostCount(){
+			int count=0;
+			for(Status s:data){
+				if(!isReleasedItem(s))
+					count++;
+			}
+			return count;
+		}
+
+		public int getBuiltPostCount(){
+			HashSet<String> built=new HashSet<>();
+			for(StatusDisplayItem item:displayItems){
+				if(!(item instanceof ReleasedStatusDisplayItem))
+					built.add(item.parentID);
+			}
+			return built.size();
+		}
+	}
+}
@@ -0,0 +1,189 @@
+package app.kabinka.social;
+
+import android.app.Activity;
+import android.os.Looper;
+import android.os.Process;
+import android.os.SystemClock;
+import android.os.Trace;
+import android.util.Log;
+import android.view.Choreographer;
+import android.view.View;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import me.grishka.appkit.utils.WorkerThread;
+
+/**
+ * Runs what needs to be done when the process starts, as a graph of tasks ordered by their dependencies.
+ * <p>
+ * Main thread tasks run right away in {@link #run()}, one after another, and should only be what's needed to show the first screen.
+ * Background tasks start as soon as everything they depend on is done. Idle tasks run on the main thread once it has nothing
+ * else to do, which is after the first frame. Every task is a trace section, so startup can be looked at in a system trace.
+ * The time from the process start to the first frame of the home timeline with posts in it is measured too, see {@link #onTimelineShown(Activity, View)}.
+ */
+public class AppStartup{
+	private static final String TAG="AppStartup";
+	private static final WorkerThread thread=new WorkerThread("AppStartup");
+	private static AppStartup current;
+
+	private final ArrayList<Task> tasks=new ArrayList<>();
+	private final long startTime=SystemClock.uptimeMillis();
+	private long timelineShownTime;
+
+	static{
+		thread.start();
+	}
+
+	/**
+	 * Add a task. A main thread task can only depend on other main thread tasks, because those are the ones that run before {@link #run()} returns.
+	 *
+	 * @param name         shows up in the trace and in the report
+	 * @param dependencies tasks that need to be done before this one starts. They need to have been added before it.
+	 */
+	public Task add(String name, Where where, Runnable action, Task... dependencies){
+		Task task=new Task(name, where, action, dependencies.length>0);
+		for(Task dependency:dependencies){
+			if(where==Where.MAIN && dependency.where!=Where.MAIN)
+				throw new IllegalArgumentException("Main thread task "+name+" can't depend on "+dependency.where+" task "+dependency.name);
+			dependency.dependents.add(task);
+			task.pendingDependencies++;
+		}
+		tasks.add(task);
+		return task;
+	}
+
+	/**
+	 * Run the main thread tasks, and schedule the rest. Must be called on the main thread.
+	 */
+	public void run(){
+		current=this;
+		Trace.beginSection("AppStartup");
+		try{
+			// Tasks are added after their dependencies, so this order is always one in which main thread tasks can run
+			for(Task task:tasks){
+				if(task.where==Where.MAIN)
+					task.execute();
+			}
+			for(Task task:tasks){
+				// The others are scheduled when their last dependency is done
+				if(task.where!=Where.MAIN && !task.hasDependencies)
+					task.schedule();
+			}
+		}finally{
+			Trace.endSection();
+		}
+		if(BuildConfig.DEBUG)
+			Log.d(TAG, "Main thread part of startup took "+(SystemClock.uptimeMillis()-startTime)+" ms");
+	}
+
+	/**
+	 * Called by the home timeline every time it displays posts. Measures when the first frame with them is drawn, the first time.
+	 */
+	public static void onTimelineShown(Activity activity, View view){
+		if(current==null || current.timelineShownTime!=0)
+			return;
+		current.timelineShownTime=-1;
+		// The frame callback runs before the next frame is drawn, and whatever it posts runs after that
+		Choreographer.getInstance().postFrameCallback(frameTimeNanos->view.post(()->{
+			current.timelineShownTime=SystemClock.uptimeMillis();
+			Trace.beginSection("First timeline frame");
+			Trace.endSection();
+			if(!activity.isFinishing())
+				activity.reportFullyDrawn();
+			if(BuildConfig.DEBUG)
+				Log.d(TAG, getReport());
+		}));
+	}
+
+	/**
+	 * @return a human-readable list of how long every task took and when it finished, relative to the process start
+	 */
+	public static String getReport(){
+		AppStartup startup=current;
+		if(startup==null)
+			return "Startup didn't run";
+		long processStart=Process.getStartUptimeMillis();
+		StringBuilder sb=new StringBuilder();
+		sb.append("Application created at ").append(startup.startTime-processStart).append(" ms\n");
+		synchronized(startup){
+			for(Task task:startup.tasks){
+				sb.append(task.name).append(" (").append(task.where.toString().toLowerCase()).append("): ");
+				if(task.endTime==0)
+					sb.append("not done\n");
+				else
+					sb.append(task.endTime-task.startTime).append(" ms, done at ").append(task.endTime-processStart).append(" ms\n");
+			}
+		}
+		if(startup.timelineShownTime>0)
+			sb.append("First timeline frame at ").append(startup.timelineShownTime-processStart).append(" ms");
+		else
+			sb.append("Timeline wasn't shown yet");
+		return sb.toString();
+	}
+
+	public enum Where{
+		/**
+		 * On the critical path, before the first activity is created
+		 */
+		MAIN,
+		BACKGROUND,
+		/**
+		 * On the main thread when it's idle, for things that have to be done there but aren't needed for the first frame
+		 */
+		IDLE
+	}
+
+	public class Task{
+		private final String name;
+		private final Where where;
+		private final Runnable action;
+		private final boolean hasDependencies;
+		private final List<Task> dependents=new ArrayList<>();
+		private int pendingDependencies;
+		private long startTime, endTime;
+
+		private Task(String name, Where where, Runnable action, boolean hasDependencies){
+			this.name=name;
+			this.where=where;
+			this.action=action;
+			this.hasDependencies=hasDependencies;
+		}
+
+		private void schedule(){
+			if(where==Where.BACKGROUND){
+				thread.postRunnable(this::execute, 0);
+			}else{
+				Looper.getMainLooper().getQueue().addIdleHandler(()->{
+					execute();
+					return false;
+				});
+			}
+		}
+
+		private void execute(){
+			Trace.beginSection(name);
+			long start=SystemClock.uptimeMillis();
+			try{
+				action.run();
+			}catch(RuntimeException x){
+				Log.e(TAG, "Startup task "+name+" failed", x);
+				if(BuildConfig.DEBUG)
+					throw x;
+			}finally{
+				Trace.endSection();
+			}
+			ArrayList<Task> ready=new ArrayList<>();
+			synchronized(AppStartup.this){
+				startTime=start;
+				endTime=SystemClock.uptimeMillis();
+				for(Task dependent:dependents){
+					if(--dependent.pendingDependencies==0 && dependent.where!=Where.MAIN)
+						ready.add(dependent);
+				}
+			}
+			for(Task task:ready)
+				task.schedule();
+		}
+	}
+}
@@ -20,7 +20,6 @@ import android.media.MediaMetadata;
 import android.media.MediaPlayer;
 import android.media.session.MediaSession;
 import android.media.session.PlaybackState;
-import android.net.Uri;
 import android.os.Build;
 import android.os.IBinder;
 import android.util.Log;
@@ -28,9 +27,9 @@ import android.util.Log;
 import app.kabinka.social.model.Attachment;
 import app.kabinka.social.model.Status;
 import app.kabinka.social.ui.text.HtmlParser;
+import app.kabinka.social.utils.CachingMediaDataSource;
 import org.parceler.Parcels;
 
-import java.io.IOException;
 import java.util.HashSet;
 
 import androidx.annotation.Nullable;
@@ -57,6 +56,7 @@ public class AudioPlayerService extends Service{
 	private AudioManager.OnAudioFocusChangeListener audioFocusChangeListener=this::onAudioFocusChanged;
 	private boolean resumeAfterAudioFocusGain;
 	private boolean isBuffering=true;
+	private boolean streamingDirectly;
 
 	private BroadcastReceiver receiver=new BroadcastReceiver(){
 		@Override
@@ -119,6 +119,7 @@ public class AudioPlayerService extends Service{
 			player=null;
 			playerReady=false;
 		}
+		streamingDirectly=false;
 		if(attachment!=null){
 			for(Callback cb:callbacks)
 				cb.onPlaybackStopped(attachment.id);
@@ -182,12 +183,8 @@ public class AudioPlayerService extends Service{
 		player.setOnCompletionListener(this::onPlayerCompletion);
 		player.setOnSeekCompleteListener(this::onPlayerSeekCompleted);
 		player.setOnInfoListener(this::onPlayerInfo);
-		try{
-			player.setDataSource(this, Uri.parse(attachment.url));
-			player.prepareAsync();
-		}catch(IOException x){
-			Log.w(TAG, "onStartCommand: error starting media player", x);
-		}
+		CachingMediaDataSource.setDataSource(player, attachment.url);
+		player.prepareAsync();
 
 		return START_NOT_STICKY;
 	}
@@ -201,6 +198,10 @@ public class AudioPlayerService extends Service{
 	}
 
 	private boolean onPlayerError(MediaPlayer mp, int error, int extra){
+		if(CachingMediaDataSource.retryWithoutCache(player, attachment.url, streamingDirectly)){
+			streamingDirectly=true;
+			return true;
+		}
 		Log.e(TAG, "onPlayerError() called with: mp = ["+mp+"], error = ["+error+"], extra = ["+extra+"]");
 		return false;
 	}
@@ -26,10 +26,13 @@ import app.kabinka.social.fragments.ThreadFragment;
 import app.kabinka.social.fragments.onboarding.AccountActivationFragment;
 import app.kabinka.social.model.Notification;
 import app.kabinka.social.model.SearchResults;
+import app.kabinka.social.ui.utils.StatusRenderProfiler;
 import app.kabinka.social.ui.utils.UiUtils;
 import app.kabinka.social.updater.GithubSelfUpdater;
 import org.parceler.Parcels;
 
+import java.io.FileDescriptor;
+import java.io.PrintWriter;
 import java.lang.reflect.InvocationTargetException;
 
 import androidx.annotation.Nullable;
@@ -232,6 +235,21 @@ public class MainActivity extends FragmentStackActivity{
 		return getFragmentManager().findFragmentById(fragmentContainers.get(fragmentContainers.size()-1).getId());
 	}
 
+	@Override
+	public void dump(String prefix, FileDescriptor fd, PrintWriter writer, String[] args){
+		super.dump(prefix, fd, writer, args);
+		if(StatusRenderProfiler.hasData()){
+			writer.println();
+			writer.print(prefix);
+			writer.println("Status list rendering:");
+			for(String line:StatusRenderProfiler.getReport().split("\n")){
+				writer.print(prefix);
+				writer.print("  ");
+				writer.println(line);
+			}
+		}
+	}
+
 	@Override
 	public void onProvideAssistContent(AssistContent outContent){
 		if(getTopmostFragment() instanceof AssistContentProviderFragment provider){
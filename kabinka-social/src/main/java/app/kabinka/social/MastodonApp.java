@@ -6,6 +6,8 @@ import android.content.Context;
 import android.webkit.WebView;
 
 import app.kabinka.social.api.PushSubscriptionManager;
+import app.kabinka.social.api.session.AccountSession;
+import app.kabinka.social.api.session.AccountSessionManager;
 
 import me.grishka.appkit.imageloader.ImageCache;
 import me.grishka.appkit.utils.NetworkUtils;
@@ -22,19 +24,40 @@ public class MastodonApp extends Application{
 		initializeWithContext(getApplicationContext());
 	}
 	
+	/**
+	 * Only the accounts and preferences are loaded on the main thread, everything else happens in the background or after the first frame.
+	 * See {@link AppStartup#getReport()} for how long it all took.
+	 */
 	public static void initializeWithContext(Context appContext) {
 		context = appContext;
-		V.setApplicationContext(context);
-		ImageCache.Parameters params=new ImageCache.Parameters();
-		params.diskCacheSize=100*1024*1024;
-		params.maxMemoryCacheSize=Integer.MAX_VALUE;
-		ImageCache.setParams(params);
-		NetworkUtils.setUserAgent("MastodonAndroid/"+BuildConfig.VERSION_NAME);
-
-		PushSubscriptionManager.tryRegisterFCM();
-		GlobalUserPreferences.load();
+		AppStartup startup=new AppStartup();
+		AppStartup.Task appkit=startup.add("appkit", AppStartup.Where.MAIN, ()->{
+			V.setApplicationContext(context);
+			ImageCache.Parameters params=new ImageCache.Parameters();
+			params.diskCacheSize=100*1024*1024;
+			params.maxMemoryCacheSize=Integer.MAX_VALUE;
+			ImageCache.setParams(params);
+			NetworkUtils.setUserAgent("MastodonAndroid/"+BuildConfig.VERSION_NAME);
+		});
+		AppStartup.Task accounts=startup.add("accounts", AppStartup.Where.MAIN, AccountSessionManager::getInstance, appkit);
+		AppStartup.Task preferences=startup.add("preferences", AppStartup.Where.MAIN, GlobalUserPreferences::load, accounts);
+		startup.add("instances", AppStartup.Where.BACKGROUND, ()->AccountSessionManager.getInstance().loadDeferredData(), accounts);
+		startup.add("shortcuts", AppStartup.Where.BACKGROUND, ()->AccountSessionManager.getInstance().maybeUpdateShortcuts(), accounts);
+		startup.add("push", AppStartup.Where.BACKGROUND, PushSubscriptionManager::tryRegisterFCM, preferences);
 		if(BuildConfig.DEBUG){
-			WebView.setWebContentsDebuggingEnabled(true);
+			startup.add("webViewDebugging", AppStartup.Where.IDLE, ()->WebView.setWebContentsDebuggingEnabled(true));
+		}
+		startup.run();
+	}
+
+	@Override
+	public void onTrimMemory(int level){
+		super.onTrimMemory(level);
+		if(level>=TRIM_MEMORY_UI_HIDDEN){
+			// The app went to the background, the databases don't need to be kept open for the next screen anymore
+			for(AccountSession session:AccountSessionManager.getInstance().getLoggedInAccounts()){
+				session.getCacheController().closeSoon();
+			}
 		}
 	}
 }
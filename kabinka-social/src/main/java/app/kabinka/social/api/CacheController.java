@@ -2,11 +2,16 @@ package app.kabinka.social.api;
 
 import android.content.ContentValues;
 import android.database.Cursor;
+import android.database.DatabaseUtils;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteException;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
 import android.os.Handler;
 import android.os.Looper;
+import android.os.SystemClock;
+import android.text.TextUtils;
+import android.util.AtomicFile;
 import android.util.Log;
 
 import com.google.gson.reflect.TypeToken;
@@ -18,7 +23,9 @@ import app.kabinka.social.api.requests.notifications.GetNotificationsV1;
 import app.kabinka.social.api.requests.notifications.GetNotificationsV2;
 import app.kabinka.social.api.requests.timelines.GetHomeTimeline;
 import app.kabinka.social.api.session.AccountSessionManager;
+import app.kabinka.social.events.StatusCountersUpdatedEvent;
 import app.kabinka.social.model.Account;
+import app.kabinka.social.model.Attachment;
 import app.kabinka.social.model.CacheablePaginatedResponse;
 import app.kabinka.social.model.FilterContext;
 import app.kabinka.social.model.FollowList;
@@ -26,20 +33,28 @@ import app.kabinka.social.model.Notification;
 import app.kabinka.social.model.NotificationGroup;
 import app.kabinka.social.model.NotificationType;
 import app.kabinka.social.model.PaginatedResponse;
+import app.kabinka.social.model.Poll;
 import app.kabinka.social.model.SearchResult;
 import app.kabinka.social.model.Status;
 import app.kabinka.social.model.viewmodel.NotificationViewModel;
+import app.kabinka.social.ui.text.HtmlParser;
 
+import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.Set;
+import java.util.function.BiConsumer;
 import java.util.function.Consumer;
 import java.util.function.Function;
 import java.util.stream.Collectors;
@@ -50,18 +65,42 @@ import me.grishka.appkit.utils.WorkerThread;
 
 public class CacheController{
 	private static final String TAG="CacheController";
-	private static final int DB_VERSION=5;
+	private static final int DB_VERSION=9;
+	/**
+	 * For the accounts database and other work that isn't done for one account. The caches of accounts have their own {@link DatabaseExecutor}s.
+	 */
 	public static final WorkerThread databaseThread=new WorkerThread("databaseThread");
 	public static final Handler uiHandler=new Handler(Looper.getMainLooper());
 
 	private final String accountID;
+	private final DatabaseExecutor executor;
+	private final Object databaseLock=new Object();
 	private DatabaseHelper db;
-	private final Runnable databaseCloseRunnable=this::closeDatabase;
+	// Reads and writes in progress, the database isn't closed while there are any. Guarded by databaseLock.
+	private int databaseUsers;
+	// Whether the posts released by the lists of the previous process were dropped. Guarded by databaseLock.
+	private boolean droppedStaleReleasedPosts;
+	private volatile boolean released;
+	private final Runnable databaseCloseRunnable=this::closeIdleDatabase;
+	private final Runnable flushWritesRunnable=this::flushPendingWrites;
+	private final LinkedHashMap<Object, DatabaseRunnable> pendingWrites=new LinkedHashMap<>();
+	private boolean flushPosted;
+	// Every queued write gets a number, reads wait until the writes queued before them are done. Guarded by pendingWrites.
+	private long lastQueuedWrite, lastDoneWrite;
+	private final HashMap<String, SQLiteStatement> compiledStatements=new HashMap<>();
 	private boolean loadingNotifications;
 	private final ArrayList<Callback<PaginatedResponse<List<NotificationViewModel>>>> pendingNotificationsCallbacks=new ArrayList<>();
 	private List<FollowList> lists;
+	private CacheValidators listsValidators;
 
 	private static final int POST_FLAG_GAP_AFTER=1;
+	private static final int MAX_SEARCH_INDEX_SIZE=10_000;
+	private static final int MAX_POSTS_PER_TIMELINE=200;
+	private static final int MAX_CACHED_TIMELINES=20;
+	private static final long WRITE_BATCH_DELAY=250;
+	private static final long MAX_TIMELINE_SNAPSHOT_AGE=24*3600_000;
+	private static final long KEEP_WARM_TIMEOUT=5*60_000;
+	private static final long BACKGROUND_CLOSE_DELAY=10_000;
 
 	static{
 		databaseThread.start();
@@ -69,34 +108,40 @@ public class CacheController{
 
 	public CacheController(String accountID){
 		this.accountID=accountID;
+		executor=new DatabaseExecutor("databaseWriter:"+accountID);
 	}
 
 	public void getHomeTimeline(String maxID, int count, boolean forceReload, Callback<CacheablePaginatedResponse<List<Status>>> callback){
 		cancelDelayedClose();
-		databaseThread.postRunnable(()->{
+		long writeBarrier=getLastQueuedWrite();
+		executor.read(DatabaseExecutor.Priority.UI, ()->{
 			try{
 				if(!forceReload){
-					SQLiteDatabase db=getOrOpenDatabase();
+					SQLiteDatabase db=acquireDatabase(writeBarrier);
 					try(Cursor cursor=db.query("home_timeline", new String[]{"json", "flags"}, maxID==null ? null : "`id`<?", maxID==null ? null : new String[]{maxID}, null, null, "`time` DESC", count+"")){
 						if(cursor.getCount()==count){
 							ArrayList<Status> result=new ArrayList<>();
+							HashSet<String> idsWithGapAfter=new HashSet<>();
 							cursor.moveToFirst();
 							String newMaxID;
 							do{
 								Status status=MastodonAPIController.gson.fromJson(cursor.getString(0), Status.class);
 								status.postprocess();
 								int flags=cursor.getInt(1);
-								status.hasGapAfter=((flags & POST_FLAG_GAP_AFTER)!=0);
+								if((flags & POST_FLAG_GAP_AFTER)!=0)
+									idsWithGapAfter.add(status.id);
 								newMaxID=status.id;
 								result.add(status);
 							}while(cursor.moveToNext());
 							String _newMaxID=newMaxID;
 							AccountSessionManager.get(accountID).filterStatuses(result, FilterContext.HOME);
-							uiHandler.post(()->callback.onSuccess(new CacheablePaginatedResponse<>(result, _newMaxID, true)));
+							uiHandler.post(()->callback.onSuccess(new CacheablePaginatedResponse<>(AccountSessionManager.get(accountID).getStatusStore().internCached(result), _newMaxID, true, idsWithGapAfter)));
 							return;
 						}
 					}catch(IOException x){
 						Log.w(TAG, "getHomeTimeline: corrupted status object in database", x);
+					}finally{
+						releaseDatabase();
 					}
 				}
 				new GetHomeTimeline(maxID, null, count, null)
@@ -121,27 +166,228 @@ public class CacheController{
 			}finally{
 				closeDelayed();
 			}
-		}, 0);
+		});
 	}
 
 	public void putHomeTimeline(List<Status> posts, boolean clear){
-		runOnDbThread((db)->{
+		putHomeTimeline(posts, Collections.emptySet(), clear);
+	}
+
+	/**
+	 * @param idsWithGapAfter the posts that are followed by a gap, only the ones in posts are looked at
+	 */
+	public void putHomeTimeline(List<Status> posts, Set<String> idsWithGapAfter, boolean clear){
+		List<PostRow> rows=makePostRows(posts, idsWithGapAfter);
+		List<SearchIndexRow> searchRows=makeSearchIndexRows(posts);
+		enqueueWrite(null, (db)->{
 			if(clear)
 				db.delete("home_timeline", null, null);
-			ContentValues values=new ContentValues(4);
-			for(Status s:posts){
-				values.put("id", s.id);
-				values.put("json", MastodonAPIController.gson.toJson(s));
-				int flags=0;
-				if(s.hasGapAfter)
-					flags|=POST_FLAG_GAP_AFTER;
-				values.put("flags", flags);
-				values.put("time", s.createdAt.getEpochSecond());
-				db.insertWithOnConflict("home_timeline", null, values, SQLiteDatabase.CONFLICT_REPLACE);
+			SQLiteStatement insert=getCompiledStatement(db, "INSERT OR REPLACE INTO `home_timeline` (`id`, `json`, `flags`, `time`) VALUES (?, ?, ?, ?)");
+			for(PostRow row:rows){
+				insert.bindString(1, row.id);
+				insert.bindString(2, row.json);
+				insert.bindLong(3, row.flags);
+				insert.bindLong(4, row.time);
+				insert.executeInsert();
+			}
+			putSearchIndex(db, searchRows, false);
+		});
+	}
+
+	/**
+	 * Read the cached posts of a timeline other than home.
+	 * @param maxID null to get the newest posts, or the ID of the last post that was already loaded to get the ones after it
+	 * @param callback receives the posts and the IDs of the ones followed by a gap, or null if they aren't cached.
+	 *                 A page after the first one is only returned if it's complete, because the server might have posts
+	 *                 that are missing from the cache after the cached ones.
+	 */
+	public void getCachedTimeline(CachedTimeline timeline, String maxID, int count, BiConsumer<List<Status>, Set<String>> callback){
+		runRead(DatabaseExecutor.Priority.UI, (db)->{
+			String selection="`timeline`=?";
+			String[] args={timeline.key};
+			if(maxID!=null){
+				long sortKey;
+				try(Cursor cursor=db.query("timelines", new String[]{"sort_key"}, "`timeline`=? AND `id`=?", new String[]{timeline.key, maxID}, null, null, null)){
+					if(!cursor.moveToFirst()){
+						uiHandler.post(()->callback.accept(null, null));
+						return;
+					}
+					sortKey=cursor.getLong(0);
+				}
+				selection+=" AND (`sort_key`<? OR (`sort_key`=? AND `id`<?))";
+				args=new String[]{timeline.key, String.valueOf(sortKey), String.valueOf(sortKey), maxID};
+			}
+			ArrayList<Status> result=new ArrayList<>();
+			HashSet<String> idsWithGapAfter=new HashSet<>();
+			try(Cursor cursor=db.query("timelines", new String[]{"json", "flags"}, selection, args, null, null, "`sort_key` DESC, `id` DESC", count+"")){
+				if(cursor.getCount()==0 || (maxID!=null && cursor.getCount()<count)){
+					uiHandler.post(()->callback.accept(null, null));
+					return;
+				}
+				while(cursor.moveToNext()){
+					Status status=MastodonAPIController.gson.fromJson(cursor.getString(0), Status.class);
+					status.postprocess();
+					if((cursor.getInt(1) & POST_FLAG_GAP_AFTER)!=0)
+						idsWithGapAfter.add(status.id);
+					result.add(status);
+				}
+			}
+			enqueueWrite("touch/"+timeline.key, (wdb)->touchTimeline(wdb, timeline));
+			if(timeline.filterContext!=null)
+				AccountSessionManager.get(accountID).filterStatuses(result, timeline.filterContext);
+			uiHandler.post(()->callback.accept(AccountSessionManager.get(accountID).getStatusStore().internCached(result), idsWithGapAfter));
+		}, x->uiHandler.post(()->callback.accept(null, null)));
+	}
+
+	/**
+	 * Store posts of a timeline other than home. Posts that are already cached are updated, keeping their place in the timeline.
+	 * Only the newest {@link #MAX_POSTS_PER_TIMELINE} posts are kept, and only for the {@link #MAX_CACHED_TIMELINES} timelines that were used most recently.
+	 * @param clear whether these are the newest posts and the ones that were cached before should be dropped
+	 */
+	public void putTimeline(CachedTimeline timeline, List<Status> posts, boolean clear){
+		putTimeline(timeline, posts, Collections.emptySet(), clear);
+	}
+
+	/**
+	 * @param idsWithGapAfter the posts that are followed by a gap, only the ones in posts are looked at
+	 */
+	public void putTimeline(CachedTimeline timeline, List<Status> posts, Set<String> idsWithGapAfter, boolean clear){
+		List<PostRow> rows=makePostRows(posts, idsWithGapAfter);
+		enqueueWrite(null, (db)->{
+			String[] timelineArgs={timeline.key};
+			if(clear)
+				db.delete("timelines", "`timeline`=?", timelineArgs);
+			// Pages of timelines that aren't chronological are added after the posts that are already there
+			long nextSortKey=0;
+			if(!timeline.chronological && !clear){
+				try(Cursor cursor=db.rawQuery("SELECT MIN(`sort_key`) FROM `timelines` WHERE `timeline`=?", timelineArgs)){
+					if(cursor.moveToFirst() && !cursor.isNull(0))
+						nextSortKey=cursor.getLong(0)-1;
+				}
+			}
+			ContentValues values=new ContentValues(5);
+			values.put("timeline", timeline.key);
+			for(PostRow row:rows){
+				values.put("id", row.id);
+				values.put("json", row.json);
+				values.put("flags", row.flags);
+				if(timeline.chronological){
+					values.put("sort_key", row.time);
+					db.insertWithOnConflict("timelines", null, values, SQLiteDatabase.CONFLICT_REPLACE);
+				}else{
+					values.remove("sort_key");
+					if(db.update("timelines", values, "`timeline`=? AND `id`=?", new String[]{timeline.key, row.id})==0){
+						values.put("sort_key", nextSortKey--);
+						db.insert("timelines", null, values);
+					}
+				}
 			}
+			db.execSQL("DELETE FROM `timelines` WHERE `timeline`=? AND `rowid` NOT IN (SELECT `rowid` FROM `timelines` WHERE `timeline`=? ORDER BY `sort_key` DESC, `id` DESC LIMIT "+MAX_POSTS_PER_TIMELINE+")",
+					new String[]{timeline.key, timeline.key});
+			touchTimeline(db, timeline);
 		});
 	}
 
+	/**
+	 * The posts are live objects that the UI keeps changing, so they're serialized on the calling thread, and the writer thread
+	 * only gets the results. Same for the set of gaps, which belongs to the timeline.
+	 */
+	private static List<PostRow> makePostRows(List<Status> posts, Set<String> idsWithGapAfter){
+		ArrayList<PostRow> rows=new ArrayList<>(posts.size());
+		for(Status s:posts)
+			rows.add(new PostRow(s.id, MastodonAPIController.gson.toJson(s), idsWithGapAfter.contains(s.id) ? POST_FLAG_GAP_AFTER : 0, s.createdAt.getEpochSecond()));
+		return rows;
+	}
+
+	private void touchTimeline(SQLiteDatabase db, CachedTimeline timeline){
+		ContentValues values=new ContentValues(2);
+		values.put("timeline", timeline.key);
+		values.put("last_used", System.currentTimeMillis());
+		db.insertWithOnConflict("timelines_lru", null, values, SQLiteDatabase.CONFLICT_REPLACE);
+		String evicted="SELECT `timeline` FROM `timelines_lru` ORDER BY `last_used` DESC LIMIT -1 OFFSET "+MAX_CACHED_TIMELINES;
+		db.execSQL("DELETE FROM `timelines` WHERE `timeline` IN ("+evicted+")");
+		db.execSQL("DELETE FROM `timelines_lru` WHERE `timeline` IN ("+evicted+")");
+	}
+
+	/**
+	 * Replace the snapshot of a timeline. The posts are serialized right away, on the main thread, because they're the live
+	 * instances that the UI keeps changing. Only writing the file happens on the writer thread.
+	 * @param key unique within the account
+	 */
+	public void putTimelineSnapshot(String key, TimelineSnapshot snapshot){
+		byte[] json=MastodonAPIController.gson.toJson(snapshot).getBytes(StandardCharsets.UTF_8);
+		executor.write(()->{
+			AtomicFile file=new AtomicFile(getTimelineSnapshotFile(key));
+			FileOutputStream out=null;
+			try{
+				out=file.startWrite();
+				out.write(json);
+				file.finishWrite(out);
+			}catch(IOException x){
+				Log.w(TAG, "putTimelineSnapshot: failed to write "+key, x);
+				if(out!=null)
+					file.failWrite(out);
+			}
+		});
+	}
+
+	/**
+	 * The snapshot is decoded on a reader thread, its posts are interned on the main thread before the callback gets them.
+	 * @param callback receives the snapshot, or null if there isn't one or it's older than {@link #MAX_TIMELINE_SNAPSHOT_AGE}
+	 */
+	public void getTimelineSnapshot(String key, Consumer<TimelineSnapshot> callback){
+		executor.read(DatabaseExecutor.Priority.UI, ()->{
+			TimelineSnapshot snapshot=null;
+			File file=getTimelineSnapshotFile(key);
+			if(file.exists()){
+				try{
+					snapshot=MastodonAPIController.gson.fromJson(new String(new AtomicFile(file).readFully(), StandardCharsets.UTF_8), TimelineSnapshot.class);
+					if(snapshot==null || snapshot.posts==null || snapshot.posts.isEmpty() || System.currentTimeMillis()-snapshot.time>MAX_TIMELINE_SNAPSHOT_AGE){
+						snapshot=null;
+					}else{
+						for(Status s:snapshot.posts)
+							s.postprocess();
+					}
+				}catch(IOException|RuntimeException x){
+					Log.w(TAG, "getTimelineSnapshot: corrupted snapshot of "+key, x);
+					snapshot=null;
+				}
+			}
+			TimelineSnapshot result=snapshot;
+			uiHandler.post(()->{
+				if(result!=null)
+					AccountSessionManager.get(accountID).getStatusStore().internCached(result.posts);
+				callback.accept(result);
+			});
+		});
+	}
+
+	public void deleteTimelineSnapshot(String key){
+		executor.write(()->new AtomicFile(getTimelineSnapshotFile(key)).delete());
+	}
+
+	/**
+	 * Called when the account is removed. Runs right away because the writer thread is stopped by then.
+	 */
+	public void deleteAllTimelineSnapshots(){
+		File[] files=getTimelineSnapshotsDir().listFiles();
+		if(files!=null){
+			for(File file:files)
+				file.delete();
+		}
+		getTimelineSnapshotsDir().delete();
+	}
+
+	private File getTimelineSnapshotsDir(){
+		return new File(MastodonApp.context.getCacheDir(), "timeline_snapshots/"+accountID);
+	}
+
+	private File getTimelineSnapshotFile(String key){
+		File dir=getTimelineSnapshotsDir();
+		dir.mkdirs();
+		return new File(dir, key.replace('/', '_')+".json");
+	}
+
 	private List<NotificationViewModel> makeNotificationViewModels(List<NotificationGroup> notifications, Map<String, Account> accounts, Map<String, Status> statuses){
 		return notifications.stream()
 				.filter(ng->ng.type!=null)
@@ -164,16 +410,19 @@ public class CacheController{
 
 	public void getNotifications(String maxID, int count, boolean onlyMentions, boolean forceReload, Callback<PaginatedResponse<List<NotificationViewModel>>> callback){
 		cancelDelayedClose();
-		databaseThread.postRunnable(()->{
+		long writeBarrier=getLastQueuedWrite();
+		executor.read(DatabaseExecutor.Priority.UI, ()->{
 			try{
 				if(!forceReload){
-					SQLiteDatabase db=getOrOpenDatabase();
+					SQLiteDatabase db=acquireDatabase(writeBarrier);
 					String suffix=onlyMentions ? "mentions" : "all";
 					String table="notifications_"+suffix;
 					String accountsTable="notifications_accounts_"+suffix;
 					String statusesTable="notifications_statuses_"+suffix;
 					try(Cursor cursor=db.query(table, new String[]{"json"}, maxID==null ? null : "`max_id`<?", maxID==null ? null : new String[]{maxID}, null, null, "`time` DESC", count+"")){
-						if(cursor.getCount()==count){
+						// Locally grouped pages have fewer groups than notifications, see LocalNotificationGrouper
+						boolean groupedLocally=AccountSessionManager.get(accountID).getInstanceInfo().getApiVersion()<2;
+						if(cursor.getCount()==count || (groupedLocally && cursor.getCount()>0)){
 							ArrayList<NotificationGroup> result=new ArrayList<>();
 							cursor.moveToFirst();
 							String newMaxID;
@@ -187,6 +436,17 @@ public class CacheController{
 									needStatuses.add(ntf.statusId);
 								result.add(ntf);
 							}while(cursor.moveToNext());
+							if(groupedLocally && cursor.getCount()==count){
+								// The last page might have been cut off by the limit. All groups from one page share pageMinId,
+								// so drop that page entirely and load it next time, unless it's the only one.
+								int firstOfLastPage=result.size();
+								while(firstOfLastPage>0 && Objects.equals(result.get(firstOfLastPage-1).pageMinId, newMaxID))
+									firstOfLastPage--;
+								if(firstOfLastPage>0){
+									result.subList(firstOfLastPage, result.size()).clear();
+									newMaxID=result.get(result.size()-1).pageMinId;
+								}
+							}
 							String _newMaxID=newMaxID;
 							HashMap<String, Account> accounts=new HashMap<>();
 							HashMap<String, Status> statuses=new HashMap<>();
@@ -210,22 +470,29 @@ public class CacheController{
 									}
 								}
 							}
-							uiHandler.post(()->callback.onSuccess(new PaginatedResponse<>(makeNotificationViewModels(result, accounts, statuses), _newMaxID)));
+							List<NotificationViewModel> notifications=makeNotificationViewModels(result, accounts, statuses);
+							uiHandler.post(()->callback.onSuccess(new PaginatedResponse<>(AccountSessionManager.get(accountID).getStatusStore().internCached(notifications), _newMaxID)));
 							return;
 						}
 					}catch(IOException x){
 						Log.w(TAG, "getNotifications: corrupted notification object in database", x);
+					}finally{
+						releaseDatabase();
 					}
 				}
 
-				if(!onlyMentions && loadingNotifications){
+				// Only loads of the first page are shared, loads of other pages need their own results
+				boolean shared=!onlyMentions && maxID==null;
+				if(shared){
+					// Reads run concurrently, so checking and setting this has to happen at once
 					synchronized(pendingNotificationsCallbacks){
-						pendingNotificationsCallbacks.add(callback);
+						if(loadingNotifications){
+							pendingNotificationsCallbacks.add(callback);
+							return;
+						}
+						loadingNotifications=true;
 					}
-					return;
 				}
-				if(!onlyMentions)
-					loadingNotifications=true;
 				if(AccountSessionManager.get(accountID).getInstanceInfo().getApiVersion()>=2){
 					new GetNotificationsV2(maxID, count, onlyMentions ? EnumSet.of(NotificationType.MENTION): EnumSet.allOf(NotificationType.class), NotificationType.getGroupableTypes())
 							.setCallback(new Callback<>(){
@@ -234,13 +501,13 @@ public class CacheController{
 									Map<String, Account> accounts=result.accounts.stream().collect(Collectors.toMap(a->a.id, Function.identity(), (a1, a2)->a2));
 									Map<String, Status> statuses=result.statuses.stream().collect(Collectors.toMap(s->s.id, Function.identity(), (s1, s2)->s2));
 									List<NotificationViewModel> notifications=makeNotificationViewModels(result.notificationGroups, accounts, statuses);
-									databaseThread.postRunnable(()->putNotifications(result.notificationGroups, result.accounts, result.statuses, onlyMentions, maxID==null), 0);
+									putNotifications(result.notificationGroups, result.accounts, result.statuses, onlyMentions, maxID==null);
 									PaginatedResponse<List<NotificationViewModel>> res=new PaginatedResponse<>(notifications,
 											result.notificationGroups.isEmpty() ? null : result.notificationGroups.get(result.notificationGroups.size()-1).pageMinId);
 									callback.onSuccess(res);
-									if(!onlyMentions){
-										loadingNotifications=false;
+									if(shared){
 										synchronized(pendingNotificationsCallbacks){
+											loadingNotifications=false;
 											for(Callback<PaginatedResponse<List<NotificationViewModel>>> cb:pendingNotificationsCallbacks){
 												cb.onSuccess(res);
 											}
@@ -252,9 +519,9 @@ public class CacheController{
 								@Override
 								public void onError(ErrorResponse error){
 									callback.onError(error);
-									if(!onlyMentions){
-										loadingNotifications=false;
+									if(shared){
 										synchronized(pendingNotificationsCallbacks){
+											loadingNotifications=false;
 											for(Callback<PaginatedResponse<List<NotificationViewModel>>> cb:pendingNotificationsCallbacks){
 												cb.onError(error);
 											}
@@ -269,50 +536,33 @@ public class CacheController{
 							.setCallback(new Callback<>(){
 								@Override
 								public void onSuccess(List<Notification> result){
+									// Both the groups and the next page start from the oldest notification the server returned, filtered out or not
+									String pageMinID=result.isEmpty() ? null : result.get(result.size()-1).id;
 									ArrayList<Notification> filtered=new ArrayList<>(result);
 									AccountSessionManager.get(accountID).filterStatusContainingObjects(filtered, n->n.status, FilterContext.NOTIFICATIONS);
-									List<Status> statuses=filtered.stream().map(n->n.status).filter(Objects::nonNull).collect(Collectors.toList());
-									List<Account> accounts=filtered.stream().map(n->n.account).collect(Collectors.toList());
-									List<NotificationViewModel> converted=filtered.stream()
-											.map(n->{
-												NotificationGroup group=new NotificationGroup();
-												group.groupKey="converted-"+n.id;
-												group.notificationsCount=1;
-												group.type=n.type;
-												group.mostRecentNotificationId=group.pageMaxId=group.pageMinId=n.id;
-												group.latestPageNotificationAt=n.createdAt;
-												group.sampleAccountIds=List.of(n.account.id);
-												group.event=n.event;
-												group.moderationWarning=n.moderationWarning;
-												if(n.status!=null)
-													group.statusId=n.status.id;
-												NotificationViewModel nvm=new NotificationViewModel();
-												nvm.notification=group;
-												nvm.status=n.status;
-												nvm.accounts=List.of(n.account);
-												return nvm;
-											})
-											.collect(Collectors.toList());
-									PaginatedResponse<List<NotificationViewModel>> res=new PaginatedResponse<>(converted, result.isEmpty() ? null : result.get(result.size()-1).id);
+									List<NotificationViewModel> converted=LocalNotificationGrouper.group(filtered, pageMinID);
+									List<Status> statuses=converted.stream().map(nvm->nvm.status).filter(Objects::nonNull).collect(Collectors.toList());
+									List<Account> accounts=converted.stream().flatMap(nvm->nvm.accounts.stream()).collect(Collectors.toList());
+									PaginatedResponse<List<NotificationViewModel>> res=new PaginatedResponse<>(converted, pageMinID);
 									callback.onSuccess(res);
-									if(!onlyMentions){
-										loadingNotifications=false;
+									if(shared){
 										synchronized(pendingNotificationsCallbacks){
+											loadingNotifications=false;
 											for(Callback<PaginatedResponse<List<NotificationViewModel>>> cb:pendingNotificationsCallbacks){
 												cb.onSuccess(res);
 											}
 											pendingNotificationsCallbacks.clear();
 										}
 									}
-									databaseThread.postRunnable(()->putNotifications(converted.stream().map(nvm->nvm.notification).collect(Collectors.toList()), accounts, statuses, onlyMentions, maxID==null), 0);
+									putNotifications(converted.stream().map(nvm->nvm.notification).collect(Collectors.toList()), accounts, statuses, onlyMentions, maxID==null);
 								}
 
 								@Override
 								public void onError(ErrorResponse error){
 									callback.onError(error);
-									if(!onlyMentions){
-										loadingNotifications=false;
+									if(shared){
 										synchronized(pendingNotificationsCallbacks){
+											loadingNotifications=false;
 											for(Callback<PaginatedResponse<List<NotificationViewModel>>> cb:pendingNotificationsCallbacks){
 												cb.onError(error);
 											}
@@ -329,11 +579,25 @@ public class CacheController{
 			}finally{
 				closeDelayed();
 			}
-		}, 0);
+		});
 	}
 
 	private void putNotifications(List<NotificationGroup> notifications, List<Account> accounts, List<Status> statuses, boolean onlyMentions, boolean clear){
-		runOnDbThread((db)->{
+		// Serialized here for the same reason as in makePostRows
+		ArrayList<NotificationRow> notificationRows=new ArrayList<>(notifications.size());
+		for(NotificationGroup n:notifications){
+			if(n.type==null)
+				continue;
+			notificationRows.add(new NotificationRow(n.groupKey, MastodonAPIController.gson.toJson(n), n.type.ordinal(), n.latestPageNotificationAt.getEpochSecond(), n.pageMaxId));
+		}
+		ArrayList<String[]> accountRows=new ArrayList<>(accounts.size());
+		for(Account acc:accounts)
+			accountRows.add(new String[]{acc.id, MastodonAPIController.gson.toJson(acc)});
+		ArrayList<String[]> statusRows=new ArrayList<>(statuses.size());
+		for(Status st:statuses)
+			statusRows.add(new String[]{st.id, MastodonAPIController.gson.toJson(st)});
+		List<SearchIndexRow> searchRows=makeSearchIndexRows(statuses);
+		enqueueWrite(null, (db)->{
 			String suffix=onlyMentions ? "mentions" : "all";
 			String table="notifications_"+suffix;
 			String accountsTable="notifications_accounts_"+suffix;
@@ -343,34 +607,33 @@ public class CacheController{
 				db.delete(accountsTable, null, null);
 				db.delete(statusesTable, null, null);
 			}
-			ContentValues values=new ContentValues(4);
-			for(NotificationGroup n:notifications){
-				if(n.type==null){
-					continue;
-				}
-				values.put("id", n.groupKey);
-				values.put("json", MastodonAPIController.gson.toJson(n));
-				values.put("type", n.type.ordinal());
-				values.put("time", n.latestPageNotificationAt.getEpochSecond());
-				values.put("max_id", n.pageMaxId);
-				db.insertWithOnConflict(table, null, values, SQLiteDatabase.CONFLICT_REPLACE);
-			}
-			values.clear();
-			for(Account acc:accounts){
-				values.put("id", acc.id);
-				values.put("json", MastodonAPIController.gson.toJson(acc));
-				db.insertWithOnConflict(accountsTable, null, values, SQLiteDatabase.CONFLICT_REPLACE);
-			}
-			for(Status s:statuses){
-				values.put("id", s.id);
-				values.put("json", MastodonAPIController.gson.toJson(s));
-				db.insertWithOnConflict(statusesTable, null, values, SQLiteDatabase.CONFLICT_REPLACE);
+			SQLiteStatement insert=getCompiledStatement(db, "INSERT OR REPLACE INTO `"+table+"` (`id`, `json`, `type`, `time`, `max_id`) VALUES (?, ?, ?, ?, ?)");
+			for(NotificationRow row:notificationRows){
+				insert.bindString(1, row.id);
+				insert.bindString(2, row.json);
+				insert.bindLong(3, row.type);
+				insert.bindLong(4, row.time);
+				insert.bindString(5, row.maxID);
+				insert.executeInsert();
+			}
+			insert=getCompiledStatement(db, "INSERT OR REPLACE INTO `"+accountsTable+"` (`id`, `json`) VALUES (?, ?)");
+			for(String[] row:accountRows){
+				insert.bindString(1, row[0]);
+				insert.bindString(2, row[1]);
+				insert.executeInsert();
 			}
+			insert=getCompiledStatement(db, "INSERT OR REPLACE INTO `"+statusesTable+"` (`id`, `json`) VALUES (?, ?)");
+			for(String[] row:statusRows){
+				insert.bindString(1, row[0]);
+				insert.bindString(2, row[1]);
+				insert.executeInsert();
+			}
+			putSearchIndex(db, searchRows, false);
 		});
 	}
 
 	public void getRecentSearches(Consumer<List<SearchResult>> callback){
-		runOnDbThread((db)->{
+		runRead(DatabaseExecutor.Priority.UI, (db)->{
 			try(Cursor cursor=db.query("recent_searches", new String[]{"json"}, null, null, null, null, "time DESC")){
 				List<SearchResult> results=new ArrayList<>();
 				while(cursor.moveToNext()){
@@ -384,33 +647,275 @@ public class CacheController{
 	}
 
 	public void putRecentSearch(SearchResult result){
-		runOnDbThread((db)->{
+		String id=result.getID(), json=MastodonAPIController.gson.toJson(result);
+		enqueueWrite("recent_search/"+id, (db)->{
 			ContentValues values=new ContentValues(4);
-			values.put("id", result.getID());
-			values.put("json", MastodonAPIController.gson.toJson(result));
+			values.put("id", id);
+			values.put("json", json);
 			values.put("time", (int)(System.currentTimeMillis()/1000));
 			db.insertWithOnConflict("recent_searches", null, values, SQLiteDatabase.CONFLICT_REPLACE);
 		});
 	}
 
 	public void deleteStatus(String id){
-		runOnDbThread((db)->{
+		enqueueWrite(null, (db)->{
 			db.delete("home_timeline", "`id`=?", new String[]{id});
+			db.delete("timelines", "`id`=?", new String[]{id});
+			try(Cursor cursor=db.query("search_statuses", new String[]{"rowid"}, "`id`=?", new String[]{id}, null, null, null)){
+				if(cursor.moveToFirst()){
+					String[] rowid={cursor.getString(0)};
+					db.delete("search_statuses_fts", "`docid`=?", rowid);
+					db.delete("search_statuses", "`rowid`=?", rowid);
+				}
+			}
 		});
 	}
 
+	/**
+	 * Add posts to the local search index. Posts from the home timeline and notifications are added automatically,
+	 * this is for other places where the user might remember seeing a post, like their bookmarks.
+	 */
+	public void indexStatuses(List<Status> statuses){
+		List<SearchIndexRow> rows=makeSearchIndexRows(statuses);
+		enqueueWrite(null, (db)->putSearchIndex(db, rows, false));
+	}
+
+	/**
+	 * Update a post in the local search index after it was edited. Does nothing if the post isn't indexed.
+	 */
+	public void updateIndexedStatus(Status status){
+		List<SearchIndexRow> rows=makeSearchIndexRows(List.of(status));
+		enqueueWrite(null, (db)->putSearchIndex(db, rows, true));
+	}
+
+	/**
+	 * Search the posts that were cached on this device. Every word in the query matches as a prefix
+	 * against the text, the author's name and username, and the hashtags of a post.
+	 * @param callback receives the matching posts, newest first; an empty list if there are none or the query has no words
+	 */
+	public void searchCachedStatuses(String query, int count, Consumer<List<Status>> callback){
+		String match=StatusSearchIndex.buildMatchExpression(query);
+		if(match.isEmpty()){
+			callback.accept(List.of());
+			return;
+		}
+		runRead(DatabaseExecutor.Priority.UI, (db)->{
+			long startTime=SystemClock.uptimeMillis();
+			ArrayList<Status> result=new ArrayList<>();
+			try(Cursor cursor=db.rawQuery(StatusSearchIndex.buildSearchQuery(count), new String[]{match})){
+				while(cursor.moveToNext()){
+					Status status=MastodonAPIController.gson.fromJson(cursor.getString(0), Status.class);
+					status.postprocess();
+					result.add(status);
+				}
+			}
+			if(BuildConfig.DEBUG)
+				Log.d(TAG, "searchCachedStatuses: found "+result.size()+" for '"+match+"' in "+(SystemClock.uptimeMillis()-startTime)+" ms");
+			AccountSessionManager.get(accountID).filterStatuses(result, FilterContext.PUBLIC);
+			uiHandler.post(()->callback.accept(AccountSessionManager.get(accountID).getStatusStore().internCached(result)));
+		}, x->uiHandler.post(()->callback.accept(List.of())));
+	}
+
+	/**
+	 * Everything that goes into the search index is taken from the posts on the calling thread, see {@link #makePostRows(List, Set)}
+	 */
+	private static List<SearchIndexRow> makeSearchIndexRows(List<Status> statuses){
+		ArrayList<SearchIndexRow> rows=new ArrayList<>(statuses.size());
+		for(Status status:statuses){
+			Status s=status.getContentStatus();
+			StringBuilder text=new StringBuilder();
+			if(!TextUtils.isEmpty(s.spoilerText))
+				text.append(s.spoilerText).append('\n');
+			text.append(HtmlParser.stripAndRemoveInvisibleSpans(s.content));
+			if(s.poll!=null){
+				for(Poll.Option opt:s.poll.options)
+					text.append('\n').append(opt.title);
+			}
+			for(Attachment att:s.mediaAttachments){
+				if(!TextUtils.isEmpty(att.description))
+					text.append('\n').append(att.description);
+			}
+			rows.add(new SearchIndexRow(s.id, MastodonAPIController.gson.toJson(s), s.createdAt.getEpochSecond(), text.toString(),
+					s.account.displayName+" "+s.account.acct, s.tags.stream().map(t->t.name).collect(Collectors.joining(" "))));
+		}
+		return rows;
+	}
+
+	private void putSearchIndex(SQLiteDatabase db, List<SearchIndexRow> rows, boolean onlyUpdate){
+		ContentValues values=new ContentValues(3), ftsValues=new ContentValues(4);
+		for(SearchIndexRow row:rows){
+			long rowid=-1;
+			try(Cursor cursor=db.query("search_statuses", new String[]{"rowid"}, "`id`=?", new String[]{row.id}, null, null, null)){
+				if(cursor.moveToFirst())
+					rowid=cursor.getLong(0);
+			}
+			if(rowid==-1 && onlyUpdate)
+				continue;
+
+			values.put("json", row.json);
+			values.put("time", row.time);
+			ftsValues.put("text", row.text);
+			ftsValues.put("author", row.author);
+			ftsValues.put("hashtags", row.hashtags);
+			if(rowid==-1){
+				values.put("id", row.id);
+				rowid=db.insert("search_statuses", null, values);
+				values.remove("id");
+				ftsValues.put("docid", rowid);
+				db.insert("search_statuses_fts", null, ftsValues);
+				ftsValues.remove("docid");
+			}else{
+				String[] args={String.valueOf(rowid)};
+				db.update("search_statuses", values, "`rowid`=?", args);
+				db.update("search_statuses_fts", ftsValues, "`docid`=?", args);
+			}
+		}
+		// Trim the oldest posts in batches so this doesn't happen on every insert
+		long size=DatabaseUtils.queryNumEntries(db, "search_statuses");
+		if(size>MAX_SEARCH_INDEX_SIZE+MAX_SEARCH_INDEX_SIZE/10){
+			String oldest="SELECT `rowid` FROM `search_statuses` ORDER BY `time` ASC LIMIT "+(size-MAX_SEARCH_INDEX_SIZE);
+			db.execSQL("DELETE FROM `search_statuses_fts` WHERE `docid` IN ("+oldest+")");
+			db.execSQL("DELETE FROM `search_statuses` WHERE `rowid` IN ("+oldest+")");
+		}
+	}
+
+	/**
+	 * Keep posts that a long list dropped from memory, so that it can get them back once they're close to the visible part again,
+	 * see {@link #getReleasedPosts(String, List, Consumer)}. They're only needed while the list exists, and are dropped when the app starts.
+	 * @param list identifies the list within this process
+	 */
+	public void putReleasedPosts(String list, List<Status> posts){
+		// Serialized here for the same reason as in makePostRows
+		ArrayList<String[]> rows=new ArrayList<>(posts.size());
+		for(Status s:posts)
+			rows.add(new String[]{s.id, MastodonAPIController.gson.toJson(s)});
+		enqueueWrite(null, (db)->{
+			SQLiteStatement insert=getCompiledStatement(db, "INSERT OR REPLACE INTO `released_posts` (`list`, `id`, `json`) VALUES (?, ?, ?)");
+			for(String[] row:rows){
+				insert.bindString(1, list);
+				insert.bindString(2, row[0]);
+				insert.bindString(3, row[1]);
+				insert.executeInsert();
+			}
+		});
+	}
+
+	/**
+	 * @param callback receives the posts that were found, by ID. They go through {@link StatusStore#internCached(Object)}, so the ones that
+	 *                 are still in memory because other screens show them come back as those instances.
+	 */
+	public void getReleasedPosts(String list, List<String> ids, Consumer<Map<String, Status>> callback){
+		String[] args=new String[ids.size()+1];
+		args[0]=list;
+		for(int i=0;i<ids.size();i++)
+			args[i+1]=ids.get(i);
+		runRead(DatabaseExecutor.Priority.UI, (db)->{
+			ArrayList<Status> result=new ArrayList<>();
+			try(Cursor cursor=db.query("released_posts", new String[]{"json"}, "`list`=? AND `id` IN ("+String.join(", ", Collections.nCopies(ids.size(), "?"))+")", args, null, null, null)){
+				while(cursor.moveToNext()){
+					Status status=MastodonAPIController.gson.fromJson(cursor.getString(0), Status.class);
+					status.postprocess();
+					result.add(status);
+				}
+			}
+			uiHandler.post(()->{
+				HashMap<String, Status> byID=new HashMap<>();
+				for(Status s:AccountSessionManager.get(accountID).getStatusStore().internCached(result))
+					byID.put(s.id, s);
+				callback.accept(byID);
+			});
+		}, x->uiHandler.post(()->callback.accept(Map.of())));
+	}
+
+	public void deleteReleasedPosts(String list){
+		enqueueWrite(null, (db)->db.delete("released_posts", "`list`=?", new String[]{list}));
+	}
+
 	public void clearRecentSearches(){
-		runOnDbThread((db)->db.delete("recent_searches", null, null));
+		enqueueWrite(null, (db)->db.delete("recent_searches", null, null));
+	}
+
+	/*package*/ void getInteractionOutbox(Consumer<List<StatusInteractionController.PendingInteraction>> callback){
+		// This is done for every account when the app starts, nothing is displayed until it's done
+		runRead(DatabaseExecutor.Priority.BACKGROUND, (db)->{
+			ArrayList<StatusInteractionController.PendingInteraction> result=new ArrayList<>();
+			try(Cursor cursor=db.query("interaction_outbox", new String[]{"status_id", "type", "original_value", "value", "attempts", "time"}, null, null, null, null, "`time` ASC")){
+				StatusCountersUpdatedEvent.CounterType[] types=StatusCountersUpdatedEvent.CounterType.values();
+				while(cursor.moveToNext()){
+					StatusInteractionController.PendingInteraction pending=new StatusInteractionController.PendingInteraction(cursor.getString(0), types[cursor.getInt(1)],
+							cursor.getInt(2)!=0, cursor.getInt(3)!=0, cursor.getLong(5));
+					pending.attempts=cursor.getInt(4);
+					result.add(pending);
+				}
+			}
+			uiHandler.post(()->callback.accept(result));
+		}, x->uiHandler.post(()->callback.accept(List.of())));
+	}
+
+	/*package*/ void putOutboxInteraction(StatusInteractionController.PendingInteraction pending){
+		ContentValues values=new ContentValues(6);
+		values.put("status_id", pending.statusID);
+		values.put("type", pending.type.ordinal());
+		values.put("original_value", pending.originalValue ? 1 : 0);
+		values.put("value", pending.value ? 1 : 0);
+		values.put("attempts", pending.attempts);
+		values.put("time", pending.queuedAt);
+		writeNow((db)->db.insertWithOnConflict("interaction_outbox", null, values, SQLiteDatabase.CONFLICT_REPLACE));
+	}
+
+	/*package*/ void deleteOutboxInteraction(String statusID, StatusCountersUpdatedEvent.CounterType type){
+		writeNow((db)->db.delete("interaction_outbox", "`status_id`=? AND `type`=?", new String[]{statusID, String.valueOf(type.ordinal())}));
 	}
 
 	private void closeDelayed(){
-		databaseThread.postRunnable(databaseCloseRunnable, 10_000);
+		executor.cancelWrite(databaseCloseRunnable);
+		executor.writeDelayed(databaseCloseRunnable, KEEP_WARM_TIMEOUT);
+	}
+
+	/**
+	 * The database is kept open for {@link #KEEP_WARM_TIMEOUT} after it was last used so that loading the next page doesn't
+	 * need to open it again. Call this when the app goes to the background to close it sooner.
+	 */
+	public void closeSoon(){
+		if(db!=null){
+			executor.cancelWrite(databaseCloseRunnable);
+			executor.writeDelayed(databaseCloseRunnable, BACKGROUND_CLOSE_DELAY);
+		}
+	}
+
+	private void closeIdleDatabase(){
+		flushPendingWrites();
+		synchronized(databaseLock){
+			// A read that started in the meantime schedules this again when it's done
+			if(databaseUsers==0)
+				closeDatabaseLocked();
+		}
 	}
 
+	/**
+	 * Close the database right away and stop the writer thread. Writes that are still queued are dropped, this is meant for when the account is removed.
+	 */
 	public void closeDatabase(){
+		synchronized(pendingWrites){
+			// Set while holding the lock so that no write is queued after this, the writer thread won't be there to do it
+			released=true;
+			pendingWrites.clear();
+			lastDoneWrite=lastQueuedWrite;
+			pendingWrites.notifyAll();
+		}
+		synchronized(databaseLock){
+			closeDatabaseLocked();
+		}
+		executor.quit();
+	}
+
+	private void closeDatabaseLocked(){
 		if(db!=null){
 			if(BuildConfig.DEBUG)
 				Log.d(TAG, "closeDatabase");
+			for(SQLiteStatement stmt:compiledStatements.values())
+				stmt.close();
+			compiledStatements.clear();
 			db.close();
 			db=null;
 		}
@@ -418,26 +923,181 @@ public class CacheController{
 
 	private void cancelDelayedClose(){
 		if(db!=null){
-			databaseThread.handler.removeCallbacks(databaseCloseRunnable);
+			executor.cancelWrite(databaseCloseRunnable);
 		}
 	}
 
-	private SQLiteDatabase getOrOpenDatabase(){
-		if(db==null)
-			db=new DatabaseHelper();
-		return db.getWritableDatabase();
+	/**
+	 * Open the database if needed, and keep it open until {@link #releaseDatabase()}. Waits for the writes that were queued before
+	 * the read was submitted, so that it sees them.
+	 * @param writeBarrier the value of {@link #getLastQueuedWrite()} when the read was submitted
+	 */
+	private SQLiteDatabase acquireDatabase(long writeBarrier){
+		awaitWrites(writeBarrier);
+		synchronized(databaseLock){
+			if(released)
+				throw new SQLiteException("The database of "+accountID+" was closed for good");
+			if(db==null)
+				db=new DatabaseHelper();
+			SQLiteDatabase database=db.getWritableDatabase();
+			// Not in onOpen, because the database is closed and opened again while the lists that released the posts still exist
+			if(!droppedStaleReleasedPosts){
+				droppedStaleReleasedPosts=true;
+				database.delete("released_posts", null, null);
+			}
+			databaseUsers++;
+			return database;
+		}
 	}
 
-	private void runOnDbThread(DatabaseRunnable r){
-		runOnDbThread(r, null);
+	private void releaseDatabase(){
+		synchronized(databaseLock){
+			databaseUsers--;
+		}
 	}
 
-	private void runOnDbThread(DatabaseRunnable r, Consumer<Exception> onError){
+	private long getLastQueuedWrite(){
+		synchronized(pendingWrites){
+			return lastQueuedWrite;
+		}
+	}
+
+	/**
+	 * Returns right away once the database is closed for good, the read then fails instead of waiting for writes that will never be done
+	 */
+	private void awaitWrites(long writeBarrier){
+		synchronized(pendingWrites){
+			if(released || lastDoneWrite>=writeBarrier)
+				return;
+			if(flushPosted){
+				// Don't make the read wait for the batching delay too
+				executor.cancelWrite(flushWritesRunnable);
+				executor.writeFirst(flushWritesRunnable);
+			}
+			while(!released && lastDoneWrite<writeBarrier){
+				try{
+					pendingWrites.wait();
+				}catch(InterruptedException x){
+					Thread.currentThread().interrupt();
+					return;
+				}
+			}
+		}
+	}
+
+	private SQLiteStatement getCompiledStatement(SQLiteDatabase db, String sql){
+		SQLiteStatement stmt=compiledStatements.get(sql);
+		if(stmt==null){
+			stmt=db.compileStatement(sql);
+			compiledStatements.put(sql, stmt);
+		}
+		return stmt;
+	}
+
+	/**
+	 * Queue a write to the database. Writes are done on the account's writer thread, in one transaction together with the other ones
+	 * that were queued within {@link #WRITE_BATCH_DELAY} ms, or as soon as a read needs them, whichever comes first.
+	 * Each write runs in its own savepoint within that transaction, so it must not start a transaction of its own: a nested
+	 * transaction that fails rolls back the whole batch.
+	 * Writes queued after {@link #closeDatabase()} are dropped.
+	 * @param key writes with the same key replace each other while they're queued; null if every write of this kind has to be done
+	 */
+	private void enqueueWrite(String key, DatabaseRunnable r){
+		synchronized(pendingWrites){
+			if(released)
+				return;
+			Object k=key==null ? new Object() : key;
+			// Move it to the end so it's still done after the writes that were queued after the one it replaces
+			pendingWrites.remove(k);
+			pendingWrites.put(k, r);
+			lastQueuedWrite++;
+			if(flushPosted)
+				return;
+			flushPosted=true;
+		}
 		cancelDelayedClose();
-		databaseThread.postRunnable(()->{
+		executor.writeDelayed(flushWritesRunnable, WRITE_BATCH_DELAY);
+	}
+
+	/**
+	 * Queue a write and do it, with the others that are queued, without waiting for the batching delay
+	 */
+	private void writeNow(DatabaseRunnable r){
+		enqueueWrite(null, r);
+		if(released)
+			return;
+		executor.cancelWrite(flushWritesRunnable);
+		executor.write(flushWritesRunnable);
+	}
+
+	private void flushPendingWrites(){
+		ArrayList<DatabaseRunnable> writes;
+		long batchEnd;
+		synchronized(pendingWrites){
+			if(pendingWrites.isEmpty())
+				return;
+			writes=new ArrayList<>(pendingWrites.values());
+			pendingWrites.clear();
+			flushPosted=false;
+			batchEnd=lastQueuedWrite;
+		}
+		executor.cancelWrite(flushWritesRunnable);
+		long startTime=SystemClock.uptimeMillis();
+		try{
+			SQLiteDatabase db=acquireDatabase(0);
 			try{
-				SQLiteDatabase db=getOrOpenDatabase();
-				r.run(db);
+				db.beginTransaction();
+				try{
+					for(DatabaseRunnable write:writes){
+						// Each write gets its own savepoint, so that one that fails is undone without taking the rest of the batch with it
+						db.execSQL("SAVEPOINT `queued_write`");
+						try{
+							write.run(db);
+						}catch(IOException|RuntimeException x){
+							Log.w(TAG, "flushPendingWrites: write failed", x);
+							db.execSQL("ROLLBACK TO `queued_write`");
+						}
+						db.execSQL("RELEASE `queued_write`");
+					}
+					db.setTransactionSuccessful();
+				}finally{
+					db.endTransaction();
+				}
+			}finally{
+				releaseDatabase();
+			}
+			if(BuildConfig.DEBUG)
+				Log.d(TAG, "flushPendingWrites: "+writes.size()+" writes in "+(SystemClock.uptimeMillis()-startTime)+" ms");
+		}catch(SQLiteException x){
+			Log.w(TAG, "flushPendingWrites: "+writes.size()+" writes failed", x);
+		}finally{
+			synchronized(pendingWrites){
+				// Reads don't wait forever for writes that failed
+				lastDoneWrite=Math.max(lastDoneWrite, batchEnd);
+				pendingWrites.notifyAll();
+			}
+			closeDelayed();
+		}
+	}
+
+	/**
+	 * Run a read on the reader threads. It sees every write that was queued before this was called.
+	 */
+	private void runRead(DatabaseExecutor.Priority priority, DatabaseRunnable r){
+		runRead(priority, r, null);
+	}
+
+	private void runRead(DatabaseExecutor.Priority priority, DatabaseRunnable r, Consumer<Exception> onError){
+		cancelDelayedClose();
+		long writeBarrier=getLastQueuedWrite();
+		executor.read(priority, ()->{
+			try{
+				SQLiteDatabase db=acquireDatabase(writeBarrier);
+				try{
+					r.run(db);
+				}finally{
+					releaseDatabase();
+				}
 			}catch(SQLiteException|IOException x){
 				Log.w(TAG, x);
 				if(onError!=null)
@@ -445,16 +1105,22 @@ public class CacheController{
 			}finally{
 				closeDelayed();
 			}
-		}, 0);
+		});
 	}
 
 	public void reloadLists(Callback<List<FollowList>> callback){
-		new GetLists()
-				.setCallback(new Callback<>(){
+		GetLists req=new GetLists();
+		req.setCallback(new Callback<>(){
 					@Override
 					public void onSuccess(List<FollowList> result){
+						if(req.isNotModified()){
+							if(callback!=null)
+								callback.onSuccess(result);
+							return;
+						}
 						result.sort(Comparator.comparing(l->l.title));
 						lists=result;
+						listsValidators=req.getResponseValidators();
 						if(callback!=null)
 							callback.onSuccess(result);
 						writeLists();
@@ -466,23 +1132,34 @@ public class CacheController{
 							callback.onError(error);
 					}
 				})
+				.revalidate(listsValidators, lists)
 				.exec(accountID);
 	}
 
-	private List<FollowList> loadLists(){
-		SQLiteDatabase db=getOrOpenDatabase();
-		try(Cursor cursor=db.query("misc", new String[]{"value"}, "`key`=?", new String[]{"lists"}, null, null, null)){
-			if(!cursor.moveToFirst())
-				return null;
-			return MastodonAPIController.gson.fromJson(cursor.getString(0), new TypeToken<List<FollowList>>(){}.getType());
+	private List<FollowList> loadLists(SQLiteDatabase db){
+		try(Cursor cursor=db.query("misc", new String[]{"key", "value"}, "`key` IN (?, ?)", new String[]{"lists", "lists_validators"}, null, null, null)){
+			List<FollowList> result=null;
+			while(cursor.moveToNext()){
+				if("lists".equals(cursor.getString(0)))
+					result=MastodonAPIController.gson.fromJson(cursor.getString(1), new TypeToken<List<FollowList>>(){}.getType());
+				else
+					listsValidators=MastodonAPIController.gson.fromJson(cursor.getString(1), CacheValidators.class);
+			}
+			return result;
 		}
 	}
 
 	private void writeLists(){
-		runOnDbThread(db->{
+		// Only the latest state of the lists matters
+		String listsJson=MastodonAPIController.gson.toJson(lists);
+		String validatorsJson=listsValidators==null ? null : MastodonAPIController.gson.toJson(listsValidators);
+		enqueueWrite("lists", db->{
 			ContentValues values=new ContentValues();
 			values.put("key", "lists");
-			values.put("value", MastodonAPIController.gson.toJson(lists));
+			values.put("value", listsJson);
+			db.insertWithOnConflict("misc", null, values, SQLiteDatabase.CONFLICT_REPLACE);
+			values.put("key", "lists_validators");
+			values.put("value", validatorsJson);
 			db.insertWithOnConflict("misc", null, values, SQLiteDatabase.CONFLICT_REPLACE);
 		});
 	}
@@ -493,8 +1170,8 @@ public class CacheController{
 				callback.onSuccess(lists);
 			return;
 		}
-		databaseThread.postRunnable(()->{
-			List<FollowList> lists=loadLists();
+		runRead(DatabaseExecutor.Priority.UI, (db)->{
+			List<FollowList> lists=loadLists(db);
 			if(lists!=null){
 				this.lists=lists;
 				if(callback!=null)
@@ -502,7 +1179,7 @@ public class CacheController{
 				return;
 			}
 			reloadLists(callback);
-		}, 0);
+		}, x->reloadLists(callback));
 	}
 
 	public void addList(FollowList list){
@@ -510,6 +1187,7 @@ public class CacheController{
 			return;
 		lists.add(list);
 		lists.sort(Comparator.comparing(l->l.title));
+		listsValidators=null;
 		writeLists();
 	}
 
@@ -517,6 +1195,7 @@ public class CacheController{
 		if(lists==null)
 			return;
 		lists.removeIf(l->l.id.equals(id));
+		listsValidators=null;
 		writeLists();
 	}
 
@@ -527,6 +1206,7 @@ public class CacheController{
 			if(lists.get(i).id.equals(list.id)){
 				lists.set(i, list);
 				lists.sort(Comparator.comparing(l->l.title));
+				listsValidators=null;
 				writeLists();
 				break;
 			}
@@ -537,6 +1217,8 @@ public class CacheController{
 
 		public DatabaseHelper(){
 			super(MastodonApp.context, accountID+".db", null, DB_VERSION);
+			// Commits only append to the log instead of rewriting pages and syncing a rollback journal
+			setWriteAheadLoggingEnabled(true);
 		}
 
 		@Override
@@ -552,6 +1234,10 @@ public class CacheController{
 			createNotificationsTables(db, "mentions");
 			createRecentSearchesTable(db);
 			createMiscTable(db);
+			createInteractionOutboxTable(db);
+			createSearchIndexTables(db);
+			createTimelinesTables(db);
+			createReleasedPostsTable(db);
 		}
 
 		@Override
@@ -571,6 +1257,18 @@ public class CacheController{
 				createNotificationsTables(db, "all");
 				createNotificationsTables(db, "mentions");
 			}
+			if(oldVersion<6){
+				createInteractionOutboxTable(db);
+			}
+			if(oldVersion<7){
+				createSearchIndexTables(db);
+			}
+			if(oldVersion<8){
+				createTimelinesTables(db);
+			}
+			if(oldVersion<9){
+				createReleasedPostsTable(db);
+			}
 		}
 
 		private void createRecentSearchesTable(SQLiteDatabase db){
@@ -599,6 +1297,52 @@ public class CacheController{
 						)""");
 		}
 
+		private void createInteractionOutboxTable(SQLiteDatabase db){
+			db.execSQL("""
+						CREATE TABLE `interaction_outbox` (
+							`status_id` VARCHAR(25) NOT NULL,
+							`type` INTEGER NOT NULL,
+							`original_value` INTEGER NOT NULL,
+							`value` INTEGER NOT NULL,
+							`attempts` INTEGER NOT NULL DEFAULT 0,
+							`time` INTEGER NOT NULL,
+							PRIMARY KEY(`status_id`, `type`)
+						)""");
+		}
+
+		private void createSearchIndexTables(SQLiteDatabase db){
+			for(String sql:StatusSearchIndex.CREATE_TABLES)
+				db.execSQL(sql);
+		}
+
+		private void createTimelinesTables(SQLiteDatabase db){
+			db.execSQL("""
+						CREATE TABLE `timelines` (
+							`timeline` VARCHAR(200) NOT NULL,
+							`id` VARCHAR(25) NOT NULL,
+							`json` TEXT NOT NULL,
+							`flags` INTEGER NOT NULL DEFAULT 0,
+							`sort_key` INTEGER NOT NULL,
+							PRIMARY KEY(`timeline`, `id`)
+						)""");
+			db.execSQL("CREATE INDEX `timelines_sort_key` ON `timelines`(`timeline`, `sort_key`)");
+			db.execSQL("""
+						CREATE TABLE `timelines_lru` (
+							`timeline` VARCHAR(200) NOT NULL PRIMARY KEY,
+							`last_used` INTEGER NOT NULL
+						)""");
+		}
+
+		private void createReleasedPostsTable(SQLiteDatabase db){
+			db.execSQL("""
+						CREATE TABLE `released_posts` (
+							`list` VARCHAR(50) NOT NULL,
+							`id` VARCHAR(25) NOT NULL,
+							`json` TEXT NOT NULL,
+							PRIMARY KEY(`list`, `id`)
+						)""");
+		}
+
 		private void createNotificationsTables(SQLiteDatabase db, String suffix){
 			db.execSQL("CREATE TABLE `notifications_"+suffix+"` ("+
 							"""
@@ -622,4 +1366,45 @@ public class CacheController{
 				)""");
 		}
 	}
+
+	private static class PostRow{
+		private final String id, json;
+		private final int flags;
+		private final long time;
+
+		private PostRow(String id, String json, int flags, long time){
+			this.id=id;
+			this.json=json;
+			this.flags=flags;
+			this.time=time;
+		}
+	}
+
+	private static class NotificationRow{
+		private final String id, json, maxID;
+		private final int type;
+		private final long time;
+
+		private NotificationRow(String id, String json, int type, long time, String maxID){
+			this.id=id;
+			this.json=json;
+			this.type=type;
+			this.time=time;
+			this.maxID=maxID;
+		}
+	}
+
+	private static class SearchIndexRow{
+		private final String id, json, text, author, hashtags;
+		private final long time;
+
+		private SearchIndexRow(String id, String json, long time, String text, String author, String hashtags){
+			this.id=id;
+			this.json=json;
+			this.time=time;
+			this.text=text;
+			this.author=author;
+			this.hashtags=hashtags;
+		}
+	}
 }
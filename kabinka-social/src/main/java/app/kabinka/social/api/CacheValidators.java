@@ -0,0 +1,32 @@
+package app.kabinka.social.api;
+
+import androidx.annotation.Nullable;
+import okhttp3.Response;
+
+/**
+ * The ETag and Last-Modified values of a previously received response, used to make a conditional request for the same resource
+ */
+public class CacheValidators{
+	public String etag;
+	public String lastModified;
+
+	@Nullable
+	public static CacheValidators fromResponse(Response response){
+		String etag=response.header("ETag");
+		String lastModified=response.header("Last-Modified");
+		if(etag==null && lastModified==null)
+			return null;
+		CacheValidators validators=new CacheValidators();
+		validators.etag=etag;
+		validators.lastModified=lastModified;
+		return validators;
+	}
+
+	@Override
+	public String toString(){
+		return "CacheValidators{"+
+				"etag='"+etag+'\''+
+				", lastModified='"+lastModified+'\''+
+				'}';
+	}
+}
@@ -0,0 +1,65 @@
+package app.kabinka.social.api;
+
+import app.kabinka.social.api.requests.accounts.GetAccountStatuses;
+import app.kabinka.social.model.FilterContext;
+
+/**
+ * Identifies a timeline whose posts {@link CacheController} keeps in the database so that it can be displayed right away
+ * the next time it's opened. The home timeline has its own table and isn't one of these.
+ */
+public class CachedTimeline{
+	/**
+	 * Unique within an account, used as the key in the database
+	 */
+	public final String key;
+	/**
+	 * The context in which posts read from the cache are filtered, or null if this timeline isn't filtered
+	 */
+	public final FilterContext filterContext;
+	/**
+	 * Whether this timeline is sorted newest first, so that posts can be inserted anywhere, e.g. when a gap is loaded.
+	 * Posts in other timelines, like bookmarks, are kept in the order in which the pages were loaded.
+	 */
+	public final boolean chronological;
+
+	private CachedTimeline(String key, FilterContext filterContext, boolean chronological){
+		this.key=key;
+		this.filterContext=filterContext;
+		this.chronological=chronological;
+	}
+
+	public static CachedTimeline local(){
+		return new CachedTimeline("local", FilterContext.PUBLIC, true);
+	}
+
+	public static CachedTimeline list(String id){
+		return new CachedTimeline("list/"+id, FilterContext.HOME, true);
+	}
+
+	public static CachedTimeline hashtag(String name){
+		return new CachedTimeline("hashtag/"+name.toLowerCase(), FilterContext.PUBLIC, true);
+	}
+
+	public static CachedTimeline account(String id, GetAccountStatuses.Filter filter){
+		return new CachedTimeline("account/"+id+"/"+filter, FilterContext.ACCOUNT, true);
+	}
+
+	public static CachedTimeline bookmarks(){
+		return new CachedTimeline("bookmarks", null, false);
+	}
+
+	public static CachedTimeline favorites(){
+		return new CachedTimeline("favorites", null, false);
+	}
+
+	public static CachedTimeline trending(){
+		return new CachedTimeline("trending", FilterContext.PUBLIC, false);
+	}
+
+	@Override
+	public String toString(){
+		return "CachedTimeline{"+
+				"key='"+key+'\''+
+				'}';
+	}
+}
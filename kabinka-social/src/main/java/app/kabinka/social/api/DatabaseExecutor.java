@@ -0,0 +1,114 @@
+package app.kabinka.social.api;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.Process;
+
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs the database work of one account. Writes are done one after another on a thread that belongs to the account,
+ * at background priority. Reads are done concurrently on a small pool of threads shared by all accounts. Reads that the UI
+ * is waiting for are taken from the queue before ones done in the background, and all reads go before writes when the CPU is busy.
+ * <p>
+ * This only works because the databases use write-ahead logging, which lets reads run while a write is in progress.
+ * Nothing here makes a read see writes that weren't committed yet, see {@link CacheController} for that.
+ */
+public class DatabaseExecutor{
+	private static final int READER_COUNT=3;
+	private static final long READER_KEEP_ALIVE_SECONDS=30;
+	private static final AtomicLong readSequence=new AtomicLong();
+	private static final AtomicInteger readerThreadCount=new AtomicInteger();
+	private static final ThreadPoolExecutor readers=new ThreadPoolExecutor(READER_COUNT, READER_COUNT, READER_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+			new PriorityBlockingQueue<>(), r->new Thread(r, "databaseReader"+readerThreadCount.incrementAndGet()));
+
+	static{
+		readers.allowCoreThreadTimeOut(true);
+	}
+
+	private final HandlerThread writer;
+	private final Handler writeHandler;
+
+	/**
+	 * @param name the name of the writer thread
+	 */
+	public DatabaseExecutor(String name){
+		writer=new HandlerThread(name, Process.THREAD_PRIORITY_BACKGROUND);
+		writer.start();
+		writeHandler=new Handler(writer.getLooper());
+	}
+
+	public void read(Priority priority, Runnable task){
+		readers.execute(new ReadTask(priority, task));
+	}
+
+	public void write(Runnable task){
+		writeHandler.post(task);
+	}
+
+	public void writeDelayed(Runnable task, long delay){
+		writeHandler.postDelayed(task, delay);
+	}
+
+	/**
+	 * Run a write before all the others that are waiting, because a read is waiting for it
+	 */
+	public void writeFirst(Runnable task){
+		writeHandler.postAtFrontOfQueue(task);
+	}
+
+	public void cancelWrite(Runnable task){
+		writeHandler.removeCallbacks(task);
+	}
+
+	public boolean isWriterThread(){
+		return Looper.myLooper()==writer.getLooper();
+	}
+
+	/**
+	 * Stop the writer thread once it's done with the writes that are already due. Further writes are ignored.
+	 */
+	public void quit(){
+		writer.quitSafely();
+	}
+
+	public enum Priority{
+		/**
+		 * Something is displayed as soon as this read is done
+		 */
+		UI,
+		/**
+		 * Nobody is waiting for this read, like restoring state of an account that isn't active
+		 */
+		BACKGROUND
+	}
+
+	private static class ReadTask implements Runnable, Comparable<ReadTask>{
+		private final Priority priority;
+		private final Runnable task;
+		// Reads of the same priority are done in the order they were submitted
+		private final long sequence=readSequence.getAndIncrement();
+
+		private ReadTask(Priority priority, Runnable task){
+			this.priority=priority;
+			this.task=task;
+		}
+
+		@Override
+		public void run(){
+			task.run();
+		}
+
+		@Override
+		public int compareTo(ReadTask other){
+			if(priority!=other.priority)
+				return priority.compareTo(other.priority);
+			return Long.compare(sequence, other.sequence);
+		}
+	}
+}
@@ -0,0 +1,89 @@
+package app.kabinka.social.api;
+
+import app.kabinka.social.model.Account;
+import app.kabinka.social.model.Notification;
+import app.kabinka.social.model.NotificationGroup;
+import app.kabinka.social.model.NotificationType;
+import app.kabinka.social.model.viewmodel.NotificationViewModel;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Groups notifications on the client for servers that don't support grouped notifications (API v1),
+ * producing the same {@link NotificationGroup}s that the v2 API returns.
+ * <p>
+ * Favorites and boosts of the same post, and follows, are merged as long as they're within {@link #GROUPING_WINDOW}
+ * of the most recent notification in the group. Grouping is done one page at a time as pages arrive. Every group in a page gets
+ * the ID of the oldest notification in that page as its {@link NotificationGroup#pageMinId}, so that pagination (from the network
+ * or the cache) resumes exactly where that page ended. That is the page as the server returned it, the oldest notification
+ * might be one that was filtered out.
+ */
+/*package*/ class LocalNotificationGrouper{
+	private static final Duration GROUPING_WINDOW=Duration.ofDays(1);
+	private static final int MAX_SAMPLE_ACCOUNTS=8;
+	private static final EnumSet<NotificationType> GROUPABLE_TYPES=NotificationType.getGroupableTypes();
+
+	/**
+	 * @param notifications the notifications of one page that are shown, newest first
+	 * @param pageMinID the ID of the oldest notification in the page before filtering, the same one the next page is requested after
+	 * @return view models for the groups, newest first
+	 */
+	public static List<NotificationViewModel> group(List<Notification> notifications, String pageMinID){
+		ArrayList<NotificationViewModel> result=new ArrayList<>();
+		if(notifications.isEmpty())
+			return result;
+		HashMap<String, NotificationViewModel> openGroups=new HashMap<>();
+		for(Notification n:notifications){
+			String key=getGroupingKey(n);
+			if(key!=null){
+				NotificationViewModel nvm=openGroups.get(key);
+				if(nvm!=null && Duration.between(n.createdAt, nvm.notification.latestPageNotificationAt).compareTo(GROUPING_WINDOW)<=0){
+					NotificationGroup group=nvm.notification;
+					group.notificationsCount++;
+					if(group.sampleAccountIds.size()<MAX_SAMPLE_ACCOUNTS && !group.sampleAccountIds.contains(n.account.id)){
+						group.sampleAccountIds.add(n.account.id);
+						nvm.accounts.add(n.account);
+					}
+					continue;
+				}
+			}
+			NotificationViewModel nvm=makeGroup(n, key, pageMinID);
+			if(key!=null)
+				openGroups.put(key, nvm);
+			result.add(nvm);
+		}
+		return result;
+	}
+
+	private static String getGroupingKey(Notification n){
+		if(!GROUPABLE_TYPES.contains(n.type))
+			return null;
+		if(n.type==NotificationType.FOLLOW)
+			return n.type.name();
+		return n.status==null ? null : n.type.name()+"-"+n.status.id;
+	}
+
+	private static NotificationViewModel makeGroup(Notification n, String key, String pageMinID){
+		NotificationGroup group=new NotificationGroup();
+		group.groupKey=key==null ? "converted-"+n.id : "grouped-"+key+"-"+n.id;
+		group.notificationsCount=1;
+		group.type=n.type;
+		group.mostRecentNotificationId=group.pageMaxId=n.id;
+		group.pageMinId=pageMinID;
+		group.latestPageNotificationAt=n.createdAt;
+		group.sampleAccountIds=new ArrayList<>(List.of(n.account.id));
+		group.event=n.event;
+		group.moderationWarning=n.moderationWarning;
+		if(n.status!=null)
+			group.statusId=n.status.id;
+		NotificationViewModel nvm=new NotificationViewModel();
+		nvm.notification=group;
+		nvm.status=n.status;
+		nvm.accounts=new ArrayList<Account>(List.of(n.account));
+		return nvm;
+	}
+}
@@ -2,12 +2,11 @@ package app.kabinka.social.api;
 
 import android.os.Handler;
 import android.os.Looper;
+import android.os.SystemClock;
 import android.util.Log;
 import android.widget.Toast;
 
-import com.google.gson.FieldNamingPolicy;
 import com.google.gson.Gson;
-import com.google.gson.GsonBuilder;
 import com.google.gson.JsonElement;
 import com.google.gson.JsonIOException;
 import com.google.gson.JsonObject;
@@ -16,15 +15,13 @@ import com.google.gson.JsonSyntaxException;
 
 import app.kabinka.social.BuildConfig;
 import app.kabinka.social.MastodonApp;
-import app.kabinka.social.api.gson.IsoInstantTypeAdapter;
-import app.kabinka.social.api.gson.IsoLocalDateTypeAdapter;
+import app.kabinka.social.api.gson.MastodonGson;
 import app.kabinka.social.api.session.AccountSession;
 
 import java.io.File;
 import java.io.IOException;
 import java.io.Reader;
 import java.time.Instant;
-import java.time.LocalDate;
 import java.time.ZoneId;
 import java.time.format.DateTimeFormatter;
 import java.time.format.FormatStyle;
@@ -36,6 +33,7 @@ import java.util.concurrent.TimeUnit;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
+import me.grishka.appkit.api.ErrorResponse;
 import me.grishka.appkit.utils.WorkerThread;
 import okhttp3.Cache;
 import okhttp3.CacheControl;
@@ -48,22 +46,19 @@ import okhttp3.ResponseBody;
 
 public class MastodonAPIController{
 	private static final String TAG="MastodonAPIController";
-	public static final Gson gson=new GsonBuilder()
-			.disableHtmlEscaping()
-			.setFieldNamingPolicy(FieldNamingPolicy.LOWER_CASE_WITH_UNDERSCORES)
-			.registerTypeAdapter(Instant.class, new IsoInstantTypeAdapter())
-			.registerTypeAdapter(LocalDate.class, new IsoLocalDateTypeAdapter())
-			.create();
+	public static final Gson gson=MastodonGson.create();
 	private static WorkerThread thread=new WorkerThread("MastodonAPIController");
 	private static OkHttpClient httpClient=new OkHttpClient.Builder()
 			.connectTimeout(60, TimeUnit.SECONDS)
 			.writeTimeout(60, TimeUnit.SECONDS)
 			.readTimeout(60, TimeUnit.SECONDS)
 			.cache(new Cache(new File(MastodonApp.context.getCacheDir(), "http"), 10*1024*1024))
+			.eventListenerFactory(NetworkStats.EVENT_LISTENER_FACTORY)
 			.build();
 	private static Handler uiThreadHandler=new Handler(Looper.getMainLooper());
 
 	private static final CacheControl NO_CACHE_WHATSOEVER=new CacheControl.Builder().noCache().noStore().build();
+	private static final HashMap<String, InFlightRequest> inFlightRequests=new HashMap<>();
 
 	private AccountSession session;
 
@@ -77,20 +72,40 @@ public class MastodonAPIController{
 
 	public <T> void submitRequest(final MastodonAPIRequest<T> req){
 		thread.postRunnable(()->{
+			InFlightRequest flight=null;
 			try{
 				if(req.canceled)
 					return;
-				Request.Builder builder=new Request.Builder()
-						.url(req.getURL().toString())
-						.method(req.getMethod(), req.getRequestBody())
-						.header("User-Agent", "MastodonAndroid/"+BuildConfig.VERSION_NAME);
-
 				String token=null;
 				if(session!=null)
 					token=session.token.accessToken;
 				else if(req.token!=null)
 					token=req.token.accessToken;
 
+				// Identical idempotent requests that are already in flight get attached to the existing call instead of hitting the network again
+				if(req.isSingleFlightEligible()){
+					String key=getSingleFlightKey(req, token);
+					synchronized(inFlightRequests){
+						InFlightRequest existing=inFlightRequests.get(key);
+						if(existing!=null){
+							existing.subscribers.add(req);
+							req.inFlight=existing;
+							if(BuildConfig.DEBUG)
+								Log.d(TAG, logTag(session)+"Attached to an identical in-flight request: "+key);
+							return;
+						}
+						flight=new InFlightRequest(key);
+						flight.subscribers.add(req);
+						inFlightRequests.put(key, flight);
+						req.inFlight=flight;
+					}
+				}
+
+				Request.Builder builder=new Request.Builder()
+						.url(req.getURL().toString())
+						.method(req.getMethod(), req.getRequestBody())
+						.header("User-Agent", "MastodonAndroid/"+BuildConfig.VERSION_NAME);
+
 				if(token!=null)
 					builder.header("Authorization", "Bearer "+token);
 
@@ -103,10 +118,19 @@ public class MastodonAPIController{
 					}
 				}
 
+				NetworkStats.startTiming(builder);
 				Request hreq=builder.build();
 				Call call=httpClient.newCall(hreq);
-				synchronized(req){
-					req.okhttpCall=call;
+				if(flight!=null){
+					synchronized(inFlightRequests){
+						if(flight.subscribers.isEmpty())
+							return; // Everyone canceled before we got here
+						flight.call=call;
+					}
+				}else{
+					synchronized(req){
+						req.okhttpCall=call;
+					}
 				}
 				if(req.timeout>0){
 					call.timeout().timeout(req.timeout, TimeUnit.MILLISECONDS);
@@ -115,30 +139,31 @@ public class MastodonAPIController{
 				if(BuildConfig.DEBUG)
 					Log.d(TAG, logTag(session)+"Sending request: "+hreq);
 
+				// The flight is completed through this reference, since req.inFlight is cleared if req itself is canceled
+				// while others are still waiting for the result
+				final InFlightRequest finalFlight=flight;
 				call.enqueue(new Callback(){
 					@Override
 					public void onFailure(@NonNull Call call, @NonNull IOException e){
-						if(req.canceled)
+						List<MastodonAPIRequest<?>> subscribers=takeSubscribers(req, finalFlight);
+						if(subscribers.isEmpty())
 							return;
 						if(BuildConfig.DEBUG)
 							Log.w(TAG, logTag(session)+""+hreq+" failed", e);
-						synchronized(req){
-							req.okhttpCall=null;
+						for(MastodonAPIRequest<?> sub:subscribers){
+							sub.onError(e.getLocalizedMessage(), 0, e);
 						}
-						req.onError(e.getLocalizedMessage(), 0, e);
 					}
 
 					@Override
 					public void onResponse(@NonNull Call call, @NonNull Response response) throws IOException{
-						if(req.canceled){
+						List<MastodonAPIRequest<?>> subscribers=takeSubscribers(req, finalFlight);
+						if(subscribers.isEmpty()){
 							response.close();
 							return;
 						}
 						if(BuildConfig.DEBUG)
 							Log.d(TAG, logTag(session)+hreq+" received response: "+response);
-						synchronized(req){
-							req.okhttpCall=null;
-						}
 						if(BuildConfig.DEBUG){
 							String deprecationHeader=response.header("Deprecation");
 							if(deprecationHeader!=null && deprecationHeader.startsWith("@")){
@@ -158,52 +183,42 @@ public class MastodonAPIController{
 						}
 						try(ResponseBody body=response.body()){
 							Reader reader=body.charStream();
-							if(response.isSuccessful()){
-								T respObj;
-								try{
-									if(BuildConfig.DEBUG){
-										JsonElement respJson=JsonParser.parseReader(reader);
-										Log.d(TAG, logTag(session)+"response body: "+respJson);
-										if(req.respTypeToken!=null)
-											respObj=gson.fromJson(respJson, req.respTypeToken.getType());
-										else if(req.respClass!=null)
-											respObj=gson.fromJson(respJson, req.respClass);
-										else
-											respObj=null;
-									}else{
-										if(req.respTypeToken!=null)
-											respObj=gson.fromJson(reader, req.respTypeToken.getType());
-										else if(req.respClass!=null)
-											respObj=gson.fromJson(reader, req.respClass);
-										else
-											respObj=null;
-									}
-								}catch(JsonIOException|JsonSyntaxException x){
-									if(BuildConfig.DEBUG)
-										Log.w(TAG, logTag(session)+response+" error parsing or reading body", x);
-									req.onError(x.getLocalizedMessage(), response.code(), x);
-									return;
+							if(response.code()==304){
+								for(MastodonAPIRequest<?> sub:subscribers){
+									sub.onNotModified();
 								}
-
-								try{
-									req.validateAndPostprocessResponse(respObj, response);
-								}catch(IOException x){
+							}else if(response.isSuccessful()){
+								if(subscribers.size()==1 && !BuildConfig.DEBUG){
+									parseAndDeliverResponse(subscribers.get(0), reader, null, 0, response);
+								}else{
+									// Parse the body once; every subscriber then gets its own deserialized copy since models are mutable
+									JsonElement respJson;
+									long treeParseNanos;
+									try{
+										long parseStart=SystemClock.elapsedRealtimeNanos();
+										respJson=JsonParser.parseReader(reader);
+										treeParseNanos=SystemClock.elapsedRealtimeNanos()-parseStart;
+									}catch(JsonIOException|JsonSyntaxException x){
+										if(BuildConfig.DEBUG)
+											Log.w(TAG, logTag(session)+response+" error parsing or reading body", x);
+										for(MastodonAPIRequest<?> sub:subscribers){
+											sub.onError(x.getLocalizedMessage(), response.code(), x);
+										}
+										return;
+									}
 									if(BuildConfig.DEBUG)
-										Log.w(TAG, logTag(session)+response+" error post-processing or validating response", x);
-									req.onError(x.getLocalizedMessage(), response.code(), x);
-									return;
+										Log.d(TAG, logTag(session)+"response body: "+respJson);
+									for(MastodonAPIRequest<?> sub:subscribers){
+										parseAndDeliverResponse(sub, null, respJson, treeParseNanos, response);
+									}
 								}
-
-								if(BuildConfig.DEBUG)
-									Log.d(TAG, logTag(session)+response+" parsed successfully: "+respObj);
-
-								req.onSuccess(respObj);
 							}else{
+								ErrorResponse err;
 								try{
 									JsonObject error=JsonParser.parseReader(reader).getAsJsonObject();
 									Log.w(TAG, logTag(session)+response+" received error: "+error);
 									if(error.has("details")){
-										MastodonDetailedErrorResponse err=new MastodonDetailedErrorResponse(error.get("error").getAsString(), response.code(), null);
+										MastodonDetailedErrorResponse detailedErr=new MastodonDetailedErrorResponse(error.get("error").getAsString(), response.code(), null);
 										HashMap<String, List<MastodonDetailedErrorResponse.FieldError>> details=new HashMap<>();
 										JsonObject errorDetails=error.getAsJsonObject("details");
 										for(String key:errorDetails.keySet()){
@@ -217,31 +232,167 @@ public class MastodonAPIController{
 											}
 											details.put(key, fieldErrors);
 										}
-										err.detailedErrors=details;
-										req.onError(err);
+										detailedErr.detailedErrors=details;
+										err=detailedErr;
 									}else{
-										req.onError(error.get("error").getAsString(), response.code(), null);
+										err=new MastodonErrorResponse(error.get("error").getAsString(), response.code(), null);
 									}
 								}catch(JsonIOException|JsonSyntaxException x){
-									req.onError(response.code()+" "+response.message(), response.code(), x);
+									err=new MastodonErrorResponse(response.code()+" "+response.message(), response.code(), x);
 								}catch(Exception x){
-									req.onError("Error parsing an API error", response.code(), x);
+									err=new MastodonErrorResponse("Error parsing an API error", response.code(), x);
+								}
+								for(MastodonAPIRequest<?> sub:subscribers){
+									sub.onError(err);
 								}
 							}
 						}catch(Exception x){
 							Log.w(TAG, "onResponse: error processing response", x);
-							onFailure(call, (IOException) new IOException(x).fillInStackTrace());
+							for(MastodonAPIRequest<?> sub:subscribers){
+								sub.onError(x.getLocalizedMessage(), 0, x);
+							}
 						}
 					}
 				});
 			}catch(Exception x){
 				if(BuildConfig.DEBUG)
 					Log.w(TAG, logTag(session)+"error creating and sending http request", x);
-				req.onError(x.getLocalizedMessage(), 0, x);
+				for(MastodonAPIRequest<?> sub:takeSubscribers(req, flight)){
+					sub.onError(x.getLocalizedMessage(), 0, x);
+				}
 			}
 		}, 0);
 	}
 
+	/**
+	 * @param treeParseNanos how long it took to parse respJson, if it was parsed beforehand, for {@link NetworkStats}
+	 */
+	private <T> void parseAndDeliverResponse(MastodonAPIRequest<T> req, Reader reader, JsonElement respJson, long treeParseNanos, Response response){
+		NetworkStats.RequestTimings timings=response.request().tag(NetworkStats.RequestTimings.class);
+		long stageStart=timings!=null ? SystemClock.elapsedRealtimeNanos() : 0;
+		T respObj;
+		try{
+			if(respJson!=null){
+				if(req.respTypeToken!=null)
+					respObj=gson.fromJson(respJson, req.respTypeToken.getType());
+				else if(req.respClass!=null)
+					respObj=gson.fromJson(respJson, req.respClass);
+				else
+					respObj=null;
+			}else{
+				if(req.respTypeToken!=null)
+					respObj=gson.fromJson(reader, req.respTypeToken.getType());
+				else if(req.respClass!=null)
+					respObj=gson.fromJson(reader, req.respClass);
+				else
+					respObj=null;
+			}
+		}catch(JsonIOException|JsonSyntaxException x){
+			if(BuildConfig.DEBUG)
+				Log.w(TAG, logTag(session)+response+" error parsing or reading body", x);
+			req.onError(x.getLocalizedMessage(), response.code(), x);
+			return;
+		}
+		if(timings!=null){
+			long now=SystemClock.elapsedRealtimeNanos();
+			// When the body is read as a stream, this includes downloading it
+			timings.recordParse(now-stageStart+treeParseNanos);
+			stageStart=now;
+		}
+
+		try{
+			req.validateAndPostprocessResponse(respObj, response);
+		}catch(IOException x){
+			if(BuildConfig.DEBUG)
+				Log.w(TAG, logTag(session)+response+" error post-processing or validating response", x);
+			req.onError(x.getLocalizedMessage(), response.code(), x);
+			return;
+		}
+
+		if(timings!=null)
+			timings.recordPostprocess(SystemClock.elapsedRealtimeNanos()-stageStart);
+
+		if(BuildConfig.DEBUG)
+			Log.d(TAG, logTag(session)+response+" parsed successfully: "+respObj);
+
+		if(timings!=null)
+			timings.onDeliveringResult();
+		req.responseValidators=CacheValidators.fromResponse(response);
+		req.onSuccess(respObj);
+	}
+
+	private String getSingleFlightKey(MastodonAPIRequest<?> req, String token){
+		StringBuilder sb=new StringBuilder();
+		if(session!=null)
+			sb.append(session.getID());
+		else if(token!=null)
+			sb.append("token:").append(token.hashCode());
+		else
+			sb.append("no-auth");
+		sb.append(' ')
+				.append(req.getMethod())
+				.append(' ')
+				.append(req.getURL())
+				.append(' ')
+				.append(req.getClass().getName());
+		if(req.headers!=null)
+			sb.append(' ').append(req.headers.hashCode());
+		return sb.toString();
+	}
+
+	/**
+	 * Removes the flight from the in-flight table and detaches everyone who's waiting for its result, including the request
+	 * that made the HTTP call if it's still there
+	 * @param req the request that made the HTTP call
+	 * @param flight the flight req started, or null if it wasn't eligible for sharing
+	 * @return the requests that still need a result, in the order they were submitted
+	 */
+	private static List<MastodonAPIRequest<?>> takeSubscribers(MastodonAPIRequest<?> req, InFlightRequest flight){
+		if(flight==null){
+			synchronized(req){
+				req.okhttpCall=null;
+			}
+			return req.canceled ? List.of() : List.of(req);
+		}
+		ArrayList<MastodonAPIRequest<?>> subscribers;
+		synchronized(inFlightRequests){
+			if(inFlightRequests.get(flight.key)==flight)
+				inFlightRequests.remove(flight.key);
+			subscribers=new ArrayList<>(flight.subscribers);
+			flight.subscribers.clear();
+			flight.call=null;
+		}
+		for(MastodonAPIRequest<?> sub:subscribers){
+			sub.inFlight=null;
+		}
+		subscribers.removeIf(r->r.canceled);
+		return subscribers;
+	}
+
+	/**
+	 * Detaches a canceled request from its flight. If it was the one that made the HTTP call, the call keeps going for
+	 * whoever else attached to it, and they get its result through the flight.
+	 */
+	/*package*/ static void cancelInFlight(MastodonAPIRequest<?> req){
+		InFlightRequest flight=req.inFlight;
+		if(flight==null)
+			return;
+		Call callToCancel=null;
+		synchronized(inFlightRequests){
+			flight.subscribers.remove(req);
+			// Only cancel the actual HTTP call once nobody is waiting for its result
+			if(flight.subscribers.isEmpty()){
+				if(inFlightRequests.get(flight.key)==flight)
+					inFlightRequests.remove(flight.key);
+				callToCancel=flight.call;
+				flight.call=null;
+			}
+		}
+		req.inFlight=null;
+		if(callToCancel!=null)
+			callToCancel.cancel();
+	}
+
 	public static void runInBackground(Runnable action){
 		thread.postRunnable(action, 0);
 	}
@@ -253,4 +404,14 @@ public class MastodonAPIController{
 	private static String logTag(AccountSession session){
 		return "["+(session==null ? "no-auth" : session.getID())+"] ";
 	}
+
+	/*package*/ static class InFlightRequest{
+		private final String key;
+		private final ArrayList<MastodonAPIRequest<?>> subscribers=new ArrayList<>();
+		private Call call;
+
+		private InFlightRequest(String key){
+			this.key=key;
+		}
+	}
 }
@@ -22,6 +22,7 @@ import java.util.List;
 import java.util.Map;
 
 import androidx.annotation.CallSuper;
+import androidx.annotation.Nullable;
 import androidx.annotation.StringRes;
 import me.grishka.appkit.api.APIRequest;
 import me.grishka.appkit.api.Callback;
@@ -42,13 +43,22 @@ public abstract class MastodonAPIRequest<T> extends APIRequest<T>{
 	Class<T> respClass;
 	TypeToken<T> respTypeToken;
 	Call okhttpCall;
+	volatile MastodonAPIController.InFlightRequest inFlight;
 	Token token;
 	boolean canceled;
 	Map<String, String> headers;
 	long timeout;
 	boolean cacheable;
+	CacheValidators responseValidators;
+	private CacheValidators requestValidators;
+	private T notModifiedResult;
+	private boolean notModified;
 	private ProgressDialog progressDialog;
 	protected boolean removeUnsupportedItems;
+	/**
+	 * Whether statuses and accounts in the response should be replaced with their canonical instances from the session's {@link StatusStore}
+	 */
+	protected boolean useStatusStore=true;
 
 	public MastodonAPIRequest(HttpMethod method, String path, Class<T> respClass){
 		this.path=path;
@@ -70,6 +80,9 @@ public abstract class MastodonAPIRequest<T> extends APIRequest<T>{
 		if(okhttpCall!=null){
 			okhttpCall.cancel();
 		}
+		if(inFlight!=null){
+			MastodonAPIController.cancelInFlight(this);
+		}
 	}
 
 	@Override
@@ -137,6 +150,39 @@ public abstract class MastodonAPIRequest<T> extends APIRequest<T>{
 		cacheable=true;
 	}
 
+	/**
+	 * Make this a conditional request. If the server responds with 304 Not Modified, {@code cachedResult} is
+	 * passed to the callback as is, without being parsed or post-processed again.
+	 * @param validators the validators from the response {@code cachedResult} came from, as returned by {@link #getResponseValidators()}
+	 * @param cachedResult the object to return if the resource didn't change. May be null if the caller keeps it elsewhere and checks {@link #isNotModified()}
+	 */
+	public MastodonAPIRequest<T> revalidate(@Nullable CacheValidators validators, @Nullable T cachedResult){
+		if(validators==null)
+			return this;
+		requestValidators=validators;
+		notModifiedResult=cachedResult;
+		if(validators.etag!=null)
+			addHeader("If-None-Match", validators.etag);
+		if(validators.lastModified!=null)
+			addHeader("If-Modified-Since", validators.lastModified);
+		return this;
+	}
+
+	/**
+	 * @return true if this was a conditional request and the server said the cached result is still current
+	 */
+	public boolean isNotModified(){
+		return notModified;
+	}
+
+	/**
+	 * @return the validators to persist along with the result so it can be revalidated later, or null if the server didn't send any
+	 */
+	@Nullable
+	public CacheValidators getResponseValidators(){
+		return responseValidators;
+	}
+
 	protected String getPathPrefix(){
 		return "/api/v1";
 	}
@@ -154,6 +200,14 @@ public abstract class MastodonAPIRequest<T> extends APIRequest<T>{
 		return builder.build();
 	}
 
+	/**
+	 * Whether an identical request that is already in flight may be reused instead of sending this one.
+	 * Only bodyless GETs qualify since they don't have side effects.
+	 */
+	/*package*/ boolean isSingleFlightEligible(){
+		return "GET".equals(method) && requestBody==null;
+	}
+
 	public String getMethod(){
 		return method;
 	}
@@ -212,9 +266,28 @@ public abstract class MastodonAPIRequest<T> extends APIRequest<T>{
 			invokeErrorCallback(new MastodonErrorResponse(msg, httpStatus, exception));
 	}
 
+	void onNotModified(){
+		if(requestValidators==null){
+			onError("Unexpected 304 response to a non-conditional request", 304, null);
+			return;
+		}
+		notModified=true;
+		responseValidators=requestValidators;
+		onSuccess(notModifiedResult);
+	}
+
 	void onSuccess(T resp){
-		if(!canceled)
+		if(canceled)
+			return;
+		if(account!=null && useStatusStore && StatusStore.canContainStatusesOrAccounts(resp)){
+			// The store is only ever accessed on the main thread
+			CacheController.uiHandler.post(()->{
+				if(!canceled)
+					invokeSuccessCallback(account.getStatusStore().intern(resp));
+			});
+		}else{
 			invokeSuccessCallback(resp);
+		}
 	}
 
 	@Override
@@ -0,0 +1,322 @@
+package app.kabinka.social.api;
+
+import android.os.SystemClock;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+
+import app.kabinka.social.BuildConfig;
+import app.kabinka.social.utils.LatencyHistogram;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import okhttp3.Call;
+import okhttp3.EventListener;
+import okhttp3.Handshake;
+import okhttp3.HttpUrl;
+import okhttp3.Protocol;
+import okhttp3.Request;
+
+/**
+ * Collects timings and byte counts of API requests, per endpoint, for the network statistics screen.
+ * <p>
+ * Every stage of a request is timed separately: DNS, connecting, TLS, time to the first byte of the response,
+ * parsing the JSON, {@link MastodonAPIRequest#validateAndPostprocessResponse(Object, okhttp3.Response)}, and how long
+ * the main thread took to get to the result. The connection stages are only there for requests that had to open a
+ * new connection. Everything is kept in memory, in counters and {@link LatencyHistogram}s that are updated without locking.
+ * <p>
+ * In release builds, only one API request in {@link #RELEASE_SAMPLE_INTERVAL} is timed, and the others don't even get an
+ * {@link EventListener}. Total bytes are counted for every request that goes through the HTTP client, including media.
+ */
+public class NetworkStats{
+	private static final int RELEASE_SAMPLE_INTERVAL=16;
+
+	private static final ConcurrentHashMap<String, EndpointStats> endpoints=new ConcurrentHashMap<>();
+	private static final AtomicInteger sampleCounter=new AtomicInteger();
+	private static final LongAdder totalCalls=new LongAdder(), totalBytesSent=new LongAdder(), totalBytesReceived=new LongAdder();
+	private static volatile long collectingSince=System.currentTimeMillis();
+
+	private static final EventListener TOTALS_LISTENER=new EventListener(){
+		@Override
+		public void callStart(Call call){
+			totalCalls.increment();
+		}
+
+		@Override
+		public void requestBodyEnd(Call call, long byteCount){
+			totalBytesSent.add(byteCount);
+		}
+
+		@Override
+		public void responseBodyEnd(Call call, long byteCount){
+			totalBytesReceived.add(byteCount);
+		}
+	};
+
+	/**
+	 * For {@link okhttp3.OkHttpClient.Builder#eventListenerFactory(EventListener.Factory)}. Requests that are timed
+	 * carry their {@link RequestTimings} as a tag, everything else is only counted towards the totals.
+	 */
+	public static final EventListener.Factory EVENT_LISTENER_FACTORY=call->{
+		RequestTimings timings=call.request().tag(RequestTimings.class);
+		return timings!=null ? timings : TOTALS_LISTENER;
+	};
+
+	private NetworkStats(){}
+
+	/**
+	 * Decide whether to time an API request that's about to be sent.
+	 *
+	 * @return the object to tag the request with, or null if this one isn't sampled
+	 */
+	public static RequestTimings startTiming(Request.Builder builder){
+		if(!BuildConfig.DEBUG && sampleCounter.getAndIncrement()%RELEASE_SAMPLE_INTERVAL!=0)
+			return null;
+		RequestTimings timings=new RequestTimings();
+		builder.tag(RequestTimings.class, timings);
+		return timings;
+	}
+
+	/**
+	 * @return the endpoints that had at least one request, the ones with the most requests first
+	 */
+	public static List<EndpointStats> getEndpoints(){
+		ArrayList<EndpointStats> list=new ArrayList<>(endpoints.values());
+		list.sort(Comparator.comparingLong(EndpointStats::getRequestCount).reversed());
+		return list;
+	}
+
+	public static long getTotalCalls(){
+		return totalCalls.sum();
+	}
+
+	public static long getTotalBytesSent(){
+		return totalBytesSent.sum();
+	}
+
+	public static long getTotalBytesReceived(){
+		return totalBytesReceived.sum();
+	}
+
+	public static void reset(){
+		endpoints.clear();
+		totalCalls.reset();
+		totalBytesSent.reset();
+		totalBytesReceived.reset();
+		collectingSince=System.currentTimeMillis();
+	}
+
+	public static JsonObject toJson(){
+		JsonObject obj=new JsonObject();
+		obj.addProperty("app_version", BuildConfig.VERSION_NAME);
+		obj.addProperty("since", collectingSince);
+		obj.addProperty("until", System.currentTimeMillis());
+		obj.addProperty("sample_interval", BuildConfig.DEBUG ? 1 : RELEASE_SAMPLE_INTERVAL);
+		JsonObject totals=new JsonObject();
+		totals.addProperty("calls", getTotalCalls());
+		totals.addProperty("bytes_sent", getTotalBytesSent());
+		totals.addProperty("bytes_received", getTotalBytesReceived());
+		obj.add("totals", totals);
+		JsonArray arr=new JsonArray();
+		for(EndpointStats e:getEndpoints())
+			arr.add(e.toJson());
+		obj.add("endpoints", arr);
+		return obj;
+	}
+
+	/**
+	 * Turns a request into its endpoint, with IDs and hashtags replaced by placeholders, e.g. "GET /api/v1/accounts/:id/statuses"
+	 */
+	/*package*/ static String getEndpointKey(String method, HttpUrl url){
+		StringBuilder sb=new StringBuilder(method).append(' ');
+		List<String> segments=url.encodedPathSegments();
+		for(int i=0;i<segments.size();i++){
+			String segment=segments.get(i);
+			sb.append('/');
+			if(i>0 && "tag".equals(segments.get(i-1)))
+				sb.append(":tag");
+			else if(isIdLike(segment))
+				sb.append(":id");
+			else
+				sb.append(segment);
+		}
+		return sb.toString();
+	}
+
+	private static boolean isIdLike(String segment){
+		boolean hasDigits=false, onlyDigits=true;
+		for(int i=0;i<segment.length();i++){
+			if(Character.isDigit(segment.charAt(i)))
+				hasDigits=true;
+			else
+				onlyDigits=false;
+		}
+		if(!hasDigits)
+			return false;
+		// API versions like "v1"
+		return onlyDigits || segment.length()>3 || segment.charAt(0)!='v';
+	}
+
+	public static class EndpointStats{
+		public final String key;
+		public final LatencyHistogram total=new LatencyHistogram(), dns=new LatencyHistogram(), connect=new LatencyHistogram(), tls=new LatencyHistogram(),
+				timeToFirstByte=new LatencyHistogram(), parse=new LatencyHistogram(), postprocess=new LatencyHistogram(), dispatch=new LatencyHistogram();
+		private final LongAdder requests=new LongAdder(), failures=new LongAdder(), bytesSent=new LongAdder(), bytesReceived=new LongAdder();
+
+		private EndpointStats(String key){
+			this.key=key;
+		}
+
+		public long getRequestCount(){
+			return requests.sum();
+		}
+
+		public long getFailureCount(){
+			return failures.sum();
+		}
+
+		public long getBytesSent(){
+			return bytesSent.sum();
+		}
+
+		public long getBytesReceived(){
+			return bytesReceived.sum();
+		}
+
+		public JsonObject toJson(){
+			JsonObject obj=new JsonObject();
+			obj.addProperty("endpoint", key);
+			obj.addProperty("requests", getRequestCount());
+			obj.addProperty("failures", getFailureCount());
+			obj.addProperty("bytes_sent", getBytesSent());
+			obj.addProperty("bytes_received", getBytesReceived());
+			obj.add("total", total.toJson());
+			obj.add("dns", dns.toJson());
+			obj.add("connect", connect.toJson());
+			obj.add("tls", tls.toJson());
+			obj.add("ttfb", timeToFirstByte.toJson());
+			obj.add("parse", parse.toJson());
+			obj.add("postprocess", postprocess.toJson());
+			obj.add("dispatch", dispatch.toJson());
+			return obj;
+		}
+	}
+
+	/**
+	 * The timings of one API request. OkHttp calls the listener methods one after another for a call, so the fields don't need synchronization.
+	 */
+	public static class RequestTimings extends EventListener{
+		private EndpointStats stats;
+		private long callStart, dnsStart, connectStart, secureConnectStart, requestStart;
+
+		private RequestTimings(){}
+
+		private static long now(){
+			return SystemClock.elapsedRealtimeNanos();
+		}
+
+		@Override
+		public void callStart(Call call){
+			totalCalls.increment();
+			Request req=call.request();
+			stats=endpoints.computeIfAbsent(getEndpointKey(req.method(), req.url()), EndpointStats::new);
+			callStart=now();
+		}
+
+		@Override
+		public void dnsStart(Call call, String domainName){
+			dnsStart=now();
+		}
+
+		@Override
+		public void dnsEnd(Call call, String domainName, List<InetAddress> inetAddressList){
+			stats.dns.recordNanos(now()-dnsStart);
+		}
+
+		@Override
+		public void connectStart(Call call, InetSocketAddress inetSocketAddress, Proxy proxy){
+			connectStart=now();
+		}
+
+		@Override
+		public void secureConnectStart(Call call){
+			secureConnectStart=now();
+		}
+
+		@Override
+		public void secureConnectEnd(Call call, Handshake handshake){
+			stats.tls.recordNanos(now()-secureConnectStart);
+		}
+
+		@Override
+		public void connectEnd(Call call, InetSocketAddress inetSocketAddress, Proxy proxy, Protocol protocol){
+			stats.connect.recordNanos(now()-connectStart);
+		}
+
+		@Override
+		public void requestHeadersStart(Call call){
+			requestStart=now();
+		}
+
+		@Override
+		public void requestBodyEnd(Call call, long byteCount){
+			totalBytesSent.add(byteCount);
+			stats.bytesSent.add(byteCount);
+		}
+
+		@Override
+		public void responseHeadersStart(Call call){
+			stats.timeToFirstByte.recordNanos(now()-requestStart);
+		}
+
+		@Override
+		public void responseBodyEnd(Call call, long byteCount){
+			totalBytesReceived.add(byteCount);
+			stats.bytesReceived.add(byteCount);
+		}
+
+		@Override
+		public void callEnd(Call call){
+			stats.requests.increment();
+			stats.total.recordNanos(now()-callStart);
+		}
+
+		@Override
+		public void callFailed(Call call, IOException ioe){
+			stats.requests.increment();
+			stats.failures.increment();
+			stats.total.recordNanos(now()-callStart);
+		}
+
+		/*package*/ void recordParse(long nanos){
+			if(stats!=null)
+				stats.parse.recordNanos(nanos);
+		}
+
+		/*package*/ void recordPostprocess(long nanos){
+			if(stats!=null)
+				stats.postprocess.recordNanos(nanos);
+		}
+
+		/**
+		 * Call right before handing the result to the request, which delivers it on the main thread.
+		 * Measures how long the main thread takes to get to a message posted at that moment.
+		 */
+		/*package*/ void onDeliveringResult(){
+			if(stats==null)
+				return;
+			long start=now();
+			EndpointStats stats=this.stats;
+			CacheController.uiHandler.post(()->stats.dispatch.recordNanos(now()-start));
+		}
+	}
+}
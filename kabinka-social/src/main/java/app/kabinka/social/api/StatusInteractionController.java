@@ -1,133 +1,374 @@
 package app.kabinka.social.api;
 
+import android.net.ConnectivityManager;
+import android.net.Network;
 import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
 
+import app.kabinka.social.BuildConfig;
 import app.kabinka.social.E;
 import app.kabinka.social.MastodonApp;
 import app.kabinka.social.api.requests.statuses.SetStatusBookmarked;
 import app.kabinka.social.api.requests.statuses.SetStatusFavorited;
 import app.kabinka.social.api.requests.statuses.SetStatusReblogged;
+import app.kabinka.social.api.session.AccountSessionManager;
 import app.kabinka.social.events.StatusCountersUpdatedEvent;
+import app.kabinka.social.events.StatusCountersUpdatedEvent.CounterType;
 import app.kabinka.social.model.Status;
 
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
 
 import me.grishka.appkit.api.Callback;
 import me.grishka.appkit.api.ErrorResponse;
 
+/**
+ * Favorites, boosts and bookmarks go through a per-account outbox that is persisted in the account database.
+ * The UI is updated optimistically right away. Repeated toggles of the same status coalesce into the final state,
+ * and failed requests are retried with exponential backoff or as soon as connectivity returns.
+ */
 public class StatusInteractionController{
+	private static final String TAG="StatusInteraction";
+	private static final int MAX_CONCURRENT_REQUESTS=4;
+	private static final long MIN_RETRY_DELAY=1000;
+	private static final long MAX_RETRY_DELAY=5*60_000;
+	private static final long MAX_PENDING_AGE=7*24*3600_000L;
+
 	private final String accountID;
-	private final HashMap<String, SetStatusFavorited> runningFavoriteRequests=new HashMap<>();
-	private final HashMap<String, SetStatusReblogged> runningReblogRequests=new HashMap<>();
-	private final HashMap<String, SetStatusBookmarked> runningBookmarkRequests=new HashMap<>();
+	private final LinkedHashMap<String, PendingInteraction> outbox=new LinkedHashMap<>();
+	private final Runnable flushRunnable=this::flush;
+	private int runningRequests;
+	private boolean restored;
+	private ConnectivityManager.NetworkCallback networkCallback;
+
+	private long flushedCount, totalFlushLatency, maxFlushLatency;
 
 	public StatusInteractionController(String accountID){
 		this.accountID=accountID;
+		AccountSessionManager.get(accountID).getCacheController().getInteractionOutbox(this::onOutboxRestored);
 	}
 
 	public void setFavorited(Status status, boolean favorited){
 		if(!Looper.getMainLooper().isCurrentThread())
 			throw new IllegalStateException("Can only be called from main thread");
 
-		SetStatusFavorited current=runningFavoriteRequests.remove(status.id);
-		if(current!=null){
-			current.cancel();
-		}
-		SetStatusFavorited req=(SetStatusFavorited) new SetStatusFavorited(status.id, favorited)
-				.setCallback(new Callback<>(){
-					@Override
-					public void onSuccess(Status result){
-						runningFavoriteRequests.remove(status.id);
-						E.post(new StatusCountersUpdatedEvent(result, StatusCountersUpdatedEvent.CounterType.FAVORITES));
-					}
-
-					@Override
-					public void onError(ErrorResponse error){
-						runningFavoriteRequests.remove(status.id);
-						error.showToast(MastodonApp.context);
-						status.favourited=!favorited;
-						if(favorited)
-							status.favouritesCount--;
-						else
-							status.favouritesCount++;
-						E.post(new StatusCountersUpdatedEvent(status, StatusCountersUpdatedEvent.CounterType.FAVORITES));
-					}
-				})
-				.exec(accountID);
-		runningFavoriteRequests.put(status.id, req);
+		if(status.favourited==favorited)
+			return;
+		enqueue(status, CounterType.FAVORITES, favorited);
 		status.favourited=favorited;
 		if(favorited)
 			status.favouritesCount++;
 		else
 			status.favouritesCount--;
-		E.post(new StatusCountersUpdatedEvent(status, StatusCountersUpdatedEvent.CounterType.FAVORITES));
+		E.post(new StatusCountersUpdatedEvent(status, CounterType.FAVORITES));
 	}
 
 	public void setReblogged(Status status, boolean reblogged){
 		if(!Looper.getMainLooper().isCurrentThread())
 			throw new IllegalStateException("Can only be called from main thread");
 
-		SetStatusReblogged current=runningReblogRequests.remove(status.id);
-		if(current!=null){
-			current.cancel();
-		}
-		SetStatusReblogged req=(SetStatusReblogged) new SetStatusReblogged(status.id, reblogged)
-				.setCallback(new Callback<>(){
-					@Override
-					public void onSuccess(Status result){
-						runningReblogRequests.remove(status.id);
-						E.post(new StatusCountersUpdatedEvent(result, StatusCountersUpdatedEvent.CounterType.REBLOGS));
-					}
-
-					@Override
-					public void onError(ErrorResponse error){
-						runningReblogRequests.remove(status.id);
-						error.showToast(MastodonApp.context);
-						status.reblogged=!reblogged;
-						if(reblogged)
-							status.reblogsCount--;
-						else
-							status.reblogsCount++;
-						E.post(new StatusCountersUpdatedEvent(status, StatusCountersUpdatedEvent.CounterType.REBLOGS));
-					}
-				})
-				.exec(accountID);
-		runningReblogRequests.put(status.id, req);
+		if(status.reblogged==reblogged)
+			return;
+		enqueue(status, CounterType.REBLOGS, reblogged);
 		status.reblogged=reblogged;
 		if(reblogged)
 			status.reblogsCount++;
 		else
 			status.reblogsCount--;
-		E.post(new StatusCountersUpdatedEvent(status, StatusCountersUpdatedEvent.CounterType.REBLOGS));
+		E.post(new StatusCountersUpdatedEvent(status, CounterType.REBLOGS));
 	}
 
 	public void setBookmarked(Status status, boolean bookmarked){
 		if(!Looper.getMainLooper().isCurrentThread())
 			throw new IllegalStateException("Can only be called from main thread");
 
-		SetStatusBookmarked current=runningBookmarkRequests.remove(status.id);
-		if(current!=null){
-			current.cancel();
-		}
-		SetStatusBookmarked req=(SetStatusBookmarked) new SetStatusBookmarked(status.id, bookmarked)
-				.setCallback(new Callback<>(){
-					@Override
-					public void onSuccess(Status result){
-						runningBookmarkRequests.remove(status.id);
-						E.post(new StatusCountersUpdatedEvent(result, StatusCountersUpdatedEvent.CounterType.BOOKMARKS));
+		if(status.bookmarked==bookmarked)
+			return;
+		enqueue(status, CounterType.BOOKMARKS, bookmarked);
+		status.bookmarked=bookmarked;
+		E.post(new StatusCountersUpdatedEvent(status, CounterType.BOOKMARKS));
+	}
+
+	/**
+	 * Re-apply the interactions that haven't reached the server yet to a status that was just loaded from it,
+	 * so that a refresh doesn't undo the optimistic update
+	 */
+	public void applyPendingState(Status status){
+		if(outbox.isEmpty())
+			return;
+		for(CounterType type:new CounterType[]{CounterType.FAVORITES, CounterType.REBLOGS, CounterType.BOOKMARKS}){
+			PendingInteraction pending=outbox.get(type+":"+status.id);
+			if(pending==null)
+				continue;
+			pending.status=status;
+			switch(type){
+				case FAVORITES -> {
+					if(status.favourited!=pending.value){
+						status.favourited=pending.value;
+						status.favouritesCount+=pending.value ? 1 : -1;
+					}
+				}
+				case REBLOGS -> {
+					if(status.reblogged!=pending.value){
+						status.reblogged=pending.value;
+						status.reblogsCount+=pending.value ? 1 : -1;
 					}
+				}
+				case BOOKMARKS -> status.bookmarked=pending.value;
+			}
+		}
+	}
+
+	/**
+	 * @return the number of interactions that haven't been confirmed by the server yet
+	 */
+	public int getQueueDepth(){
+		return outbox.size();
+	}
 
-					@Override
-					public void onError(ErrorResponse error){
-						runningBookmarkRequests.remove(status.id);
-						error.showToast(MastodonApp.context);
-						status.bookmarked=!bookmarked;
-						E.post(new StatusCountersUpdatedEvent(status, StatusCountersUpdatedEvent.CounterType.BOOKMARKS));
+	/**
+	 * @return the average time, in milliseconds, between an interaction being queued and the server confirming it
+	 */
+	public long getAverageFlushLatency(){
+		return flushedCount==0 ? 0 : totalFlushLatency/flushedCount;
+	}
+
+	public long getMaxFlushLatency(){
+		return maxFlushLatency;
+	}
+
+	private void enqueue(Status status, CounterType type, boolean value){
+		String key=type+":"+status.id;
+		PendingInteraction pending=outbox.get(key);
+		if(pending==null){
+			pending=new PendingInteraction(status.id, type, !value, value, System.currentTimeMillis());
+			outbox.put(key, pending);
+		}else{
+			pending.value=value;
+			pending.seq++;
+			if(pending.request==null && pending.value==pending.originalValue){
+				// Toggled back to where the server already is before anything was sent, nothing to do
+				outbox.remove(key);
+				AccountSessionManager.get(accountID).getCacheController().deleteOutboxInteraction(pending.statusID, type);
+				updateNetworkCallback();
+				return;
+			}
+		}
+		pending.status=status;
+		pending.attempts=0;
+		pending.nextAttemptAt=0;
+		AccountSessionManager.get(accountID).getCacheController().putOutboxInteraction(pending);
+		updateNetworkCallback();
+		flush();
+	}
+
+	private void onOutboxRestored(List<PendingInteraction> restoredItems){
+		restored=true;
+		long now=System.currentTimeMillis();
+		CacheController cache=AccountSessionManager.get(accountID).getCacheController();
+		for(PendingInteraction pending:restoredItems){
+			String key=pending.type+":"+pending.statusID;
+			// Whatever was queued in this process before the outbox finished loading is newer
+			if(outbox.containsKey(key))
+				continue;
+			if(now-pending.queuedAt>MAX_PENDING_AGE){
+				cache.deleteOutboxInteraction(pending.statusID, pending.type);
+				continue;
+			}
+			outbox.put(key, pending);
+		}
+		if(BuildConfig.DEBUG && !restoredItems.isEmpty())
+			Log.d(TAG, "["+accountID+"] restored "+restoredItems.size()+" pending interactions");
+		updateNetworkCallback();
+		flush();
+	}
+
+	private void flush(){
+		CacheController.uiHandler.removeCallbacks(flushRunnable);
+		if(!restored)
+			return;
+		long now=SystemClock.uptimeMillis();
+		long nextRetry=Long.MAX_VALUE;
+		for(PendingInteraction pending:new ArrayList<>(outbox.values())){
+			if(pending.request!=null)
+				continue;
+			if(pending.nextAttemptAt>now){
+				nextRetry=Math.min(nextRetry, pending.nextAttemptAt);
+				continue;
+			}
+			if(runningRequests>=MAX_CONCURRENT_REQUESTS)
+				return; // The next completing request will flush again
+			send(pending);
+		}
+		if(nextRetry!=Long.MAX_VALUE)
+			CacheController.uiHandler.postAtTime(flushRunnable, nextRetry);
+	}
+
+	private void send(PendingInteraction pending){
+		final int sentSeq=pending.seq;
+		final boolean sentValue=pending.value;
+		Callback<Status> callback=new Callback<>(){
+			@Override
+			public void onSuccess(Status result){
+				pending.request=null;
+				runningRequests--;
+				String key=pending.type+":"+pending.statusID;
+				if(pending.seq==sentSeq){
+					outbox.remove(key);
+					AccountSessionManager.get(accountID).getCacheController().deleteOutboxInteraction(pending.statusID, pending.type);
+					long latency=System.currentTimeMillis()-pending.queuedAt;
+					flushedCount++;
+					totalFlushLatency+=latency;
+					maxFlushLatency=Math.max(maxFlushLatency, latency);
+					if(BuildConfig.DEBUG)
+						Log.d(TAG, "["+accountID+"] "+key+" flushed after "+latency+" ms, "+outbox.size()+" still queued");
+					E.post(new StatusCountersUpdatedEvent(result, pending.type));
+				}else{
+					// Toggled again while this was in flight. The server is now at sentValue and the local state is newer, so don't touch the UI.
+					pending.originalValue=sentValue;
+					if(pending.value==pending.originalValue){
+						outbox.remove(key);
+						AccountSessionManager.get(accountID).getCacheController().deleteOutboxInteraction(pending.statusID, pending.type);
+					}else{
+						AccountSessionManager.get(accountID).getCacheController().putOutboxInteraction(pending);
 					}
-				})
-				.exec(accountID);
-		runningBookmarkRequests.put(status.id, req);
-		status.bookmarked=bookmarked;
-		E.post(new StatusCountersUpdatedEvent(status, StatusCountersUpdatedEvent.CounterType.BOOKMARKS));
+				}
+				updateNetworkCallback();
+				flush();
+			}
+
+			@Override
+			public void onError(ErrorResponse error){
+				pending.request=null;
+				runningRequests--;
+				if(error instanceof MastodonErrorResponse mer && isRetryable(mer)){
+					pending.attempts++;
+					long delay=Math.min(MAX_RETRY_DELAY, MIN_RETRY_DELAY<<Math.min(pending.attempts-1, 16));
+					pending.nextAttemptAt=SystemClock.uptimeMillis()+delay;
+					if(BuildConfig.DEBUG)
+						Log.d(TAG, "["+accountID+"] "+pending.type+":"+pending.statusID+" failed ("+mer.error+"), retrying in "+delay+" ms");
+					AccountSessionManager.get(accountID).getCacheController().putOutboxInteraction(pending);
+					flush();
+					return;
+				}
+				// The server rejected it for good (status deleted, no permission...)
+				error.showToast(MastodonApp.context);
+				String key=pending.type+":"+pending.statusID;
+				if(pending.seq==sentSeq){
+					// Drop it and roll back the optimistic update
+					outbox.remove(key);
+					AccountSessionManager.get(accountID).getCacheController().deleteOutboxInteraction(pending.statusID, pending.type);
+					if(pending.status!=null)
+						rollBack(pending.status, pending.type, pending.originalValue);
+				}else if(pending.value==pending.originalValue){
+					// Toggled back while this was in flight, the server is already where the user wants it
+					outbox.remove(key);
+					AccountSessionManager.get(accountID).getCacheController().deleteOutboxInteraction(pending.statusID, pending.type);
+				}else{
+					// Toggled again while this was in flight, send the newer state on its own
+					pending.attempts=0;
+					pending.nextAttemptAt=0;
+					AccountSessionManager.get(accountID).getCacheController().putOutboxInteraction(pending);
+				}
+				updateNetworkCallback();
+				flush();
+			}
+		};
+		runningRequests++;
+		pending.request=switch(pending.type){
+			case FAVORITES -> new SetStatusFavorited(pending.statusID, sentValue).setCallback(callback).exec(accountID);
+			case REBLOGS -> new SetStatusReblogged(pending.statusID, sentValue).setCallback(callback).exec(accountID);
+			case BOOKMARKS -> new SetStatusBookmarked(pending.statusID, sentValue).setCallback(callback).exec(accountID);
+			default -> throw new IllegalStateException("Unexpected value: "+pending.type);
+		};
+	}
+
+	private static boolean isRetryable(MastodonErrorResponse error){
+		// 0 means the request didn't reach the server or the response didn't make it back
+		return error.httpStatus==0 || error.httpStatus==408 || error.httpStatus==429 || error.httpStatus>=500;
+	}
+
+	private static void rollBack(Status status, CounterType type, boolean value){
+		switch(type){
+			case FAVORITES -> {
+				if(status.favourited!=value){
+					status.favourited=value;
+					if(value)
+						status.favouritesCount++;
+					else
+						status.favouritesCount--;
+				}
+			}
+			case REBLOGS -> {
+				if(status.reblogged!=value){
+					status.reblogged=value;
+					if(value)
+						status.reblogsCount++;
+					else
+						status.reblogsCount--;
+				}
+			}
+			case BOOKMARKS -> status.bookmarked=value;
+		}
+		E.post(new StatusCountersUpdatedEvent(status, type));
+	}
+
+	private void updateNetworkCallback(){
+		ConnectivityManager cm=MastodonApp.context.getSystemService(ConnectivityManager.class);
+		if(!outbox.isEmpty() && networkCallback==null){
+			networkCallback=new ConnectivityManager.NetworkCallback(){
+				@Override
+				public void onAvailable(Network network){
+					CacheController.uiHandler.post(StatusInteractionController.this::onConnectivityRestored);
+				}
+			};
+			try{
+				cm.registerDefaultNetworkCallback(networkCallback);
+			}catch(RuntimeException x){
+				Log.w(TAG, "Failed to register network callback", x);
+				networkCallback=null;
+			}
+		}else if(outbox.isEmpty() && networkCallback!=null){
+			try{
+				cm.unregisterNetworkCallback(networkCallback);
+			}catch(RuntimeException ignore){}
+			networkCallback=null;
+		}
+	}
+
+	private void onConnectivityRestored(){
+		for(PendingInteraction pending:outbox.values()){
+			pending.nextAttemptAt=0;
+		}
+		flush();
+	}
+
+	/*package*/ static class PendingInteraction{
+		final String statusID;
+		final CounterType type;
+		/**
+		 * The state the server is known to be in
+		 */
+		boolean originalValue;
+		/**
+		 * The state the user wants
+		 */
+		boolean value;
+		final long queuedAt;
+		int attempts;
+		int seq;
+		long nextAttemptAt;
+		Status status;
+		MastodonAPIRequest<Status> request;
+
+		PendingInteraction(String statusID, CounterType type, boolean originalValue, boolean value, long queuedAt){
+			this.statusID=statusID;
+			this.type=type;
+			this.originalValue=originalValue;
+			this.value=value;
+			this.queuedAt=queuedAt;
+		}
 	}
 }
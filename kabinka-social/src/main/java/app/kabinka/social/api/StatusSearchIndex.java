@@ -0,0 +1,48 @@
+package app.kabinka.social.api;
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Schema and queries of the local full-text index of cached posts, see {@link CacheController#searchCachedStatuses}.
+ * Kept separate from CacheController so that the query latency can be benchmarked on the JVM against the same SQL.
+ */
+/*package*/ class StatusSearchIndex{
+	private static final Pattern TOKEN_PATTERN=Pattern.compile("[\\p{L}\\p{N}_]+");
+	private static final int MAX_QUERY_TOKENS=10;
+
+	public static final String[] CREATE_TABLES={
+			"""
+			CREATE TABLE `search_statuses` (
+				`id` VARCHAR(25) NOT NULL PRIMARY KEY,
+				`json` TEXT NOT NULL,
+				`time` INTEGER NOT NULL
+			)""",
+			"CREATE INDEX `search_statuses_time` ON `search_statuses`(`time`)",
+			// docid is the rowid of the post in search_statuses
+			"CREATE VIRTUAL TABLE `search_statuses_fts` USING fts4(`text`, `author`, `hashtags`, tokenize=unicode61)"
+	};
+
+	private StatusSearchIndex(){}
+
+	/**
+	 * @return an FTS MATCH expression where every word of the query matches as a prefix, or an empty string if the query has no words
+	 */
+	public static String buildMatchExpression(String query){
+		StringBuilder sb=new StringBuilder();
+		Matcher matcher=TOKEN_PATTERN.matcher(query.toLowerCase());
+		for(int i=0;i<MAX_QUERY_TOKENS && matcher.find();i++){
+			if(i>0)
+				sb.append(' ');
+			sb.append(matcher.group()).append('*');
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * @return a query with one argument, the MATCH expression, that selects the JSON of the newest matching posts
+	 */
+	public static String buildSearchQuery(int count){
+		return "SELECT `json` FROM `search_statuses` WHERE `rowid` IN (SELECT `docid` FROM `search_statuses_fts` WHERE `search_statuses_fts` MATCH ?) ORDER BY `time` DESC LIMIT "+count;
+	}
+}
@@ -0,0 +1,218 @@
+package app.kabinka.social.api;
+
+import android.os.Looper;
+
+import app.kabinka.social.E;
+import app.kabinka.social.api.requests.notifications.GetNotificationsV2;
+import app.kabinka.social.api.session.AccountSessionManager;
+import app.kabinka.social.events.PollUpdatedEvent;
+import app.kabinka.social.events.StatusCountersUpdatedEvent;
+import app.kabinka.social.events.StatusCountersUpdatedEvent.CounterType;
+import app.kabinka.social.events.StatusUpdatedEvent;
+import app.kabinka.social.model.Account;
+import app.kabinka.social.model.Notification;
+import app.kabinka.social.model.Poll;
+import app.kabinka.social.model.SearchResults;
+import app.kabinka.social.model.Status;
+import app.kabinka.social.model.StatusContext;
+import app.kabinka.social.model.viewmodel.NotificationViewModel;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Keeps one canonical instance of every status and account per account session, for as long as something still references it.
+ * <p>
+ * API responses and cached timelines go through {@link #intern(Object)} on the main thread before they're handed to callbacks.
+ * A status or account that is already known is replaced by the existing instance, after copying the new server state into it.
+ * This way all screens showing the same post share one object, and an update only needs to be applied once.
+ * Posts read from the disk cache go through {@link #internCached(Object)} instead, because they can be older than the instances
+ * already in memory.
+ * Changes that require something to be redrawn are announced with the usual per-id events
+ * ({@link StatusUpdatedEvent}, {@link StatusCountersUpdatedEvent}, {@link PollUpdatedEvent}).
+ */
+public class StatusStore{
+	private final String accountID;
+	private final HashMap<String, IdWeakReference<Status>> statuses=new HashMap<>();
+	private final HashMap<String, IdWeakReference<Account>> accounts=new HashMap<>();
+	private final ReferenceQueue<Object> referenceQueue=new ReferenceQueue<>();
+
+	public StatusStore(String accountID){
+		this.accountID=accountID;
+	}
+
+	/**
+	 * Replace every status and account in an object returned by the API with its canonical instance.
+	 * Lists are updated in place.
+	 * @return the canonical instance if obj itself is a status or an account, obj otherwise
+	 */
+	@SuppressWarnings("unchecked")
+	public <O> O intern(O obj){
+		if(!Looper.getMainLooper().isCurrentThread())
+			throw new IllegalStateException("Can only be called from main thread");
+		expungeStaleEntries();
+		return (O) internObject(obj, false);
+	}
+
+	/**
+	 * Same as {@link #intern(Object)}, but for objects read from the disk cache. The instances in memory are never older than
+	 * what's in the cache, so a status or account that is already known is replaced by the existing instance as is, without
+	 * copying anything into it or announcing changes. Objects that aren't known yet become the canonical instances.
+	 * @return the canonical instance if obj itself is a status or an account, obj otherwise
+	 */
+	@SuppressWarnings("unchecked")
+	public <O> O internCached(O obj){
+		if(!Looper.getMainLooper().isCurrentThread())
+			throw new IllegalStateException("Can only be called from main thread");
+		expungeStaleEntries();
+		return (O) internObject(obj, true);
+	}
+
+	/**
+	 * @return whether {@link #intern(Object)} would do anything with this object
+	 */
+	public static boolean canContainStatusesOrAccounts(Object obj){
+		return obj instanceof Status || obj instanceof Account || obj instanceof List || obj instanceof Notification || obj instanceof NotificationViewModel
+				|| obj instanceof SearchResults || obj instanceof StatusContext || obj instanceof GetNotificationsV2.GroupedNotificationsResults;
+	}
+
+	public Status getStatus(String id){
+		IdWeakReference<Status> ref=statuses.get(id);
+		return ref==null ? null : ref.get();
+	}
+
+	public Account getAccount(String id){
+		IdWeakReference<Account> ref=accounts.get(id);
+		return ref==null ? null : ref.get();
+	}
+
+	/**
+	 * @return the number of canonical statuses and accounts that are still alive, for debugging
+	 */
+	public String getStats(){
+		expungeStaleEntries();
+		return statuses.size()+" statuses, "+accounts.size()+" accounts";
+	}
+
+	private Object internObject(Object obj, boolean fromCache){
+		if(obj instanceof Status s){
+			return internStatus(s, fromCache);
+		}else if(obj instanceof Account a){
+			return internAccount(a, fromCache);
+		}else if(obj instanceof List<?> list){
+			internList(list, fromCache);
+		}else if(obj instanceof Notification n){
+			n.account=internAccount(n.account, fromCache);
+			n.status=internStatus(n.status, fromCache);
+		}else if(obj instanceof NotificationViewModel nvm){
+			internList(nvm.accounts, fromCache);
+			nvm.status=internStatus(nvm.status, fromCache);
+		}else if(obj instanceof SearchResults sr){
+			internList(sr.accounts, fromCache);
+			internList(sr.statuses, fromCache);
+		}else if(obj instanceof StatusContext ctx){
+			internList(ctx.ancestors, fromCache);
+			internList(ctx.descendants, fromCache);
+		}else if(obj instanceof GetNotificationsV2.GroupedNotificationsResults gnr){
+			internList(gnr.accounts, fromCache);
+			internList(gnr.statuses, fromCache);
+		}
+		return obj;
+	}
+
+	@SuppressWarnings("unchecked")
+	private void internList(List<?> list, boolean fromCache){
+		if(list==null)
+			return;
+		for(int i=0;i<list.size();i++){
+			Object item=list.get(i);
+			Object interned=internObject(item, fromCache);
+			if(interned!=item)
+				((List<Object>) list).set(i, interned);
+		}
+	}
+
+	private Status internStatus(Status status, boolean fromCache){
+		if(status==null)
+			return null;
+		Status existing=getStatus(status.id);
+		if(existing!=null && (existing==status || fromCache))
+			return existing;
+		if(status.reblog!=null)
+			status.reblog=internStatus(status.reblog, fromCache);
+		if(status.quote!=null && status.quote.quotedStatus!=null)
+			status.quote.quotedStatus=internStatus(status.quote.quotedStatus, fromCache);
+		status.account=internAccount(status.account, fromCache);
+
+		StatusInteractionController interactionController=AccountSessionManager.get(accountID).getStatusInteractionController();
+		if(existing==null){
+			statuses.put(status.id, new IdWeakReference<>(status.id, status, referenceQueue));
+			interactionController.applyPendingState(status);
+			return status;
+		}
+
+		boolean favoritesChanged=existing.favouritesCount!=status.favouritesCount || existing.favourited!=status.favourited;
+		boolean reblogsChanged=existing.reblogsCount!=status.reblogsCount || existing.reblogged!=status.reblogged;
+		boolean repliesChanged=existing.repliesCount!=status.repliesCount;
+		boolean bookmarksChanged=existing.bookmarked!=status.bookmarked;
+		Poll prevPoll=existing.poll;
+		boolean contentChanged=existing.mergeFrom(status);
+		interactionController.applyPendingState(existing);
+
+		if(contentChanged){
+			AccountSessionManager.get(accountID).getCacheController().updateIndexedStatus(existing);
+			E.post(new StatusUpdatedEvent(existing));
+		}else{
+			if(existing.poll!=prevPoll && existing.poll!=null)
+				E.post(new PollUpdatedEvent(accountID, existing.poll));
+			if(favoritesChanged)
+				E.post(new StatusCountersUpdatedEvent(existing, CounterType.FAVORITES));
+			if(reblogsChanged)
+				E.post(new StatusCountersUpdatedEvent(existing, CounterType.REBLOGS));
+			if(repliesChanged)
+				E.post(new StatusCountersUpdatedEvent(existing, CounterType.REPLIES));
+			if(bookmarksChanged)
+				E.post(new StatusCountersUpdatedEvent(existing, CounterType.BOOKMARKS));
+		}
+		return existing;
+	}
+
+	private Account internAccount(Account account, boolean fromCache){
+		if(account==null)
+			return null;
+		Account existing=getAccount(account.id);
+		if(existing!=null && (existing==account || fromCache))
+			return existing;
+		if(account.moved!=null)
+			account.moved=internAccount(account.moved, fromCache);
+		if(existing==null){
+			accounts.put(account.id, new IdWeakReference<>(account.id, account, referenceQueue));
+			return account;
+		}
+		existing.mergeFrom(account);
+		return existing;
+	}
+
+	private void expungeStaleEntries(){
+		Object ref;
+		while((ref=referenceQueue.poll())!=null){
+			IdWeakReference<?> idRef=(IdWeakReference<?>) ref;
+			// The id might have been taken by a newer instance by now
+			if(statuses.get(idRef.id)==idRef)
+				statuses.remove(idRef.id);
+			else if(accounts.get(idRef.id)==idRef)
+				accounts.remove(idRef.id);
+		}
+	}
+
+	private static class IdWeakReference<T> extends WeakReference<T>{
+		public final String id;
+
+		public IdWeakReference(String id, T referent, ReferenceQueue<? super T> q){
+			super(referent, q);
+			this.id=id;
+		}
+	}
+}
@@ -0,0 +1,37 @@
+package app.kabinka.social.api;
+
+import app.kabinka.social.model.Status;
+
+import java.util.List;
+
+/**
+ * What a timeline looked like when the app went to the background, so that it can be shown exactly like that right away
+ * if the process is killed in the meantime. Kept by {@link CacheController}, one per timeline.
+ * <p>
+ * Only has the posts around the scroll position, enough for the first screen and a bit more.
+ * The rest is loaded from the cache as usual when scrolling further.
+ */
+public class TimelineSnapshot{
+	public long time;
+	/**
+	 * In the order they were displayed in
+	 */
+	public List<Status> posts;
+	/**
+	 * Gaps aren't part of the posts' JSON
+	 */
+	public List<String> idsWithGapAfter;
+	/**
+	 * The post that was at the top of the list
+	 */
+	public String anchorID;
+	/**
+	 * Which of the anchor post's display items was at the top, and how far its top edge was from the top of the list, in pixels.
+	 * It's negative when the item was scrolled partially out of view.
+	 */
+	public int anchorItemIndex, anchorOffset;
+	/**
+	 * For loading the page after the last post in the snapshot
+	 */
+	public String maxID;
+}
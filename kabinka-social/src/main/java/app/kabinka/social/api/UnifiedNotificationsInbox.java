@@ -0,0 +1,195 @@
+package app.kabinka.social.api;
+
+import app.kabinka.social.api.session.AccountSessionManager;
+import app.kabinka.social.model.NotificationGroup;
+import app.kabinka.social.model.PaginatedResponse;
+import app.kabinka.social.model.viewmodel.NotificationViewModel;
+
+import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.PriorityQueue;
+
+import me.grishka.appkit.api.Callback;
+import me.grishka.appkit.api.ErrorResponse;
+
+/**
+ * Notifications of several accounts in one list, newest first.
+ * <p>
+ * Every account is loaded through its own {@link CacheController}, so cached notifications are used when there are any,
+ * and every account has its own pagination. When more notifications are needed, the next pages of all accounts that have run out
+ * are loaded at the same time. Groups are then merged by {@link NotificationGroup#latestPageNotificationAt}, taking the newest
+ * of the accounts' oldest not yet added groups every time. A group is only added once every account that has more pages has one
+ * that's loaded and not added yet, so nothing newer can come later and loading more only ever appends to the list.
+ * <p>
+ * Must only be used on the main thread. Notifications returned by this have their {@link NotificationViewModel#accountID} set.
+ */
+public class UnifiedNotificationsInbox{
+	private final ArrayList<Source> sources=new ArrayList<>();
+	private final PriorityQueue<Source> heads=new PriorityQueue<>(Comparator.comparing((Source s)->getTime(s.buffer.peek())).reversed()
+			.thenComparingInt(s->s.index));
+	private final HashSet<String> addedIDs=new HashSet<>();
+	// Incremented on every reload so that results of loads that were started before it are ignored
+	private int generation;
+
+	public UnifiedNotificationsInbox(List<String> accountIDs){
+		for(String id:accountIDs)
+			sources.add(new Source(id, sources.size()));
+	}
+
+	/**
+	 * Start over, loading the first page of every account.
+	 *
+	 * @param forceReload load from the network instead of the cache
+	 */
+	public void loadFirstPage(int count, boolean forceReload, Callback<List<NotificationViewModel>> callback){
+		generation++;
+		heads.clear();
+		addedIDs.clear();
+		for(Source source:sources)
+			source.reset();
+		load(count, forceReload, new ArrayList<>(), generation, callback);
+	}
+
+	public void loadNextPage(int count, Callback<List<NotificationViewModel>> callback){
+		load(count, false, new ArrayList<>(), generation, callback);
+	}
+
+	/**
+	 * @return whether any account has notifications that weren't returned yet
+	 */
+	public boolean hasMore(){
+		for(Source source:sources){
+			if(!source.buffer.isEmpty() || source.needsPage())
+				return true;
+		}
+		return false;
+	}
+
+	private void load(int count, boolean forceReload, ArrayList<NotificationViewModel> result, int generation, Callback<List<NotificationViewModel>> callback){
+		ArrayList<Source> toLoad=getSourcesToLoad();
+		if(toLoad.isEmpty()){
+			merge(result, count);
+			toLoad=getSourcesToLoad();
+			if(result.size()>=count || toLoad.isEmpty()){
+				ErrorResponse error=getErrorIfAllFailed();
+				if(result.isEmpty() && error!=null)
+					callback.onError(error);
+				else
+					callback.onSuccess(result);
+				return;
+			}
+		}
+		int[] remaining={toLoad.size()};
+		for(Source source:toLoad){
+			source.loadPage(count, forceReload, generation, ()->{
+				remaining[0]--;
+				if(remaining[0]==0)
+					load(count, false, result, generation, callback);
+			});
+		}
+	}
+
+	private ArrayList<Source> getSourcesToLoad(){
+		ArrayList<Source> toLoad=new ArrayList<>();
+		for(Source source:sources){
+			if(source.buffer.isEmpty() && source.needsPage())
+				toLoad.add(source);
+		}
+		return toLoad;
+	}
+
+	/**
+	 * K-way merge of the loaded pages. Stops when it has enough, or when an account's loaded pages are all used up and it has more.
+	 */
+	private void merge(ArrayList<NotificationViewModel> result, int count){
+		while(result.size()<count && !heads.isEmpty()){
+			Source newest=heads.poll();
+			NotificationViewModel n=newest.buffer.poll();
+			// Groups can move to a later page when new notifications arrive between loading pages
+			if(addedIDs.add(n.getID()))
+				result.add(n);
+			if(!newest.buffer.isEmpty())
+				heads.add(newest);
+			else if(newest.needsPage())
+				break;
+		}
+	}
+
+	private ErrorResponse getErrorIfAllFailed(){
+		ErrorResponse error=null;
+		for(Source source:sources){
+			if(source.error==null)
+				return null;
+			error=source.error;
+		}
+		return error;
+	}
+
+	private static Instant getTime(NotificationViewModel n){
+		if(n==null || n.notification.latestPageNotificationAt==null)
+			return Instant.EPOCH;
+		return n.notification.latestPageNotificationAt;
+	}
+
+	private class Source{
+		private final String accountID;
+		private final int index;
+		private final ArrayDeque<NotificationViewModel> buffer=new ArrayDeque<>();
+		private String maxID;
+		private boolean hasMore;
+		private ErrorResponse error;
+
+		private Source(String accountID, int index){
+			this.accountID=accountID;
+			this.index=index;
+		}
+
+		private void reset(){
+			buffer.clear();
+			maxID=null;
+			hasMore=true;
+			error=null;
+		}
+
+		private boolean needsPage(){
+			// An account that failed to load is left out until the next reload so that the others can still be paginated
+			return hasMore && error==null;
+		}
+
+		private void loadPage(int count, boolean forceReload, int generation, Runnable onDone){
+			AccountSessionManager.get(accountID).getCacheController().getNotifications(maxID, count, false, forceReload, new Callback<>(){
+				@Override
+				public void onSuccess(PaginatedResponse<List<NotificationViewModel>> result){
+					if(UnifiedNotificationsInbox.this.generation!=generation)
+						return;
+					for(NotificationViewModel n:result.items){
+						NotificationViewModel copy=new NotificationViewModel();
+						copy.notification=n.notification;
+						copy.accounts=n.accounts;
+						copy.status=n.status;
+						copy.accountID=accountID;
+						buffer.add(copy);
+					}
+					hasMore=!result.items.isEmpty() && result.maxID!=null && !Objects.equals(result.maxID, maxID);
+					maxID=result.maxID;
+					if(!buffer.isEmpty())
+						heads.add(Source.this);
+					onDone.run();
+				}
+
+				@Override
+				public void onError(ErrorResponse error){
+					if(UnifiedNotificationsInbox.this.generation!=generation)
+						return;
+					Source.this.error=error;
+					onDone.run();
+				}
+			});
+		}
+	}
+}
@@ -0,0 +1,63 @@
+package app.kabinka.social.api.gson;
+
+import android.util.LruCache;
+
+import com.google.gson.Gson;
+import com.google.gson.TypeAdapter;
+import com.google.gson.TypeAdapterFactory;
+import com.google.gson.reflect.TypeToken;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
+import java.util.function.Function;
+
+/**
+ * Makes Gson return the same instance for equal objects of a type that is never modified after parsing, like custom emoji,
+ * instead of a new copy for every post that contains them. Recently seen instances are kept in an LRU cache.
+ */
+public class DeduplicatingTypeAdapterFactory<T> implements TypeAdapterFactory{
+	private final Class<T> type;
+	private final Function<T, String> keyFunction;
+	private final LruCache<String, T> cache;
+
+	/**
+	 * @param type the type of objects to deduplicate
+	 * @param keyFunction returns a string that is equal for objects that are interchangeable, or null if an object shouldn't be shared
+	 * @param maxSize the maximum number of distinct objects to remember
+	 */
+	public DeduplicatingTypeAdapterFactory(Class<T> type, Function<T, String> keyFunction, int maxSize){
+		this.type=type;
+		this.keyFunction=keyFunction;
+		cache=new LruCache<>(maxSize);
+	}
+
+	@SuppressWarnings("unchecked")
+	@Override
+	public <A> TypeAdapter<A> create(Gson gson, TypeToken<A> typeToken){
+		if(typeToken.getRawType()!=type)
+			return null;
+		TypeAdapter<T> delegate=(TypeAdapter<T>) gson.getDelegateAdapter(this, typeToken);
+		return (TypeAdapter<A>) new TypeAdapter<T>(){
+			@Override
+			public void write(JsonWriter out, T value) throws IOException{
+				delegate.write(out, value);
+			}
+
+			@Override
+			public T read(JsonReader in) throws IOException{
+				T obj=delegate.read(in);
+				if(obj==null)
+					return null;
+				String key=keyFunction.apply(obj);
+				if(key==null)
+					return obj;
+				T existing=cache.get(key);
+				if(existing!=null)
+					return existing;
+				cache.put(key, obj);
+				return obj;
+			}
+		};
+	}
+}
@@ -0,0 +1,31 @@
+package app.kabinka.social.api.gson;
+
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
+
+/**
+ * For string fields whose values repeat a lot across objects (usernames, avatar URLs, language codes...).
+ * Use with {@link com.google.gson.annotations.JsonAdapter} on the field.
+ * <p>
+ * The values are interned so that all objects share one copy. On ART, the intern table only holds interned strings weakly,
+ * so they're collected once no object uses them anymore.
+ */
+public class InternedStringTypeAdapter extends TypeAdapter<String>{
+	@Override
+	public void write(JsonWriter out, String value) throws IOException{
+		out.value(value);
+	}
+
+	@Override
+	public String read(JsonReader in) throws IOException{
+		if(in.peek()==JsonToken.NULL){
+			in.nextNull();
+			return null;
+		}
+		return in.nextString().intern();
+	}
+}
@@ -0,0 +1,32 @@
+package app.kabinka.social.api.gson;
+
+import com.google.gson.FieldNamingPolicy;
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+
+import app.kabinka.social.model.Application;
+import app.kabinka.social.model.Emoji;
+
+import java.time.Instant;
+import java.time.LocalDate;
+
+/**
+ * The Gson configuration used for all API responses. Kept separate from {@link app.kabinka.social.api.MastodonAPIController}
+ * so that parsing can be benchmarked on the JVM with exactly the same setup.
+ */
+public class MastodonGson{
+	private MastodonGson(){}
+
+	public static Gson create(){
+		return new GsonBuilder()
+				.disableHtmlEscaping()
+				.setFieldNamingPolicy(FieldNamingPolicy.LOWER_CASE_WITH_UNDERSCORES)
+				.registerTypeAdapter(Instant.class, new IsoInstantTypeAdapter())
+				.registerTypeAdapter(LocalDate.class, new IsoLocalDateTypeAdapter())
+				// Every post by someone with custom emoji in their name carries the same emoji objects
+				.registerTypeAdapterFactory(new DeduplicatingTypeAdapterFactory<>(Emoji.class, e->e.shortcode+' '+e.url+' '+e.staticUrl+' '+e.visibleInPicker+' '+e.category, 1000))
+				// Applications with credentials come from app registration and must not be shared
+				.registerTypeAdapterFactory(new DeduplicatingTypeAdapterFactory<>(Application.class, a->a.clientId==null && a.clientSecret==null && a.vapidKey==null ? a.name+' '+a.website : null, 200))
+				.create();
+	}
+}
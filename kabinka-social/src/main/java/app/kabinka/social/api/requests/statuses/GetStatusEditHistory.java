@@ -15,6 +15,8 @@ import okhttp3.Response;
 public class GetStatusEditHistory extends MastodonAPIRequest<List<Status>>{
 	public GetStatusEditHistory(String id){
 		super(HttpMethod.GET, "/statuses/"+id+"/history", new TypeToken<>(){});
+		// These are past versions of one status with made-up IDs
+		useStatusStore=false;
 	}
 
 	@Override
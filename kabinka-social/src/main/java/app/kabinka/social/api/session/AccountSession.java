@@ -19,6 +19,7 @@ import app.kabinka.social.api.CacheController;
 import app.kabinka.social.api.MastodonAPIController;
 import app.kabinka.social.api.PushSubscriptionManager;
 import app.kabinka.social.api.StatusInteractionController;
+import app.kabinka.social.api.StatusStore;
 import app.kabinka.social.api.gson.JsonObjectBuilder;
 import app.kabinka.social.api.requests.accounts.GetPreferences;
 import app.kabinka.social.api.requests.accounts.UpdateAccountCredentialsPreferences;
@@ -93,6 +94,7 @@ public class AccountSession{
 	public boolean needReRegisterForPush;
 	private transient MastodonAPIController apiController;
 	private transient StatusInteractionController statusInteractionController;
+	private transient StatusStore statusStore;
 	private transient CacheController cacheController;
 	private transient PushSubscriptionManager pushSubscriptionManager;
 	private transient SharedPreferences prefs;
@@ -188,6 +190,12 @@ public class AccountSession{
 		return statusInteractionController;
 	}
 
+	public StatusStore getStatusStore(){
+		if(statusStore==null)
+			statusStore=new StatusStore(getID());
+		return statusStore;
+	}
+
 	public CacheController getCacheController(){
 		if(cacheController==null)
 			cacheController=new CacheController(getID());
@@ -323,10 +331,9 @@ public class AccountSession{
 				Status s=extractor.apply(o);
 				if(s==null)
 					return false;
-				if(s.filtered==null)
-					return false;
-				for(FilterResult filter:s.filtered){
-					if(filter.filter.isActive() && filter.filter.filterAction==FilterAction.HIDE)
+				// The same post object might also have the results of filters for other contexts
+				for(FilterResult filter:s.getFilterResults(context)){
+					if(filter.filter.filterAction==FilterAction.HIDE)
 						return true;
 				}
 				return false;
@@ -18,6 +18,7 @@ import android.database.sqlite.SQLiteOpenHelper;
 import android.graphics.drawable.Icon;
 import android.net.Uri;
 import android.os.Build;
+import android.os.Looper;
 import android.text.TextUtils;
 import android.util.Log;
 import android.widget.Toast;
@@ -34,9 +35,9 @@ import app.kabinka.social.MainActivity;
 import app.kabinka.social.MastodonApp;
 import app.kabinka.social.R;
 import app.kabinka.social.api.CacheController;
+import app.kabinka.social.api.CacheValidators;
 import app.kabinka.social.api.DatabaseRunnable;
 import app.kabinka.social.api.MastodonAPIController;
-import app.kabinka.social.api.MastodonAPIRequest;
 import app.kabinka.social.api.MastodonErrorResponse;
 import app.kabinka.social.api.PushSubscriptionManager;
 import app.kabinka.social.api.WrapperRequest;
@@ -68,10 +69,12 @@ import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
-import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.stream.Collectors;
 
 import androidx.annotation.NonNull;
@@ -85,20 +88,29 @@ public class AccountSessionManager{
 	private static final String TAG="AccountSessionManager";
 	public static final String SCOPE="read write follow push";
 	public static final String REDIRECT_URI="mastodon-android-auth://callback";
-	private static final int DB_VERSION=3;
+	private static final int DB_VERSION=4;
 
 	private static final AccountSessionManager instance=new AccountSessionManager();
 
-	private HashMap<String, AccountSession> sessions=new HashMap<>();
-	private HashMap<String, List<EmojiCategory>> customEmojis=new HashMap<>();
-	private HashMap<String, Long> instancesLastUpdated=new HashMap<>();
-	private HashMap<String, Instance> instances=new HashMap<>();
+	// Iterated on background threads while the app starts, see loadDeferredData() and maybeUpdateShortcuts()
+	private final ConcurrentHashMap<String, AccountSession> sessions=new ConcurrentHashMap<>();
+	// These four are written to by a background thread while the app starts, see loadDeferredData()
+	private ConcurrentHashMap<String, List<EmojiCategory>> customEmojis=new ConcurrentHashMap<>();
+	private ConcurrentHashMap<String, Long> instancesLastUpdated=new ConcurrentHashMap<>();
+	private ConcurrentHashMap<String, Instance> instances=new ConcurrentHashMap<>();
+	private final ConcurrentHashMap<String, CacheValidators> cacheValidators=new ConcurrentHashMap<>();
+	// Keys removed before the cache validators were read, so that the ones from the database don't bring them back
+	private final HashSet<String> removedCacheValidators=new HashSet<>();
+	// Instances whose info is being read from the database for the main thread, see getInstanceInfo()
+	private final Set<String> pendingInstanceReads=ConcurrentHashMap.newKeySet();
 	private MastodonAPIController unauthenticatedApiController=new MastodonAPIController(null);
 	private Instance authenticatingInstance;
 	private Application authenticatingApp;
 	private String lastActiveAccountID;
 	private SharedPreferences prefs;
-	private boolean loadedInstances;
+	private volatile boolean loadedInstances;
+	private final AtomicBoolean deferredDataLoadStarted=new AtomicBoolean();
+	private final CountDownLatch deferredDataLoaded=new CountDownLatch(1);
 	private DatabaseHelper db;
 	private final Runnable databaseCloseRunnable=this::closeDatabase;
 	private final Object databaseLock=new Object();
@@ -107,23 +119,83 @@ public class AccountSessionManager{
 		return instance;
 	}
 
+	/**
+	 * Only reads what's needed to show the last active account. The rest is read by {@link #loadDeferredData()}.
+	 */
 	private AccountSessionManager(){
 		prefs=MastodonApp.context.getSharedPreferences("account_manager", Context.MODE_PRIVATE);
+		lastActiveAccountID=prefs.getString("lastActiveAccount", null);
 		runWithDatabase(db->{
-			HashSet<String> domains=new HashSet<>();
 			try(Cursor cursor=db.query("accounts", null, null, null, null, null, null)){
 				ContentValues values=new ContentValues();
 				while(cursor.moveToNext()){
 					DatabaseUtils.cursorRowToContentValues(cursor, values);
 					AccountSession session=new AccountSession(values);
-					domains.add(session.domain.toLowerCase());
 					sessions.put(session.getID(), session);
 				}
 			}
-			readInstanceInfo(db, domains);
+			AccountSession lastActive=getLastActiveAccount();
+			if(lastActive!=null)
+				readInstanceWithoutEmojis(db, lastActive.domain.toLowerCase());
+		});
+	}
+
+	/**
+	 * Read the instance info and custom emojis of all logged in accounts' servers, and the cache validators, from the database.
+	 * Called on a background thread when the app starts. Background threads that need this data wait until it's loaded,
+	 * or load it themselves if this wasn't called yet. The main thread never waits: it gets what's already there, and
+	 * {@link EmojiUpdatedEvent}s are posted for the custom emojis once they're loaded.
+	 */
+	public void loadDeferredData(){
+		if(!deferredDataLoadStarted.compareAndSet(false, true))
+			return;
+		try{
+			HashSet<String> domains=new HashSet<>();
+			for(AccountSession session:getLoggedInAccounts())
+				domains.add(session.domain.toLowerCase());
+			runWithDatabase(db->{
+				readCacheValidators(db);
+				readInstanceInfo(db, domains);
+			});
+		}finally{
+			deferredDataLoaded.countDown();
+		}
+		UiUtils.runOnUiThread(()->{
+			for(String domain:customEmojis.keySet())
+				E.post(new EmojiUpdatedEvent(domain));
+		});
+	}
+
+	private boolean isDeferredDataLoaded(){
+		return deferredDataLoaded.getCount()==0;
+	}
+
+	/**
+	 * Must not be called on the main thread, use {@link #runAfterDeferredDataLoaded(Runnable)} there.
+	 */
+	private void awaitDeferredData(){
+		if(isDeferredDataLoaded())
+			return;
+		loadDeferredData();
+		try{
+			deferredDataLoaded.await();
+		}catch(InterruptedException x){
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Runs the runnable on the main thread once the deferred data is loaded.
+	 */
+	private void runAfterDeferredDataLoaded(Runnable r){
+		if(isDeferredDataLoaded()){
+			UiUtils.runOnUiThread(r);
+			return;
+		}
+		MastodonAPIController.runInBackground(()->{
+			awaitDeferredData();
+			UiUtils.runOnUiThread(r);
 		});
-		lastActiveAccountID=prefs.getString("lastActiveAccount", null);
-		maybeUpdateShortcuts();
 	}
 
 	public void addAccount(Instance instance, Token token, Account self, Application app, AccountActivationInfo activationInfo){
@@ -193,6 +265,7 @@ public class AccountSessionManager{
 	public void removeAccount(String id){
 		AccountSession session=getAccount(id);
 		session.getCacheController().closeDatabase();
+		session.getCacheController().deleteAllTimelineSnapshots();
 		MastodonApp.context.deleteDatabase(id+".db");
 		MastodonApp.context.getSharedPreferences(id, 0).edit().clear().commit();
 		if(Build.VERSION.SDK_INT>=Build.VERSION_CODES.N){
@@ -212,6 +285,7 @@ public class AccountSessionManager{
 				lastActiveAccountID=getLoggedInAccounts().get(0).getID();
 			prefs.edit().putString("lastActiveAccount", lastActiveAccountID).apply();
 		}
+		putCacheValidators(getLegacyFiltersValidatorsKey(id), null);
 		runOnDbThread(db->{
 			db.delete("accounts", "`id`=?", new String[]{id});
 			db.delete("instances", "`domain` NOT IN (SELECT DISTINCT `domain` FROM `accounts`)", new String[]{});
@@ -285,6 +359,11 @@ public class AccountSessionManager{
 	}
 
 	public void maybeUpdateLocalInfo(){
+		if(!isDeferredDataLoaded()){
+			// The cache validators are needed for the requests
+			runAfterDeferredDataLoaded(this::maybeUpdateLocalInfo);
+			return;
+		}
 		long now=System.currentTimeMillis();
 		HashSet<String> domains=new HashSet<>();
 		for(AccountSession session:sessions.values()){
@@ -295,6 +374,8 @@ public class AccountSessionManager{
 			if(!session.getLocalPreferences().serverSideFiltersSupported && now-session.filtersLastUpdated>3600_000L){
 				updateSessionWordFilters(session);
 			}
+			// Creating the controller restores and flushes interactions that were queued before the process died
+			session.getStatusInteractionController();
 		}
 		if(loadedInstances){
 			maybeUpdateInstanceInfo(domains);
@@ -335,12 +416,16 @@ public class AccountSessionManager{
 	}
 
 	private void updateSessionWordFilters(AccountSession session){
-		new GetLegacyFilters()
-				.setCallback(new Callback<>(){
+		String validatorsKey=getLegacyFiltersValidatorsKey(session.getID());
+		GetLegacyFilters req=new GetLegacyFilters();
+		req.setCallback(new Callback<>(){
 					@Override
 					public void onSuccess(List<LegacyFilter> result){
-						session.wordFilters=result;
 						session.filtersLastUpdated=System.currentTimeMillis();
+						if(!req.isNotModified()){
+							session.wordFilters=result;
+							putCacheValidators(validatorsKey, req.getResponseValidators());
+						}
 						runOnDbThread(db->{
 							ContentValues values=new ContentValues();
 							values.put("legacy_filters", new JsonObjectBuilder()
@@ -357,15 +442,23 @@ public class AccountSessionManager{
 
 					}
 				})
+				.revalidate(getCacheValidators(validatorsKey), session.wordFilters)
 				.exec(session.getID());
 	}
 
 	public void updateInstanceInfo(String domain){
-		loadInstanceInfo(domain, new Callback<>(){
+		if(!isDeferredDataLoaded()){
+			// The request is made against the stored instance info and its cache validators
+			runAfterDeferredDataLoaded(()->updateInstanceInfo(domain));
+			return;
+		}
+		loadInstanceInfo(domain, true, new Callback<>(){
 					@Override
 					public void onSuccess(Instance instance){
-						instances.put(domain, instance);
-						runOnDbThread(db->insertInstanceIntoDatabase(db, domain, instance, null, 0));
+						if(instances.get(domain)!=instance){
+							instances.put(domain, instance);
+							runOnDbThread(db->updateInstanceInDatabase(db, domain, instance));
+						}
 						updateInstanceEmojis(instance, domain);
 					}
 
@@ -377,13 +470,24 @@ public class AccountSessionManager{
 	}
 
 	private void updateInstanceEmojis(Instance instance, String domain){
-		GetCustomEmojis getCustomEmojisRequest=(GetCustomEmojis)new GetCustomEmojis()
-				.setCallback(new Callback<>(){
+		String validatorsKey="emojis:"+domain;
+		GetCustomEmojis getCustomEmojisRequest=new GetCustomEmojis();
+		getCustomEmojisRequest.setCallback(new Callback<>(){
 					@Override
 					public void onSuccess(List<Emoji> result){
 						long lastUpdated=System.currentTimeMillis();
-						customEmojis.put(domain, groupCustomEmojis(result));
 						instancesLastUpdated.put(domain, lastUpdated);
+						if(getCustomEmojisRequest.isNotModified()){
+							// The already grouped emojis are still current, only bump the timestamp
+							runOnDbThread(db->{
+								ContentValues values=new ContentValues();
+								values.put("last_updated", lastUpdated);
+								db.update("instances", values, "`domain`=?", new String[]{domain});
+							});
+							return;
+						}
+						customEmojis.put(domain, groupCustomEmojis(result));
+						putCacheValidators(validatorsKey, getCustomEmojisRequest.getResponseValidators());
 						runOnDbThread(db->insertInstanceIntoDatabase(db, domain, instance, result, lastUpdated));
 						E.post(new EmojiUpdatedEvent(domain));
 					}
@@ -393,6 +497,9 @@ public class AccountSessionManager{
 
 					}
 				});
+		// The parsed list isn't kept around, only the grouped categories, so there's nothing to pass as the cached result
+		if(customEmojis.containsKey(domain))
+			getCustomEmojisRequest.revalidate(getCacheValidators(validatorsKey), null);
 
 		sessions.values().stream().filter(session->session.domain.equals(domain)).findFirst().ifPresentOrElse(
 				(session)->getCustomEmojisRequest.exec(domain, session.token),
@@ -414,7 +521,7 @@ public class AccountSessionManager{
 						case 2 -> InstanceV2.class;
 						default -> throw new IllegalStateException("Unexpected value: "+version);
 					});
-					instances.put(domain, instance);
+					instances.putIfAbsent(domain, instance);
 					StringBuilder emojiSB=new StringBuilder();
 					String emojiPart=values.getAsString("emojis");
 					if(TextUtils.isEmpty(emojiPart)){
@@ -434,8 +541,8 @@ public class AccountSessionManager{
 						}
 					}
 					List<Emoji> emojis=MastodonAPIController.gson.fromJson(emojiSB.toString(), new TypeToken<List<Emoji>>(){}.getType());
-					customEmojis.put(domain, groupCustomEmojis(emojis));
-					instancesLastUpdated.put(domain, values.getAsLong("last_updated"));
+					customEmojis.putIfAbsent(domain, groupCustomEmojis(emojis));
+					instancesLastUpdated.putIfAbsent(domain, values.getAsLong("last_updated"));
 				}
 			}catch(Exception ex){
 				Log.d(TAG, "readInstanceInfo failed", ex);
@@ -448,6 +555,82 @@ public class AccountSessionManager{
 		}
 	}
 
+	/**
+	 * Only the instance object, without the emojis, which can be megabytes of JSON
+	 */
+	private void readInstanceWithoutEmojis(SQLiteDatabase db, String domain){
+		try(Cursor cursor=db.query("instances", new String[]{"instance_obj", "version"}, "`domain`=?", new String[]{domain}, null, null, null)){
+			if(cursor.moveToFirst()){
+				instances.putIfAbsent(domain, MastodonAPIController.gson.fromJson(cursor.getString(0), switch(cursor.getInt(1)){
+					case 1 -> InstanceV1.class;
+					case 2 -> InstanceV2.class;
+					default -> throw new IllegalStateException("Unexpected value: "+cursor.getInt(1));
+				}));
+			}
+		}catch(Exception x){
+			Log.d(TAG, "readInstanceWithoutEmojis failed", x);
+		}
+	}
+
+	private void readCacheValidators(SQLiteDatabase db){
+		try(Cursor cursor=db.query("cache_validators", new String[]{"key", "etag", "last_modified"}, null, null, null, null, null)){
+			while(cursor.moveToNext()){
+				CacheValidators validators=new CacheValidators();
+				validators.etag=cursor.getString(1);
+				validators.lastModified=cursor.getString(2);
+				String key=cursor.getString(0);
+				synchronized(removedCacheValidators){
+					if(!removedCacheValidators.contains(key))
+						cacheValidators.putIfAbsent(key, validators);
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return null on the main thread until the cache validators are read from the database, the request is then made unconditionally
+	 */
+	@Nullable
+	private CacheValidators getCacheValidators(String key){
+		if(!isDeferredDataLoaded() && Looper.myLooper()==Looper.getMainLooper())
+			return null;
+		awaitDeferredData();
+		return cacheValidators.get(key);
+	}
+
+	/**
+	 * Doesn't wait for the cache validators to be read from the database, the ones put here take precedence over those
+	 */
+	private void putCacheValidators(String key, @Nullable CacheValidators validators){
+		if(validators==null){
+			boolean removed;
+			synchronized(removedCacheValidators){
+				boolean loaded=isDeferredDataLoaded();
+				if(!loaded)
+					removedCacheValidators.add(key);
+				removed=cacheValidators.remove(key)!=null || !loaded;
+			}
+			if(removed)
+				runOnDbThread(db->db.delete("cache_validators", "`key`=?", new String[]{key}));
+			return;
+		}
+		synchronized(removedCacheValidators){
+			removedCacheValidators.remove(key);
+			cacheValidators.put(key, validators);
+		}
+		runOnDbThread(db->{
+			ContentValues values=new ContentValues();
+			values.put("key", key);
+			values.put("etag", validators.etag);
+			values.put("last_modified", validators.lastModified);
+			db.insertWithOnConflict("cache_validators", null, values, SQLiteDatabase.CONFLICT_REPLACE);
+		});
+	}
+
+	private static String getLegacyFiltersValidatorsKey(String accountID){
+		return "legacy_filters:"+accountID;
+	}
+
 	private List<EmojiCategory> groupCustomEmojis(List<Emoji> emojis){
 		return emojis.stream()
 				.filter(e->e.visibleInPicker)
@@ -459,22 +642,57 @@ public class AccountSessionManager{
 				.collect(Collectors.toList());
 	}
 
+	/**
+	 * On the main thread, this returns an empty list for servers whose emojis aren't loaded yet, see {@link EmojiUpdatedEvent}.
+	 */
 	public List<EmojiCategory> getCustomEmojis(String domain){
+		if(Looper.myLooper()!=Looper.getMainLooper())
+			awaitDeferredData();
 		List<EmojiCategory> r=customEmojis.get(domain.toLowerCase());
 		return r==null ? Collections.emptyList() : r;
 	}
 
+	/**
+	 * On the main thread, this returns a placeholder for servers other than the last active account's one until their info is read from the database.
+	 * That row is then read in the background, so the next call gets the real one.
+	 */
 	public Instance getInstanceInfo(String domain){
+		if(domain==null)
+			return missingInstanceInfo(null);
 		Instance i=instances.get(domain);
 		if(i!=null)
 			return i;
+		if(!isDeferredDataLoaded()){
+			if(Looper.myLooper()==Looper.getMainLooper()){
+				// Only this one row, like for the last active account, instead of waiting for all of them
+				if(pendingInstanceReads.add(domain))
+					runOnDbThread(db->{
+						readInstanceWithoutEmojis(db, domain);
+						pendingInstanceReads.remove(domain);
+					});
+				return placeholderInstanceInfo(domain);
+			}
+			awaitDeferredData();
+			i=instances.get(domain);
+			if(i!=null)
+				return i;
+		}
+		return missingInstanceInfo(domain);
+	}
+
+	private Instance missingInstanceInfo(String domain){
 		Log.e(TAG, "Instance info for "+domain+" was not found. This should normally never happen. Returning fake instance object");
 		if(BuildConfig.DEBUG)
 			throw new IllegalStateException("Instance info for "+domain+" missing");
+		if(domain!=null)
+			updateInstanceInfo(domain);
+		return placeholderInstanceInfo(domain);
+	}
+
+	private static Instance placeholderInstanceInfo(String domain){
 		InstanceV1 fake=new InstanceV1();
 		fake.uri=fake.title=domain;
 		fake.description=fake.version=fake.email="";
-		updateInstanceInfo(domain);
 		return fake;
 	}
 
@@ -527,7 +745,10 @@ public class AccountSessionManager{
 		});
 	}
 
-	private void maybeUpdateShortcuts(){
+	/**
+	 * Make sure the launcher shortcuts are there if there are accounts, and disabled if there aren't. Called when the app starts and when accounts are added or removed.
+	 */
+	public void maybeUpdateShortcuts(){
 		if(Build.VERSION.SDK_INT<26)
 			return;
 		
@@ -667,6 +888,15 @@ public class AccountSessionManager{
 		db.insertWithOnConflict("instances", null, values, SQLiteDatabase.CONFLICT_REPLACE);
 	}
 
+	private static void updateInstanceInDatabase(SQLiteDatabase db, String domain, Instance instance){
+		// Update in place so that the emojis stored in the same row survive
+		ContentValues values=new ContentValues();
+		values.put("instance_obj", MastodonAPIController.gson.toJson(instance));
+		values.put("version", instance.getVersion());
+		if(db.update("instances", values, "`domain`=?", new String[]{domain})==0)
+			insertInstanceIntoDatabase(db, domain, instance, null, 0);
+	}
+
 	private static AccountSession findAnySessionForDomain(String domain){
 		for(AccountSession session:getInstance().sessions.values()){
 			if(domain.equalsIgnoreCase(session.domain))
@@ -676,13 +906,25 @@ public class AccountSessionManager{
 	}
 
 	public static APIRequest<Instance> loadInstanceInfo(String domain, Callback<Instance> callback){
+		return loadInstanceInfo(domain, false, callback);
+	}
+
+	/**
+	 * @param revalidate whether to make conditional requests against the instance info already stored for this domain.
+	 *                   The callback receives the same object if it didn't change.
+	 */
+	private static APIRequest<Instance> loadInstanceInfo(String domain, boolean revalidate, Callback<Instance> callback){
 		final WrapperRequest<Instance> wrapper=new WrapperRequest<>();
 		AccountSession session=findAnySessionForDomain(domain);
-		MastodonAPIRequest<?> req=new GetInstanceV2()
-				.setCallback(new Callback<>(){
+		AccountSessionManager mgr=getInstance();
+		Instance cached=revalidate ? mgr.instances.get(domain) : null;
+		GetInstanceV2 req=new GetInstanceV2();
+		req.setCallback(new Callback<>(){
 					@Override
 					public void onSuccess(InstanceV2 result){
 						wrapper.wrappedRequest=null;
+						if(revalidate && !req.isNotModified())
+							mgr.putCacheValidators("instance:v2:"+domain, req.getResponseValidators());
 						callback.onSuccess(result);
 					}
 
@@ -690,11 +932,13 @@ public class AccountSessionManager{
 					public void onError(ErrorResponse error){
 						if(error instanceof MastodonErrorResponse mr && mr.httpStatus==404){
 							// Mastodon pre-4.0 or a non-Mastodon server altogether. Let's try /api/v1/instance
-							MastodonAPIRequest<?> fallbackReq=new GetInstanceV1()
-									.setCallback(new Callback<>(){
+							GetInstanceV1 fallbackReq=new GetInstanceV1();
+							fallbackReq.setCallback(new Callback<>(){
 										@Override
 										public void onSuccess(InstanceV1 result){
 											wrapper.wrappedRequest=null;
+											if(revalidate && !fallbackReq.isNotModified())
+												mgr.putCacheValidators("instance:v1:"+domain, fallbackReq.getResponseValidators());
 											callback.onSuccess(result);
 										}
 
@@ -704,6 +948,8 @@ public class AccountSessionManager{
 											callback.onError(error);
 										}
 									});
+							if(cached instanceof InstanceV1 v1)
+								fallbackReq.revalidate(mgr.getCacheValidators("instance:v1:"+domain), v1);
 							wrapper.wrappedRequest=fallbackReq;
 							if(session!=null)
 								fallbackReq.exec(session.getID());
@@ -715,6 +961,8 @@ public class AccountSessionManager{
 						}
 					}
 				});
+		if(cached instanceof InstanceV2 v2)
+			req.revalidate(mgr.getCacheValidators("instance:v2:"+domain), v2);
 		wrapper.wrappedRequest=req;
 		if(session!=null)
 			req.exec(session.getID());
@@ -744,6 +992,7 @@ public class AccountSessionManager{
 							`last_updated` bigint,
 							`version` integer NOT NULL DEFAULT 1
 						)""");
+			createCacheValidatorsTable(db);
 			maybeMigrateAccounts(db);
 		}
 
@@ -763,6 +1012,18 @@ public class AccountSessionManager{
 			if(oldVersion<3){
 				db.execSQL("ALTER TABLE `instances` ADD `version` integer NOT NULL DEFAULT 1");
 			}
+			if(oldVersion<4){
+				createCacheValidatorsTable(db);
+			}
+		}
+
+		private void createCacheValidatorsTable(SQLiteDatabase db){
+			db.execSQL("""
+						CREATE TABLE `cache_validators` (
+							`key` text PRIMARY KEY,
+							`etag` text,
+							`last_modified` text
+						)""");
 		}
 
 		private void createAccountsTable(SQLiteDatabase db){
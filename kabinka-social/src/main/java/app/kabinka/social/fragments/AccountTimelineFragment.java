@@ -7,6 +7,7 @@ import android.widget.HorizontalScrollView;
 import android.widget.LinearLayout;
 
 import app.kabinka.social.R;
+import app.kabinka.social.api.CachedTimeline;
 import app.kabinka.social.api.requests.accounts.GetAccountStatuses;
 import app.kabinka.social.api.session.AccountSessionManager;
 import app.kabinka.social.events.RemoveAccountPostsEvent;
@@ -57,6 +58,8 @@ public class AccountTimelineFragment extends StatusListFragment{
 
 	@Override
 	protected void doLoadData(int offset, int count){
+		if(loadFromTimelineCache(offset, count))
+			return;
 		currentRequest=new GetAccountStatuses(user.id, offset>0 ? getMaxID() : null, null, count, filter, null)
 				.setCallback(new SimpleCallback<>(this){
 					@Override
@@ -64,6 +67,9 @@ public class AccountTimelineFragment extends StatusListFragment{
 						if(getActivity()==null)
 							return;
 						boolean empty=result.isEmpty();
+						if(AccountSessionManager.getInstance().isSelf(accountID, user))
+							AccountSessionManager.get(accountID).getCacheController().indexStatuses(result);
+						putInTimelineCache(result, offset);
 						AccountSessionManager.get(accountID).filterStatuses(result, FilterContext.ACCOUNT);
 						onDataLoaded(result, !empty);
 					}
@@ -71,6 +77,11 @@ public class AccountTimelineFragment extends StatusListFragment{
 				.exec(accountID);
 	}
 
+	@Override
+	protected CachedTimeline getCachedTimeline(){
+		return CachedTimeline.account(user.id, filter);
+	}
+
 	@Override
 	public void onViewCreated(View view, Bundle savedInstanceState){
 		super.onViewCreated(view, savedInstanceState);
@@ -153,7 +164,6 @@ public class AccountTimelineFragment extends StatusListFragment{
 		GetAccountStatuses.Filter newFilter=(GetAccountStatuses.Filter) v.getTag();
 		if(newFilter==filter)
 			return;
-		// TODO maybe cache the filtered timelines that were already loaded?
 		if(currentRequest!=null){
 			currentRequest.cancel();
 			currentRequest=null;
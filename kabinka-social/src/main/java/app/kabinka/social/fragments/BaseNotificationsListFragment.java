@@ -11,6 +11,7 @@ import app.kabinka.social.R;
 import app.kabinka.social.api.session.AccountSessionManager;
 import app.kabinka.social.events.StatusUpdatedEvent;
 import app.kabinka.social.model.Account;
+import app.kabinka.social.model.FilterContext;
 import app.kabinka.social.model.NotificationType;
 import app.kabinka.social.model.Status;
 import app.kabinka.social.model.StatusPrivacy;
@@ -45,8 +46,14 @@ public abstract class BaseNotificationsListFragment extends BaseStatusListFragme
 		E.unregister(eventListener);
 	}
 
+	@Override
+	public FilterContext getFilterContext(){
+		return FilterContext.NOTIFICATIONS;
+	}
+
 	@Override
 	protected List<StatusDisplayItem> buildDisplayItems(NotificationViewModel n){
+		String accountID=getAccountIDForNotification(n);
 		StatusDisplayItem titleItem;
 		if(n.notification.type==NotificationType.MENTION){
 			if(n.status!=null){
@@ -111,10 +118,10 @@ public abstract class BaseNotificationsListFragment extends BaseStatusListFragme
 		NotificationViewModel n=getNotificationByID(id);
 		if(n.status!=null){
 			Status status=n.status;
-			navigateToStatus(status);
+			navigateToStatus(status, getAccountIDForNotification(n));
 		}else{
 			Bundle args=new Bundle();
-			args.putString("account", accountID);
+			args.putString("account", getAccountIDForNotification(n));
 			args.putParcelable("profileAccount", Parcels.wrap(n.accounts.get(0)));
 			Nav.go(getActivity(), ProfileFragment.class, args);
 		}
@@ -125,7 +132,7 @@ public abstract class BaseNotificationsListFragment extends BaseStatusListFragme
 		NotificationViewModel n=getNotificationByID(id);
 		if(n.status!=null){
 			Status status=n.status;
-			navigateToStatus(quote ? status.quote.quotedStatus : status);
+			navigateToStatus(quote ? status.quote.quotedStatus : status, getAccountIDForNotification(n));
 		}else{
 			super.onItemClick(id, quote);
 		}
@@ -136,6 +143,13 @@ public abstract class BaseNotificationsListFragment extends BaseStatusListFragme
 		return s.status;
 	}
 
+	/**
+	 * @return the account that received this notification, which isn't always the one of this fragment in lists with notifications of several accounts
+	 */
+	protected String getAccountIDForNotification(NotificationViewModel n){
+		return n.accountID!=null ? n.accountID : accountID;
+	}
+
 	protected NotificationViewModel getNotificationByID(String id){
 		for(NotificationViewModel n:data){
 			if(n.getID().equals(id))
@@ -9,6 +9,7 @@ import android.graphics.Rect;
 import android.graphics.drawable.Drawable;
 import android.os.Build;
 import android.os.Bundle;
+import android.os.SystemClock;
 import android.util.Log;
 import android.view.View;
 import android.view.ViewGroup;
@@ -27,6 +28,7 @@ import app.kabinka.social.api.session.AccountSessionManager;
 import app.kabinka.social.events.PollUpdatedEvent;
 import app.kabinka.social.model.Account;
 import app.kabinka.social.model.DisplayItemsParent;
+import app.kabinka.social.model.FilterContext;
 import app.kabinka.social.model.Poll;
 import app.kabinka.social.model.Relationship;
 import app.kabinka.social.model.Status;
@@ -41,6 +43,7 @@ import app.kabinka.social.ui.displayitems.MediaGridStatusDisplayItem;
 import app.kabinka.social.ui.displayitems.NestedQuoteStatusDisplayItem;
 import app.kabinka.social.ui.displayitems.PollFooterStatusDisplayItem;
 import app.kabinka.social.ui.displayitems.PollOptionStatusDisplayItem;
+import app.kabinka.social.ui.displayitems.ReleasedStatusDisplayItem;
 import app.kabinka.social.ui.displayitems.SpoilerStatusDisplayItem;
 import app.kabinka.social.ui.displayitems.StatusDisplayItem;
 import app.kabinka.social.ui.displayitems.TextStatusDisplayItem;
@@ -49,6 +52,8 @@ import app.kabinka.social.ui.photoviewer.PhotoViewerHost;
 import app.kabinka.social.ui.sheets.NonMutualPreReplySheet;
 import app.kabinka.social.ui.sheets.OldPostPreReplySheet;
 import app.kabinka.social.ui.utils.MediaAttachmentViewController;
+import app.kabinka.social.ui.utils.SharedStatusViewPool;
+import app.kabinka.social.ui.utils.StatusRenderProfiler;
 import app.kabinka.social.ui.utils.UiUtils;
 import app.kabinka.social.ui.views.MediaGridLayout;
 import app.kabinka.social.utils.TypedObjectPool;
@@ -57,12 +62,16 @@ import org.parceler.Parcels;
 import java.time.Instant;
 import java.time.temporal.ChronoUnit;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 
 import androidx.annotation.NonNull;
@@ -70,6 +79,7 @@ import androidx.annotation.Nullable;
 import androidx.dynamicanimation.animation.DynamicAnimation;
 import androidx.dynamicanimation.animation.SpringAnimation;
 import androidx.dynamicanimation.animation.SpringForce;
+import androidx.recyclerview.widget.LinearLayoutManager;
 import androidx.recyclerview.widget.RecyclerView;
 import me.grishka.appkit.Nav;
 import me.grishka.appkit.api.APIRequest;
@@ -84,6 +94,11 @@ import me.grishka.appkit.utils.V;
 import me.grishka.appkit.views.UsableRecyclerView;
 
 public abstract class BaseStatusListFragment<T extends DisplayItemsParent> extends MastodonRecyclerFragment<T> implements PhotoViewerHost, ScrollableToTop, StatusDisplayItem.Callbacks{
+	// Posts at most this far from the visible ones get their display items built again, ones farther than the release distance lose them.
+	// The gap between the two keeps posts from being released and rebuilt over and over when scrolling back and forth.
+	private static final int MEMORY_WINDOW_KEEP_DISTANCE=40;
+	private static final int MEMORY_WINDOW_RELEASE_DISTANCE=80;
+	private static final int MEMORY_WINDOW_UPDATE_STEP=10;
 	protected ArrayList<StatusDisplayItem> displayItems=new ArrayList<>();
 	protected DisplayItemsAdapter adapter;
 	protected String accountID;
@@ -95,6 +110,12 @@ public abstract class BaseStatusListFragment<T extends DisplayItemsParent> exten
 	protected HashMap<String, Status> knownStatuses=new HashMap<>();
 	protected HashSet<APIRequest<?>> requestsToCancelWhenListClears=new HashSet<>();
 	private SpringAnimation listShakeAnimation;
+	private SharedStatusViewPool sharedViewPool;
+	private StatusRenderProfiler.Session renderProfiler;
+	private boolean memoryWindowUpdatePosted;
+	private int lastMemoryWindowPosition=-1;
+	// IDs of the released items that are being loaded again, see restoreItems()
+	private final HashSet<String> itemsBeingRestored=new HashSet<>();
 
 	public BaseStatusListFragment(){
 		super(20);
@@ -141,6 +162,8 @@ public abstract class BaseStatusListFragment<T extends DisplayItemsParent> exten
 		super.onClearItems();
 		displayItems.clear();
 		knownStatuses.clear();
+		lastMemoryWindowPosition=-1;
+		itemsBeingRestored.clear();
 		for(APIRequest<?> req:requestsToCancelWhenListClears){
 			req.cancel();
 		}
@@ -367,9 +390,24 @@ public abstract class BaseStatusListFragment<T extends DisplayItemsParent> exten
 			public void onScrolled(@NonNull RecyclerView recyclerView, int dx, int dy){
 				if(currentPhotoViewer!=null)
 					currentPhotoViewer.offsetView(-dx, -dy);
+				if(isMemoryWindowEnabled())
+					scheduleMemoryWindowUpdate(false);
+			}
+
+			@Override
+			public void onScrollStateChanged(@NonNull RecyclerView recyclerView, int newState){
+				if(newState==RecyclerView.SCROLL_STATE_IDLE && isMemoryWindowEnabled())
+					scheduleMemoryWindowUpdate(true);
 			}
 		});
 		list.addItemDecoration(new StatusListItemDecoration());
+		if(canShareViewHolders()){
+			sharedViewPool=SharedStatusViewPool.get(getActivity(), accountID);
+			list.setRecycledViewPool(sharedViewPool.newChildPool());
+			sharedViewPool.preinflate(list);
+		}
+		if(StatusRenderProfiler.isEnabled())
+			renderProfiler=StatusRenderProfiler.attach(getActivity());
 		TypedArray ta=getContext().obtainStyledAttributes(new int[]{android.R.attr.selectableItemBackground});
 		Drawable defaultSelector=ta.getDrawable(0);
 		ta.recycle();
@@ -456,6 +494,15 @@ public abstract class BaseStatusListFragment<T extends DisplayItemsParent> exten
 		updateToolbar();
 	}
 
+	@Override
+	public void onDestroyView(){
+		super.onDestroyView();
+		if(renderProfiler!=null){
+			renderProfiler.release();
+			renderProfiler=null;
+		}
+	}
+
 	@Override
 	public void onConfigurationChanged(Configuration newConfig){
 		super.onConfigurationChanged(newConfig);
@@ -477,6 +524,199 @@ public abstract class BaseStatusListFragment<T extends DisplayItemsParent> exten
 		return 0;
 	}
 
+	/**
+	 * Lists that can get very long, like timelines, return true to only keep display items for the posts that are close to the visible ones.
+	 * Display items of the posts far away are replaced by a single {@link ReleasedStatusDisplayItem} each, so that their text layouts,
+	 * spans and the like can be garbage collected. Lists that implement {@link #releaseItem(DisplayItemsParent)} also replace the
+	 * posts themselves in {@link #data} with placeholders, and load them again with {@link #restoreItems(List, Consumer)} when they
+	 * come closer, before their display items are built. LongScrollMemoryTest has the budget for what's left of every post.
+	 * Subclasses that rearrange {@link #displayItems} themselves shouldn't use this.
+	 */
+	protected boolean isMemoryWindowEnabled(){
+		return false;
+	}
+
+	/**
+	 * Called when the display items of an item far from the visible ones are released. Lists that can load the item again
+	 * keep it somewhere else and return a placeholder that stays in {@link #data} instead, with only what the list needs to find it.
+	 * @return the item itself to keep it in memory
+	 */
+	protected T releaseItem(T item){
+		return item;
+	}
+
+	/**
+	 * @return whether this is a placeholder returned by {@link #releaseItem(DisplayItemsParent)}
+	 */
+	protected boolean isReleasedItem(T item){
+		return false;
+	}
+
+	/**
+	 * Load the items that were replaced by these placeholders again.
+	 * @param callback receives the items that could be loaded, by ID, on the main thread
+	 */
+	protected void restoreItems(List<T> placeholders, Consumer<Map<String, T>> callback){
+		callback.accept(Map.of());
+	}
+
+	/**
+	 * @return whether the display items of this post are currently replaced by a {@link ReleasedStatusDisplayItem}
+	 */
+	protected boolean isReleased(String parentID){
+		for(StatusDisplayItem item:displayItems){
+			if(item.parentID.equals(parentID))
+				return item instanceof ReleasedStatusDisplayItem;
+		}
+		return false;
+	}
+
+	private void scheduleMemoryWindowUpdate(boolean force){
+		if(memoryWindowUpdatePosted || !(list.getLayoutManager() instanceof LinearLayoutManager lm))
+			return;
+		if(!force && lastMemoryWindowPosition!=-1 && Math.abs(lm.findFirstVisibleItemPosition()-lastMemoryWindowPosition)<MEMORY_WINDOW_UPDATE_STEP)
+			return;
+		memoryWindowUpdatePosted=true;
+		// The adapter can't be changed while the list is being scrolled or laid out
+		list.post(()->{
+			memoryWindowUpdatePosted=false;
+			if(list!=null)
+				updateMemoryWindow();
+		});
+	}
+
+	/**
+	 * Releases the display items of the posts that are far enough from the visible ones, and builds them again for the released ones that got close.
+	 * All of this happens outside of the visible part of the list, and the layout manager keeps the visible items where they are,
+	 * so the scroll position doesn't jump. Posts that were released themselves are loaded first, and their display items are built
+	 * on the update after that, long before they're visible.
+	 */
+	private void updateMemoryWindow(){
+		if(!(list.getLayoutManager() instanceof LinearLayoutManager lm) || data.size()<=MEMORY_WINDOW_RELEASE_DISTANCE*2)
+			return;
+		int firstVisible=lm.findFirstVisibleItemPosition(), lastVisible=lm.findLastVisibleItemPosition();
+		if(firstVisible==RecyclerView.NO_POSITION)
+			return;
+		lastMemoryWindowPosition=firstVisible;
+		int offset=getMainAdapterOffset();
+		firstVisible=Math.max(0, firstVisible-offset);
+		lastVisible=Math.min(displayItems.size()-1, lastVisible-offset);
+		if(firstVisible>lastVisible)
+			return;
+
+		// Where the display items of every post start, and which posts are visible
+		ArrayList<Integer> postStarts=new ArrayList<>();
+		int firstVisiblePost=-1, lastVisiblePost=-1;
+		String prevParentID=null;
+		for(int i=0;i<displayItems.size();i++){
+			String parentID=displayItems.get(i).parentID;
+			if(!parentID.equals(prevParentID)){
+				postStarts.add(i);
+				prevParentID=parentID;
+			}
+			if(i==firstVisible)
+				firstVisiblePost=postStarts.size()-1;
+			if(i==lastVisible)
+				lastVisiblePost=postStarts.size()-1;
+		}
+		HashMap<String, Integer> postIndices=new HashMap<>();
+		for(int i=0;i<data.size();i++)
+			postIndices.put(data.get(i).getID(), i);
+
+		int releasedCount=0;
+		ArrayList<T> toRestore=new ArrayList<>();
+		// Going from the end so that the start indices of the posts before the current one stay valid
+		for(int p=postStarts.size()-1;p>=0;p--){
+			int start=postStarts.get(p);
+			int end=p+1<postStarts.size() ? postStarts.get(p+1) : displayItems.size();
+			StatusDisplayItem first=displayItems.get(start);
+			Integer index=postIndices.get(first.parentID);
+			if(index==null)
+				continue;
+			T post=data.get(index);
+			int distance=p<firstVisiblePost ? firstVisiblePost-p : Math.max(0, p-lastVisiblePost);
+			boolean released=first instanceof ReleasedStatusDisplayItem;
+			if(released && distance<=MEMORY_WINDOW_KEEP_DISTANCE){
+				if(isReleasedItem(post)){
+					if(itemsBeingRestored.add(post.getID()))
+						toRestore.add(post);
+					releasedCount++;
+					continue;
+				}
+				List<StatusDisplayItem> items=buildDisplayItems(post);
+				if(items.isEmpty()){
+					releasedCount++;
+					continue;
+				}
+				populateNestedQuotes(items);
+				displayItems.set(start, items.get(0));
+				displayItems.addAll(start+1, items.subList(1, items.size()));
+				adapter.notifyItemChanged(start);
+				if(items.size()>1)
+					adapter.notifyItemRangeInserted(start+1, items.size()-1);
+			}else if(distance>MEMORY_WINDOW_RELEASE_DISTANCE){
+				if(!released){
+					displayItems.subList(start+1, end).clear();
+					displayItems.set(start, new ReleasedStatusDisplayItem(first.parentID, this, getActivity()));
+					if(end-start>1)
+						adapter.notifyItemRangeRemoved(start+1, end-start-1);
+					adapter.notifyItemChanged(start);
+				}
+				// Also for posts that were put back into data by something else while their display items were released
+				if(!isReleasedItem(post) && !itemsBeingRestored.contains(post.getID()))
+					releasePost(index, post);
+				releasedCount++;
+			}else if(released){
+				releasedCount++;
+			}
+		}
+		if(!toRestore.isEmpty())
+			restorePosts(toRestore);
+		if(renderProfiler!=null)
+			renderProfiler.onMemoryWindowUpdated(postStarts.size()-releasedCount, releasedCount);
+	}
+
+	private void releasePost(int index, T post){
+		T placeholder=releaseItem(post);
+		if(placeholder==post)
+			return;
+		data.set(index, placeholder);
+		// They're put back by postprocessNewlyLoadedStatuses() when the post is restored
+		Status status=asStatus(post);
+		if(status!=null){
+			knownStatuses.remove(status.id);
+			if(status.quote!=null && status.quote.quotedStatus!=null)
+				knownStatuses.remove(status.quote.quotedStatus.id);
+		}
+	}
+
+	private void restorePosts(List<T> placeholders){
+		restoreItems(placeholders, restored->{
+			Set<T> pending=Collections.newSetFromMap(new IdentityHashMap<>());
+			for(T placeholder:placeholders){
+				// The list might have been cleared and loaded again in the meantime
+				if(itemsBeingRestored.remove(placeholder.getID()))
+					pending.add(placeholder);
+			}
+			ArrayList<T> restoredItems=new ArrayList<>();
+			for(int i=0;i<data.size();i++){
+				T item=data.get(i);
+				if(!pending.contains(item))
+					continue;
+				T full=restored.get(item.getID());
+				if(full!=null){
+					data.set(i, full);
+					restoredItems.add(full);
+				}
+			}
+			if(restoredItems.isEmpty())
+				return;
+			postprocessNewlyLoadedStatuses(restoredItems);
+			if(list!=null)
+				updateMemoryWindow();
+		});
+	}
+
 	protected void drawDivider(View child, View bottomSibling, RecyclerView.ViewHolder holder, RecyclerView.ViewHolder siblingHolder, RecyclerView parent, Canvas c, Paint paint){
 		parent.getDecoratedBoundsWithMargins(child, tmpRect);
 		tmpRect.offset(0, Math.round(child.getTranslationY()));
@@ -502,6 +742,10 @@ public abstract class BaseStatusListFragment<T extends DisplayItemsParent> exten
 	}
 
 	public void navigateToStatus(Status status){
+		navigateToStatus(status, accountID);
+	}
+
+	protected void navigateToStatus(Status status, String accountID){
 		Bundle args=new Bundle();
 		args.putString("account", accountID);
 		args.putParcelable("status", Parcels.wrap(status.clone()));
@@ -513,6 +757,9 @@ public abstract class BaseStatusListFragment<T extends DisplayItemsParent> exten
 	protected void updatePoll(String itemID, Status status, Poll poll){
 		if(status.poll!=poll)
 			status.poll=poll;
+		// The poll items will be built from the updated status when the post gets close to the visible ones
+		if(isReleased(itemID))
+			return;
 		int firstOptionIndex=-1, footerIndex=-1;
 		int i=0;
 		for(StatusDisplayItem item:displayItems){
@@ -894,7 +1141,10 @@ public abstract class BaseStatusListFragment<T extends DisplayItemsParent> exten
 	public void rebuildAllDisplayItems(){
 		displayItems.clear();
 		for(T item:data){
-			displayItems.addAll(buildDisplayItems(item));
+			if(isReleasedItem(item))
+				displayItems.add(new ReleasedStatusDisplayItem(item.getID(), this, getActivity()));
+			else
+				displayItems.addAll(buildDisplayItems(item));
 		}
 		adapter.notifyDataSetChanged();
 	}
@@ -919,8 +1169,23 @@ public abstract class BaseStatusListFragment<T extends DisplayItemsParent> exten
 		}
 	}
 
+	/**
+	 * @return the context that decides which filters hide or collapse the posts in this list, or null if all of them do
+	 */
+	@Override
+	public FilterContext getFilterContext(){
+		return null;
+	}
+
 	protected void onModifyItemViewHolder(BindableViewHolder<StatusDisplayItem> holder){}
 
+	/**
+	 * @return whether this list's view holders can be reused by other lists in the same activity. Must return false if {@link #onModifyItemViewHolder(BindableViewHolder)} is overridden.
+	 */
+	protected boolean canShareViewHolders(){
+		return true;
+	}
+
 	public void shakeListView(){
 		if(listShakeAnimation!=null)
 			listShakeAnimation.cancel();
@@ -958,15 +1223,26 @@ public abstract class BaseStatusListFragment<T extends DisplayItemsParent> exten
 		@NonNull
 		@Override
 		public BindableViewHolder<StatusDisplayItem> onCreateViewHolder(@NonNull ViewGroup parent, int viewType){
-			BindableViewHolder<StatusDisplayItem> holder=(BindableViewHolder<StatusDisplayItem>) StatusDisplayItem.createViewHolder(app.kabinka.social.ui.displayitems.StatusDisplayItem.Type.values()[viewType & (~0x80000000)], getActivity(), parent, BaseStatusListFragment.this);
+			long start=SystemClock.elapsedRealtimeNanos();
+			StatusDisplayItem.Type type=app.kabinka.social.ui.displayitems.StatusDisplayItem.Type.values()[viewType & (~0x80000000)];
+			BindableViewHolder<StatusDisplayItem> holder=(BindableViewHolder<StatusDisplayItem>) StatusDisplayItem.createViewHolder(type, getActivity(), parent, BaseStatusListFragment.this);
 			onModifyItemViewHolder(holder);
+			long duration=SystemClock.elapsedRealtimeNanos()-start;
+			if(sharedViewPool!=null)
+				sharedViewPool.onViewHolderCreated(type, duration);
+			if(renderProfiler!=null)
+				renderProfiler.onViewHolderCreated(type, duration);
 			return holder;
 		}
 
 		@Override
 		public void onBindViewHolder(BindableViewHolder<StatusDisplayItem> holder, int position){
-			holder.bind(displayItems.get(position));
+			StatusDisplayItem item=displayItems.get(position);
+			long start=renderProfiler!=null ? SystemClock.elapsedRealtimeNanos() : 0;
+			holder.bind(item);
 			super.onBindViewHolder(holder, position);
+			if(renderProfiler!=null)
+				renderProfiler.onViewHolderBound(item.getType(), SystemClock.elapsedRealtimeNanos()-start);
 		}
 
 		@Override
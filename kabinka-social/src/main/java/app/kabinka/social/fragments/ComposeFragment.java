@@ -48,7 +48,6 @@ import android.widget.LinearLayout;
 import android.widget.ProgressBar;
 import android.widget.TextView;
 
-import com.twitter.twittertext.TwitterTextEmojiRegex;
 
 import app.kabinka.social.E;
 import app.kabinka.social.GlobalUserPreferences;
@@ -81,6 +80,7 @@ import app.kabinka.social.ui.displayitems.InlineStatusStatusDisplayItem;
 import app.kabinka.social.ui.displayitems.StatusDisplayItem;
 import app.kabinka.social.ui.drawables.SpoilerStripesDrawable;
 import app.kabinka.social.ui.sheets.ComposerVisibilitySheet;
+import app.kabinka.social.ui.text.CharCounter;
 import app.kabinka.social.ui.text.ComposeAutocompleteSpan;
 import app.kabinka.social.ui.text.ComposeHashtagOrMentionSpan;
 import app.kabinka.social.ui.text.HtmlParser;
@@ -125,7 +125,6 @@ public class ComposeFragment extends MastodonToolbarFragment implements ComposeE
 	private static final int AUTOCOMPLETE_ACCOUNT_RESULT=779;
 	private static final String TAG="ComposeFragment";
 
-	private static final Pattern MENTION_PATTERN=Pattern.compile("(^|[^\\/\\w])@(([a-z0-9_]+)@[a-z0-9\\.\\-]+[a-z0-9]+)", Pattern.CASE_INSENSITIVE);
 
 	// from https://github.com/mastodon/mastodon-ios/blob/main/Mastodon/Helper/MastodonRegex.swift
 	private static final Pattern AUTO_COMPLETE_PATTERN=Pattern.compile("(?<!\\w)(?:@([a-z0-9_]+)(@[a-z0-9_\\.\\-]*)?|#([^\\s.]+)|:([a-z0-9_]+))", Pattern.CASE_INSENSITIVE);
@@ -682,11 +681,7 @@ public class ComposeFragment extends MastodonToolbarFragment implements ComposeE
 	private void updateCharCounter(){
 		Editable text=mainEditText.getText();
 
-		String countableText=TwitterTextEmojiRegex.VALID_EMOJI_PATTERN.matcher(
-				MENTION_PATTERN.matcher(
-						HtmlParser.URL_PATTERN.matcher(text).replaceAll("$2xxxxxxxxxxxxxxxxxxxxxxx")
-				).replaceAll("$1@$3")
-		).replaceAll("x");
+		String countableText=CharCounter.getCountableText(text);
 		charCount=0;
 		breakIterator.setText(countableText);
 		while(breakIterator.next()!=BreakIterator.DONE){
@@ -844,6 +839,7 @@ public class ComposeFragment extends MastodonToolbarFragment implements ComposeE
 				removeBackCallback(sendingBackButtonBlocker);
 				removeBackCallback(discardConfirmationCallback);
 				removeBackCallback(emojiKeyboardHider);
+				AccountSessionManager.get(accountID).getCacheController().indexStatuses(List.of(result));
 				if(editingStatus==null){
 					E.post(new StatusCreatedEvent(result, accountID));
 					if(replyTo!=null){
@@ -44,4 +44,9 @@ public class HashtagFeaturedTimelineFragment extends StatusListFragment{
 				})
 				.exec(accountID);
 	}
+
+	@Override
+	public FilterContext getFilterContext(){
+		return FilterContext.ACCOUNT;
+	}
 }
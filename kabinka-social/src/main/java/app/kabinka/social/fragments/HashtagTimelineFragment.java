@@ -14,6 +14,7 @@ import android.widget.ProgressBar;
 import android.widget.TextView;
 
 import app.kabinka.social.R;
+import app.kabinka.social.api.CachedTimeline;
 import app.kabinka.social.api.MastodonErrorResponse;
 import app.kabinka.social.api.requests.tags.GetTag;
 import app.kabinka.social.api.requests.tags.SetTagFollowed;
@@ -69,12 +70,15 @@ public class HashtagTimelineFragment extends StatusListFragment{
 
 	@Override
 	protected void doLoadData(int offset, int count){
+		if(loadFromTimelineCache(offset, count))
+			return;
 		currentRequest=new GetHashtagTimeline(hashtagName, offset==0 ? null : maxID, null, count)
 				.setCallback(new SimpleCallback<>(this){
 					@Override
 					public void onSuccess(List<Status> result){
 						if(!result.isEmpty())
 							maxID=result.get(result.size()-1).id;
+						putInTimelineCache(result, offset);
 						AccountSessionManager.get(accountID).filterStatuses(result, FilterContext.PUBLIC);
 						onDataLoaded(result, !result.isEmpty());
 					}
@@ -82,6 +86,11 @@ public class HashtagTimelineFragment extends StatusListFragment{
 				.exec(accountID);
 	}
 
+	@Override
+	protected CachedTimeline getCachedTimeline(){
+		return CachedTimeline.hashtag(hashtagName);
+	}
+
 	@Override
 	protected void onShown(){
 		super.onShown();
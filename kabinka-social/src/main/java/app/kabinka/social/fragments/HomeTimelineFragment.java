@@ -38,15 +38,19 @@ import android.widget.Toolbar;
 
 import com.squareup.otto.Subscribe;
 
+import app.kabinka.social.AppStartup;
 import app.kabinka.social.BuildConfig;
 import app.kabinka.social.E;
 import app.kabinka.social.R;
+import app.kabinka.social.api.CachedTimeline;
 import app.kabinka.social.api.MastodonAPIRequest;
+import app.kabinka.social.api.TimelineSnapshot;
 import app.kabinka.social.api.requests.catalog.GetDonationCampaigns;
 import app.kabinka.social.api.requests.markers.SaveMarkers;
 import app.kabinka.social.api.requests.timelines.GetHomeTimeline;
 import app.kabinka.social.api.requests.timelines.GetListTimeline;
 import app.kabinka.social.api.requests.timelines.GetPublicTimeline;
+import app.kabinka.social.api.session.AccountSession;
 import app.kabinka.social.api.session.AccountSessionManager;
 import app.kabinka.social.events.DismissDonationCampaignBannerEvent;
 import app.kabinka.social.events.SelfUpdateStateChangedEvent;
@@ -94,6 +98,8 @@ import me.grishka.appkit.views.BottomSheet;
 
 public class HomeTimelineFragment extends StatusListFragment implements ToolbarDropdownMenuController.HostFragment{
 	private static final int DONATION_RESULT=211;
+	private static final String SNAPSHOT_KEY="home";
+	private static final int SNAPSHOT_POSTS_ABOVE_ANCHOR=5;
 
 	private ImageButton fab;
 	private LinearLayout listsDropdown;
@@ -119,7 +125,12 @@ public class HomeTimelineFragment extends StatusListFragment implements ToolbarD
 	private long scrollBackTime;
 
 	private String maxID;
+	private boolean switchingListMode;
 	private String lastSavedMarkerID;
+	private boolean triedSnapshot;
+	private TimelineSnapshot pendingSnapshotScroll;
+	// Posts are shared with other screens, so the gaps of this timeline are kept here
+	private final HashSet<String> idsWithGapAfter=new HashSet<>();
 	private DonationCampaign currentDonationCampaign;
 	private BottomSheet donationSheet;
 
@@ -132,6 +143,8 @@ public class HomeTimelineFragment extends StatusListFragment implements ToolbarD
 	public void onCreate(Bundle savedInstanceState){
 		super.onCreate(savedInstanceState);
 		localTimelineBannerHelper=new DiscoverInfoBannerHelper(DiscoverInfoBannerHelper.BannerType.LOCAL_TIMELINE, accountID);
+		// The snapshot is only for when the system recreates this screen after killing the process. A fresh start shows the cached timeline from the top.
+		triedSnapshot=savedInstanceState==null;
 
 		if(AccountSessionManager.get(accountID).isEligibleForDonations()){
 			GetDonationCampaigns req=new GetDonationCampaigns(Locale.getDefault().toLanguageTag().replace('-', '_'), String.valueOf(AccountSessionManager.get(accountID).getDonationSeed()), null);
@@ -158,6 +171,10 @@ public class HomeTimelineFragment extends StatusListFragment implements ToolbarD
 	public void onDestroy(){
 		super.onDestroy();
 		E.unregister(this);
+		// The snapshot is only for when the process is killed, which doesn't call this
+		AccountSession session=AccountSessionManager.getInstance().getAccount(accountID);
+		if(session!=null)
+			session.getCacheController().deleteTimelineSnapshot(SNAPSHOT_KEY);
 	}
 
 	@Override
@@ -170,6 +187,7 @@ public class HomeTimelineFragment extends StatusListFragment implements ToolbarD
 				if(listMode==ListMode.FOLLOWING)
 					return;
 				listMode=ListMode.FOLLOWING;
+				switchingListMode=true;
 				reload();
 			}
 
@@ -178,6 +196,7 @@ public class HomeTimelineFragment extends StatusListFragment implements ToolbarD
 				if(listMode==ListMode.LOCAL)
 					return;
 				listMode=ListMode.LOCAL;
+				switchingListMode=true;
 				reload();
 			}
 
@@ -192,6 +211,7 @@ public class HomeTimelineFragment extends StatusListFragment implements ToolbarD
 					return;
 				listMode=ListMode.LIST;
 				currentList=list;
+				switchingListMode=true;
 				reload();
 			}
 		});
@@ -210,17 +230,35 @@ public class HomeTimelineFragment extends StatusListFragment implements ToolbarD
 
 	@Override
 	protected void doLoadData(int offset, int count){
+		// Switching between timelines shows the cached posts of the new one first, like when the app starts
+		boolean forceReload=refreshing && !switchingListMode;
+		switchingListMode=false;
 		switch(listMode){
 			case FOLLOWING -> {
+				if(offset==0 && !refreshing && !triedSnapshot){
+					triedSnapshot=true;
+					AccountSessionManager.get(accountID).getCacheController().getTimelineSnapshot(SNAPSHOT_KEY, snapshot->{
+						if(getActivity()==null || listMode!=ListMode.FOLLOWING)
+							return;
+						if(snapshot==null)
+							doLoadData(offset, count);
+						else
+							restoreFromSnapshot(snapshot);
+					});
+					return;
+				}
 				AccountSessionManager.getInstance()
 						.getAccount(accountID).getCacheController()
-						.getHomeTimeline(offset>0 ? maxID : null, count, refreshing, new SimpleCallback<>(this){
+						.getHomeTimeline(offset>0 ? maxID : null, count, forceReload, new SimpleCallback<>(this){
 							@Override
 							public void onSuccess(CacheablePaginatedResponse<List<Status>> result){
 								if(getActivity()==null || listMode!=ListMode.FOLLOWING)
 									return;
 								if(refreshing)
 									list.scrollToPosition(0);
+								if(offset==0)
+									idsWithGapAfter.clear();
+								idsWithGapAfter.addAll(result.getIdsWithGapAfter());
 								onDataLoaded(result.items, !result.items.isEmpty());
 								maxID=result.maxID;
 								if(result.isFromCache())
@@ -235,37 +273,176 @@ public class HomeTimelineFragment extends StatusListFragment implements ToolbarD
 							}
 						});
 			}
-			case LOCAL -> {
-				currentRequest=new GetPublicTimeline(true, false, offset>0 ? maxID : null, null, count, null)
-						.setCallback(new SimpleCallback<>(this){
-							@Override
-							public void onSuccess(List<Status> result){
-								if(refreshing)
-									list.scrollToPosition(0);
-								maxID=result.isEmpty() ? null : result.get(result.size()-1).id;
-								AccountSessionManager.get(accountID).filterStatuses(result, FilterContext.PUBLIC);
-								onDataLoaded(result, !result.isEmpty());
-							}
-						})
-						.exec(accountID);
+			case LOCAL, LIST -> {
+				if(forceReload){
+					loadTimelineFromServer(offset, count);
+					return;
+				}
+				CachedTimeline timeline=getCachedTimeline();
+				AccountSessionManager.get(accountID).getCacheController().getCachedTimeline(timeline, offset>0 ? maxID : null, count, (result, gaps)->{
+					CachedTimeline current=getCachedTimeline();
+					if(getActivity()==null || current==null || !current.key.equals(timeline.key))
+						return;
+					if(result==null || result.isEmpty()){
+						loadTimelineFromServer(offset, count);
+						return;
+					}
+					if(refreshing)
+						list.scrollToPosition(0);
+					if(offset==0)
+						idsWithGapAfter.clear();
+					idsWithGapAfter.addAll(gaps);
+					onDataLoaded(result, true);
+					maxID=result.get(result.size()-1).id;
+					if(offset==0)
+						loadNewPosts();
+				});
 			}
-			case LIST -> {
-				currentRequest=new GetListTimeline(currentList.id, offset>0 ? maxID : null, null, count, null)
-						.setCallback(new SimpleCallback<>(this){
-							@Override
-							public void onSuccess(List<Status> result){
-								if(refreshing)
-									list.scrollToPosition(0);
-								maxID=result.isEmpty() ? null : result.get(result.size()-1).id;
-								AccountSessionManager.get(accountID).filterStatuses(result, FilterContext.HOME);
-								onDataLoaded(result, !result.isEmpty());
-							}
-						})
-						.exec(accountID);
+		}
+	}
+
+	/**
+	 * Show the timeline exactly like it was when the app was last in the background, and then load the new posts on top of it
+	 * like when it's shown from the cache
+	 */
+	private void restoreFromSnapshot(TimelineSnapshot snapshot){
+		idsWithGapAfter.clear();
+		if(snapshot.idsWithGapAfter!=null)
+			idsWithGapAfter.addAll(snapshot.idsWithGapAfter);
+		onDataLoaded(snapshot.posts, true);
+		maxID=snapshot.maxID;
+		if(list!=null)
+			scrollToSnapshotAnchor(snapshot);
+		else
+			pendingSnapshotScroll=snapshot;
+		loadNewPosts();
+	}
+
+	private void scrollToSnapshotAnchor(TimelineSnapshot snapshot){
+		for(int i=0;i<displayItems.size();i++){
+			if(displayItems.get(i).parentID.equals(snapshot.anchorID)){
+				// The post might have a different number of items now, e.g. if a poll ended
+				int index=i+snapshot.anchorItemIndex;
+				if(index>=displayItems.size() || !displayItems.get(index).parentID.equals(snapshot.anchorID))
+					index=i;
+				((LinearLayoutManager)list.getLayoutManager()).scrollToPositionWithOffset(getMainAdapterOffset()+index, snapshot.anchorOffset);
+				return;
 			}
 		}
 	}
 
+	private void saveSnapshot(){
+		if(list==null || data.isEmpty() || listMode!=ListMode.FOLLOWING)
+			return;
+		View top=null;
+		int topIndex=-1;
+		for(int i=0;i<list.getChildCount();i++){
+			View child=list.getChildAt(i);
+			int index=list.getChildAdapterPosition(child)-getMainAdapterOffset();
+			if(index>=0 && index<displayItems.size()){
+				top=child;
+				topIndex=index;
+				break;
+			}
+		}
+		if(top==null)
+			return;
+		String anchorID=displayItems.get(topIndex).parentID;
+		int anchorFirstIndex=topIndex;
+		while(anchorFirstIndex>0 && displayItems.get(anchorFirstIndex-1).parentID.equals(anchorID))
+			anchorFirstIndex--;
+		int anchorPostIndex=-1;
+		for(int i=0;i<data.size();i++){
+			if(data.get(i).id.equals(anchorID)){
+				anchorPostIndex=i;
+				break;
+			}
+		}
+		if(anchorPostIndex==-1)
+			return;
+		// Everything in the snapshot has to fit into the first page, otherwise the anchor might end up in the preloaded part
+		int start=Math.max(0, anchorPostIndex-SNAPSHOT_POSTS_ABOVE_ANCHOR);
+		int end=Math.min(data.size(), start+itemsPerPage);
+		// Placeholders of released posts can't be saved, and the posts on the other side of one wouldn't be contiguous
+		for(int i=anchorPostIndex;i<end;i++){
+			if(isReleasedItem(data.get(i))){
+				end=i;
+				break;
+			}
+		}
+		for(int i=anchorPostIndex-1;i>=start;i--){
+			if(isReleasedItem(data.get(i))){
+				start=i+1;
+				break;
+			}
+		}
+		if(end<=anchorPostIndex)
+			return;
+		List<Status> posts=new ArrayList<>(data.subList(start, end));
+		TimelineSnapshot snapshot=new TimelineSnapshot();
+		snapshot.time=System.currentTimeMillis();
+		snapshot.posts=posts;
+		snapshot.idsWithGapAfter=posts.stream().map(p->p.id).filter(idsWithGapAfter::contains).collect(Collectors.toList());
+		snapshot.anchorID=anchorID;
+		snapshot.anchorItemIndex=topIndex-anchorFirstIndex;
+		snapshot.anchorOffset=top.getTop()-list.getPaddingTop();
+		snapshot.maxID=posts.get(posts.size()-1).id;
+		AccountSessionManager.get(accountID).getCacheController().putTimelineSnapshot(SNAPSHOT_KEY, snapshot);
+	}
+
+	private void loadTimelineFromServer(int offset, int count){
+		ListMode mode=listMode;
+		loadAdditionalPosts(offset>0 ? maxID : null, null, count, null, new SimpleCallback<>(this){
+			@Override
+			public void onSuccess(List<Status> result){
+				currentRequest=null;
+				if(getActivity()==null || listMode!=mode)
+					return;
+				if(refreshing)
+					list.scrollToPosition(0);
+				maxID=result.isEmpty() ? null : result.get(result.size()-1).id;
+				if(offset==0)
+					idsWithGapAfter.clear();
+				putInCache(result, offset==0);
+				AccountSessionManager.get(accountID).filterStatuses(result, getFilterContext());
+				onDataLoaded(result, !result.isEmpty());
+			}
+
+			@Override
+			public void onError(ErrorResponse error){
+				currentRequest=null;
+				if(listMode!=mode)
+					return;
+				super.onError(error);
+			}
+		});
+	}
+
+	@Override
+	protected CachedTimeline getCachedTimeline(){
+		return switch(listMode){
+			case FOLLOWING -> null;
+			case LOCAL -> CachedTimeline.local();
+			case LIST -> CachedTimeline.list(currentList.id);
+		};
+	}
+
+	@Override
+	public FilterContext getFilterContext(){
+		return listMode==ListMode.LOCAL ? FilterContext.PUBLIC : FilterContext.HOME;
+	}
+
+	private void putInCache(List<Status> posts, boolean clear){
+		if(listMode==ListMode.FOLLOWING)
+			AccountSessionManager.get(accountID).getCacheController().putHomeTimeline(posts, idsWithGapAfter, clear);
+		else
+			AccountSessionManager.get(accountID).getCacheController().putTimeline(getCachedTimeline(), posts, idsWithGapAfter, clear);
+	}
+
+	public boolean hasGapAfter(String postID){
+		return idsWithGapAfter.contains(postID);
+	}
+
 	@SuppressLint("ClickableViewAccessibility")
 	@Override
 	public void onViewCreated(View view, Bundle savedInstanceState){
@@ -342,6 +519,10 @@ public class HomeTimelineFragment extends StatusListFragment implements ToolbarD
 		}
 		if(currentDonationCampaign!=null)
 			showDonationBanner(currentDonationCampaign);
+		if(pendingSnapshotScroll!=null){
+			scrollToSnapshotAnchor(pendingSnapshotScroll);
+			pendingSnapshotScroll=null;
+		}
 	}
 
 	@Override
@@ -383,7 +564,7 @@ public class HomeTimelineFragment extends StatusListFragment implements ToolbarD
 				return true;
 			}
 			Status gapStatus=data.get(1);
-			gapStatus.hasGapAfter=true;
+			idsWithGapAfter.add(gapStatus.id);
 			onStatusUpdated(gapStatus);
 			for(Status s:new ArrayList<>(data.subList(2, 32))){
 				removeStatus(s);
@@ -410,9 +591,16 @@ public class HomeTimelineFragment extends StatusListFragment implements ToolbarD
 		}
 	}
 
+	@Override
+	public void onSaveInstanceState(Bundle outState){
+		super.onSaveInstanceState(outState);
+		saveSnapshot();
+	}
+
 	@Override
 	protected void onHidden(){
 		super.onHidden();
+		saveSnapshot();
 		if(!data.isEmpty() && listMode==ListMode.FOLLOWING){
 			String topPostID=displayItems.get(Math.max(0, list.getChildAdapterPosition(list.getChildAt(0))-getMainAdapterOffset())).parentID;
 			if(!topPostID.equals(lastSavedMarkerID)){
@@ -449,7 +637,6 @@ public class HomeTimelineFragment extends StatusListFragment implements ToolbarD
 		// we'll get the currently topmost post as last in the response. This way we know there's no gap
 		// between the existing and newly loaded parts of the timeline.
 		String sinceID=data.size()>1 ? data.get(1).id : "1";
-		boolean needCache=listMode==ListMode.FOLLOWING;
 		loadAdditionalPosts(null, null, 20, sinceID, new Callback<>(){
 					@Override
 					public void onSuccess(List<Status> result){
@@ -462,20 +649,18 @@ public class HomeTimelineFragment extends StatusListFragment implements ToolbarD
 						if(!data.isEmpty() && last.id.equals(data.get(0).id)){ // This part intersects with the existing one
 							toAdd=result.subList(0, result.size()-1); // Remove the already known last post
 						}else{
-							result.get(result.size()-1).hasGapAfter=true;
+							idsWithGapAfter.add(last.id);
 							toAdd=result;
 						}
 						if(!(toAdd instanceof ArrayList<?>))
 							toAdd=new ArrayList<>(toAdd);
 						Set<String> existingPostIDs=data.stream().map(s->s.id).collect(Collectors.toSet());
 						toAdd.removeIf(s->existingPostIDs.contains(s.id));
-						if(needCache)
-							AccountSessionManager.get(accountID).filterStatuses(toAdd, FilterContext.HOME);
+						AccountSessionManager.get(accountID).filterStatuses(toAdd, getFilterContext());
 						if(!toAdd.isEmpty()){
 							prependItems(toAdd, true);
 							showNewPostsButton();
-							if(needCache)
-								AccountSessionManager.getInstance().getAccount(accountID).getCacheController().putHomeTimeline(toAdd, false);
+							putInCache(toAdd, false);
 						}
 					}
 
@@ -496,7 +681,6 @@ public class HomeTimelineFragment extends StatusListFragment implements ToolbarD
 		V.setVisibilityAnimated(item.progress, View.VISIBLE);
 		V.setVisibilityAnimated(item.text, View.GONE);
 		dataLoading=true;
-		boolean needCache=listMode==ListMode.FOLLOWING;
 		boolean insertBelowGap=!gap.enteredFromTop;
 		String maxID, minID;
 		if(gap.enteredFromTop){
@@ -531,9 +715,8 @@ public class HomeTimelineFragment extends StatusListFragment implements ToolbarD
 							adapter.notifyItemRemoved(getMainAdapterOffset()+gapPos);
 							Status gapStatus=getStatusByID(gap.parentID);
 							if(gapStatus!=null){
-								gapStatus.hasGapAfter=false;
-								if(needCache)
-									AccountSessionManager.getInstance().getAccount(accountID).getCacheController().putHomeTimeline(List.of(gapStatus), false);
+								idsWithGapAfter.remove(gapStatus.id);
+								putInCache(List.of(gapStatus), false);
 							}
 						}else if(insertBelowGap){
 							Set<String> idsBelowGap=new HashSet<>();
@@ -544,9 +727,8 @@ public class HomeTimelineFragment extends StatusListFragment implements ToolbarD
 									idsBelowGap.add(s.id);
 								}else if(s.id.equals(gap.parentID)){
 									belowGap=true;
-									s.hasGapAfter=false;
-									if(needCache)
-										AccountSessionManager.getInstance().getAccount(accountID).getCacheController().putHomeTimeline(List.of(s), false);
+									idsWithGapAfter.remove(s.id);
+									putInCache(List.of(s), false);
 								}else{
 									gapPostIndex++;
 								}
@@ -558,12 +740,11 @@ public class HomeTimelineFragment extends StatusListFragment implements ToolbarD
 									break;
 							}
 							if(endIndex==result.size()){
-								result.get(result.size()-1).hasGapAfter=true;
+								idsWithGapAfter.add(result.get(result.size()-1).id);
 							}else{
 								result=result.subList(0, endIndex);
 							}
-							if(needCache)
-								AccountSessionManager.get(accountID).filterStatuses(result, FilterContext.HOME);
+							AccountSessionManager.get(accountID).filterStatuses(result, getFilterContext());
 							List<StatusDisplayItem> targetList=displayItems.subList(gapPos, gapPos+1); // Get a sub-list that contains the gap item
 							targetList.clear(); // remove the gap item
 							List<Status> insertedPosts=data.subList(gapPostIndex+1, gapPostIndex+1);
@@ -580,8 +761,7 @@ public class HomeTimelineFragment extends StatusListFragment implements ToolbarD
 								adapter.notifyItemChanged(getMainAdapterOffset()+gapPos);
 								adapter.notifyItemRangeInserted(getMainAdapterOffset()+gapPos+1, targetList.size()-1);
 							}
-							if(needCache)
-								AccountSessionManager.getInstance().getAccount(accountID).getCacheController().putHomeTimeline(insertedPosts, false);
+							putInCache(insertedPosts, false);
 						}else{
 							Set<String> idsAboveGap=new HashSet<>();
 							int gapPostIndex=0;
@@ -620,9 +800,8 @@ public class HomeTimelineFragment extends StatusListFragment implements ToolbarD
 							boolean gapRemoved=false;
 							if(insertedPosts.size()<result.size()){ // There was an intersection, remove the gap
 								gapRemoved=true;
-								gapPost.hasGapAfter=false;
-								if(needCache)
-									AccountSessionManager.getInstance().getAccount(accountID).getCacheController().putHomeTimeline(List.of(gapPost), false);
+								idsWithGapAfter.remove(gapPost.id);
+								putInCache(List.of(gapPost), false);
 								displayItems.remove(gapPos);
 								adapter.notifyItemRemoved(getMainAdapterOffset()+gapPos);
 							}else{
@@ -630,8 +809,7 @@ public class HomeTimelineFragment extends StatusListFragment implements ToolbarD
 								adapter.notifyItemChanged(getMainAdapterOffset()+gapPos);
 							}
 							if(!insertedPosts.isEmpty()){
-								if(needCache)
-									AccountSessionManager.getInstance().getAccount(accountID).getCacheController().putHomeTimeline(insertedPosts, false);
+								putInCache(insertedPosts, false);
 								adapter.notifyItemRangeInserted(getMainAdapterOffset()+gapPos+(gapRemoved ? 0 : 1), addedItemCount);
 								if(needAdjustScroll){
 									((LinearLayoutManager)list.getLayoutManager()).scrollToPositionWithOffset(getMainAdapterOffset()+gapPos+(gapRemoved ? 0 : 1)+addedItemCount, scrollTop);
@@ -866,6 +1044,8 @@ public class HomeTimelineFragment extends StatusListFragment implements ToolbarD
 			}
 		}
 		super.onDataLoaded(d, more);
+		if(!d.isEmpty())
+			AppStartup.onTimelineShown(getActivity(), list);
 	}
 
 	@Override
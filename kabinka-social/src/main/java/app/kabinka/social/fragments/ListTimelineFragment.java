@@ -6,7 +6,9 @@ import android.view.MenuInflater;
 import android.view.MenuItem;
 
 import app.kabinka.social.R;
+import app.kabinka.social.api.CachedTimeline;
 import app.kabinka.social.api.requests.timelines.GetListTimeline;
+import app.kabinka.social.api.session.AccountSessionManager;
 import app.kabinka.social.model.FollowList;
 import app.kabinka.social.model.Status;
 import org.parceler.Parcels;
@@ -30,16 +32,29 @@ public class ListTimelineFragment extends StatusListFragment{
 
 	@Override
 	protected void doLoadData(int offset, int count){
+		if(loadFromTimelineCache(offset, count))
+			return;
 		currentRequest=new GetListTimeline(followList.id, offset>0 ? getMaxID() : null, null, count, null)
 				.setCallback(new SimpleCallback<>(this){
 					@Override
 					public void onSuccess(List<Status> result){
-						onDataLoaded(result, !result.isEmpty());
+						if(getActivity()==null)
+							return;
+						boolean empty=result.isEmpty();
+						putInTimelineCache(result, offset);
+						// Same context as the cached posts get in CacheController.getCachedTimeline
+						AccountSessionManager.get(accountID).filterStatuses(result, getFilterContext());
+						onDataLoaded(result, !empty);
 					}
 				})
 				.exec(accountID);
 	}
 
+	@Override
+	protected CachedTimeline getCachedTimeline(){
+		return CachedTimeline.list(followList.id);
+	}
+
 	@Override
 	public void onCreateOptionsMenu(Menu menu, MenuInflater inflater){
 		inflater.inflate(R.menu.standalone_list_timeline, menu);
@@ -250,6 +250,7 @@ public class NotificationsListFragment extends BaseNotificationsListFragment{
 		markAllReadItem=menu.findItem(R.id.mark_all_read);
 		MenuItem filters=menu.findItem(R.id.filters);
 		filters.setVisible(lastPolicy!=null);
+		menu.findItem(R.id.unified_notifications).setVisible(AccountSessionManager.getInstance().getLoggedInAccounts().size()>1);
 	}
 
 	@Override
@@ -260,6 +261,10 @@ public class NotificationsListFragment extends BaseNotificationsListFragment{
 			resetUnreadBackground();
 		}else if(id==R.id.filters){
 			showFiltersAlert();
+		}else if(id==R.id.unified_notifications){
+			Bundle args=new Bundle();
+			args.putString("account", accountID);
+			Nav.go(getActivity(), UnifiedNotificationsListFragment.class, args);
 		}
 		return true;
 	}
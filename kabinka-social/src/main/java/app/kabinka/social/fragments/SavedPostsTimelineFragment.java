@@ -10,6 +10,7 @@ import android.widget.LinearLayout;
 import android.widget.TextView;
 
 import app.kabinka.social.R;
+import app.kabinka.social.api.CachedTimeline;
 import app.kabinka.social.api.requests.statuses.GetBookmarkedStatuses;
 import app.kabinka.social.api.requests.statuses.GetFavoritedStatuses;
 import app.kabinka.social.api.session.AccountSessionManager;
@@ -58,6 +59,8 @@ public class SavedPostsTimelineFragment extends StatusListFragment{
 
 	@Override
 	protected void doLoadData(int offset, int count){
+		if(loadFromTimelineCache(offset, count))
+			return;
 		currentRequest=(switch(mode){
 			case FAVORITES -> new GetFavoritedStatuses(offset>0 ? getMaxID() : null, count);
 			case BOOKMARKS -> new GetBookmarkedStatuses(offset>0 ? getMaxID() : null, count);
@@ -66,11 +69,21 @@ public class SavedPostsTimelineFragment extends StatusListFragment{
 			public void onSuccess(HeaderPaginationList<Status> result){
 				if(getActivity()==null)
 					return;
+				AccountSessionManager.get(accountID).getCacheController().indexStatuses(result);
+				putInTimelineCache(result, offset);
 				onDataLoaded(result, result.nextPageUri!=null);
 			}
 		}).exec(accountID);
 	}
 
+	@Override
+	protected CachedTimeline getCachedTimeline(){
+		return switch(mode){
+			case FAVORITES -> CachedTimeline.favorites();
+			case BOOKMARKS -> CachedTimeline.bookmarks();
+		};
+	}
+
 	@Override
 	public void onViewCreated(View view, Bundle savedInstanceState){
 		super.onViewCreated(view, savedInstanceState);
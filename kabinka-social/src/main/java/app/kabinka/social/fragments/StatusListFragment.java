@@ -5,26 +5,44 @@ import android.os.Bundle;
 import com.squareup.otto.Subscribe;
 
 import app.kabinka.social.E;
+import app.kabinka.social.api.CachedTimeline;
+import app.kabinka.social.api.requests.statuses.GetStatusesByIDs;
+import app.kabinka.social.api.session.AccountSession;
+import app.kabinka.social.api.session.AccountSessionManager;
 import app.kabinka.social.events.PollUpdatedEvent;
 import app.kabinka.social.events.RemoveAccountPostsEvent;
 import app.kabinka.social.events.StatusCountersUpdatedEvent;
 import app.kabinka.social.events.StatusCreatedEvent;
 import app.kabinka.social.events.StatusDeletedEvent;
 import app.kabinka.social.events.StatusUpdatedEvent;
+import app.kabinka.social.model.FilterContext;
 import app.kabinka.social.model.Status;
 import app.kabinka.social.ui.displayitems.ExtendedFooterStatusDisplayItem;
 import app.kabinka.social.ui.displayitems.FooterStatusDisplayItem;
 import app.kabinka.social.ui.displayitems.StatusDisplayItem;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 import androidx.recyclerview.widget.RecyclerView;
+import me.grishka.appkit.api.Callback;
+import me.grishka.appkit.api.ErrorResponse;
 
 public abstract class StatusListFragment extends BaseStatusListFragment<Status>{
 	protected EventListener eventListener=new EventListener();
+	private String triedCachedTimelineKey;
+	// Placeholders in data for the posts that were released from memory, and where the posts are kept in the meantime, see releaseItem()
+	private final Set<Status> releasedPosts=Collections.newSetFromMap(new IdentityHashMap<>());
+	private final String releasedPostsKey=UUID.randomUUID().toString();
 
 	protected List<StatusDisplayItem> buildDisplayItems(Status s){
 		return StatusDisplayItem.buildItems(this, s, accountID, s, knownAccounts, true);
@@ -46,6 +64,13 @@ public abstract class StatusListFragment extends BaseStatusListFragment<Status>{
 	public void onDestroy(){
 		super.onDestroy();
 		E.unregister(eventListener);
+		deleteReleasedPosts();
+	}
+
+	@Override
+	public void onClearItems(){
+		super.onClearItems();
+		deleteReleasedPosts();
 	}
 
 	@Override
@@ -69,24 +94,174 @@ public abstract class StatusListFragment extends BaseStatusListFragment<Status>{
 		return s;
 	}
 
+	@Override
+	protected boolean isMemoryWindowEnabled(){
+		return true;
+	}
+
+	/**
+	 * The post is kept in the cache database until it's needed again. Other screens that show it still have it, and
+	 * {@link app.kabinka.social.api.StatusStore} gives that same instance back when it's restored.
+	 */
+	@Override
+	protected Status releaseItem(Status s){
+		AccountSessionManager.get(accountID).getCacheController().putReleasedPosts(releasedPostsKey, List.of(s));
+		Status placeholder=makeReleasedPlaceholder(s);
+		releasedPosts.add(placeholder);
+		return placeholder;
+	}
+
+	@Override
+	protected boolean isReleasedItem(Status s){
+		return releasedPosts.contains(s);
+	}
+
+	@Override
+	protected void restoreItems(List<Status> placeholders, Consumer<Map<String, Status>> callback){
+		List<String> ids=placeholders.stream().map(s->s.id).collect(Collectors.toList());
+		AccountSessionManager.get(accountID).getCacheController().getReleasedPosts(releasedPostsKey, ids, cached->{
+			HashMap<String, Status> restored=new HashMap<>(cached);
+			List<String> missing=ids.stream().filter(id->!restored.containsKey(id)).collect(Collectors.toList());
+			if(missing.isEmpty()){
+				onPostsRestored(placeholders, restored, callback);
+				return;
+			}
+			// Only if the database failed, the server still has them
+			new GetStatusesByIDs(missing)
+					.setCallback(new Callback<>(){
+						@Override
+						public void onSuccess(List<Status> result){
+							for(Status s:result)
+								restored.put(s.id, s);
+							onPostsRestored(placeholders, restored, callback);
+						}
+
+						@Override
+						public void onError(ErrorResponse error){
+							onPostsRestored(placeholders, restored, callback);
+						}
+					})
+					.exec(accountID);
+		});
+	}
+
+	private void onPostsRestored(List<Status> placeholders, Map<String, Status> restored, Consumer<Map<String, Status>> callback){
+		for(Status placeholder:placeholders){
+			Status s=restored.get(placeholder.id);
+			if(s==null)
+				continue;
+			// Events for the post went to the placeholder while it was released
+			copyReleasedState(placeholder, s);
+			releasedPosts.remove(placeholder);
+		}
+		callback.accept(restored);
+	}
+
+	private void deleteReleasedPosts(){
+		if(releasedPosts.isEmpty())
+			return;
+		releasedPosts.clear();
+		AccountSession session=AccountSessionManager.getInstance().tryGetAccount(accountID);
+		if(session!=null)
+			session.getCacheController().deleteReleasedPosts(releasedPostsKey);
+	}
+
+	/**
+	 * Only what this list and its event handlers look at: the IDs, the authors, and the state that events change
+	 */
+	private static Status makeReleasedPlaceholder(Status s){
+		Status placeholder=new Status();
+		placeholder.id=s.id;
+		placeholder.account=s.account;
+		placeholder.createdAt=s.createdAt;
+		placeholder.poll=s.poll;
+		copyReleasedState(s, placeholder);
+		if(s.reblog!=null)
+			placeholder.reblog=makeReleasedPlaceholder(s.reblog);
+		return placeholder;
+	}
+
+	private static void copyReleasedState(Status from, Status to){
+		to.favouritesCount=from.favouritesCount;
+		to.favourited=from.favourited;
+		to.reblogsCount=from.reblogsCount;
+		to.reblogged=from.reblogged;
+		to.repliesCount=from.repliesCount;
+		to.bookmarked=from.bookmarked;
+		if(from.poll!=null)
+			to.poll=from.poll;
+		if(from.reblog!=null && to.reblog!=null && from.reblog!=to.reblog)
+			copyReleasedState(from.reblog, to.reblog);
+	}
+
+	/**
+	 * Timelines that return something here are shown from the cache at first, and then refreshed from the server.
+	 * Their doLoadData should start with {@link #loadFromTimelineCache(int, int)} and call {@link #putInTimelineCache(List, int)} for every loaded page.
+	 */
+	protected CachedTimeline getCachedTimeline(){
+		return null;
+	}
+
+	@Override
+	public FilterContext getFilterContext(){
+		CachedTimeline timeline=getCachedTimeline();
+		return timeline==null ? null : timeline.filterContext;
+	}
+
+	/**
+	 * On the first load of a timeline, show its cached posts if there are any, and refresh it right away.
+	 * @return true if the posts are being loaded from the cache and doLoadData shouldn't continue
+	 */
+	protected boolean loadFromTimelineCache(int offset, int count){
+		CachedTimeline timeline=getCachedTimeline();
+		if(timeline==null || offset>0 || refreshing || timeline.key.equals(triedCachedTimelineKey))
+			return false;
+		triedCachedTimelineKey=timeline.key;
+		AccountSessionManager.get(accountID).getCacheController().getCachedTimeline(timeline, null, count, (result, idsWithGapAfter)->{
+			// The user might have switched to another filter in the meantime
+			CachedTimeline current=getCachedTimeline();
+			if(getActivity()==null || current==null || !current.key.equals(timeline.key))
+				return;
+			if(result==null || result.isEmpty()){
+				doLoadData(offset, count);
+				return;
+			}
+			// The next page has to come after the fresh first page, so don't load it until the refresh is done
+			onDataLoaded(result, false);
+			refreshing=true;
+			loadData(0, count);
+		});
+		return true;
+	}
+
+	protected void putInTimelineCache(List<Status> posts, int offset){
+		CachedTimeline timeline=getCachedTimeline();
+		if(timeline!=null)
+			AccountSessionManager.get(accountID).getCacheController().putTimeline(timeline, posts, offset==0);
+	}
+
 	protected void onStatusCreated(Status status){}
 
 	protected void onStatusUpdated(Status status){
 		ArrayList<Status> statusesForDisplayItems=new ArrayList<>();
 		for(int i=0;i<data.size();i++){
 			Status s=data.get(i);
+			// The display items of released posts are built from the updated post when it gets close to the visible ones
 			if(s.reblog!=null && s.reblog.id.equals(status.id)){
-				s.reblog=status.clone();
-				statusesForDisplayItems.add(s);
+				s.reblog=status;
+				if(!isReleased(s.id))
+					statusesForDisplayItems.add(s);
 			}else if(s.id.equals(status.id)){
 				data.set(i, status);
-				statusesForDisplayItems.add(status);
+				releasedPosts.remove(s);
+				if(!isReleased(s.id))
+					statusesForDisplayItems.add(status);
 			}
 		}
 		for(int i=0;i<preloadedData.size();i++){
 			Status s=preloadedData.get(i);
 			if(s.reblog!=null && s.reblog.id.equals(status.id)){
-				s.reblog=status.clone();
+				s.reblog=status;
 			}else if(s.id.equals(status.id)){
 				preloadedData.set(i, status);
 			}
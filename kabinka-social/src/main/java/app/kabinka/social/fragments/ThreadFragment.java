@@ -82,7 +82,7 @@ public class ThreadFragment extends StatusListFragment implements AssistContentP
 				item.fullWidth=true;
 				if(item instanceof TextStatusDisplayItem text){
 					text.textSelectable=!item.isQuote;
-					text.largerFont=true;
+					text.setLargerFont(true);
 				}
 				else if(item instanceof FooterStatusDisplayItem footer)
 					footer.hideCounts=true;
@@ -138,6 +138,11 @@ public class ThreadFragment extends StatusListFragment implements AssistContentP
 		AccountSessionManager.get(accountID).filterStatuses(statuses, FilterContext.THREAD);
 	}
 
+	@Override
+	public FilterContext getFilterContext(){
+		return FilterContext.THREAD;
+	}
+
 	@Override
 	protected void onShown(){
 		super.onShown();
@@ -184,6 +189,12 @@ public class ThreadFragment extends StatusListFragment implements AssistContentP
 		return item.isQuote || !item.parentID.equals(mainStatus.id);
 	}
 
+	@Override
+	protected boolean isMemoryWindowEnabled(){
+		// Ancestry lines and reply levels are updated across neighbouring posts
+		return false;
+	}
+
 	@Override
 	protected RecyclerView.Adapter getAdapter(){
 		MergeRecyclerAdapter a=new MergeRecyclerAdapter();
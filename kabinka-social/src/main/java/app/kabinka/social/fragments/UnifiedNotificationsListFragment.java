@@ -0,0 +1,235 @@
+package app.kabinka.social.fragments;
+
+import android.app.Activity;
+import android.app.NotificationManager;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.os.Bundle;
+import android.service.notification.StatusBarNotification;
+import android.text.TextUtils;
+import android.view.Menu;
+import android.view.MenuInflater;
+import android.view.MenuItem;
+import android.view.View;
+
+import app.kabinka.social.E;
+import app.kabinka.social.R;
+import app.kabinka.social.api.UnifiedNotificationsInbox;
+import app.kabinka.social.api.requests.markers.SaveMarkers;
+import app.kabinka.social.api.requests.polls.SubmitPollVote;
+import app.kabinka.social.api.session.AccountSession;
+import app.kabinka.social.api.session.AccountSessionManager;
+import app.kabinka.social.events.PollUpdatedEvent;
+import app.kabinka.social.model.Poll;
+import app.kabinka.social.model.viewmodel.NotificationViewModel;
+import app.kabinka.social.ui.displayitems.FollowRequestActionsDisplayItem;
+import app.kabinka.social.ui.displayitems.ReblogOrReplyLineStatusDisplayItem;
+import app.kabinka.social.ui.displayitems.StatusDisplayItem;
+import app.kabinka.social.ui.utils.UiUtils;
+import app.kabinka.social.utils.ObjectIdComparator;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import androidx.annotation.NonNull;
+import androidx.recyclerview.widget.RecyclerView;
+import me.grishka.appkit.api.Callback;
+import me.grishka.appkit.api.ErrorResponse;
+import me.grishka.appkit.api.SimpleCallback;
+
+/**
+ * Notifications of all logged in accounts in one list, see {@link UnifiedNotificationsInbox}.
+ * Every notification is shown, opened and interacted with as the account that received it.
+ */
+public class UnifiedNotificationsListFragment extends BaseNotificationsListFragment{
+	private UnifiedNotificationsInbox inbox;
+	// Every account has its own marker, notifications newer than the marker of their account are unread
+	private HashMap<String, String> unreadMarkers=new HashMap<>();
+	private boolean refreshedFromNetwork, refreshAfterLoading;
+
+	@Override
+	public void onCreate(Bundle savedInstanceState){
+		super.onCreate(savedInstanceState);
+		List<AccountSession> sessions=AccountSessionManager.getInstance().getLoggedInAccounts();
+		inbox=new UnifiedNotificationsInbox(sessions.stream().map(AccountSession::getID).collect(Collectors.toList()));
+		for(AccountSession session:sessions)
+			unreadMarkers.put(session.getID(), session.getLastKnownNotificationsMarker());
+		setHasOptionsMenu(true);
+		loadData();
+	}
+
+	@Override
+	public void onAttach(Activity activity){
+		super.onAttach(activity);
+		setTitle(R.string.unified_notifications);
+	}
+
+	@Override
+	protected void doLoadData(int offset, int count){
+		if(!refreshing && endMark!=null)
+			endMark.setVisibility(View.GONE);
+		SimpleCallback<List<NotificationViewModel>> callback=new SimpleCallback<>(this){
+			@Override
+			public void onSuccess(List<NotificationViewModel> result){
+				if(getActivity()==null)
+					return;
+				boolean hasMore=inbox.hasMore();
+				onDataLoaded(result, hasMore);
+				endMark.setVisibility(hasMore ? View.GONE : View.VISIBLE);
+				if(refreshAfterLoading){
+					refreshAfterLoading=false;
+					refresh();
+				}
+			}
+		};
+		if(offset==0)
+			inbox.loadFirstPage(count, refreshing, callback);
+		else
+			inbox.loadNextPage(count, callback);
+	}
+
+	@Override
+	protected void onShown(){
+		super.onShown();
+		// The first load is from the caches, so that there's something to show right away
+		if(!refreshedFromNetwork){
+			refreshedFromNetwork=true;
+			if(dataLoading)
+				refreshAfterLoading=true;
+			else
+				refresh();
+		}
+
+		NotificationManager nm=getActivity().getSystemService(NotificationManager.class);
+		for(StatusBarNotification sbn:nm.getActiveNotifications()){
+			String tag=sbn.getTag();
+			if(tag==null)
+				continue;
+			for(String id:unreadMarkers.keySet()){
+				if(tag.startsWith(id+"_")){
+					nm.cancel(tag, sbn.getId());
+					break;
+				}
+			}
+		}
+	}
+
+	@Override
+	public void onViewCreated(View view, Bundle savedInstanceState){
+		super.onViewCreated(view, savedInstanceState);
+		list.addItemDecoration(new RecyclerView.ItemDecoration(){
+			private Paint paint=new Paint();
+			private Rect tmpRect=new Rect();
+
+			{
+				paint.setColor(UiUtils.getThemeColor(getActivity(), R.attr.colorM3SurfaceVariant));
+			}
+
+			@Override
+			public void onDraw(@NonNull Canvas c, @NonNull RecyclerView parent, @NonNull RecyclerView.State state){
+				for(int i=0;i<parent.getChildCount();i++){
+					View child=parent.getChildAt(i);
+					if(parent.getChildViewHolder(child) instanceof StatusDisplayItem.Holder<?> holder){
+						NotificationViewModel n=getNotificationByID(holder.getItemID());
+						if(n==null)
+							continue;
+						String marker=unreadMarkers.get(n.accountID);
+						if(!TextUtils.isEmpty(marker) && ObjectIdComparator.INSTANCE.compare(n.notification.pageMaxId, marker)>0){
+							parent.getDecoratedBoundsWithMargins(child, tmpRect);
+							c.drawRect(tmpRect, paint);
+						}
+					}
+				}
+			}
+		}, 0);
+	}
+
+	@Override
+	protected List<StatusDisplayItem> buildDisplayItems(NotificationViewModel n){
+		ArrayList<StatusDisplayItem> items=new ArrayList<>();
+		AccountSession session=AccountSessionManager.getInstance().getAccount(n.accountID);
+		if(session!=null)
+			items.add(new ReblogOrReplyLineStatusDisplayItem(n.getID(), this, getActivity(), getString(R.string.notification_for_account, session.getFullUsername()), null, R.drawable.ic_switch_account_24px, n.accountID));
+		for(StatusDisplayItem item:super.buildDisplayItems(n)){
+			// These send the response as the account of the fragment. It can be done from that account's own notifications.
+			if(!(item instanceof FollowRequestActionsDisplayItem))
+				items.add(item);
+		}
+		return items;
+	}
+
+	@Override
+	protected void submitPollVote(String parentID, String pollID, List<Integer> choices){
+		if(refreshing)
+			return;
+		NotificationViewModel n=getNotificationByID(parentID);
+		if(n==null)
+			return;
+		new SubmitPollVote(pollID, choices)
+				.setCallback(new Callback<>(){
+					@Override
+					public void onSuccess(Poll result){
+						E.post(new PollUpdatedEvent(n.accountID, result));
+						if(getActivity()!=null && n.status!=null)
+							updatePoll(n.getID(), n.status.getContentStatus(), result);
+					}
+
+					@Override
+					public void onError(ErrorResponse error){
+						error.showToast(getActivity());
+					}
+				})
+				.wrapProgress(getActivity(), R.string.loading, true)
+				.exec(n.accountID);
+	}
+
+	@Override
+	public void onCreateOptionsMenu(Menu menu, MenuInflater inflater){
+		inflater.inflate(R.menu.notifications, menu);
+		menu.findItem(R.id.filters).setVisible(false);
+	}
+
+	@Override
+	public boolean onOptionsItemSelected(MenuItem item){
+		if(item.getItemId()==R.id.mark_all_read){
+			markAllAsRead();
+			list.invalidate();
+		}
+		return true;
+	}
+
+	@Override
+	public void onRefresh(){
+		super.onRefresh();
+		for(String id:unreadMarkers.keySet()){
+			AccountSession session=AccountSessionManager.getInstance().getAccount(id);
+			if(session==null)
+				continue;
+			session.reloadNotificationsMarker(m->{
+				unreadMarkers.put(id, m);
+				if(list!=null)
+					list.invalidate();
+			});
+		}
+	}
+
+	private void markAllAsRead(){
+		HashSet<String> done=new HashSet<>();
+		// The first notification of every account in the list is the newest one of that account
+		for(NotificationViewModel n:data){
+			if(!done.add(n.accountID))
+				continue;
+			AccountSession session=AccountSessionManager.getInstance().getAccount(n.accountID);
+			if(session==null)
+				continue;
+			String id=n.notification.pageMaxId;
+			new SaveMarkers(null, id).exec(n.accountID);
+			session.setNotificationsMarker(id, true);
+			unreadMarkers.put(n.accountID, id);
+		}
+	}
+}
@@ -6,6 +6,7 @@ import android.os.Bundle;
 import android.view.View;
 import android.view.ViewGroup;
 
+import app.kabinka.social.api.CacheValidators;
 import app.kabinka.social.api.requests.trends.GetTrendingLinks;
 import app.kabinka.social.fragments.ScrollableToTop;
 import app.kabinka.social.model.Card;
@@ -31,6 +32,8 @@ public class DiscoverNewsFragment extends BaseRecyclerFragment<DiscoverNewsFragm
 	private String accountID;
 	private DiscoverInfoBannerHelper bannerHelper;
 	private MergeRecyclerAdapter mergeAdapter;
+	private CacheValidators trendsValidators;
+	private List<Card> lastTrends;
 
 	public DiscoverNewsFragment(){
 		super(10);
@@ -45,10 +48,12 @@ public class DiscoverNewsFragment extends BaseRecyclerFragment<DiscoverNewsFragm
 
 	@Override
 	protected void doLoadData(int offset, int count){
-		currentRequest=new GetTrendingLinks(40)
-				.setCallback(new SimpleCallback<>(this){
+		GetTrendingLinks req=new GetTrendingLinks(40);
+		req.setCallback(new SimpleCallback<>(this){
 					@Override
 					public void onSuccess(List<Card> result){
+						trendsValidators=req.getResponseValidators();
+						lastTrends=result;
 						int[] index={0};
 						onDataLoaded(result.stream()
 								.map(card->{
@@ -61,7 +66,9 @@ public class DiscoverNewsFragment extends BaseRecyclerFragment<DiscoverNewsFragm
 						bannerHelper.onBannerBecameVisible();
 					}
 				})
+				.revalidate(trendsValidators, lastTrends)
 				.exec(accountID);
+		currentRequest=req;
 	}
 
 	@SuppressLint("ClickableViewAccessibility")
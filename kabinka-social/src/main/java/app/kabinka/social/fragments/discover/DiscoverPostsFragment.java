@@ -2,6 +2,7 @@ package app.kabinka.social.fragments.discover;
 
 import android.os.Bundle;
 
+import app.kabinka.social.api.CachedTimeline;
 import app.kabinka.social.api.requests.trends.GetTrendingStatuses;
 import app.kabinka.social.api.session.AccountSessionManager;
 import app.kabinka.social.fragments.StatusListFragment;
@@ -27,11 +28,14 @@ public class DiscoverPostsFragment extends StatusListFragment{
 
 	@Override
 	protected void doLoadData(int offset, int count){
+		if(loadFromTimelineCache(offset, count))
+			return;
 		currentRequest=new GetTrendingStatuses(offset==0 ? 0 : realOffset, count)
 				.setCallback(new SimpleCallback<>(this){
 					@Override
 					public void onSuccess(List<Status> result){
-						realOffset+=result.size();
+						realOffset=offset==0 ? result.size() : realOffset+result.size();
+						putInTimelineCache(result, offset);
 						AccountSessionManager.get(accountID).filterStatuses(result, FilterContext.PUBLIC);
 						onDataLoaded(result, !result.isEmpty());
 						bannerHelper.onBannerBecameVisible();
@@ -39,6 +43,11 @@ public class DiscoverPostsFragment extends StatusListFragment{
 				}).exec(accountID);
 	}
 
+	@Override
+	protected CachedTimeline getCachedTimeline(){
+		return CachedTimeline.trending();
+	}
+
 	@Override
 	protected RecyclerView.Adapter getAdapter(){
 		MergeRecyclerAdapter adapter=new MergeRecyclerAdapter();
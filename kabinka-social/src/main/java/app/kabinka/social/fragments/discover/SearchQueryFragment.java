@@ -29,19 +29,25 @@ import app.kabinka.social.R;
 import app.kabinka.social.api.requests.search.GetSearchResults;
 import app.kabinka.social.api.session.AccountSessionManager;
 import app.kabinka.social.fragments.MastodonRecyclerFragment;
+import app.kabinka.social.fragments.ThreadFragment;
 import app.kabinka.social.model.Relationship;
 import app.kabinka.social.model.SearchResult;
 import app.kabinka.social.model.SearchResults;
+import app.kabinka.social.model.Status;
 import app.kabinka.social.model.viewmodel.ListItem;
 import app.kabinka.social.model.viewmodel.SearchResultViewModel;
+import app.kabinka.social.model.viewmodel.SectionHeaderListItem;
 import app.kabinka.social.ui.DividerItemDecoration;
 import app.kabinka.social.ui.SearchViewHelper;
 import app.kabinka.social.ui.adapters.GenericListItemsAdapter;
+import app.kabinka.social.ui.text.HtmlParser;
 import app.kabinka.social.ui.utils.HideableSingleViewRecyclerAdapter;
 import app.kabinka.social.ui.utils.UiUtils;
 import app.kabinka.social.ui.viewholders.AccountViewHolder;
 import app.kabinka.social.ui.viewholders.SimpleListItemViewHolder;
 
+import org.parceler.Parcels;
+
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.function.Function;
@@ -72,6 +78,8 @@ public class SearchQueryFragment extends MastodonRecyclerFragment<SearchResultVi
 	private ListItem<Void> openUrlItem, goToHashtagItem, goToAccountItem, goToStatusSearchItem, goToAccountSearchItem;
 	private ArrayList<ListItem<Void>> topOptions=new ArrayList<>();
 	private GenericListItemsAdapter<Void> topOptionsAdapter;
+	private ArrayList<ListItem<Void>> localResults=new ArrayList<>();
+	private GenericListItemsAdapter<Void> localResultsAdapter;
 
 	private String accountID;
 	private SearchViewHelper searchViewHelper;
@@ -121,6 +129,7 @@ public class SearchQueryFragment extends MastodonRecyclerFragment<SearchResultVi
 				recentsHeader.setVisible(!data.isEmpty());
 			});
 		}else{
+			loadLocalResults(currentQuery);
 			currentRequest=new GetSearchResults(currentQuery, null, false, null, 0, 0)
 					.limit(2)
 					.setCallback(new SimpleCallback<>(this){
@@ -155,6 +164,7 @@ public class SearchQueryFragment extends MastodonRecyclerFragment<SearchResultVi
 
 		mergeAdapter.addAdapter(recentsHeader);
 		mergeAdapter.addAdapter(topOptionsAdapter=new GenericListItemsAdapter<>(topOptions));
+		mergeAdapter.addAdapter(localResultsAdapter=new GenericListItemsAdapter<>(localResults));
 		mergeAdapter.addAdapter(new SearchResultsAdapter());
 		return mergeAdapter;
 	}
@@ -220,9 +230,42 @@ public class SearchQueryFragment extends MastodonRecyclerFragment<SearchResultVi
 			recentsHeader.setVisible(false);
 		}
 		data.clear();
+		localResults.clear();
 		mergeAdapter.notifyDataSetChanged();
 	}
 
+	/**
+	 * Show posts from the local search index while the server is being queried.
+	 * This is also the only way to find posts by their text on servers that don't support full-text search.
+	 */
+	private void loadLocalResults(String query){
+		AccountSessionManager.get(accountID).getCacheController().searchCachedStatuses(query, 5, results->{
+			if(getActivity()==null || !query.equals(currentQuery))
+				return;
+			localResults.clear();
+			if(!results.isEmpty()){
+				localResults.add(new SectionHeaderListItem(R.string.search_from_your_timeline));
+				for(Status status:results){
+					String title=TextUtils.isEmpty(status.account.displayName) ? status.account.getDisplayUsername() : status.account.displayName;
+					String text=TextUtils.isEmpty(status.spoilerText) ? HtmlParser.stripAndRemoveInvisibleSpans(status.content) : status.spoilerText;
+					text=text.replace('\n', ' ').trim();
+					if(text.length()>200)
+						text=text.substring(0, 200)+"\u2026";
+					localResults.add(new ListItem<>(title, text, R.drawable.ic_chat_24px, i->openLocalResult(status)));
+				}
+			}
+			if(localResultsAdapter!=null)
+				localResultsAdapter.notifyDataSetChanged();
+		});
+	}
+
+	private void openLocalResult(Status status){
+		Bundle args=new Bundle();
+		args.putString("account", accountID);
+		args.putParcelable("status", Parcels.wrap(status.clone()));
+		Nav.go(getActivity(), ThreadFragment.class, args);
+	}
+
 	private void updateTopOptions(String q){
 		topOptions.clear();
 		// https://github.com/mastodon/mastodon/blob/a985d587e13494b78ef2879e4d97f78a2df693db/app/javascript/mastodon/features/compose/components/search.jsx#L233
@@ -6,6 +6,7 @@ import android.view.ViewGroup;
 import android.widget.TextView;
 
 import app.kabinka.social.R;
+import app.kabinka.social.api.CacheValidators;
 import app.kabinka.social.api.requests.trends.GetTrendingHashtags;
 import app.kabinka.social.fragments.ScrollableToTop;
 import app.kabinka.social.model.Hashtag;
@@ -14,6 +15,7 @@ import app.kabinka.social.ui.utils.DiscoverInfoBannerHelper;
 import app.kabinka.social.ui.utils.UiUtils;
 import app.kabinka.social.ui.views.HashtagChartView;
 
+import java.util.ArrayList;
 import java.util.List;
 
 import androidx.annotation.NonNull;
@@ -25,6 +27,7 @@ import me.grishka.appkit.views.UsableRecyclerView;
 
 public class TrendingHashtagsFragment extends BaseRecyclerFragment<Hashtag> implements ScrollableToTop{
 	private String accountID;
+	private CacheValidators trendsValidators;
 
 	public TrendingHashtagsFragment(){
 		super(10);
@@ -38,14 +41,23 @@ public class TrendingHashtagsFragment extends BaseRecyclerFragment<Hashtag> impl
 
 	@Override
 	protected void doLoadData(int offset, int count){
-		currentRequest=new GetTrendingHashtags(10)
-				.setCallback(new SimpleCallback<>(this){
+		GetTrendingHashtags req=new GetTrendingHashtags(10);
+		req.setCallback(new SimpleCallback<>(this){
 					@Override
 					public void onSuccess(List<Hashtag> result){
+						if(result==null){
+							// Not modified, but there's nothing to show because the list was cleared in the meantime
+							trendsValidators=null;
+							doLoadData(offset, count);
+							return;
+						}
+						trendsValidators=req.getResponseValidators();
 						onDataLoaded(result, false);
 					}
 				})
+				.revalidate(trendsValidators, data.isEmpty() ? null : new ArrayList<>(data))
 				.exec(accountID);
+		currentRequest=req;
 	}
 
 	@Override
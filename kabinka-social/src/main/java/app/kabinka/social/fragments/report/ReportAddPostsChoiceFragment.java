@@ -201,6 +201,11 @@ public class ReportAddPostsChoiceFragment extends StatusListFragment{
 		return StatusDisplayItem.buildItems(this, getActivity(), s, accountID, s, knownAccounts, StatusDisplayItem.FLAG_NO_FOOTER | StatusDisplayItem.FLAG_CHECKABLE | StatusDisplayItem.FLAG_MEDIA_FORCE_HIDDEN);
 	}
 
+	@Override
+	protected boolean canShareViewHolders(){
+		return false;
+	}
+
 	@Override
 	protected void onModifyItemViewHolder(BindableViewHolder<StatusDisplayItem> holder){
 		if((Object)holder instanceof MediaGridStatusDisplayItem.Holder h){
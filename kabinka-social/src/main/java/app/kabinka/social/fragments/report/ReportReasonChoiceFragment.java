@@ -245,6 +245,11 @@ public class ReportReasonChoiceFragment extends StatusListFragment{
 		return StatusDisplayItem.buildItems(this, getActivity(), s, accountID, s, knownAccounts, StatusDisplayItem.FLAG_NO_FOOTER);
 	}
 
+	@Override
+	protected boolean canShareViewHolders(){
+		return false;
+	}
+
 	@Override
 	protected void onModifyItemViewHolder(BindableViewHolder<StatusDisplayItem> holder){
 		if((Object)holder instanceof MediaGridStatusDisplayItem.Holder h){
@@ -13,6 +13,7 @@ import android.widget.Toast;
 import app.kabinka.social.BuildConfig;
 import app.kabinka.social.R;
 import app.kabinka.social.api.MastodonAPIController;
+import app.kabinka.social.api.NetworkStats;
 import app.kabinka.social.api.session.AccountSession;
 import app.kabinka.social.api.session.AccountSessionManager;
 import app.kabinka.social.model.viewmodel.ListItem;
@@ -22,6 +23,7 @@ import app.kabinka.social.ui.utils.UiUtils;
 import java.util.List;
 
 import androidx.recyclerview.widget.RecyclerView;
+import me.grishka.appkit.Nav;
 import me.grishka.appkit.imageloader.ImageCache;
 import me.grishka.appkit.imageloader.disklrucache.DiskLruCache;
 import me.grishka.appkit.utils.MergeRecyclerAdapter;
@@ -29,7 +31,7 @@ import me.grishka.appkit.utils.SingleViewRecyclerAdapter;
 import me.grishka.appkit.utils.V;
 
 public class SettingsAboutAppFragment extends BaseSettingsFragment<Void>{
-	private ListItem<Void> mediaCacheItem;
+	private ListItem<Void> mediaCacheItem, networkStatsItem;
 
 	@Override
 	public void onCreate(Bundle savedInstanceState){
@@ -41,10 +43,19 @@ public class SettingsAboutAppFragment extends BaseSettingsFragment<Void>{
 				new ListItem<>(R.string.settings_contribute, 0, i->UiUtils.launchWebBrowser(getActivity(), getString(R.string.github_url))),
 				new ListItem<>(R.string.settings_tos, 0, i->UiUtils.launchWebBrowser(getActivity(), "https://"+s.domain+"/terms")),
 				new ListItem<>(R.string.settings_privacy_policy, 0, i->UiUtils.launchWebBrowser(getActivity(), getString(R.string.privacy_policy_url)), 0, true),
-				mediaCacheItem=new ListItem<>(R.string.settings_clear_cache, 0, this::onClearMediaCacheClick)
+				mediaCacheItem=new ListItem<>(R.string.settings_clear_cache, 0, this::onClearMediaCacheClick),
+				networkStatsItem=new ListItem<>(R.string.settings_network_stats, 0, this::onNetworkStatsClick)
 		));
 
 		updateMediaCacheItem();
+		updateNetworkStatsItem();
+	}
+
+	@Override
+	protected void onShown(){
+		super.onShown();
+		// Requests were made in the meantime
+		updateNetworkStatsItem();
 	}
 
 	@Override
@@ -93,4 +104,16 @@ public class SettingsAboutAppFragment extends BaseSettingsFragment<Void>{
 		mediaCacheItem.isEnabled=size>0;
 		rebindItem(mediaCacheItem);
 	}
+
+	private void onNetworkStatsClick(ListItem<?> item){
+		Bundle args=new Bundle();
+		args.putString("account", accountID);
+		Nav.go(getActivity(), SettingsNetworkStatsFragment.class, args);
+	}
+
+	private void updateNetworkStatsItem(){
+		networkStatsItem.subtitle=getString(R.string.network_stats_totals_value, NetworkStats.getTotalCalls(),
+				UiUtils.formatFileSize(getActivity(), NetworkStats.getTotalBytesReceived(), true), UiUtils.formatFileSize(getActivity(), NetworkStats.getTotalBytesSent(), true));
+		rebindItem(networkStatsItem);
+	}
 }
@@ -14,6 +14,7 @@ import app.kabinka.social.GlobalUserPreferences;
 import app.kabinka.social.R;
 import app.kabinka.social.model.viewmodel.CheckableListItem;
 import app.kabinka.social.model.viewmodel.ListItem;
+import app.kabinka.social.ui.text.AnimatedEmojiController;
 import app.kabinka.social.ui.M3AlertDialogBuilder;
 
 import java.util.List;
@@ -87,7 +88,10 @@ public class SettingsBehaviorFragment extends BaseSettingsFragment<Void>{
 	@Override
 	protected void onHidden(){
 		super.onHidden();
-		GlobalUserPreferences.playGifs=playGifsItem.checked;
+		if(GlobalUserPreferences.playGifs!=playGifsItem.checked){
+			GlobalUserPreferences.playGifs=playGifsItem.checked;
+			AnimatedEmojiController.getInstance().onPlayGifsChanged();
+		}
 		GlobalUserPreferences.altTextReminders=altTextItem.checked;
 		GlobalUserPreferences.confirmUnfollow=confirmUnfollowItem.checked;
 		GlobalUserPreferences.confirmBoost=confirmBoostItem.checked;
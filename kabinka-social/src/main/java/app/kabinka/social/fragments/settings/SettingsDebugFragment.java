@@ -1,6 +1,7 @@
 package app.kabinka.social.fragments.settings;
 
 import android.content.Context;
+import android.content.Intent;
 import android.content.SharedPreferences;
 import android.graphics.Color;
 import android.os.Bundle;
@@ -10,9 +11,13 @@ import android.widget.ScrollView;
 import android.widget.TextView;
 import android.widget.Toast;
 
+import com.google.gson.GsonBuilder;
+
+import app.kabinka.social.AppStartup;
 import app.kabinka.social.GlobalUserPreferences;
 import app.kabinka.social.R;
 import app.kabinka.social.api.PushSubscriptionManager;
+import app.kabinka.social.api.StatusInteractionController;
 import app.kabinka.social.api.session.AccountActivationInfo;
 import app.kabinka.social.api.session.AccountSession;
 import app.kabinka.social.api.session.AccountSessionManager;
@@ -23,6 +28,7 @@ import app.kabinka.social.model.viewmodel.ListItem;
 import app.kabinka.social.ui.M3AlertDialogBuilder;
 import app.kabinka.social.ui.SimpleViewHolder;
 import app.kabinka.social.ui.utils.DiscoverInfoBannerHelper;
+import app.kabinka.social.ui.utils.StatusRenderProfiler;
 import app.kabinka.social.ui.utils.UiUtils;
 import app.kabinka.social.updater.GithubSelfUpdater;
 
@@ -38,7 +44,7 @@ import me.grishka.appkit.Nav;
 import me.grishka.appkit.utils.V;
 
 public class SettingsDebugFragment extends BaseSettingsFragment<Void>{
-	private CheckableListItem<Void> donationsStagingItem;
+	private CheckableListItem<Void> donationsStagingItem, renderProfilerItem;
 
 	@Override
 	public void onCreate(Bundle savedInstanceState){
@@ -55,6 +61,10 @@ public class SettingsDebugFragment extends BaseSettingsFragment<Void>{
 				new ListItem<>("Clear dismissed donation campaigns", null, this::onClearDismissedCampaignsClick),
 				donationsStagingItem=new CheckableListItem<>("Use staging environment for donations", "Restart app to apply", CheckableListItem.Style.SWITCH, getPrefs().getBoolean("donationsStaging", false), this::toggleCheckableItem),
 				new ListItem<>("Delete cached instance info", null, this::onDeleteInstanceInfoClick),
+				new ListItem<>("Startup timings", null, this::onStartupTimingsClick),
+				new ListItem<>("Interaction outbox", null, this::onInteractionOutboxClick),
+				renderProfilerItem=new CheckableListItem<>("Profile status list rendering", "Shows an overlay in lists opened afterwards", CheckableListItem.Style.SWITCH, StatusRenderProfiler.isEnabled(), this::toggleCheckableItem),
+				new ListItem<>("Status list rendering report", null, this::onRenderReportClick),
 				new ListItem<>("View dynamic color values", null, this::onViewColorsClick)
 		));
 		if(!GithubSelfUpdater.needSelfUpdating()){
@@ -70,6 +80,8 @@ public class SettingsDebugFragment extends BaseSettingsFragment<Void>{
 	public void onStop(){
 		super.onStop();
 		getPrefs().edit().putBoolean("donationsStaging", donationsStagingItem.checked).apply();
+		if(renderProfilerItem.checked!=StatusRenderProfiler.isEnabled())
+			StatusRenderProfiler.setEnabled(renderProfilerItem.checked);
 	}
 
 	private void onUpdatePushRegistrationClick(ListItem<?> item){
@@ -118,6 +130,42 @@ public class SettingsDebugFragment extends BaseSettingsFragment<Void>{
 		Toast.makeText(getActivity(), "Instances removed from database", Toast.LENGTH_LONG).show();
 	}
 
+	private void onStartupTimingsClick(ListItem<?> item){
+		new M3AlertDialogBuilder(getActivity())
+				.setTitle("Startup timings")
+				.setMessage(AppStartup.getReport())
+				.setPositiveButton(R.string.ok, null)
+				.show();
+	}
+
+	private void onInteractionOutboxClick(ListItem<?> item){
+		StatusInteractionController controller=AccountSessionManager.get(accountID).getStatusInteractionController();
+		new M3AlertDialogBuilder(getActivity())
+				.setTitle("Interaction outbox")
+				.setMessage("Queued: "+controller.getQueueDepth()+"\nAverage time to flush: "+controller.getAverageFlushLatency()+" ms\nMax time to flush: "+controller.getMaxFlushLatency()+" ms")
+				.setPositiveButton(R.string.ok, null)
+				.show();
+	}
+
+	private void onRenderReportClick(ListItem<?> item){
+		if(!StatusRenderProfiler.hasData()){
+			Toast.makeText(getActivity(), "Nothing recorded yet. Enable profiling and scroll a list", Toast.LENGTH_LONG).show();
+			return;
+		}
+		new M3AlertDialogBuilder(getActivity())
+				.setTitle("Status list rendering")
+				.setMessage(StatusRenderProfiler.getReport())
+				.setPositiveButton(R.string.ok, null)
+				.setNeutralButton("Share JSON", (dlg, which)->{
+					Intent intent=new Intent(Intent.ACTION_SEND);
+					intent.setType("application/json");
+					intent.putExtra(Intent.EXTRA_TEXT, new GsonBuilder().setPrettyPrinting().create().toJson(StatusRenderProfiler.toJson()));
+					startActivity(Intent.createChooser(intent, null));
+				})
+				.setNegativeButton("Reset", (dlg, which)->StatusRenderProfiler.reset())
+				.show();
+	}
+
 	private void onViewColorsClick(ListItem<?> item){
 		ArrayList<Pair<Integer, String>> attrs=new ArrayList<>();
 		Field[] fields=R.attr.class.getFields();
@@ -0,0 +1,91 @@
+package app.kabinka.social.fragments.settings;
+
+import android.content.Intent;
+import android.os.Bundle;
+
+import com.google.gson.GsonBuilder;
+
+import app.kabinka.social.R;
+import app.kabinka.social.api.NetworkStats;
+import app.kabinka.social.model.viewmodel.ListItem;
+import app.kabinka.social.ui.M3AlertDialogBuilder;
+import app.kabinka.social.ui.utils.UiUtils;
+import app.kabinka.social.utils.LatencyHistogram;
+
+import java.util.ArrayList;
+
+import androidx.annotation.StringRes;
+
+/**
+ * Shows what {@link NetworkStats} collected: how much was transferred, and the latency of each stage of API requests per endpoint.
+ */
+public class SettingsNetworkStatsFragment extends BaseSettingsFragment<NetworkStats.EndpointStats>{
+	@Override
+	public void onCreate(Bundle savedInstanceState){
+		super.onCreate(savedInstanceState);
+		setTitle(R.string.settings_network_stats);
+		loadData();
+	}
+
+	@Override
+	protected void doLoadData(int offset, int count){
+		ArrayList<ListItem<NetworkStats.EndpointStats>> items=new ArrayList<>();
+		items.add(new ListItem<>(getString(R.string.network_stats_totals), getString(R.string.network_stats_totals_value, NetworkStats.getTotalCalls(),
+				UiUtils.formatFileSize(getActivity(), NetworkStats.getTotalBytesReceived(), true), UiUtils.formatFileSize(getActivity(), NetworkStats.getTotalBytesSent(), true)), null));
+		items.add(new ListItem<>(R.string.network_stats_export, 0, this::onExportClick));
+		items.add(new ListItem<>(R.string.network_stats_reset, 0, this::onResetClick, 0, true));
+		for(NetworkStats.EndpointStats e:NetworkStats.getEndpoints()){
+			String subtitle=getResources().getQuantityString(R.plurals.x_requests, (int)e.getRequestCount(), e.getRequestCount())+" · "+e.total.getSummary()
+					+" · "+UiUtils.formatFileSize(getActivity(), e.getBytesReceived(), true);
+			items.add(new ListItem<>(e.key, subtitle, this::onEndpointClick, e));
+		}
+		onDataLoaded(items);
+	}
+
+	private void onEndpointClick(ListItem<NetworkStats.EndpointStats> item){
+		NetworkStats.EndpointStats e=item.parentObject;
+		StringBuilder sb=new StringBuilder();
+		sb.append(getResources().getQuantityString(R.plurals.x_requests, (int)e.getRequestCount(), e.getRequestCount()));
+		if(e.getFailureCount()>0)
+			sb.append(", ").append(getString(R.string.network_stats_failed, e.getFailureCount()));
+		sb.append('\n').append(getString(R.string.network_stats_transferred, UiUtils.formatFileSize(getActivity(), e.getBytesReceived(), true),
+				UiUtils.formatFileSize(getActivity(), e.getBytesSent(), true))).append('\n');
+		appendStage(sb, R.string.network_stats_stage_total, e.total);
+		appendStage(sb, R.string.network_stats_stage_dns, e.dns);
+		appendStage(sb, R.string.network_stats_stage_connect, e.connect);
+		appendStage(sb, R.string.network_stats_stage_tls, e.tls);
+		appendStage(sb, R.string.network_stats_stage_ttfb, e.timeToFirstByte);
+		appendStage(sb, R.string.network_stats_stage_parse, e.parse);
+		appendStage(sb, R.string.network_stats_stage_postprocess, e.postprocess);
+		appendStage(sb, R.string.network_stats_stage_dispatch, e.dispatch);
+		new M3AlertDialogBuilder(getActivity())
+				.setTitle(e.key)
+				.setMessage(sb.toString().trim())
+				.setPositiveButton(R.string.ok, null)
+				.show();
+	}
+
+	private void appendStage(StringBuilder sb, @StringRes int name, LatencyHistogram histogram){
+		sb.append('\n').append(getString(name)).append(": ");
+		if(histogram.getCount()==0){
+			sb.append('–');
+			return;
+		}
+		sb.append(getString(R.string.network_stats_stage_value, histogram.getSummary(), LatencyHistogram.formatMicros(histogram.getPercentileMicros(99)), histogram.getCount()));
+	}
+
+	private void onExportClick(ListItem<?> item){
+		String json=new GsonBuilder().setPrettyPrinting().create().toJson(NetworkStats.toJson());
+		Intent intent=new Intent(Intent.ACTION_SEND);
+		intent.setType("application/json");
+		intent.putExtra(Intent.EXTRA_TEXT, json);
+		intent.putExtra(Intent.EXTRA_SUBJECT, getString(R.string.settings_network_stats));
+		startActivity(Intent.createChooser(intent, getString(R.string.network_stats_export)));
+	}
+
+	private void onResetClick(ListItem<?> item){
+		NetworkStats.reset();
+		refreshing=true;
+		doLoadData(0, 0);
+	}
+}
@@ -2,8 +2,11 @@ package app.kabinka.social.model;
 
 import android.text.TextUtils;
 
+import com.google.gson.annotations.JsonAdapter;
+
 import app.kabinka.social.api.ObjectValidationException;
 import app.kabinka.social.api.RequiredField;
+import app.kabinka.social.api.gson.InternedStringTypeAdapter;
 import org.parceler.Parcel;
 
 import java.time.Instant;
@@ -25,21 +28,25 @@ public class Account extends BaseModel{
 	 * The account id
 	 */
 	@RequiredField
+	@JsonAdapter(InternedStringTypeAdapter.class)
 	public String id;
 	/**
 	 * The username of the account, not including domain.
 	 */
 	@RequiredField
+	@JsonAdapter(InternedStringTypeAdapter.class)
 	public String username;
 	/**
 	 * The Webfinger account URI. Equal to username for local users, or username@domain for remote users.
 	 */
 	@RequiredField
+	@JsonAdapter(InternedStringTypeAdapter.class)
 	public String acct;
 	/**
 	 * The location of the user's profile page.
 	 */
 	@RequiredField
+	@JsonAdapter(InternedStringTypeAdapter.class)
 	public String url;
 
 	// Display attributes
@@ -48,6 +55,7 @@ public class Account extends BaseModel{
 	 * The profile's display name.
 	 */
 	@RequiredField
+	@JsonAdapter(InternedStringTypeAdapter.class)
 	public String displayName;
 	/**
 	 * The profile's bio / description.
@@ -58,19 +66,23 @@ public class Account extends BaseModel{
 	 * An image icon that is shown next to statuses and in the profile.
 	 */
 	@RequiredField
+	@JsonAdapter(InternedStringTypeAdapter.class)
 	public String avatar;
 	/**
 	 * A static version of the avatar. Equal to avatar if its value is a static image; different if avatar is an animated GIF.
 	 */
+	@JsonAdapter(InternedStringTypeAdapter.class)
 	public String avatarStatic;
 	/**
 	 * An image banner that is shown above the profile and in profile cards.
 	 */
 	@RequiredField
+	@JsonAdapter(InternedStringTypeAdapter.class)
 	public String header;
 	/**
 	 * A static version of the header. Equal to header if its value is a static image; different if header is an animated GIF.
 	 */
+	@JsonAdapter(InternedStringTypeAdapter.class)
 	public String headerStatic;
 	/**
 	 * Whether the account manually approves follow requests.
@@ -156,6 +168,39 @@ public class Account extends BaseModel{
 			displayName=username;
 	}
 
+	/**
+	 * Copy the state of another instance of this same account into this one
+	 */
+	public void mergeFrom(Account other){
+		username=other.username;
+		acct=other.acct;
+		url=other.url;
+		displayName=other.displayName;
+		note=other.note;
+		avatar=other.avatar;
+		avatarStatic=other.avatarStatic;
+		header=other.header;
+		headerStatic=other.headerStatic;
+		locked=other.locked;
+		emojis=other.emojis;
+		discoverable=other.discoverable;
+		createdAt=other.createdAt;
+		lastStatusAt=other.lastStatusAt;
+		statusesCount=other.statusesCount;
+		followersCount=other.followersCount;
+		followingCount=other.followingCount;
+		moved=other.moved;
+		fields=other.fields;
+		bot=other.bot;
+		suspended=other.suspended;
+		noindex=other.noindex;
+		// These are only returned by specific endpoints
+		if(other.source!=null)
+			source=other.source;
+		if(other.muteExpiresAt!=null)
+			muteExpiresAt=other.muteExpiresAt;
+	}
+
 	public boolean isLocal(){
 		return !acct.contains("@");
 	}
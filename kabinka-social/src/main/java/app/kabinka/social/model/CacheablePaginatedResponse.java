@@ -1,14 +1,30 @@
 package app.kabinka.social.model;
 
+import java.util.Collections;
+import java.util.Set;
+
 public class CacheablePaginatedResponse<T> extends PaginatedResponse<T>{
 	private final boolean fromCache;
+	private final Set<String> idsWithGapAfter;
 
 	public CacheablePaginatedResponse(T items, String maxID, boolean fromCache){
+		this(items, maxID, fromCache, Collections.emptySet());
+	}
+
+	public CacheablePaginatedResponse(T items, String maxID, boolean fromCache, Set<String> idsWithGapAfter){
 		super(items, maxID);
 		this.fromCache=fromCache;
+		this.idsWithGapAfter=idsWithGapAfter;
 	}
 
 	public boolean isFromCache(){
 		return fromCache;
 	}
+
+	/**
+	 * @return the IDs of the cached posts that were followed by a gap in the timeline
+	 */
+	public Set<String> getIdsWithGapAfter(){
+		return idsWithGapAfter;
+	}
 }
@@ -1,6 +1,9 @@
 package app.kabinka.social.model;
 
+import com.google.gson.annotations.JsonAdapter;
+
 import app.kabinka.social.api.RequiredField;
+import app.kabinka.social.api.gson.InternedStringTypeAdapter;
 import org.parceler.Parcel;
 
 import java.util.List;
@@ -8,8 +11,10 @@ import java.util.List;
 @Parcel
 public class Hashtag extends BaseModel implements DisplayItemsParent{
 	@RequiredField
+	@JsonAdapter(InternedStringTypeAdapter.class)
 	public String name;
 	@RequiredField
+	@JsonAdapter(InternedStringTypeAdapter.class)
 	public String url;
 	public List<History> history;
 	public int statusesCount;
@@ -1,14 +1,21 @@
 package app.kabinka.social.model;
 
+import com.google.gson.annotations.JsonAdapter;
+
 import app.kabinka.social.api.AllFieldsAreRequired;
+import app.kabinka.social.api.gson.InternedStringTypeAdapter;
 import org.parceler.Parcel;
 
 @AllFieldsAreRequired
 @Parcel
 public class Mention extends BaseModel{
+	@JsonAdapter(InternedStringTypeAdapter.class)
 	public String id;
+	@JsonAdapter(InternedStringTypeAdapter.class)
 	public String username;
+	@JsonAdapter(InternedStringTypeAdapter.class)
 	public String acct;
+	@JsonAdapter(InternedStringTypeAdapter.class)
 	public String url;
 
 	@Override
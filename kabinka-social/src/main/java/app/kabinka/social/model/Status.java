@@ -2,13 +2,18 @@ package app.kabinka.social.model;
 
 import android.text.TextUtils;
 
+import com.google.gson.annotations.JsonAdapter;
+
 import app.kabinka.social.api.ObjectValidationException;
 import app.kabinka.social.api.RequiredField;
+import app.kabinka.social.api.gson.InternedStringTypeAdapter;
 import app.kabinka.social.events.StatusCountersUpdatedEvent;
 import app.kabinka.social.ui.text.HtmlParser;
 import org.parceler.Parcel;
 
 import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.EnumSet;
 import java.util.List;
 import java.util.Locale;
@@ -50,10 +55,12 @@ public class Status extends BaseModel implements DisplayItemsParent{
 
 	public String url;
 	public String inReplyToId;
+	@JsonAdapter(InternedStringTypeAdapter.class)
 	public String inReplyToAccountId;
 	public Status reblog;
 	public Poll poll;
 	public Card card;
+	@JsonAdapter(InternedStringTypeAdapter.class)
 	public String language;
 	public String text;
 	public List<FilterResult> filtered;
@@ -67,7 +74,6 @@ public class Status extends BaseModel implements DisplayItemsParent{
 	public Boolean pinned;
 
 	public transient EnumSet<SpoilerType> revealedSpoilers=EnumSet.noneOf(SpoilerType.class);
-	public transient boolean hasGapAfter;
 	private transient String strippedText;
 	public transient TranslationState translationState=TranslationState.HIDDEN;
 	public transient Translation translation;
@@ -146,7 +152,6 @@ public class Status extends BaseModel implements DisplayItemsParent{
 				", bookmarked="+bookmarked+
 				", pinned="+pinned+
 				", revealedSpoilers="+revealedSpoilers+
-				", hasGapAfter="+hasGapAfter+
 				", strippedText='"+strippedText+'\''+
 				", translationState="+translationState+
 				", translation="+translation+
@@ -178,6 +183,89 @@ public class Status extends BaseModel implements DisplayItemsParent{
 		}
 	}
 
+	/**
+	 * Copy the server-side state of another instance of this same status into this one.
+	 * Local state (revealed spoilers, translation) is kept. Gaps aren't part of the status, each timeline keeps its own.
+	 * @return true if the content changed in a way that requires the display items to be rebuilt
+	 */
+	public boolean mergeFrom(Status other){
+		boolean contentChanged=!Objects.equals(editedAt, other.editedAt) || !Objects.equals(content, other.content) || !Objects.equals(spoilerText, other.spoilerText)
+				|| (card==null)!=(other.card==null) || mediaAttachments.size()!=other.mediaAttachments.size() || (quote==null)!=(other.quote==null);
+		uri=other.uri;
+		createdAt=other.createdAt;
+		account=other.account;
+		content=other.content;
+		visibility=other.visibility;
+		sensitive=other.sensitive;
+		spoilerText=other.spoilerText;
+		mediaAttachments=other.mediaAttachments;
+		application=other.application;
+		mentions=other.mentions;
+		tags=other.tags;
+		emojis=other.emojis;
+		reblogsCount=other.reblogsCount;
+		favouritesCount=other.favouritesCount;
+		repliesCount=other.repliesCount;
+		quotesCount=other.quotesCount;
+		editedAt=other.editedAt;
+		url=other.url;
+		inReplyToId=other.inReplyToId;
+		inReplyToAccountId=other.inReplyToAccountId;
+		reblog=other.reblog;
+		// Keep the existing poll object unless it actually changed, it might have options selected
+		if(poll==null || other.poll==null || !poll.id.equals(other.poll.id) || poll.votesCount!=other.poll.votesCount || poll.voted!=other.poll.voted || poll.expired!=other.poll.expired)
+			poll=other.poll;
+		card=other.card;
+		language=other.language;
+		if(other.text!=null)
+			text=other.text;
+		filtered=mergeFilterResults(filtered, other.filtered);
+		quote=other.quote;
+		quoteApproval=other.quoteApproval;
+		favourited=other.favourited;
+		reblogged=other.reblogged;
+		bookmarked=other.bookmarked;
+		// These are only returned where they're relevant
+		if(other.muted!=null)
+			muted=other.muted;
+		if(other.pinned!=null)
+			pinned=other.pinned;
+		if(contentChanged)
+			strippedText=null;
+		return contentChanged;
+	}
+
+	/**
+	 * The server only returns the filters that apply where the post was fetched, e.g. a filter for the home timeline isn't there
+	 * when the same post comes from a thread. The results for other filters are kept, {@link #getFilterResults(FilterContext)}
+	 * picks the ones for the context the post is shown in.
+	 */
+	private static List<FilterResult> mergeFilterResults(List<FilterResult> existing, List<FilterResult> updated){
+		if(existing==null || existing.isEmpty())
+			return updated;
+		ArrayList<FilterResult> result=updated==null ? new ArrayList<>() : new ArrayList<>(updated);
+		for(FilterResult filter:existing){
+			if(result.stream().noneMatch(f->f.filter.id.equals(filter.filter.id)))
+				result.add(filter);
+		}
+		return result;
+	}
+
+	/**
+	 * @param context where the post is shown, or null to get the filters from all contexts
+	 * @return the active filters that this post matches there
+	 */
+	public List<FilterResult> getFilterResults(FilterContext context){
+		if(filtered==null || filtered.isEmpty())
+			return Collections.emptyList();
+		ArrayList<FilterResult> result=new ArrayList<>();
+		for(FilterResult filter:filtered){
+			if(filter.filter.isActive() && (context==null || filter.filter.context.contains(context)))
+				result.add(filter);
+		}
+		return result;
+	}
+
 	public Status getContentStatus(){
 		return reblog!=null ? reblog : this;
 	}
@@ -11,9 +11,14 @@ public class NotificationViewModel implements DisplayItemsParent{
 	public NotificationGroup notification;
 	public List<Account> accounts;
 	public Status status;
+	/**
+	 * The account this notification was received by. Only set in lists that have notifications of several accounts,
+	 * where group keys of different servers could be the same.
+	 */
+	public String accountID;
 
 	@Override
 	public String getID(){
-		return notification.groupKey;
+		return accountID==null ? notification.groupKey : accountID+"/"+notification.groupKey;
 	}
 }
@@ -113,9 +113,9 @@ public class CompactHeaderStatusDisplayItem extends StatusDisplayItem{
 				name.invalidate();
 			}else{
 				avatar.setImageDrawable(drawable);
+				if(drawable instanceof Animatable)
+					((Animatable) drawable).start();
 			}
-			if(drawable instanceof Animatable)
-				((Animatable) drawable).start();
 		}
 
 		@Override
@@ -331,9 +331,9 @@ public class HeaderStatusDisplayItem extends StatusDisplayItem{
 				name.invalidate();
 			}else{
 				avatar.setImageDrawable(drawable);
+				if(drawable instanceof Animatable)
+					((Animatable) drawable).start();
 			}
-			if(drawable instanceof Animatable)
-				((Animatable) drawable).start();
 		}
 
 		@Override
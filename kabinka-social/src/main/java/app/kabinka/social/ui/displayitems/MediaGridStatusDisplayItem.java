@@ -6,6 +6,7 @@ import android.graphics.drawable.ColorDrawable;
 import android.graphics.drawable.Drawable;
 import android.graphics.drawable.LayerDrawable;
 import android.text.TextUtils;
+import android.util.Log;
 import android.util.Pair;
 import android.view.Gravity;
 import android.view.View;
@@ -13,6 +14,8 @@ import android.view.ViewGroup;
 import android.widget.FrameLayout;
 import android.widget.TextView;
 
+import app.kabinka.social.BuildConfig;
+import app.kabinka.social.GlobalUserPreferences;
 import app.kabinka.social.R;
 import app.kabinka.social.model.Attachment;
 import app.kabinka.social.model.Status;
@@ -25,6 +28,7 @@ import app.kabinka.social.ui.utils.MediaAttachmentViewController;
 import app.kabinka.social.ui.views.FrameLayoutThatOnlyMeasuresFirstChild;
 import app.kabinka.social.ui.views.MaxWidthFrameLayout;
 import app.kabinka.social.ui.views.MediaGridLayout;
+import app.kabinka.social.utils.MediaCache;
 import app.kabinka.social.utils.TypedObjectPool;
 
 import java.util.ArrayList;
@@ -59,15 +63,45 @@ public class MediaGridStatusDisplayItem extends StatusDisplayItem{
 		this.attachments=attachments;
 		this.status=status;
 		sensitiveRevealed=!status.sensitive;
-		for(Attachment att:attachments){
-			requests.add(new UrlImageLoaderRequest(switch(att.type){
-				case IMAGE -> att.url;
-				case VIDEO, GIFV -> att.previewUrl;
-				default -> throw new IllegalStateException("Unexpected value: "+att.type);
-			}, 1000, 1000));
+		// Same math as MediaGridLayout: the whole grid is PhotoLayoutHelper.MAX_WIDTH units wide
+		float unitSize=Math.min(V.dp(MediaGridLayout.MAX_WIDTH), context.getResources().getDisplayMetrics().widthPixels)/(float)PhotoLayoutHelper.MAX_WIDTH;
+		for(int i=0;i<attachments.size();i++){
+			PhotoLayoutHelper.TiledLayoutResult.Tile tile=tiledLayout.tiles[i];
+			int tileWidth=Math.round(sumSizes(tiledLayout.columnSizes, tile.startCol, tile.colSpan)*unitSize);
+			int tileHeight=Math.round(sumSizes(tiledLayout.rowSizes, tile.startRow, tile.rowSpan)*unitSize);
+			requests.add(makeImageRequest(attachments.get(i), tileWidth, tileHeight));
 		}
 	}
 
+	private static int sumSizes(int[] sizes, int start, int span){
+		int sum=0;
+		for(int i=start;i<start+Math.max(1, span);i++)
+			sum+=sizes[i];
+		return sum;
+	}
+
+	/**
+	 * Request the image at the size at which it's displayed in its tile. The original is only loaded if the preview is too small for that.
+	 */
+	private static ImageLoaderRequest makeImageRequest(Attachment att, int tileWidth, int tileHeight){
+		// Tiles crop the image, so it needs to cover the whole tile
+		float scale=Math.max(tileWidth/(float)att.getWidth(), tileHeight/(float)att.getHeight());
+		int width=Math.max(1, Math.round(att.getWidth()*scale)), height=Math.max(1, Math.round(att.getHeight()*scale));
+		String url=switch(att.type){
+			case IMAGE -> {
+				Attachment.SizeMetadata small=att.meta==null ? null : att.meta.small;
+				if(att.previewUrl!=null && small!=null && width<=small.width && height<=small.height)
+					yield att.previewUrl;
+				yield att.url;
+			}
+			case VIDEO, GIFV -> att.previewUrl;
+			default -> throw new IllegalStateException("Unexpected value: "+att.type);
+		};
+		if(BuildConfig.DEBUG)
+			Log.v(TAG, "Tile "+tileWidth+"x"+tileHeight+", loading "+(Objects.equals(url, att.url) ? "original" : "preview")+" at "+width+"x"+height);
+		return new UrlImageLoaderRequest(url, width, height);
+	}
+
 	@Override
 	public Type getType(){
 		return Type.MEDIA_GRID;
@@ -188,6 +222,10 @@ public class MediaGridStatusDisplayItem extends StatusDisplayItem{
 					}
 				}
 				c.bind(att, item.status);
+				// GIFVs are small and likely to be opened, have the beginning ready so they start playing right away.
+				// Not when GIFs don't play by themselves, the user has chosen to not spend data on them then.
+				if(att.type==Attachment.Type.GIFV && item.sensitiveRevealed && GlobalUserPreferences.playGifs)
+					MediaCache.getInstance().prefetch(att.url);
 				i++;
 			}
 
@@ -5,7 +5,6 @@ import android.content.Context;
 import android.graphics.LinearGradient;
 import android.graphics.Matrix;
 import android.graphics.Shader;
-import android.graphics.drawable.Animatable;
 import android.graphics.drawable.Drawable;
 import android.view.View;
 import android.view.ViewGroup;
@@ -158,9 +157,6 @@ public class PollOptionStatusDisplayItem extends StatusDisplayItem{
 		public void setImage(int index, Drawable image){
 			item.emojiHelper.setImageDrawable(index, image);
 			text.invalidate();
-			if(image instanceof Animatable){
-				((Animatable) image).start();
-			}
 		}
 
 		@Override
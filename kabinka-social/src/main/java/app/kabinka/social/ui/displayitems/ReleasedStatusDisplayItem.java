@@ -0,0 +1,33 @@
+package app.kabinka.social.ui.displayitems;
+
+import android.content.Context;
+import android.view.View;
+import android.view.ViewGroup;
+
+import androidx.recyclerview.widget.RecyclerView;
+
+/**
+ * Takes the place of all display items of a post that's far away from the visible part of a long list, so that they can be
+ * garbage collected. They're built again from the post when it gets closer, see {@code BaseStatusListFragment.isMemoryWindowEnabled()}.
+ * Doesn't take up any space and is never supposed to be seen.
+ */
+public class ReleasedStatusDisplayItem extends StatusDisplayItem{
+	public ReleasedStatusDisplayItem(String parentID, Callbacks callbacks, Context context){
+		super(parentID, callbacks, context);
+	}
+
+	@Override
+	public Type getType(){
+		return Type.RELEASED;
+	}
+
+	public static class Holder extends StatusDisplayItem.Holder<ReleasedStatusDisplayItem>{
+		public Holder(Context context){
+			super(new View(context));
+			itemView.setLayoutParams(new RecyclerView.LayoutParams(ViewGroup.LayoutParams.MATCH_PARENT, 0));
+		}
+
+		@Override
+		public void onBind(ReleasedStatusDisplayItem item){}
+	}
+}
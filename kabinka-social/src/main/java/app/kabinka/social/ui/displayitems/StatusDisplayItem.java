@@ -11,10 +11,11 @@ import android.view.ViewGroup;
 import app.kabinka.social.GlobalUserPreferences;
 import app.kabinka.social.R;
 import app.kabinka.social.fragments.BaseStatusListFragment;
-import app.kabinka.social.fragments.ThreadFragment;
+import app.kabinka.social.fragments.HomeTimelineFragment;
 import app.kabinka.social.model.Account;
 import app.kabinka.social.model.Attachment;
 import app.kabinka.social.model.DisplayItemsParent;
+import app.kabinka.social.model.FilterContext;
 import app.kabinka.social.model.FilterResult;
 import app.kabinka.social.model.Poll;
 import app.kabinka.social.model.Quote;
@@ -96,6 +97,7 @@ public abstract class StatusDisplayItem{
 			case FOLLOW_REQUEST_ACTIONS -> new FollowRequestActionsDisplayItem.Holder(activity, parent);
 			case QUOTE_ERROR -> new QuoteErrorStatusDisplayItem.Holder(activity, parent);
 			case NESTED_QUOTE -> new NestedQuoteStatusDisplayItem.Holder(activity, parent);
+			case RELEASED -> new ReleasedStatusDisplayItem.Holder(activity);
 		};
 	}
 
@@ -129,21 +131,14 @@ public abstract class StatusDisplayItem{
 				items.add(header=new HeaderStatusDisplayItem(parentID, statusForContent.account, statusForContent.createdAt, callbacks, context, accountID, statusForContent, null));
 		}
 
-		boolean filtered=false;
-		if(status.filtered!=null){
-			for(FilterResult filter:status.filtered){
-				if(filter.filter.isActive()){
-					filtered=true;
-					break;
-				}
-			}
-		}
+		List<FilterResult> filterResults=status.getFilterResults(callbacks.getFilterContext());
+		boolean filtered=!filterResults.isEmpty();
 
 		ArrayList<StatusDisplayItem> contentItems=items;
 		ArrayList<StatusDisplayItem> cwParentItems=items;
 		boolean needAddCWItems=false;
 		if(filtered){
-			SpoilerStatusDisplayItem spoilerItem=new SpoilerStatusDisplayItem(parentID, callbacks, context, context.getString(R.string.post_matches_filter_x, status.filtered.get(0).filter.title), status, statusForContent, Type.FILTER_SPOILER, Status.SpoilerType.FILTER);
+			SpoilerStatusDisplayItem spoilerItem=new SpoilerStatusDisplayItem(parentID, callbacks, context, context.getString(R.string.post_matches_filter_x, filterResults.get(0).filter.title), status, statusForContent, Type.FILTER_SPOILER, Status.SpoilerType.FILTER);
 			contentItems.add(spoilerItem);
 			contentItems=spoilerItem.contentItems;
 			cwParentItems=contentItems;
@@ -161,7 +156,7 @@ public abstract class StatusDisplayItem{
 		if(!TextUtils.isEmpty(statusForContent.content)){
 			SpannableStringBuilder parsedText=HtmlParser.parse(statusForContent.content, statusForContent.emojis, statusForContent.mentions, statusForContent.tags, accountID, statusForContent, context);
 			if(filtered){
-				HtmlParser.applyFilterHighlights(context, parsedText, status.filtered);
+				HtmlParser.applyFilterHighlights(context, parsedText, filterResults);
 			}
 			TextStatusDisplayItem text=new TextStatusDisplayItem(parentID, parsedText, callbacks, context, statusForContent, accountID);
 			contentItems.add(text);
@@ -226,7 +221,8 @@ public abstract class StatusDisplayItem{
 			FooterStatusDisplayItem footer=new FooterStatusDisplayItem(parentID, callbacks, context, statusForContent, accountID);
 			footer.hideCounts=hideCounts;
 			items.add(footer);
-			if(status.hasGapAfter && !(callbacks instanceof ThreadFragment))
+			// Statuses are shared between screens, the gaps are kept by the timeline
+			if(callbacks instanceof HomeTimelineFragment htf && htf.hasGapAfter(status.id))
 				items.add(new GapStatusDisplayItem(parentID, callbacks, context));
 		}
 		int i=1;
@@ -277,7 +273,8 @@ public abstract class StatusDisplayItem{
 		FOLLOW_REQUEST_ACTIONS,
 		HEADER_COMPACT,
 		QUOTE_ERROR,
-		NESTED_QUOTE
+		NESTED_QUOTE,
+		RELEASED
 	}
 
 	public static abstract class Holder<T> extends BindableViewHolder<T> implements UsableRecyclerView.DisableableClickable{
@@ -342,6 +339,7 @@ public abstract class StatusDisplayItem{
 		void putRelationship(String id, Relationship rel);
 		void togglePostTranslation(Status status, String itemID);
 		void maybeShowPreReplySheet(Status status, Runnable proceed);
+		FilterContext getFilterContext();
 	}
 
 	public static class NoOpCallbacks implements Callbacks{
@@ -422,6 +420,11 @@ public abstract class StatusDisplayItem{
 
 		}
 
+		@Override
+		public FilterContext getFilterContext(){
+			return null;
+		}
+
 		@Override
 		public void openPhotoViewer(String parentID, Status status, int attachmentIndex, MediaGridStatusDisplayItem.Holder gridHolder){
 
@@ -2,7 +2,6 @@ package app.kabinka.social.ui.displayitems;
 
 import android.app.Activity;
 import android.content.Context;
-import android.graphics.drawable.Animatable;
 import android.graphics.drawable.Drawable;
 import android.util.TypedValue;
 import android.view.View;
@@ -15,6 +14,7 @@ import android.widget.TextView;
 import app.kabinka.social.R;
 import app.kabinka.social.model.Status;
 import app.kabinka.social.ui.text.HtmlParser;
+import app.kabinka.social.ui.text.TextLayoutPrecomputer;
 import app.kabinka.social.ui.utils.CustomEmojiHelper;
 import app.kabinka.social.ui.utils.UiUtils;
 import app.kabinka.social.ui.views.LinkedTextView;
@@ -31,8 +31,9 @@ public class TextStatusDisplayItem extends StatusDisplayItem{
 	private CustomEmojiHelper emojiHelper=new CustomEmojiHelper();
 	private CharSequence translatedText;
 	private CustomEmojiHelper translationEmojiHelper=new CustomEmojiHelper();
+	private volatile CharSequence precomputedText, precomputedTranslatedText;
 	public boolean textSelectable;
-	public boolean largerFont;
+	private boolean largerFont;
 	public final Status status;
 	private final String accountID;
 
@@ -42,6 +43,7 @@ public class TextStatusDisplayItem extends StatusDisplayItem{
 		this.status=status;
 		this.accountID=accountID;
 		emojiHelper.setText(text);
+		TextLayoutPrecomputer.precompute(text, getTextSize(), pt->precomputedText=pt);
 	}
 
 	@Override
@@ -63,6 +65,28 @@ public class TextStatusDisplayItem extends StatusDisplayItem{
 		Status statusForContent=status.getContentStatus();
 		translatedText=HtmlParser.parse(text, statusForContent.emojis, statusForContent.mentions, statusForContent.tags, accountID, statusForContent, context);
 		translationEmojiHelper.setText(translatedText);
+		precomputedTranslatedText=null;
+		TextLayoutPrecomputer.precompute(translatedText, getTextSize(), pt->precomputedTranslatedText=pt);
+	}
+
+	/**
+	 * Show the text at 18sp instead of 16sp, like for the main post of a thread. Texts precomputed for the old size are thrown away.
+	 */
+	public void setLargerFont(boolean largerFont){
+		if(this.largerFont==largerFont)
+			return;
+		this.largerFont=largerFont;
+		// Precomputing runs on one thread in order, so a result for the old size that's still pending can't overwrite the new one
+		precomputedText=null;
+		TextLayoutPrecomputer.precompute(text, getTextSize(), pt->precomputedText=pt);
+		if(translatedText!=null){
+			precomputedTranslatedText=null;
+			TextLayoutPrecomputer.precompute(translatedText, getTextSize(), pt->precomputedTranslatedText=pt);
+		}
+	}
+
+	private int getTextSize(){
+		return largerFont ? 18 : 16;
 	}
 
 	private CustomEmojiHelper getCurrentEmojiHelper(){
@@ -85,32 +109,39 @@ public class TextStatusDisplayItem extends StatusDisplayItem{
 
 		@Override
 		public void onBind(TextStatusDisplayItem item){
+			// Everything that affects text metrics goes first so that the precomputed layout can be used
+			text.setTextIsSelectable(item.textSelectable);
+			text.setInvalidateOnEveryFrame(false);
+			itemView.setClickable(false);
+			itemView.setPaddingRelative(V.dp(item.fullWidth ? 0 : 48), 0, 0, 0);
+			text.setTextColor(UiUtils.getThemeColor(text.getContext(), R.attr.colorM3OnSurface));
+			text.setTextSize(TypedValue.COMPLEX_UNIT_SP, item.getTextSize());
+			TextLayoutPrecomputer.onTextViewBound(text, item.getTextSize());
 			if(item.status.translationState==Status.TranslationState.SHOWN){
 				if(item.translatedText==null){
 					item.setTranslatedText(item.status.translation.content);
 				}
-				text.setText(item.translatedText);
+				setTranslatedText();
 			}else{
-				text.setText(item.text);
+				setOriginalText();
 			}
-			text.setTextIsSelectable(item.textSelectable);
-			text.setInvalidateOnEveryFrame(false);
-			itemView.setClickable(false);
-			itemView.setPaddingRelative(V.dp(item.fullWidth ? 0 : 48), 0, 0, 0);
-			text.setTextColor(UiUtils.getThemeColor(text.getContext(), R.attr.colorM3OnSurface));
-			text.setTextSize(TypedValue.COMPLEX_UNIT_SP, item.largerFont ? 18 : 16);
 			updateTranslation(false);
 		}
 
+		private void setOriginalText(){
+			text.setText(TextLayoutPrecomputer.getTextForView(text, item.text, item.precomputedText));
+		}
+
+		private void setTranslatedText(){
+			text.setText(TextLayoutPrecomputer.getTextForView(text, item.translatedText, item.precomputedTranslatedText));
+		}
+
 		@Override
 		public void setImage(int index, Drawable image){
 			getEmojiHelper().setImageDrawable(index, image);
 			text.invalidate();
-			if(image instanceof Animatable){
-				((Animatable) image).start();
-				if(image instanceof MovieDrawable)
-					text.setInvalidateOnEveryFrame(true);
-			}
+			if(image instanceof MovieDrawable)
+				text.setInvalidateOnEveryFrame(true);
 		}
 
 		@Override
@@ -130,7 +161,7 @@ public class TextStatusDisplayItem extends StatusDisplayItem{
 				if(translationFooter!=null)
 					translationFooter.setVisibility(View.GONE);
 				if(updateText){
-					text.setText(item.text);
+					setOriginalText();
 				}
 			}else{
 				if(translationFooter==null){
@@ -151,7 +182,7 @@ public class TextStatusDisplayItem extends StatusDisplayItem{
 						if(item.translatedText==null){
 							item.setTranslatedText(item.status.translation.content);
 						}
-						text.setText(item.translatedText);
+						setTranslatedText();
 					}
 				}else{ // LOADING
 					translationProgress.setVisibility(View.VISIBLE);
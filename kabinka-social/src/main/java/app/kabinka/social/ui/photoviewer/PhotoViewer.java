@@ -62,6 +62,7 @@ import android.window.OnBackInvokedDispatcher;
 
 import com.squareup.otto.Subscribe;
 
+import app.kabinka.social.BuildConfig;
 import app.kabinka.social.E;
 import app.kabinka.social.GlobalUserPreferences;
 import app.kabinka.social.R;
@@ -85,7 +86,6 @@ import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
-import java.util.ArrayList;
 import java.util.List;
 import java.util.Locale;
 import java.util.stream.Collectors;
@@ -127,7 +127,8 @@ public class PhotoViewer implements ZoomPanView.Listener{
 	private FragmentRootLinearLayout uiOverlay;
 	private ViewPager2 pager;
 	private ColorDrawable background=new ColorDrawable(0xff000000);
-	private ArrayList<MediaPlayer> players=new ArrayList<>();
+	private VideoPlayerPool playerPool;
+	private long pageSelectedTime;
 	private int screenOnRefCount=0;
 	private View toolbarWrap;
 	private SeekBar videoSeekBar;
@@ -187,6 +188,8 @@ public class PhotoViewer implements ZoomPanView.Listener{
 		this.activity=activity;
 		this.attachments=attachments.stream().filter(a->a.type==Attachment.Type.IMAGE || a.type==Attachment.Type.GIFV || a.type==Attachment.Type.VIDEO).collect(Collectors.toList());
 		currentIndex=index;
+		playerPool=new VideoPlayerPool(this.attachments, index);
+		pageSelectedTime=SystemClock.uptimeMillis();
 		this.listener=listener;
 		this.status=status;
 		this.accountID=accountID;
@@ -482,14 +485,7 @@ public class PhotoViewer implements ZoomPanView.Listener{
 
 	@Override
 	public void onDismissed(){
-		if(!players.isEmpty()){
-			// MediaPlayer::release can block and cause an ANR sometimes, e.g. if called during DNS resolution, at least on some system versions.
-			// This allows it to take its time to time out.
-			new Thread(()->{
-				for(MediaPlayer player:players){
-					player.release();
-				}
-			}).start();
+		if(playerPool.releaseAll()){
 			activity.getSystemService(AudioManager.class).abandonAudioFocus(audioFocusListener);
 		}
 		listener.setPhotoViewVisibility(pager.getCurrentItem(), true);
@@ -564,6 +560,11 @@ public class PhotoViewer implements ZoomPanView.Listener{
 
 	private void onPageChanged(int index){
 		currentIndex=index;
+		pageSelectedTime=SystemClock.uptimeMillis();
+		playerPool.setCurrentIndex(index);
+		GifVViewHolder videoHolder=findCurrentVideoPlayerHolder();
+		if(videoHolder!=null)
+			videoHolder.onBecameCurrent();
 		Attachment att=attachments.get(index);
 		V.setVisibilityAnimated(videoControls, att.type==Attachment.Type.VIDEO ? View.VISIBLE : View.GONE);
 		if(att.type==Attachment.Type.VIDEO){
@@ -1057,13 +1058,14 @@ public class PhotoViewer implements ZoomPanView.Listener{
 		}
 	}
 
-	private class GifVViewHolder extends BaseHolder implements MediaPlayer.OnPreparedListener, MediaPlayer.OnErrorListener, MediaPlayer.OnCompletionListener,
-			MediaPlayer.OnVideoSizeChangedListener, MediaPlayer.OnBufferingUpdateListener, MediaPlayer.OnInfoListener, MediaPlayer.OnSeekCompleteListener, TextureView.SurfaceTextureListener{
+	private class GifVViewHolder extends BaseHolder implements VideoPlayerPool.PlayerListener, TextureView.SurfaceTextureListener{
 		public TextureView textureView;
 		public FrameLayout wrap;
 		public MediaPlayer player;
+		private VideoPlayerPool.PooledPlayer pooledPlayer;
 		private Surface surface;
 		private boolean playerReady;
+		private boolean awaitingFirstFrame;
 		private boolean keepingScreenOn;
 		private ProgressBar progressBar;
 
@@ -1133,10 +1135,29 @@ public class PhotoViewer implements ZoomPanView.Listener{
 
 		@Override
 		public void onSurfaceTextureUpdated(@NonNull SurfaceTexture surface){
+			if(player==null || !player.isPlaying())
+				return;
 			// A new frame of video was rendered. Clear the thumbnail or paused frame, if any, to avoid overdraw and free up some memory.
-			if(player.isPlaying() && wrap.getBackground()!=null){
+			if(wrap.getBackground()!=null){
 				wrap.setBackground(null);
 			}
+			if(awaitingFirstFrame && getAbsoluteAdapterPosition()==currentIndex){
+				awaitingFirstFrame=false;
+				if(BuildConfig.DEBUG)
+					Log.d(TAG, "Time to first frame: "+(SystemClock.uptimeMillis()-pageSelectedTime)+" ms, preloaded: "+pooledPlayer.preloaded);
+			}
+		}
+
+		/**
+		 * Called when the user swipes to this page. Its player might have been prepared before it became current, and videos only
+		 * start playing by themselves when they're on the current page.
+		 */
+		public void onBecameCurrent(){
+			if(item.type==Attachment.Type.VIDEO && playerReady && surface!=null && !player.isPlaying()){
+				player.start();
+				startUpdatingVideoPosition(player);
+				hideUiDelayed();
+			}
 		}
 
 		private void startPlayer(){
@@ -1166,31 +1187,19 @@ public class PhotoViewer implements ZoomPanView.Listener{
 
 		public void prepareAndStartPlayer(){
 			playerReady=false;
-			player=new MediaPlayer();
-			players.add(player);
-			player.setOnPreparedListener(this);
-			player.setOnErrorListener(this);
-			player.setOnVideoSizeChangedListener(this);
-			if(item.type==Attachment.Type.VIDEO){
-				player.setOnBufferingUpdateListener(this);
-				player.setOnInfoListener(this);
-				player.setOnSeekCompleteListener(this);
-				player.setOnCompletionListener(this);
-			}
-			try{
-				player.setDataSource(activity, Uri.parse(item.url));
-				player.prepareAsync();
-			}catch(IOException x){
-				Log.w(TAG, "Error initializing gif player", x);
-				Toast.makeText(activity, R.string.error_playing_video, Toast.LENGTH_SHORT).show();
-				onStartSwipeToDismissTransition(0f);
-			}
+			awaitingFirstFrame=true;
+			pooledPlayer=playerPool.acquire(getAbsoluteAdapterPosition());
+			player=pooledPlayer.player;
+			// If the player was preloaded, this calls onPrepared right away
+			pooledPlayer.setListener(this);
 		}
 
 		public void reset(){
 			playerReady=false;
-			player.release();
-			players.remove(player);
+			if(pooledPlayer!=null){
+				playerPool.release(pooledPlayer);
+				pooledPlayer=null;
+			}
 			player=null;
 			if(keepingScreenOn){
 				decKeepScreenOn();
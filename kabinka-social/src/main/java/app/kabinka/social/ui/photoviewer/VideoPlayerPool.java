@@ -0,0 +1,225 @@
+package app.kabinka.social.ui.photoviewer;
+
+import android.media.MediaPlayer;
+import android.os.SystemClock;
+import android.util.Log;
+import android.util.SparseArray;
+
+import app.kabinka.social.BuildConfig;
+import app.kabinka.social.model.Attachment;
+import app.kabinka.social.utils.CachingMediaDataSource;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Keeps the media players for the video and GIFV pages of {@link PhotoViewer} around while the user swipes between pages,
+ * and prepares the players for the pages next to the current one in advance so they can start right away.
+ * <p>
+ * Only the current page and its immediate neighbours have a player, so there are never more than three
+ * decoders at once. Players for pages that go out of that range are released on a background thread
+ * because {@link MediaPlayer#release()} can block.
+ */
+/*package*/ class VideoPlayerPool{
+	private static final String TAG="VideoPlayerPool";
+	private static final int PRELOAD_DISTANCE=1;
+
+	private final List<Attachment> attachments;
+	private final SparseArray<PooledPlayer> players=new SparseArray<>();
+	private int currentIndex;
+
+	public VideoPlayerPool(List<Attachment> attachments, int currentIndex){
+		this.attachments=attachments;
+		this.currentIndex=currentIndex;
+	}
+
+	/**
+	 * Get the player for a page, creating it if it wasn't preloaded. Set a listener on it with {@link PooledPlayer#setListener(PlayerListener)}
+	 * and give it back with {@link #release(PooledPlayer)} when the page is no longer displayed.
+	 */
+	public PooledPlayer acquire(int position){
+		PooledPlayer p=players.get(position);
+		if(p==null){
+			p=new PooledPlayer(position);
+			players.put(position, p);
+		}
+		return p;
+	}
+
+	/**
+	 * Give back a player when its page is no longer displayed. It's kept, paused, if the page is still next to the current one.
+	 */
+	public void release(PooledPlayer p){
+		p.listener=null;
+		if(players.get(p.position)!=p)
+			return;
+		if(Math.abs(p.position-currentIndex)>PRELOAD_DISTANCE){
+			players.remove(p.position);
+			releaseAsync(List.of(p));
+		}else{
+			if(p.prepared && p.player.isPlaying())
+				p.player.pause();
+			p.player.setSurface(null);
+		}
+	}
+
+	/**
+	 * Called when the user swipes to another page. Starts preparing the neighbouring pages' players,
+	 * and releases those that aren't needed anymore.
+	 */
+	public void setCurrentIndex(int index){
+		currentIndex=index;
+		ArrayList<PooledPlayer> toRelease=new ArrayList<>();
+		for(int i=players.size()-1;i>=0;i--){
+			PooledPlayer p=players.valueAt(i);
+			if(p.listener==null && Math.abs(p.position-index)>PRELOAD_DISTANCE){
+				players.removeAt(i);
+				toRelease.add(p);
+			}
+		}
+		releaseAsync(toRelease);
+		for(int i=Math.max(0, index-PRELOAD_DISTANCE);i<=Math.min(attachments.size()-1, index+PRELOAD_DISTANCE);i++){
+			Attachment att=attachments.get(i);
+			if((att.type==Attachment.Type.VIDEO || att.type==Attachment.Type.GIFV) && players.get(i)==null)
+				players.put(i, new PooledPlayer(i));
+		}
+	}
+
+	/**
+	 * @return whether there were any players
+	 */
+	public boolean releaseAll(){
+		ArrayList<PooledPlayer> toRelease=new ArrayList<>();
+		for(int i=0;i<players.size();i++){
+			PooledPlayer p=players.valueAt(i);
+			p.listener=null;
+			toRelease.add(p);
+		}
+		players.clear();
+		releaseAsync(toRelease);
+		return !toRelease.isEmpty();
+	}
+
+	private static void releaseAsync(List<PooledPlayer> toRelease){
+		if(toRelease.isEmpty())
+			return;
+		// MediaPlayer::release can block and cause an ANR sometimes, e.g. if called during DNS resolution, at least on some system versions.
+		// This allows it to take its time to time out.
+		new Thread(()->{
+			for(PooledPlayer p:toRelease){
+				p.player.release();
+			}
+		}).start();
+	}
+
+	public interface PlayerListener extends MediaPlayer.OnPreparedListener, MediaPlayer.OnErrorListener, MediaPlayer.OnCompletionListener,
+			MediaPlayer.OnVideoSizeChangedListener, MediaPlayer.OnBufferingUpdateListener, MediaPlayer.OnInfoListener, MediaPlayer.OnSeekCompleteListener{
+	}
+
+	public class PooledPlayer implements PlayerListener{
+		public final MediaPlayer player=new MediaPlayer();
+		public final int position;
+		/**
+		 * Whether the player was prepared before its page was shown for the first time
+		 */
+		public boolean preloaded;
+		private final long createdAt=SystemClock.uptimeMillis();
+		private boolean prepared, failed, streamingDirectly;
+		private int errorWhat, errorExtra;
+		private int videoWidth, videoHeight, bufferingPercent;
+		private PlayerListener listener;
+
+		private PooledPlayer(int position){
+			this.position=position;
+			Attachment item=attachments.get(position);
+			player.setOnPreparedListener(this);
+			player.setOnErrorListener(this);
+			player.setOnVideoSizeChangedListener(this);
+			if(item.type==Attachment.Type.VIDEO){
+				player.setOnBufferingUpdateListener(this);
+				player.setOnInfoListener(this);
+				player.setOnSeekCompleteListener(this);
+				player.setOnCompletionListener(this);
+			}
+			CachingMediaDataSource.setDataSource(player, item.url);
+			player.prepareAsync();
+		}
+
+		/**
+		 * Events from the player are delivered to the listener until the player is released. Events that happened before are
+		 * replayed right away: if the player is already prepared, the listener gets its video size and onPrepared before this returns.
+		 */
+		public void setListener(PlayerListener listener){
+			this.listener=listener;
+			if(failed){
+				listener.onError(player, errorWhat, errorExtra);
+				return;
+			}
+			if(videoWidth>0 && videoHeight>0)
+				listener.onVideoSizeChanged(player, videoWidth, videoHeight);
+			if(bufferingPercent>0)
+				listener.onBufferingUpdate(player, bufferingPercent);
+			if(prepared)
+				listener.onPrepared(player);
+		}
+
+		@Override
+		public void onPrepared(MediaPlayer mp){
+			prepared=true;
+			if(listener!=null)
+				listener.onPrepared(mp);
+			else
+				preloaded=true;
+			if(BuildConfig.DEBUG)
+				Log.d(TAG, "Player for page "+position+" prepared in "+(SystemClock.uptimeMillis()-createdAt)+" ms, preloaded: "+preloaded);
+		}
+
+		@Override
+		public boolean onError(MediaPlayer mp, int what, int extra){
+			if(CachingMediaDataSource.retryWithoutCache(player, attachments.get(position).url, streamingDirectly)){
+				streamingDirectly=true;
+				return true;
+			}
+			failed=true;
+			errorWhat=what;
+			errorExtra=extra;
+			if(listener!=null)
+				return listener.onError(mp, what, extra);
+			return true;
+		}
+
+		@Override
+		public void onCompletion(MediaPlayer mp){
+			if(listener!=null)
+				listener.onCompletion(mp);
+		}
+
+		@Override
+		public void onVideoSizeChanged(MediaPlayer mp, int width, int height){
+			videoWidth=width;
+			videoHeight=height;
+			if(listener!=null)
+				listener.onVideoSizeChanged(mp, width, height);
+		}
+
+		@Override
+		public void onBufferingUpdate(MediaPlayer mp, int percent){
+			bufferingPercent=percent;
+			if(listener!=null)
+				listener.onBufferingUpdate(mp, percent);
+		}
+
+		@Override
+		public boolean onInfo(MediaPlayer mp, int what, int extra){
+			if(listener!=null)
+				return listener.onInfo(mp, what, extra);
+			return false;
+		}
+
+		@Override
+		public void onSeekComplete(MediaPlayer mp){
+			if(listener!=null)
+				listener.onSeekComplete(mp);
+		}
+	}
+}
@@ -0,0 +1,187 @@
+package app.kabinka.social.ui.text;
+
+import android.graphics.drawable.Animatable;
+import android.graphics.drawable.Drawable;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+import android.view.Choreographer;
+import android.view.View;
+
+import app.kabinka.social.BuildConfig;
+import app.kabinka.social.GlobalUserPreferences;
+
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Runs the animations of animated custom emoji for the whole app.
+ * <p>
+ * All {@link CustomEmojiSpan}s that display the same animated emoji share one drawable, and thus one decoder and one set of
+ * decoded frames, no matter how many posts or names it appears in. The drawables that are animating are kept in an LRU
+ * whose total estimated frame memory is capped at {@link #MAX_FRAME_MEMORY}. To make room for another one, the least recently
+ * drawn ones are stopped on their current frame, but only those that weren't drawn for {@link #RECENTLY_DRAWN_TIME}.
+ * If there's no room, an emoji stays still until it's drawn again when there is, so emoji that are on screen together
+ * don't keep stopping each other. Nothing is started while {@link GlobalUserPreferences#playGifs} is off.
+ * <p>
+ * On Android 9+, {@link android.graphics.drawable.AnimatedImageDrawable} advances its frames on the render thread, and only
+ * while it's part of something that's being drawn, so off-screen emoji don't cost anything. The {@link me.grishka.appkit.imageloader.MovieDrawable}
+ * used on older versions needs its views redrawn on every frame instead; those views are invalidated from a single
+ * {@link Choreographer} callback that's only posted while at least one of them is attached and visible.
+ * <p>
+ * Must only be used from the main thread.
+ */
+public class AnimatedEmojiController implements Choreographer.FrameCallback{
+	private static final String TAG="AnimatedEmojiController";
+	private static final long MAX_FRAME_MEMORY=8*1024*1024;
+	private static final long RECENTLY_DRAWN_TIME=1000;
+
+	private static AnimatedEmojiController instance;
+
+	private final LinkedHashMap<String, SharedEmoji> emojiByURL=new LinkedHashMap<>(16, 0.75f, true);
+	private final HashSet<View> invalidatingViews=new HashSet<>();
+	private long frameMemory;
+	private boolean frameCallbackPosted;
+
+	private AnimatedEmojiController(){}
+
+	public static AnimatedEmojiController getInstance(){
+		if(Looper.myLooper()!=Looper.getMainLooper())
+			throw new IllegalStateException("Must be called from the main thread");
+		if(instance==null)
+			instance=new AnimatedEmojiController();
+		return instance;
+	}
+
+	/**
+	 * Call this when a drawable is loaded and every time it's drawn.
+	 * @param url the URL the drawable was loaded from
+	 * @param drawable a drawable that was loaded by the image loader, or the one this returned before
+	 * @return the drawable that's already displaying this emoji elsewhere, or the given one if there's none, for example because
+	 * it was stopped to stay under the memory limit. The given one is started if there's room for it, and stopped otherwise.
+	 * Static drawables are returned as is.
+	 */
+	public Drawable getSharedDrawable(String url, Drawable drawable){
+		if(!(drawable instanceof Animatable a))
+			return drawable;
+		long now=SystemClock.uptimeMillis();
+		SharedEmoji existing=emojiByURL.get(url);
+		if(existing!=null){
+			existing.lastDrawnTime=now;
+			return existing.drawable;
+		}
+		SharedEmoji emoji=new SharedEmoji(drawable);
+		if(!makeRoom(emoji.frameMemory, now)){
+			if(a.isRunning())
+				a.stop();
+			return drawable;
+		}
+		emoji.lastDrawnTime=now;
+		emojiByURL.put(url, emoji);
+		frameMemory+=emoji.frameMemory;
+		if(GlobalUserPreferences.playGifs)
+			emoji.start();
+		return drawable;
+	}
+
+	/**
+	 * Start or stop all animations after {@link GlobalUserPreferences#playGifs} was changed.
+	 */
+	public void onPlayGifsChanged(){
+		for(SharedEmoji emoji:emojiByURL.values()){
+			if(GlobalUserPreferences.playGifs)
+				emoji.start();
+			else
+				emoji.stop();
+		}
+		// doFrame() doesn't post itself again while this is off, and nothing redraws the views in the meantime
+		if(GlobalUserPreferences.playGifs)
+			postFrameCallbackIfNeeded();
+	}
+
+	/**
+	 * Redraw this view on every frame while it's attached and visible, for animated emoji on Android versions before 9.
+	 * Call this again when the view is drawn to resume after it was hidden, and {@link #removeInvalidatingView(View)} when it's detached.
+	 */
+	public void addInvalidatingView(View view){
+		invalidatingViews.add(view);
+		postFrameCallbackIfNeeded();
+	}
+
+	public void removeInvalidatingView(View view){
+		invalidatingViews.remove(view);
+	}
+
+	@Override
+	public void doFrame(long frameTimeNanos){
+		frameCallbackPosted=false;
+		if(!GlobalUserPreferences.playGifs)
+			return;
+		boolean anyVisible=false;
+		for(View view:invalidatingViews){
+			if(view.isAttachedToWindow() && view.isShown()){
+				view.invalidate();
+				anyVisible=true;
+			}
+		}
+		// Hidden views call addInvalidatingView again from onDraw when they're shown
+		if(anyVisible)
+			postFrameCallbackIfNeeded();
+	}
+
+	private void postFrameCallbackIfNeeded(){
+		if(frameCallbackPosted || invalidatingViews.isEmpty())
+			return;
+		frameCallbackPosted=true;
+		Choreographer.getInstance().postFrameCallback(this);
+	}
+
+	/**
+	 * Stop the least recently drawn emoji until another one that needs this much memory fits, if they weren't drawn recently
+	 * @return whether it fits now
+	 */
+	private boolean makeRoom(long needed, long now){
+		int evicted=0;
+		Iterator<Map.Entry<String, SharedEmoji>> it=emojiByURL.entrySet().iterator();
+		// One that alone is over the limit can still animate if it's the only one
+		while(frameMemory+needed>MAX_FRAME_MEMORY && it.hasNext()){
+			SharedEmoji e=it.next().getValue();
+			if(now-e.lastDrawnTime<RECENTLY_DRAWN_TIME)
+				break;
+			// Spans that still hold this drawable keep displaying its current frame
+			e.stop();
+			frameMemory-=e.frameMemory;
+			it.remove();
+			evicted++;
+		}
+		if(BuildConfig.DEBUG && evicted>0)
+			Log.v(TAG, "Stopped "+evicted+" animated emoji over the memory limit, "+emojiByURL.size()+" still animating, "+(frameMemory/1024)+" KB");
+		return emojiByURL.isEmpty() || frameMemory+needed<=MAX_FRAME_MEMORY;
+	}
+
+	private static class SharedEmoji{
+		private final Drawable drawable;
+		private final long frameMemory;
+		private long lastDrawnTime;
+
+		private SharedEmoji(Drawable drawable){
+			this.drawable=drawable;
+			// The current frame and the one being decoded
+			frameMemory=Math.max(1, drawable.getIntrinsicWidth())*(long)Math.max(1, drawable.getIntrinsicHeight())*4*2;
+		}
+
+		private void start(){
+			Animatable a=(Animatable) drawable;
+			if(!a.isRunning())
+				a.start();
+		}
+
+		private void stop(){
+			Animatable a=(Animatable) drawable;
+			if(a.isRunning())
+				a.stop();
+		}
+	}
+}
@@ -0,0 +1,46 @@
+package app.kabinka.social.ui.text;
+
+import com.twitter.twittertext.Regex;
+import com.twitter.twittertext.TwitterTextEmojiRegex;
+
+import java.util.regex.Pattern;
+
+/**
+ * Prepares post text for counting characters against the server's limit the way Mastodon counts them: every link
+ * counts as 23 characters regardless of its length, mentions of remote accounts only count the username, and every
+ * emoji counts as one character. Doesn't depend on Android so that it can be benchmarked on the JVM.
+ */
+public class CharCounter{
+	private static final String VALID_URL_PATTERN_STRING =
+					"(" +                                                            //  $1 total match
+						"(" + Regex.URL_VALID_PRECEDING_CHARS + ")" +                        //  $2 Preceding character
+						"(" +                                                          //  $3 URL
+						"(https?://)" +                                             //  $4 Protocol (optional)
+						"(" + Regex.URL_VALID_DOMAIN + ")" +                               //  $5 Domain(s)
+						"(?::(" + Regex.URL_VALID_PORT_NUMBER + "))?" +                    //  $6 Port number (optional)
+						"(/" +
+						Regex.URL_VALID_PATH + "*+" +
+						")?" +                                                       //  $7 URL Path and anchor
+						"(\\?" + Regex.URL_VALID_URL_QUERY_CHARS + "*" +                   //  $8 Query String
+						Regex.URL_VALID_URL_QUERY_ENDING_CHARS + ")?" +
+						")" +
+					")";
+	/**
+	 * Also used by {@link HtmlParser#parseLinks(String)} so that the same links are recognized everywhere
+	 */
+	public static final Pattern URL_PATTERN=Pattern.compile(VALID_URL_PATTERN_STRING, Pattern.CASE_INSENSITIVE);
+	private static final Pattern MENTION_PATTERN=Pattern.compile("(^|[^\\/\\w])@(([a-z0-9_]+)@[a-z0-9\\.\\-]+[a-z0-9]+)", Pattern.CASE_INSENSITIVE);
+
+	private CharCounter(){}
+
+	/**
+	 * @return the text with links, mentions and emoji replaced so that each grapheme in the result counts as one character
+	 */
+	public static String getCountableText(CharSequence text){
+		return TwitterTextEmojiRegex.VALID_EMOJI_PATTERN.matcher(
+				MENTION_PATTERN.matcher(
+						URL_PATTERN.matcher(text).replaceAll("$2xxxxxxxxxxxxxxxxxxxxxxx")
+				).replaceAll("$1@$3")
+		).replaceAll("x");
+	}
+}
@@ -36,6 +36,8 @@ public class CustomEmojiSpan extends ReplacementSpan{
 			canvas.drawRoundRect(x, top, x+size, top+size, V.dp(2), V.dp(2), paint);
 			paint.setAlpha(alpha);
 		}else{
+			// Starts it again if it was stopped to save memory and there's room for it now
+			drawable=AnimatedEmojiController.getInstance().getSharedDrawable(emoji.url, drawable);
 			// AnimatedImageDrawable doesn't like when its bounds don't start at (0, 0)
 			Rect bounds=drawable.getBounds();
 			int dw=drawable.getIntrinsicWidth();
@@ -52,7 +54,7 @@ public class CustomEmojiSpan extends ReplacementSpan{
 	}
 
 	public void setDrawable(Drawable drawable){
-		this.drawable=drawable;
+		this.drawable=drawable==null ? null : AnimatedEmojiController.getInstance().getSharedDrawable(emoji.url, drawable);
 	}
 
 	public UrlImageLoaderRequest createImageLoaderRequest(){
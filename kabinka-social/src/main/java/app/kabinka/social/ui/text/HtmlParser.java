@@ -11,10 +11,10 @@ import android.text.style.BackgroundColorSpan;
 import android.text.style.ForegroundColorSpan;
 import android.text.style.StrikethroughSpan;
 import android.text.style.StyleSpan;
+import android.util.Log;
 import android.widget.TextView;
 
-import com.twitter.twittertext.Regex;
-
+import app.kabinka.social.BuildConfig;
 import app.kabinka.social.R;
 import app.kabinka.social.model.Emoji;
 import app.kabinka.social.model.FilterResult;
@@ -32,6 +32,7 @@ import org.jsoup.safety.Safelist;
 import org.jsoup.select.NodeVisitor;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.function.Function;
@@ -39,26 +40,10 @@ import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 
-import androidx.annotation.NonNull;
 import me.grishka.appkit.utils.V;
 
 public class HtmlParser{
 	private static final String TAG="HtmlParser";
-	private static final String VALID_URL_PATTERN_STRING =
-					"(" +                                                            //  $1 total match
-						"(" + Regex.URL_VALID_PRECEDING_CHARS + ")" +                        //  $2 Preceding character
-						"(" +                                                          //  $3 URL
-						"(https?://)" +                                             //  $4 Protocol (optional)
-						"(" + Regex.URL_VALID_DOMAIN + ")" +                               //  $5 Domain(s)
-						"(?::(" + Regex.URL_VALID_PORT_NUMBER + "))?" +                    //  $6 Port number (optional)
-						"(/" +
-						Regex.URL_VALID_PATH + "*+" +
-						")?" +                                                       //  $7 URL Path and anchor
-						"(\\?" + Regex.URL_VALID_URL_QUERY_CHARS + "*" +                   //  $8 Query String
-						Regex.URL_VALID_URL_QUERY_ENDING_CHARS + ")?" +
-						")" +
-					")";
-	public static final Pattern URL_PATTERN=Pattern.compile(VALID_URL_PATTERN_STRING, Pattern.CASE_INSENSITIVE);
 	private static final Pattern INVITE_LINK_PATH=Pattern.compile("/invite/[a-z\\d]+$", Pattern.CASE_INSENSITIVE);
 	private static Pattern EMOJI_CODE_PATTERN=Pattern.compile(":([\\w]+):");
 
@@ -72,194 +57,245 @@ public class HtmlParser{
 	 * <li>&lt;br/></li>
 	 * <li>&lt;p></li>
 	 * </ul>
+	 * Mastodon's HTML is handled by {@link MastodonHtmlTokenizer} in a single pass. Anything it doesn't recognize is parsed with Jsoup instead.
 	 * @param source Source HTML
 	 * @param emojis Custom emojis that are present in source as <code>:code:</code>
 	 * @return a spanned string
 	 */
 	public static SpannableStringBuilder parse(String source, List<Emoji> emojis, List<Mention> mentions, List<Hashtag> tags, String accountID, Object parentObject, Context context){
-		class SpanInfo{
-			public Object span;
-			public int start;
-			public Element element;
+		boolean removeQuoteInline=parentObject instanceof Status status && status.quote!=null;
+		SpanBuilder builder=new SpanBuilder(mentions, tags, accountID, parentObject, context);
+		if(!MastodonHtmlTokenizer.tokenize(source, removeQuoteInline, builder)){
+			if(BuildConfig.DEBUG)
+				Log.d(TAG, "Unsupported markup, falling back to Jsoup");
+			builder=new SpanBuilder(mentions, tags, accountID, parentObject, context);
+			JsoupHtmlTokenizer.tokenize(source, removeQuoteInline, builder);
+		}
+		SpannableStringBuilder ssb=builder.ssb;
+		int trailingTrimLength=0;
+		for(int i=ssb.length()-1;i>=0 && Character.isWhitespace(ssb.charAt(i));i--){
+			trailingTrimLength++;
+		}
+		if(trailingTrimLength>0)
+			ssb.replace(ssb.length()-trailingTrimLength, ssb.length(), "");
+		if(!emojis.isEmpty())
+			parseCustomEmoji(ssb, emojis);
+		return ssb;
+	}
 
-			public SpanInfo(Object span, int start, Element element){
-				this.span=span;
-				this.start=start;
-				this.element=element;
+	private static class SpanBuilder implements MastodonHtmlTokenizer.Handler{
+		private final SpannableStringBuilder ssb=new SpannableStringBuilder();
+		private final ArrayList<SpanInfo> openSpans=new ArrayList<>();
+		private final StringBuilder normalizedText=new StringBuilder();
+		private final List<Mention> mentions;
+		private final List<Hashtag> tags;
+		private final String accountID;
+		private final Object parentObject;
+		private final Context context;
+		private boolean lastElementWasBlock=false;
+		// Built on first use, most posts don't have any mentions or hashtags
+		private Map<String, String> idsByUrl;
+		private Map<String, Mention> mentionsByID;
+		private Map<String, Hashtag> tagsByTag;
+
+		private SpanBuilder(List<Mention> mentions, List<Hashtag> tags, String accountID, Object parentObject, Context context){
+			this.mentions=mentions;
+			this.tags=tags;
+			this.accountID=accountID;
+			this.parentObject=parentObject;
+			this.context=context;
+		}
+
+		private boolean isInsidePre(){
+			for(SpanInfo si:openSpans){
+				if(si.span instanceof CodeBlockSpan)
+					return true;
 			}
+			return false;
 		}
 
-		Map<String, String> idsByUrl=mentions.stream().distinct().collect(Collectors.toMap(m->m.url, m->m.id));
-		// Hashtags in remote posts have remote URLs, these have local URLs so they don't match.
-//		Map<String, String> tagsByUrl=tags.stream().collect(Collectors.toMap(t->t.url, t->t.name));
-		Map<String, Hashtag> tagsByTag=tags.stream().distinct().collect(Collectors.toMap(t->t.name.toLowerCase(), Function.identity(), (a, b)->a));
-		Map<String, Mention> mentionsByID=mentions.stream().distinct().collect(Collectors.toMap(m->m.id, Function.identity(), (a, b)->a));
-
-		source=source.replaceAll("[\u2028\u2029]", "<br>");
-		final SpannableStringBuilder ssb=new SpannableStringBuilder();
-		Element body=Jsoup.parseBodyFragment(source).body();
-		if(parentObject instanceof Status status && status.quote!=null)
-			body.select(".quote-inline").remove();
-		body.traverse(new NodeVisitor(){
-			private final ArrayList<SpanInfo> openSpans=new ArrayList<>();
-			private boolean lastElementWasBlock=false;
-
-			private boolean isInsidePre(){
-				for(SpanInfo si:openSpans){
-					if(si.span instanceof CodeBlockSpan)
-						return true;
+		private boolean isInsideBlockquote(){
+			for(SpanInfo si:openSpans){
+				if(si.span instanceof BlockQuoteSpan)
+					return true;
+			}
+			return false;
+		}
+
+		private String getMentionID(String url){
+			if(idsByUrl==null){
+				idsByUrl=new HashMap<>();
+				mentionsByID=new HashMap<>();
+				for(Mention m:mentions){
+					idsByUrl.putIfAbsent(m.url, m.id);
+					mentionsByID.putIfAbsent(m.id, m);
 				}
-				return false;
 			}
+			return idsByUrl.get(url);
+		}
 
-			private boolean isInsideBlockquote(){
-				for(SpanInfo si:openSpans){
-					if(si.span instanceof BlockQuoteSpan)
-						return true;
+		private Hashtag getHashtag(String name){
+			// Hashtags in remote posts have remote URLs, these have local URLs so they're matched by name instead.
+			if(tagsByTag==null){
+				tagsByTag=new HashMap<>();
+				for(Hashtag t:tags){
+					tagsByTag.putIfAbsent(t.name.toLowerCase(), t);
 				}
-				return false;
 			}
+			return tagsByTag.get(name.toLowerCase());
+		}
 
-			@SuppressLint("DefaultLocale")
-			@Override
-			public void head(@NonNull Node node, int depth){
-				if(node instanceof TextNode textNode){
-					if(lastElementWasBlock){
-						lastElementWasBlock=false;
-						if(!textNode.text().trim().isEmpty()){
-							ssb.append('\n');
-							ssb.append("\n", new SpacerSpan(1, V.dp(8)), Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
+		private void appendBlockSeparator(){
+			ssb.append('\n');
+			ssb.append("\n", new SpacerSpan(1, V.dp(8)), Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
+		}
+
+		@Override
+		public void onText(CharSequence wholeText){
+			normalizedText.setLength(0);
+			MastodonHtmlTokenizer.appendNormalisedWhitespace(normalizedText, wholeText);
+			if(lastElementWasBlock){
+				lastElementWasBlock=false;
+				if(!isBlank(normalizedText))
+					appendBlockSeparator();
+			}
+			if(isInsidePre()){
+				int end=wholeText.length();
+				while(end>0 && Character.isWhitespace(wholeText.charAt(end-1)))
+					end--;
+				ssb.append(wholeText, 0, end);
+			}else{
+				int start=0;
+				if(ssb.length()==0 || ssb.charAt(ssb.length()-1)=='\n'){
+					while(start<normalizedText.length() && Character.isWhitespace(normalizedText.charAt(start)))
+						start++;
+				}
+				ssb.append(normalizedText, start, normalizedText.length());
+			}
+		}
+
+		@SuppressLint("DefaultLocale")
+		@Override
+		public void onElementStart(MastodonHtmlTokenizer.Tag el){
+			if(lastElementWasBlock || (el.block && !"li".equals(el.name) && !"ul".equals(el.name) && !"ol".equals(el.name) && ssb.length()>0 && ssb.charAt(ssb.length()-1)!='\n')){
+				lastElementWasBlock=false;
+				appendBlockSeparator();
+			}
+			switch(el.name){
+				case "a" -> {
+					Object linkObject=null;
+					String href=el.href;
+					LinkSpan.Type linkType;
+					if(el.hasClass("hashtag")){
+						String text=el.text;
+						if(text.startsWith("#")){
+							linkType=LinkSpan.Type.HASHTAG;
+							href=text.substring(1);
+							linkObject=getHashtag(text.substring(1));
+						}else{
+							linkType=LinkSpan.Type.URL;
+						}
+					}else if(el.hasClass("mention")){
+						String id=getMentionID(href);
+						if(id!=null){
+							linkType=LinkSpan.Type.MENTION;
+							href=id;
+							linkObject=mentionsByID.get(id);
+						}else{
+							linkType=LinkSpan.Type.URL;
 						}
-					}
-					if(isInsidePre()){
-						ssb.append(textNode.getWholeText().stripTrailing());
 					}else{
-						String text=textNode.text();
-						if(ssb.length()==0 || ssb.charAt(ssb.length()-1)=='\n')
-							text=text.stripLeading();
-						ssb.append(text);
+						linkType=LinkSpan.Type.URL;
 					}
-				}else if(node instanceof Element el){
-					if(lastElementWasBlock || (el.isBlock() && !"li".equals(el.nodeName()) && !"ul".equals(el.nodeName()) && !"ol".equals(el.nodeName()) && ssb.length()>0 && ssb.charAt(ssb.length()-1)!='\n')){
-						lastElementWasBlock=false;
+					openSpans.add(new SpanInfo(new LinkSpan(href, null, linkType, accountID, linkObject, parentObject), ssb.length(), el));
+				}
+				case "br" -> ssb.append('\n');
+				case "span" -> {
+					if(el.hasClass("invisible")){
+						openSpans.add(new SpanInfo(new InvisibleSpan(), ssb.length(), el));
+					}
+				}
+				case "b", "strong" -> openSpans.add(new SpanInfo(new StyleSpan(Typeface.BOLD), ssb.length(), el));
+				case "i", "em" -> openSpans.add(new SpanInfo(new StyleSpan(Typeface.ITALIC), ssb.length(), el));
+				case "s", "del" -> openSpans.add(new SpanInfo(new StrikethroughSpan(), ssb.length(), el));
+				case "code" -> {
+					if(!isInsidePre()){
+						openSpans.add(new SpanInfo(new MonospaceSpan(context), ssb.length(), el));
+						ssb.append("Â ", new SpacerSpan(V.dp(4), 0), Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
+					}
+				}
+				case "pre" -> openSpans.add(new SpanInfo(new CodeBlockSpan(context), ssb.length(), el));
+				case "li" -> {
+					if(el.parentName==null)
+						return;
+
+					if(ssb.length()>0 && ssb.charAt(ssb.length()-1)!='\n')
 						ssb.append('\n');
-						ssb.append("\n", new SpacerSpan(1, V.dp(8)), Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
+					String markerText;
+					if("ol".equals(el.parentName)){
+						markerText=String.format("%d.", el.listStart+el.index);
+					}else{
+						markerText="â€¢";
 					}
-					switch(el.nodeName()){
-						case "a" -> {
-							Object linkObject=null;
-							String href=el.attr("href");
-							LinkSpan.Type linkType;
-							if(el.hasClass("hashtag")){
-								String text=el.text();
-								if(text.startsWith("#")){
-									linkType=LinkSpan.Type.HASHTAG;
-									href=text.substring(1);
-									linkObject=tagsByTag.get(text.substring(1).toLowerCase());
-								}else{
-									linkType=LinkSpan.Type.URL;
-								}
-							}else if(el.hasClass("mention")){
-								String id=idsByUrl.get(href);
-								if(id!=null){
-									linkType=LinkSpan.Type.MENTION;
-									href=id;
-									linkObject=mentionsByID.get(id);
-								}else{
-									linkType=LinkSpan.Type.URL;
-								}
-							}else{
-								linkType=LinkSpan.Type.URL;
-							}
-							openSpans.add(new SpanInfo(new LinkSpan(href, null, linkType, accountID, linkObject, parentObject), ssb.length(), el));
-						}
-						case "br" -> ssb.append('\n');
-						case "span" -> {
-							if(el.hasClass("invisible")){
-								openSpans.add(new SpanInfo(new InvisibleSpan(), ssb.length(), el));
-							}
-						}
-						case "b", "strong" -> openSpans.add(new SpanInfo(new StyleSpan(Typeface.BOLD), ssb.length(), el));
-						case "i", "em" -> openSpans.add(new SpanInfo(new StyleSpan(Typeface.ITALIC), ssb.length(), el));
-						case "s", "del" -> openSpans.add(new SpanInfo(new StrikethroughSpan(), ssb.length(), el));
-						case "code" -> {
-							if(!isInsidePre()){
-								openSpans.add(new SpanInfo(new MonospaceSpan(context), ssb.length(), el));
-								ssb.append("Â ", new SpacerSpan(V.dp(4), 0), Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
-							}
-						}
-						case "pre" -> openSpans.add(new SpanInfo(new CodeBlockSpan(context), ssb.length(), el));
-						case "li" -> {
-							Element parent=el.parent();
-							if(parent==null)
-								return;
-
-							if(ssb.length()>0 && ssb.charAt(ssb.length()-1)!='\n')
-								ssb.append('\n');
-							String markerText;
-							if("ol".equals(parent.nodeName())){
-								markerText=String.format("%d.", (parent.hasAttr("start") ? safeParseInt(parent.attr("start")) : 1)+el.elementSiblingIndex());
-							}else{
-								markerText="â€¢";
-							}
-							openSpans.add(new SpanInfo(new ListItemMarkerSpan(markerText), ssb.length(), el));
-							StringBuilder copyableText=new StringBuilder();
-							for(SpanInfo si:openSpans){
-								if(si.span instanceof ListItemMarkerSpan ims){
-									copyableText.append(ims.text);
-								}
-							}
-							copyableText.append(' ');
-							ssb.append(copyableText.toString(), new InvisibleSpan(), Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
-						}
-						case "blockquote" -> {
-							if(ssb.length()>0 && ssb.charAt(ssb.length()-1)!='\n')
-								ssb.append('\n');
-							openSpans.add(new SpanInfo(new BlockQuoteSpan(context, !isInsideBlockquote()), ssb.length(), el));
+					openSpans.add(new SpanInfo(new ListItemMarkerSpan(markerText), ssb.length(), el));
+					StringBuilder copyableText=new StringBuilder();
+					for(SpanInfo si:openSpans){
+						if(si.span instanceof ListItemMarkerSpan ims){
+							copyableText.append(ims.text);
 						}
 					}
+					copyableText.append(' ');
+					ssb.append(copyableText.toString(), new InvisibleSpan(), Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
+				}
+				case "blockquote" -> {
+					if(ssb.length()>0 && ssb.charAt(ssb.length()-1)!='\n')
+						ssb.append('\n');
+					openSpans.add(new SpanInfo(new BlockQuoteSpan(context, !isInsideBlockquote()), ssb.length(), el));
 				}
 			}
+		}
 
-			@Override
-			public void tail(@NonNull Node node, int depth){
-				if(node instanceof Element el){
-					String name=el.nodeName();
-					lastElementWasBlock|=el.isBlock();
-					if("span".equals(name) && el.hasClass("ellipsis")){
-						ssb.append("â€¦", new DeleteWhenCopiedSpan(), Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
-					}
-					if(!openSpans.isEmpty()){
-						SpanInfo si=openSpans.get(openSpans.size()-1);
-						if(si.element==el){
-							if(si.span!=null){
-								if(si.span instanceof MonospaceSpan){
-									ssb.append("Â ", new SpacerSpan(V.dp(4), 0), Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
-								}
-								ssb.setSpan(si.span, si.start, ssb.length(), Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
-							}
-							openSpans.remove(openSpans.size()-1);
+		@Override
+		public void onElementEnd(MastodonHtmlTokenizer.Tag el){
+			lastElementWasBlock|=el.block;
+			if("span".equals(el.name) && el.hasClass("ellipsis")){
+				ssb.append("â€¦", new DeleteWhenCopiedSpan(), Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
+			}
+			if(!openSpans.isEmpty()){
+				SpanInfo si=openSpans.get(openSpans.size()-1);
+				if(si.element==el){
+					if(si.span!=null){
+						if(si.span instanceof MonospaceSpan){
+							ssb.append("Â ", new SpacerSpan(V.dp(4), 0), Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
 						}
+						ssb.setSpan(si.span, si.start, ssb.length(), Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
 					}
+					openSpans.remove(openSpans.size()-1);
 				}
 			}
-		});
-		int trailingTrimLength=0;
-		for(int i=ssb.length()-1;i>=0 && Character.isWhitespace(ssb.charAt(i));i--){
-			trailingTrimLength++;
 		}
-		if(trailingTrimLength>0)
-			ssb.replace(ssb.length()-trailingTrimLength, ssb.length(), "");
-		if(!emojis.isEmpty())
-			parseCustomEmoji(ssb, emojis);
-		return ssb;
-	}
 
-	private static int safeParseInt(String s){
-		try{
-			return Integer.parseInt(s);
-		}catch(NumberFormatException x){
-			return 0;
+		/**
+		 * Same as text.toString().trim().isEmpty()
+		 */
+		private static boolean isBlank(CharSequence text){
+			for(int i=0;i<text.length();i++){
+				if(text.charAt(i)>' ')
+					return false;
+			}
+			return true;
+		}
+
+		private static class SpanInfo{
+			public Object span;
+			public int start;
+			public MastodonHtmlTokenizer.Tag element;
+
+			public SpanInfo(Object span, int start, MastodonHtmlTokenizer.Tag element){
+				this.span=span;
+				this.start=start;
+				this.element=element;
+			}
 		}
 	}
 
@@ -336,7 +372,7 @@ public class HtmlParser{
 	}
 
 	public static CharSequence parseLinks(String text){
-		Matcher matcher=URL_PATTERN.matcher(text);
+		Matcher matcher=CharCounter.URL_PATTERN.matcher(text);
 		if(!matcher.find()) // Return the original string if there are no URLs
 			return text;
 		SpannableStringBuilder ssb=new SpannableStringBuilder(text);
@@ -0,0 +1,61 @@
+package app.kabinka.social.ui.text;
+
+import org.jsoup.Jsoup;
+import org.jsoup.nodes.Element;
+import org.jsoup.nodes.Node;
+import org.jsoup.nodes.TextNode;
+import org.jsoup.select.NodeVisitor;
+
+import java.util.ArrayList;
+
+import androidx.annotation.NonNull;
+
+/**
+ * Reports any HTML to a {@link MastodonHtmlTokenizer.Handler} by parsing it with Jsoup and traversing the DOM. The body
+ * element Jsoup wraps it in isn't reported.
+ * This is what {@link HtmlParser} falls back to for markup {@link MastodonHtmlTokenizer} doesn't handle, and what the
+ * tokenizer's output is checked against.
+ */
+/*package*/ class JsoupHtmlTokenizer{
+	private JsoupHtmlTokenizer(){}
+
+	public static void tokenize(String source, boolean removeQuoteInline, MastodonHtmlTokenizer.Handler handler){
+		source=source.replaceAll("[\u2028\u2029]", "<br>");
+		Element body=Jsoup.parseBodyFragment(source).body();
+		if(removeQuoteInline)
+			body.select(".quote-inline").remove();
+		body.traverse(new NodeVisitor(){
+			private final ArrayList<MastodonHtmlTokenizer.Tag> openTags=new ArrayList<>();
+
+			@Override
+			public void head(@NonNull Node node, int depth){
+				if(node==body)
+					return;
+				if(node instanceof TextNode textNode){
+					handler.onText(textNode.getWholeText());
+				}else if(node instanceof Element el){
+					MastodonHtmlTokenizer.Tag tag=new MastodonHtmlTokenizer.Tag(el.nodeName(), el.isBlock());
+					tag.className=el.className();
+					tag.href=el.attr("href");
+					if("a".equals(tag.name) && el.hasClass("hashtag"))
+						tag.text=el.text();
+					if("li".equals(tag.name) && el.parent()!=null){
+						Element parent=el.parent();
+						tag.parentName=parent.nodeName();
+						tag.listStart=parent.hasAttr("start") ? MastodonHtmlTokenizer.safeParseInt(parent.attr("start")) : 1;
+						tag.index=el.elementSiblingIndex();
+					}
+					openTags.add(tag);
+					handler.onElementStart(tag);
+				}
+			}
+
+			@Override
+			public void tail(@NonNull Node node, int depth){
+				if(node instanceof Element && node!=body){
+					handler.onElementEnd(openTags.remove(openTags.size()-1));
+				}
+			}
+		});
+	}
+}
@@ -0,0 +1,490 @@
+package app.kabinka.social.ui.text;
+
+import java.util.ArrayList;
+
+/**
+ * A single-pass tokenizer for the subset of HTML that Mastodon puts into post content, bios and profile fields.
+ * It reports text and elements to a {@link Handler} in the same order a traversal of the Jsoup DOM for the same source would,
+ * without building that DOM.
+ * <p>
+ * Anything outside of that subset (other tags, comments, unknown entities, misnested or implicitly closed elements) makes
+ * {@link #tokenize(String, boolean, Handler)} return false, in which case the caller is expected to start over with Jsoup.
+ */
+/*package*/ class MastodonHtmlTokenizer{
+	private final String src;
+	private final boolean removeQuoteInline;
+	private final Handler handler;
+	private final StringBuilder text=new StringBuilder();
+	private final ArrayList<Tag> stack=new ArrayList<>();
+	private int pos;
+	/**
+	 * The stack size at which a removed .quote-inline element was opened, or -1 if not inside one
+	 */
+	private int skipDepth=-1;
+
+	// The last tag read by readTag()
+	private String tagName;
+	private boolean endTag, selfClosing;
+	private String attrClass, attrHref, attrStart;
+
+	private MastodonHtmlTokenizer(String src, boolean removeQuoteInline, Handler handler){
+		this.src=src;
+		this.removeQuoteInline=removeQuoteInline;
+		this.handler=handler;
+	}
+
+	/**
+	 * @param source the HTML
+	 * @param removeQuoteInline whether to drop elements with the quote-inline class along with their contents
+	 * @param handler receives the text and elements. If this returns false, it may have received some of them already.
+	 * @return true if the whole source was tokenized, false if it contains markup this tokenizer doesn't handle
+	 */
+	public static boolean tokenize(String source, boolean removeQuoteInline, Handler handler){
+		return new MastodonHtmlTokenizer(source, removeQuoteInline, handler).run();
+	}
+
+	private boolean run(){
+		int len=src.length();
+		while(pos<len){
+			char c=src.charAt(pos);
+			if(c=='<'){
+				flushText();
+				if(!readTag())
+					return false;
+				if(endTag ? !handleEndTag() : !handleStartTag())
+					return false;
+			}else if(c=='&'){
+				if(!readCharacterReference(text))
+					return false;
+			}else if(c=='\u2028' || c=='\u2029'){
+				// Line and paragraph separators are treated as <br>
+				flushText();
+				pos++;
+				if(skipDepth<0){
+					Tag br=new Tag("br", false);
+					countChild(br);
+					handler.onElementStart(br);
+					handler.onElementEnd(br);
+				}
+			}else if(c=='\0' || c=='\r'){
+				return false;
+			}else{
+				text.append(c);
+				pos++;
+			}
+		}
+		flushText();
+		while(!stack.isEmpty()){
+			Tag tag=stack.remove(stack.size()-1);
+			if(skipDepth<0)
+				handler.onElementEnd(tag);
+			else if(stack.size()==skipDepth)
+				skipDepth=-1;
+		}
+		return true;
+	}
+
+	private void flushText(){
+		if(text.length()==0)
+			return;
+		if(skipDepth<0)
+			handler.onText(text);
+		text.setLength(0);
+	}
+
+	private boolean handleStartTag(){
+		String name=tagName;
+		boolean block;
+		switch(name){
+			case "p", "pre", "blockquote", "ul", "ol", "li" -> {
+				// Jsoup would implicitly close the paragraph
+				if(isOpen("p"))
+					return false;
+				block=true;
+			}
+			case "del" -> block=true;
+			case "a" -> {
+				// Nested links go through the adoption agency algorithm
+				if(isOpen("a"))
+					return false;
+				block=false;
+			}
+			case "span", "br", "b", "strong", "i", "em", "s", "u", "code" -> block=false;
+			default -> {
+				return false;
+			}
+		}
+		if(selfClosing && !"br".equals(name))
+			return false;
+		Tag parent=stack.isEmpty() ? null : stack.get(stack.size()-1);
+		if("li".equals(name) && (parent==null || !("ul".equals(parent.name) || "ol".equals(parent.name))))
+			return false;
+
+		Tag tag=new Tag(name, block);
+		tag.className=attrClass;
+		tag.href=attrHref==null ? "" : attrHref;
+		if(skipDepth<0 && removeQuoteInline && tag.hasClass("quote-inline"))
+			skipDepth=stack.size();
+		if(skipDepth<0){
+			countChild(tag);
+			if("ol".equals(name) && attrStart!=null)
+				tag.listStart=safeParseInt(attrStart);
+			if(parent!=null && "li".equals(name)){
+				tag.parentName=parent.name;
+				tag.listStart=parent.listStart;
+			}
+			if("a".equals(name) && tag.hasClass("hashtag")){
+				tag.text=readElementText();
+				if(tag.text==null)
+					return false;
+			}
+			handler.onElementStart(tag);
+			if("br".equals(name))
+				handler.onElementEnd(tag);
+		}else if("br".equals(name) && skipDepth==stack.size()){
+			skipDepth=-1; // A removed <br class="quote-inline">
+		}
+		if(!"br".equals(name))
+			stack.add(tag);
+		// Jsoup skips the newline right after <pre>, as per the HTML spec
+		if("pre".equals(name) && pos<src.length() && src.charAt(pos)=='\n')
+			pos++;
+		return true;
+	}
+
+	private boolean handleEndTag(){
+		if(stack.isEmpty())
+			return false;
+		Tag tag=stack.get(stack.size()-1);
+		if(!tag.name.equals(tagName))
+			return false;
+		stack.remove(stack.size()-1);
+		if(skipDepth<0)
+			handler.onElementEnd(tag);
+		else if(stack.size()==skipDepth)
+			skipDepth=-1;
+		return true;
+	}
+
+	private void countChild(Tag tag){
+		if(!stack.isEmpty())
+			tag.index=stack.get(stack.size()-1).childCount++;
+	}
+
+	private boolean isOpen(String name){
+		for(Tag tag:stack){
+			if(tag.name.equals(name))
+				return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Read the text content of the element that was just opened, the same way Jsoup's Element.text() does, without consuming anything.
+	 * Only &lt;span>s are allowed inside.
+	 * @return the text, or null if the element contains anything else
+	 */
+	private String readElementText(){
+		int start=pos;
+		StringBuilder raw=new StringBuilder();
+		int depth=0;
+		try{
+			while(pos<src.length()){
+				char c=src.charAt(pos);
+				if(c=='<'){
+					if(!readTag())
+						return null;
+					if(endTag && depth==0 && "a".equals(tagName)){
+						StringBuilder normalized=new StringBuilder();
+						appendNormalisedWhitespace(normalized, raw);
+						return normalized.toString().trim();
+					}
+					if(!"span".equals(tagName) || selfClosing || (removeQuoteInline && Tag.hasClass(attrClass, "quote-inline")))
+						return null;
+					depth+=endTag ? -1 : 1;
+					if(depth<0)
+						return null;
+				}else if(c=='&'){
+					if(!readCharacterReference(raw))
+						return null;
+				}else if(c=='\u2028' || c=='\u2029' || c=='\0' || c=='\r'){
+					return null;
+				}else{
+					raw.append(c);
+					pos++;
+				}
+			}
+			return null;
+		}finally{
+			pos=start;
+		}
+	}
+
+	/**
+	 * Read a tag starting at the current position, which must be a '&lt;'.
+	 * Only lowercase tag and attribute names are accepted, and only the class, href and start attributes are kept.
+	 */
+	private boolean readTag(){
+		int len=src.length();
+		pos++;
+		endTag=selfClosing=false;
+		attrClass=attrHref=attrStart=null;
+		if(pos<len && src.charAt(pos)=='/'){
+			endTag=true;
+			pos++;
+		}
+		int nameStart=pos;
+		while(pos<len && isNameChar(src.charAt(pos)))
+			pos++;
+		if(pos==nameStart || src.charAt(nameStart)<'a' || src.charAt(nameStart)>'z')
+			return false;
+		tagName=src.substring(nameStart, pos);
+		StringBuilder value=null;
+		while(true){
+			skipWhitespace();
+			if(pos>=len)
+				return false;
+			char c=src.charAt(pos);
+			if(c=='>'){
+				pos++;
+				return true;
+			}
+			if(endTag)
+				return false;
+			if(c=='/'){
+				if(pos+1<len && src.charAt(pos+1)=='>'){
+					selfClosing=true;
+					pos+=2;
+					return true;
+				}
+				return false;
+			}
+			int attrStartPos=pos;
+			while(pos<len && (isNameChar(src.charAt(pos)) || src.charAt(pos)=='-' || src.charAt(pos)=='_' || src.charAt(pos)==':'))
+				pos++;
+			if(pos==attrStartPos)
+				return false;
+			String attrName=src.substring(attrStartPos, pos);
+			skipWhitespace();
+			String attrValue="";
+			if(pos<len && src.charAt(pos)=='='){
+				pos++;
+				skipWhitespace();
+				if(pos>=len)
+					return false;
+				if(value==null)
+					value=new StringBuilder();
+				else
+					value.setLength(0);
+				char quote=src.charAt(pos);
+				if(quote=='"' || quote=='\''){
+					pos++;
+					while(pos<len && src.charAt(pos)!=quote){
+						if(!readAttributeValueChar(value))
+							return false;
+					}
+					if(pos>=len)
+						return false;
+					pos++;
+				}else{
+					while(pos<len && !isWhitespace(src.charAt(pos)) && src.charAt(pos)!='>'){
+						char vc=src.charAt(pos);
+						if(vc=='"' || vc=='\'' || vc=='<' || vc=='=' || vc=='`')
+							return false;
+						if(!readAttributeValueChar(value))
+							return false;
+					}
+				}
+				attrValue=value.toString();
+			}
+			// Jsoup keeps the first one of duplicate attributes
+			switch(attrName){
+				case "class" -> {
+					if(attrClass==null)
+						attrClass=attrValue;
+				}
+				case "href" -> {
+					if(attrHref==null)
+						attrHref=attrValue;
+				}
+				case "start" -> {
+					if(attrStart==null)
+						attrStart=attrValue;
+				}
+			}
+		}
+	}
+
+	private boolean readAttributeValueChar(StringBuilder value){
+		char c=src.charAt(pos);
+		if(c=='&')
+			return readCharacterReference(value);
+		if(c=='\0' || c=='\r' || c=='\u2028' || c=='\u2029')
+			return false;
+		value.append(c);
+		pos++;
+		return true;
+	}
+
+	/**
+	 * Decode a character reference starting at the current position, which must be a '&amp;'.
+	 * Only numeric references and the named ones Mastodon actually emits are supported, and the semicolon is required.
+	 * An ampersand that isn't followed by something that looks like a reference is taken literally, as in Jsoup.
+	 */
+	private boolean readCharacterReference(StringBuilder out){
+		int len=src.length();
+		int start=pos+1;
+		if(start<len && src.charAt(start)=='#'){
+			int i=start+1;
+			int radix=10;
+			if(i<len && (src.charAt(i)=='x' || src.charAt(i)=='X')){
+				radix=16;
+				i++;
+			}
+			int digitsStart=i;
+			int codePoint=0;
+			while(i<len && Character.digit(src.charAt(i), radix)>=0){
+				codePoint=codePoint*radix+Character.digit(src.charAt(i), radix);
+				if(codePoint>0x10FFFF)
+					return false;
+				i++;
+			}
+			if(i==digitsStart || i>=len || src.charAt(i)!=';')
+				return false;
+			// Jsoup replaces these with something else
+			if(codePoint==0 || (codePoint>=0x80 && codePoint<=0x9F) || (codePoint>=0xD800 && codePoint<=0xDFFF))
+				return false;
+			out.appendCodePoint(codePoint);
+			pos=i+1;
+			return true;
+		}
+		int i=start;
+		while(i<len && isAsciiLetterOrDigit(src.charAt(i)))
+			i++;
+		if(i==start){
+			out.append('&');
+			pos++;
+			return true;
+		}
+		if(i>=len || src.charAt(i)!=';')
+			return false;
+		switch(src.substring(start, i)){
+			case "amp" -> out.append('&');
+			case "lt" -> out.append('<');
+			case "gt" -> out.append('>');
+			case "quot" -> out.append('"');
+			case "apos" -> out.append('\'');
+			case "nbsp" -> out.append('\u00a0');
+			default -> {
+				return false;
+			}
+		}
+		pos=i+1;
+		return true;
+	}
+
+	private void skipWhitespace(){
+		while(pos<src.length() && isWhitespace(src.charAt(pos)))
+			pos++;
+	}
+
+	private static boolean isWhitespace(char c){
+		return c==' ' || c=='\t' || c=='\n' || c=='\f';
+	}
+
+	private static boolean isNameChar(char c){
+		return (c>='a' && c<='z') || (c>='0' && c<='9');
+	}
+
+	private static boolean isAsciiLetterOrDigit(char c){
+		return (c>='a' && c<='z') || (c>='A' && c<='Z') || (c>='0' && c<='9');
+	}
+
+	/*package*/ static int safeParseInt(String s){
+		try{
+			return Integer.parseInt(s);
+		}catch(NumberFormatException x){
+			return 0;
+		}
+	}
+
+	/**
+	 * Collapse whitespace the way Jsoup's TextNode.text() does: runs of whitespace (including no-break spaces) become a single space,
+	 * zero-width spaces and soft hyphens are dropped.
+	 */
+	/*package*/ static void appendNormalisedWhitespace(StringBuilder out, CharSequence s){
+		boolean lastWasWhite=false;
+		for(int i=0;i<s.length();i++){
+			char c=s.charAt(i);
+			if(c==' ' || c=='\t' || c=='\n' || c=='\f' || c=='\r' || c=='\u00a0'){
+				if(lastWasWhite)
+					continue;
+				out.append(' ');
+				lastWasWhite=true;
+			}else if(c!='\u200b' && c!='\u00ad'){
+				out.append(c);
+				lastWasWhite=false;
+			}
+		}
+	}
+
+	/*package*/ interface Handler{
+		/**
+		 * @param wholeText the text with character references decoded but whitespace not normalized. Only valid for the duration of the call.
+		 */
+		void onText(CharSequence wholeText);
+		void onElementStart(Tag tag);
+		void onElementEnd(Tag tag);
+	}
+
+	/*package*/ static class Tag{
+		public final String name;
+		public final boolean block;
+		public String className;
+		public String href="";
+		/**
+		 * The text content, only for hashtag links
+		 */
+		public String text;
+		/**
+		 * The index of this element among its parent's child elements
+		 */
+		public int index;
+		/**
+		 * For &lt;ol> and &lt;li>, the number of the first list item
+		 */
+		public int listStart=1;
+		/**
+		 * For &lt;li>, the name of the list element it's in
+		 */
+		public String parentName;
+		private int childCount;
+
+		public Tag(String name, boolean block){
+			this.name=name;
+			this.block=block;
+		}
+
+		public boolean hasClass(String cls){
+			return hasClass(className, cls);
+		}
+
+		/*package*/ static boolean hasClass(String className, String cls){
+			if(className==null)
+				return false;
+			int len=className.length();
+			int start=0;
+			while(start<len){
+				while(start<len && Character.isWhitespace(className.charAt(start)))
+					start++;
+				int end=start;
+				while(end<len && !Character.isWhitespace(className.charAt(end)))
+					end++;
+				if(end-start==cls.length() && className.regionMatches(true, start, cls, 0, cls.length()))
+					return true;
+				start=end;
+			}
+			return false;
+		}
+	}
+}
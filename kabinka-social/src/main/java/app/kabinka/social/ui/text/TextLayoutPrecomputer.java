@@ -0,0 +1,99 @@
+package app.kabinka.social.ui.text;
+
+import android.os.Build;
+import android.text.Layout;
+import android.text.PrecomputedText;
+import android.text.StaticLayout;
+import android.text.TextPaint;
+import android.util.Log;
+import android.util.SparseArray;
+import android.widget.TextView;
+
+import app.kabinka.social.BuildConfig;
+
+import java.util.function.Consumer;
+
+import me.grishka.appkit.utils.WorkerThread;
+
+/**
+ * Moves text measurement for post bodies off the main thread.
+ * <p>
+ * The parameters (paint, break strategy, hyphenation, width) are captured from a bound text view for each text size.
+ * Texts are then precomputed for those parameters on a background thread, so that binding doesn't need to measure anything.
+ * On API 28+ this produces a {@link PrecomputedText} that the text view uses as is. On older versions a {@link StaticLayout}
+ * is built in the background instead, which fills the framework's shared word layout cache that the main thread measurement then hits.
+ * <p>
+ * When the configuration or the font size changes, the captured parameters change with the next bind and stale precomputed texts
+ * are ignored, see {@link #getTextForView(TextView, CharSequence, CharSequence)}.
+ */
+public class TextLayoutPrecomputer{
+	private static final String TAG="TextLayoutPrecomputer";
+	private static final WorkerThread thread=new WorkerThread("TextLayoutPrecomputer");
+	private static final SparseArray<Object> paramsForTextSize=new SparseArray<>();
+	private static final SparseArray<Integer> widthForTextSize=new SparseArray<>();
+
+	static{
+		thread.start();
+	}
+
+	/**
+	 * Capture the current text layout parameters of a text view. Must be called after its text size and padding were set.
+	 */
+	public static void onTextViewBound(TextView view, int textSizeSp){
+		Object params;
+		if(Build.VERSION.SDK_INT>=Build.VERSION_CODES.P){
+			params=view.getTextMetricsParams();
+		}else{
+			params=new TextPaint(view.getPaint());
+		}
+		int width=view.getWidth()-view.getTotalPaddingLeft()-view.getTotalPaddingRight();
+		synchronized(paramsForTextSize){
+			if(BuildConfig.DEBUG){
+				Object prevParams=paramsForTextSize.get(textSizeSp);
+				if(Build.VERSION.SDK_INT>=Build.VERSION_CODES.P && prevParams!=null && !prevParams.equals(params))
+					Log.d(TAG, "Text layout parameters changed for "+textSizeSp+"sp, precomputed texts will be ignored");
+			}
+			paramsForTextSize.put(textSizeSp, params);
+			if(width>0)
+				widthForTextSize.put(textSizeSp, width);
+		}
+	}
+
+	/**
+	 * Precompute the layout of a text in the background, if the parameters for this text size are already known.
+	 * @param callback receives the text to pass to the text view instead of the original one. Called on a background thread, only if the text was precomputed.
+	 */
+	public static void precompute(CharSequence text, int textSizeSp, Consumer<CharSequence> callback){
+		Object params;
+		int width;
+		synchronized(paramsForTextSize){
+			params=paramsForTextSize.get(textSizeSp);
+			Integer _width=widthForTextSize.get(textSizeSp);
+			width=_width==null ? 0 : _width;
+		}
+		if(params==null)
+			return;
+		thread.postRunnable(()->{
+			try{
+				if(Build.VERSION.SDK_INT>=Build.VERSION_CODES.P){
+					callback.accept(PrecomputedText.create(text, (PrecomputedText.Params) params));
+				}else if(width>0){
+					StaticLayout.Builder.obtain(text, 0, text.length(), (TextPaint) params, width)
+							.setAlignment(Layout.Alignment.ALIGN_NORMAL)
+							.build();
+				}
+			}catch(Exception x){
+				Log.w(TAG, "Failed to precompute text layout", x);
+			}
+		}, 0);
+	}
+
+	/**
+	 * @return the precomputed text if it's usable with this text view's current parameters, the original text otherwise
+	 */
+	public static CharSequence getTextForView(TextView view, CharSequence original, CharSequence precomputed){
+		if(Build.VERSION.SDK_INT>=Build.VERSION_CODES.P && precomputed instanceof PrecomputedText pt && pt.getParams().equals(view.getTextMetricsParams()))
+			return pt;
+		return original;
+	}
+}
@@ -39,6 +39,18 @@ public class BlurHashDecoder{
 	 *                 By default it is true.
 	 */
 	public static Bitmap decode(String blurHash, int width, int height, float punch, boolean useCache){
+		int[] pixels=decodeToPixels(blurHash, width, height, punch, useCache);
+		if(pixels==null)
+			return null;
+		return Bitmap.createBitmap(pixels, width, height, Bitmap.Config.ARGB_8888);
+	}
+
+	/**
+	 * Decode a blur hash into ARGB pixels, row by row, without creating a bitmap.
+	 *
+	 * @return the pixels, or null if the blur hash is invalid
+	 */
+	public static int[] decodeToPixels(String blurHash, int width, int height, float punch, boolean useCache){
 		if(blurHash==null || blurHash.length()<6)
 			return null;
 		int numCompEnc=decode83(blurHash, 0, 1);
@@ -55,7 +67,7 @@ public class BlurHashDecoder{
 			int colorEnc=decode83(blurHash, from, from+2);
 			colors[i]=decodeAc(colorEnc, maxAc*punch);
 		}
-		return composeBitmap(width, height, numCompX, numCompY, colors, useCache);
+		return composePixels(width, height, numCompX, numCompY, colors, useCache);
 	}
 
 	public static int decodeToSingleColor(String hash){
@@ -97,7 +109,7 @@ public class BlurHashDecoder{
 		return value*value*Math.signum(value);
 	}
 
-	private static Bitmap composeBitmap(int width, int height, int numCompX, int numCompY, float[][] colors, boolean useCache){
+	private static int[] composePixels(int width, int height, int numCompX, int numCompY, float[][] colors, boolean useCache){
 		// use an array for better performance when writing pixel colors
 		int[] imageArray=new int[width*height];
 		boolean calculateCosX=!useCache || cacheCosinesX.get(width*numCompX)==null;
@@ -121,7 +133,7 @@ public class BlurHashDecoder{
 				imageArray[x+width*y]=0xFF000000 | linearToSrgb(b) | (linearToSrgb(g) << 8) | (linearToSrgb(r) << 16);
 			}
 		}
-		return Bitmap.createBitmap(imageArray, width, height, Bitmap.Config.ARGB_8888);
+		return imageArray;
 	}
 
 	private static double[] getArrayForCosinesY(boolean calculate, int height, int numCompY){
@@ -1,6 +1,5 @@
 package app.kabinka.social.ui.utils;
 
-import android.graphics.drawable.Animatable;
 import android.graphics.drawable.Drawable;
 import android.text.Spanned;
 
@@ -41,7 +40,5 @@ public class CustomEmojiHelper{
 		for(CustomEmojiSpan span:spans.get(image)){
 			span.setDrawable(drawable);
 		}
-		if(drawable instanceof Animatable && !((Animatable) drawable).isRunning())
-			((Animatable) drawable).start();
 	}
 }
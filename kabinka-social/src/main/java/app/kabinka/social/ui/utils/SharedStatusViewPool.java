@@ -0,0 +1,225 @@
+package app.kabinka.social.ui.utils;
+
+import android.app.Activity;
+import android.app.Application;
+import android.os.Bundle;
+import android.os.Looper;
+import android.util.Log;
+
+import app.kabinka.social.BuildConfig;
+import app.kabinka.social.ui.displayitems.StatusDisplayItem;
+
+import java.util.ArrayDeque;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.Map;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.recyclerview.widget.RecyclerView;
+
+/**
+ * A pool of status display item view holders shared by all status lists of one account within an activity,
+ * so that switching tabs or opening a thread reuses holders instead of inflating them again.
+ * <p>
+ * Each list gets its own child pool through {@link #newChildPool()}. Holders of types that keep a reference to the fragment
+ * that created them stay in the child pool, everything else goes to the shared one. The capacity for each type grows
+ * with observed demand, and the most common types are inflated ahead of time when the main thread is idle.
+ */
+public class SharedStatusViewPool{
+	private static final String TAG="SharedStatusViewPool";
+	// The pooled views reference their activity, so entries are removed explicitly when it's destroyed
+	private static final HashMap<Activity, HashMap<String, SharedStatusViewPool>> pools=new HashMap<>();
+	private static boolean lifecycleCallbacksRegistered;
+
+	private static final int VIEW_TYPE_FLAG=0x80000000;
+	private static final int DEFAULT_CAPACITY=5;
+	private static final int MAX_CAPACITY=25;
+	private static final long SLOW_INFLATE_THRESHOLD_NANOS=8_000_000L;
+	/**
+	 * These holders capture the fragment they were created for
+	 */
+	private static final EnumSet<StatusDisplayItem.Type> NOT_SHAREABLE=EnumSet.of(StatusDisplayItem.Type.ACCOUNT);
+	private static final Map<StatusDisplayItem.Type, Integer> PREINFLATE_COUNTS=Map.of(
+			StatusDisplayItem.Type.HEADER, 4,
+			StatusDisplayItem.Type.TEXT, 4,
+			StatusDisplayItem.Type.FOOTER, 4,
+			StatusDisplayItem.Type.REBLOG_OR_REPLY_LINE, 2,
+			StatusDisplayItem.Type.MEDIA_GRID, 2
+	);
+
+	private final RecyclerView.RecycledViewPool pool=new RecyclerView.RecycledViewPool();
+	private final int[] capacity=new int[StatusDisplayItem.Type.values().length];
+	private final int[] inflateCount=new int[capacity.length];
+	private final long[] totalInflateTime=new long[capacity.length];
+	private final long[] maxInflateTime=new long[capacity.length];
+	private boolean preinflateScheduled;
+
+	private SharedStatusViewPool(){
+		for(StatusDisplayItem.Type type:StatusDisplayItem.Type.values()){
+			capacity[type.ordinal()]=DEFAULT_CAPACITY;
+			pool.setMaxRecycledViews(getViewType(type), DEFAULT_CAPACITY);
+		}
+	}
+
+	public static SharedStatusViewPool get(Activity activity, String accountID){
+		if(!lifecycleCallbacksRegistered){
+			lifecycleCallbacksRegistered=true;
+			activity.getApplication().registerActivityLifecycleCallbacks(new ActivityDestroyedCallbacks());
+		}
+		HashMap<String, SharedStatusViewPool> activityPools=pools.get(activity);
+		if(activityPools==null)
+			pools.put(activity, activityPools=new HashMap<>());
+		SharedStatusViewPool pool=activityPools.get(accountID);
+		if(pool==null)
+			activityPools.put(accountID, pool=new SharedStatusViewPool());
+		return pool;
+	}
+
+	public static int getViewType(StatusDisplayItem.Type type){
+		return type.ordinal() | VIEW_TYPE_FLAG;
+	}
+
+	@Nullable
+	public static StatusDisplayItem.Type getTypeFromViewType(int viewType){
+		if((viewType & VIEW_TYPE_FLAG)==0)
+			return null;
+		int ordinal=viewType & ~VIEW_TYPE_FLAG;
+		StatusDisplayItem.Type[] types=StatusDisplayItem.Type.values();
+		return ordinal<types.length ? types[ordinal] : null;
+	}
+
+	public RecyclerView.RecycledViewPool newChildPool(){
+		return new ChildPool();
+	}
+
+	/**
+	 * Inflate the most common holder types one at a time while the main thread is idle. Only does anything the first time it's called.
+	 * @param list the list the holders are created for. Its adapter must be the one that creates status display item holders.
+	 */
+	public void preinflate(RecyclerView list){
+		if(preinflateScheduled)
+			return;
+		preinflateScheduled=true;
+		ArrayDeque<StatusDisplayItem.Type> queue=new ArrayDeque<>();
+		for(StatusDisplayItem.Type type:StatusDisplayItem.Type.values()){
+			Integer count=PREINFLATE_COUNTS.get(type);
+			if(count==null)
+				continue;
+			for(int i=0;i<count;i++)
+				queue.add(type);
+		}
+		Looper.myQueue().addIdleHandler(()->{
+			RecyclerView.Adapter<?> adapter=list.getAdapter();
+			if(queue.isEmpty() || adapter==null || !(list.getContext() instanceof Activity activity) || activity.isDestroyed())
+				return false;
+			StatusDisplayItem.Type type=queue.poll();
+			int viewType=getViewType(type);
+			if(pool.getRecycledViewCount(viewType)<PREINFLATE_COUNTS.get(type))
+				pool.putRecycledView(adapter.createViewHolder(list, viewType));
+			return !queue.isEmpty();
+		});
+	}
+
+	/**
+	 * Called by the adapter every time it creates a holder, with the time it took
+	 */
+	public void onViewHolderCreated(StatusDisplayItem.Type type, long durationNanos){
+		int i=type.ordinal();
+		inflateCount[i]++;
+		totalInflateTime[i]+=durationNanos;
+		maxInflateTime[i]=Math.max(maxInflateTime[i], durationNanos);
+		if(BuildConfig.DEBUG && durationNanos>SLOW_INFLATE_THRESHOLD_NANOS)
+			Log.w(TAG, "Creating a "+type+" holder took "+(durationNanos/1000)+" us");
+	}
+
+	/**
+	 * @return a human-readable summary of the number of holders created and their creation times, per type
+	 */
+	public String getStats(){
+		StringBuilder sb=new StringBuilder();
+		for(StatusDisplayItem.Type type:StatusDisplayItem.Type.values()){
+			int i=type.ordinal();
+			if(inflateCount[i]==0)
+				continue;
+			sb.append(type)
+					.append(": created ").append(inflateCount[i])
+					.append(", avg ").append(totalInflateTime[i]/inflateCount[i]/1000).append(" us")
+					.append(", max ").append(maxInflateTime[i]/1000).append(" us")
+					.append(", pool capacity ").append(capacity[i])
+					.append('\n');
+		}
+		return sb.toString();
+	}
+
+	private void onPoolMiss(StatusDisplayItem.Type type){
+		// A new holder is about to be created, which means more of this type are in use at once than the pool could keep
+		int i=type.ordinal();
+		if(capacity[i]<MAX_CAPACITY){
+			capacity[i]++;
+			pool.setMaxRecycledViews(getViewType(type), capacity[i]);
+		}
+	}
+
+	private static boolean isShareable(int viewType){
+		StatusDisplayItem.Type type=getTypeFromViewType(viewType);
+		return type!=null && !NOT_SHAREABLE.contains(type);
+	}
+
+	private class ChildPool extends RecyclerView.RecycledViewPool{
+		@Nullable
+		@Override
+		public RecyclerView.ViewHolder getRecycledView(int viewType){
+			if(!isShareable(viewType))
+				return super.getRecycledView(viewType);
+			RecyclerView.ViewHolder holder=pool.getRecycledView(viewType);
+			if(holder==null)
+				onPoolMiss(getTypeFromViewType(viewType));
+			return holder;
+		}
+
+		@Override
+		public void putRecycledView(RecyclerView.ViewHolder scrap){
+			if(isShareable(scrap.getItemViewType()))
+				pool.putRecycledView(scrap);
+			else
+				super.putRecycledView(scrap);
+		}
+
+		@Override
+		public int getRecycledViewCount(int viewType){
+			if(isShareable(viewType))
+				return pool.getRecycledViewCount(viewType);
+			return super.getRecycledViewCount(viewType);
+		}
+	}
+
+	private static class ActivityDestroyedCallbacks implements Application.ActivityLifecycleCallbacks{
+		@Override
+		public void onActivityDestroyed(@NonNull Activity activity){
+			HashMap<String, SharedStatusViewPool> activityPools=pools.remove(activity);
+			if(activityPools!=null){
+				for(SharedStatusViewPool pool:activityPools.values())
+					pool.pool.clear();
+			}
+		}
+
+		@Override
+		public void onActivityCreated(@NonNull Activity activity, @Nullable Bundle savedInstanceState){}
+
+		@Override
+		public void onActivityStarted(@NonNull Activity activity){}
+
+		@Override
+		public void onActivityResumed(@NonNull Activity activity){}
+
+		@Override
+		public void onActivityPaused(@NonNull Activity activity){}
+
+		@Override
+		public void onActivityStopped(@NonNull Activity activity){}
+
+		@Override
+		public void onActivitySaveInstanceState(@NonNull Activity activity, @NonNull Bundle outState){}
+	}
+}
@@ -0,0 +1,361 @@
+package app.kabinka.social.ui.utils;
+
+import android.app.Activity;
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.graphics.Typeface;
+import android.os.Handler;
+import android.os.Looper;
+import android.view.Choreographer;
+import android.view.FrameMetrics;
+import android.view.Gravity;
+import android.view.View;
+import android.view.ViewGroup;
+import android.view.Window;
+import android.widget.FrameLayout;
+import android.widget.TextView;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+
+import app.kabinka.social.BuildConfig;
+import app.kabinka.social.MastodonApp;
+import app.kabinka.social.ui.displayitems.StatusDisplayItem;
+import app.kabinka.social.utils.LatencyHistogram;
+
+import java.text.DateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.Locale;
+import java.util.WeakHashMap;
+
+import me.grishka.appkit.utils.V;
+
+/**
+ * Opt-in profiling of status lists, for finding out which kind of display item makes scrolling stutter.
+ * <p>
+ * While enabled, status lists record how long it takes to create and to bind holders of each {@link StatusDisplayItem.Type}.
+ * Frames are observed through {@link Window#addOnFrameMetricsAvailableListener(Window.OnFrameMetricsAvailableListener, Handler)}
+ * and every frame that took longer than the display refresh interval is attributed to the types that were created or bound in it.
+ * The type that took the most time in a janky frame gets the blame for it. Measuring and laying out text happens in the layout pass,
+ * not while binding, so that only shows up in frame times.
+ * <p>
+ * The percentiles are shown in an overlay over the activity and as a report in the debug settings and in
+ * {@code adb shell dumpsys activity app.kabinka.social/.MainActivity}.
+ * Everything happens on the main thread.
+ */
+public class StatusRenderProfiler{
+	private static final String PREF_ENABLED="statusRenderProfiler";
+	private static final int FRAME_HISTORY=32;
+	private static final int OVERLAY_TYPE_COUNT=6;
+	private static final long OVERLAY_UPDATE_INTERVAL=1000;
+	private static final StatusDisplayItem.Type[] TYPES=StatusDisplayItem.Type.values();
+
+	private static final Handler mainHandler=new Handler(Looper.getMainLooper());
+	private static final WeakHashMap<Activity, Session> sessions=new WeakHashMap<>();
+	private static final TypeStats[] stats=new TypeStats[TYPES.length];
+	private static long totalFrames, jankyFrames, unreportedFrames, collectingSince=System.currentTimeMillis();
+	private static float refreshRate;
+	// Java heap in use, sampled every time the overlay updates, to see how it grows over a long scrolling session
+	private static long lastHeapBytes, peakHeapBytes;
+	// Of the last list that released display items of posts far from the visible ones
+	private static int fullPosts, releasedPosts;
+	private static Boolean enabled;
+
+	static{
+		for(int i=0;i<stats.length;i++)
+			stats[i]=new TypeStats(TYPES[i]);
+	}
+
+	private StatusRenderProfiler(){}
+
+	public static boolean isEnabled(){
+		if(enabled==null)
+			enabled=getPrefs().getBoolean(PREF_ENABLED, false);
+		return enabled;
+	}
+
+	/**
+	 * Takes effect for lists that are opened afterwards
+	 */
+	public static void setEnabled(boolean enabled){
+		StatusRenderProfiler.enabled=enabled;
+		getPrefs().edit().putBoolean(PREF_ENABLED, enabled).apply();
+	}
+
+	/**
+	 * Start observing frames in this activity, if it isn't already, on behalf of a list that was just created in it.
+	 * Every call must be matched by a {@link Session#release()} when the list goes away.
+	 */
+	public static Session attach(Activity activity){
+		Session session=sessions.get(activity);
+		if(session==null){
+			sessions.put(activity, session=new Session(activity));
+			session.start();
+		}
+		session.refCount++;
+		return session;
+	}
+
+	public static boolean hasData(){
+		return totalFrames>0 || Arrays.stream(stats).anyMatch(s->s.bind.getCount()>0 || s.create.getCount()>0);
+	}
+
+	public static void reset(){
+		for(TypeStats s:stats)
+			s.reset();
+		totalFrames=jankyFrames=unreportedFrames=0;
+		peakHeapBytes=0;
+		sampleHeap();
+		collectingSince=System.currentTimeMillis();
+	}
+
+	/**
+	 * @return the statistics for every type that was created or bound at least once, the ones blamed for the most janky frames first
+	 */
+	private static ArrayList<TypeStats> getSortedStats(){
+		ArrayList<TypeStats> list=new ArrayList<>();
+		for(TypeStats s:stats){
+			if(s.bind.getCount()>0 || s.create.getCount()>0)
+				list.add(s);
+		}
+		list.sort(Comparator.comparingLong((TypeStats s)->s.blamedFrames)
+				.thenComparingLong(s->s.bind.getPercentileMicros(90))
+				.reversed());
+		return list;
+	}
+
+	private static String getFramesSummary(){
+		return String.format(Locale.US, "Frames: %,d, janky: %,d (%.1f%%)", totalFrames, jankyFrames, totalFrames==0 ? 0f : jankyFrames*100f/totalFrames);
+	}
+
+	private static void sampleHeap(){
+		Runtime runtime=Runtime.getRuntime();
+		lastHeapBytes=runtime.totalMemory()-runtime.freeMemory();
+		peakHeapBytes=Math.max(peakHeapBytes, lastHeapBytes);
+	}
+
+	private static String getMemorySummary(){
+		String summary=String.format(Locale.US, "Heap: %.1f MB, peak %.1f MB", lastHeapBytes/1048576f, peakHeapBytes/1048576f);
+		if(releasedPosts>0)
+			summary+=String.format(Locale.US, "\nPosts: %,d built, %,d released", fullPosts, releasedPosts);
+		return summary;
+	}
+
+	/**
+	 * @return a human-readable report with all percentiles, per type
+	 */
+	public static String getReport(){
+		StringBuilder sb=new StringBuilder();
+		sb.append("Since ").append(DateFormat.getDateTimeInstance().format(new Date(collectingSince))).append('\n')
+				.append(getFramesSummary());
+		if(refreshRate>0)
+			sb.append(String.format(Locale.US, " at %.0f Hz", refreshRate));
+		if(unreportedFrames>0)
+			sb.append(", ").append(unreportedFrames).append(" not reported");
+		sampleHeap();
+		sb.append('\n').append(getMemorySummary()).append('\n');
+		for(TypeStats s:getSortedStats()){
+			sb.append('\n').append(s.type).append('\n');
+			appendHistogram(sb, "bind", s.bind);
+			appendHistogram(sb, "create", s.create);
+			sb.append("  in janky frames: ").append(s.jankyFrames).append(", blamed for ").append(s.blamedFrames)
+					.append(", ").append(LatencyHistogram.formatMicros(s.jankyFrameNanos/1000)).append(" spent in them\n");
+		}
+		return sb.toString().trim();
+	}
+
+	private static void appendHistogram(StringBuilder sb, String name, LatencyHistogram histogram){
+		sb.append("  ").append(name).append(": ").append(histogram.getCount());
+		if(histogram.getCount()>0){
+			sb.append(", p50 ").append(LatencyHistogram.formatMicros(histogram.getPercentileMicros(50)))
+					.append(", p90 ").append(LatencyHistogram.formatMicros(histogram.getPercentileMicros(90)))
+					.append(", p99 ").append(LatencyHistogram.formatMicros(histogram.getPercentileMicros(99)))
+					.append(", max ").append(LatencyHistogram.formatMicros(histogram.getMaxMicros()));
+		}
+		sb.append('\n');
+	}
+
+	public static JsonObject toJson(){
+		JsonObject obj=new JsonObject();
+		obj.addProperty("app_version", BuildConfig.VERSION_NAME);
+		obj.addProperty("since", collectingSince);
+		obj.addProperty("until", System.currentTimeMillis());
+		obj.addProperty("refresh_rate", refreshRate);
+		obj.addProperty("frames", totalFrames);
+		obj.addProperty("janky_frames", jankyFrames);
+		obj.addProperty("unreported_frames", unreportedFrames);
+		sampleHeap();
+		obj.addProperty("heap_bytes", lastHeapBytes);
+		obj.addProperty("peak_heap_bytes", peakHeapBytes);
+		obj.addProperty("built_posts", fullPosts);
+		obj.addProperty("released_posts", releasedPosts);
+		JsonArray types=new JsonArray();
+		for(TypeStats s:getSortedStats()){
+			JsonObject t=new JsonObject();
+			t.addProperty("type", s.type.toString());
+			t.add("bind", s.bind.toJson());
+			t.add("create", s.create.toJson());
+			t.addProperty("janky_frames", s.jankyFrames);
+			t.addProperty("blamed_frames", s.blamedFrames);
+			t.addProperty("janky_frame_time_us", s.jankyFrameNanos/1000);
+			types.add(t);
+		}
+		obj.add("types", types);
+		return obj;
+	}
+
+	private static SharedPreferences getPrefs(){
+		return MastodonApp.context.getSharedPreferences("debug", Context.MODE_PRIVATE);
+	}
+
+	private static class TypeStats{
+		public final StatusDisplayItem.Type type;
+		public final LatencyHistogram bind=new LatencyHistogram(), create=new LatencyHistogram();
+		/**
+		 * Janky frames in which at least one holder of this type was created or bound
+		 */
+		public long jankyFrames;
+		/**
+		 * Janky frames in which this type took more time than any other
+		 */
+		public long blamedFrames;
+		public long jankyFrameNanos;
+
+		private TypeStats(StatusDisplayItem.Type type){
+			this.type=type;
+		}
+
+		private void reset(){
+			bind.reset();
+			create.reset();
+			jankyFrames=blamedFrames=jankyFrameNanos=0;
+		}
+	}
+
+	/**
+	 * Observes the frames of one activity for as long as it has profiled lists in it, and keeps the overlay up to date.
+	 */
+	public static class Session implements Choreographer.FrameCallback, Window.OnFrameMetricsAvailableListener{
+		private final Activity activity;
+		private int refCount;
+		private final long[] frameVsyncs=new long[FRAME_HISTORY];
+		private final long[][] frameWork=new long[FRAME_HISTORY][TYPES.length];
+		private int currentFrame;
+		private long frameIntervalNanos;
+		private TextView overlay;
+		private final Runnable overlayUpdater=this::updateOverlay;
+
+		private Session(Activity activity){
+			this.activity=activity;
+		}
+
+		private void start(){
+			refreshRate=activity.getWindowManager().getDefaultDisplay().getRefreshRate();
+			frameIntervalNanos=(long)(1_000_000_000L/refreshRate);
+			activity.getWindow().addOnFrameMetricsAvailableListener(this, mainHandler);
+			Choreographer.getInstance().postFrameCallback(this);
+
+			overlay=new TextView(activity);
+			overlay.setTypeface(Typeface.MONOSPACE);
+			overlay.setTextSize(9);
+			overlay.setTextColor(0xFFFFFFFF);
+			overlay.setBackgroundColor(0xB0000000);
+			int pad=V.dp(4);
+			overlay.setPadding(pad, pad, pad, pad);
+			overlay.setImportantForAccessibility(View.IMPORTANT_FOR_ACCESSIBILITY_NO);
+			FrameLayout.LayoutParams lp=new FrameLayout.LayoutParams(ViewGroup.LayoutParams.WRAP_CONTENT, ViewGroup.LayoutParams.WRAP_CONTENT, Gravity.TOP | Gravity.END);
+			lp.topMargin=V.dp(88);
+			((ViewGroup)activity.getWindow().getDecorView()).addView(overlay, lp);
+			updateOverlay();
+		}
+
+		/**
+		 * Call when the list this session was obtained for is destroyed
+		 */
+		public void release(){
+			if(--refCount>0)
+				return;
+			sessions.remove(activity);
+			activity.getWindow().removeOnFrameMetricsAvailableListener(this);
+			Choreographer.getInstance().removeFrameCallback(this);
+			mainHandler.removeCallbacks(overlayUpdater);
+			((ViewGroup)activity.getWindow().getDecorView()).removeView(overlay);
+			overlay=null;
+		}
+
+		public void onViewHolderCreated(StatusDisplayItem.Type type, long durationNanos){
+			stats[type.ordinal()].create.recordNanos(durationNanos);
+			frameWork[currentFrame][type.ordinal()]+=durationNanos;
+		}
+
+		public void onViewHolderBound(StatusDisplayItem.Type type, long durationNanos){
+			stats[type.ordinal()].bind.recordNanos(durationNanos);
+			frameWork[currentFrame][type.ordinal()]+=durationNanos;
+		}
+
+		/**
+		 * Call after releasing or rebuilding display items of posts, with how many posts have them now and how many don't
+		 */
+		public void onMemoryWindowUpdated(int fullPosts, int releasedPosts){
+			StatusRenderProfiler.fullPosts=fullPosts;
+			StatusRenderProfiler.releasedPosts=releasedPosts;
+		}
+
+		@Override
+		public void doFrame(long frameTimeNanos){
+			// Everything the adapter does from now until the next frame counts towards this one. That includes prefetching,
+			// which runs after this frame is drawn, but would delay the next one if it ran over.
+			currentFrame=(currentFrame+1)%FRAME_HISTORY;
+			frameVsyncs[currentFrame]=frameTimeNanos;
+			Arrays.fill(frameWork[currentFrame], 0);
+			Choreographer.getInstance().postFrameCallback(this);
+		}
+
+		@Override
+		public void onFrameMetricsAvailable(Window window, FrameMetrics frameMetrics, int dropCountSinceLastInvocation){
+			unreportedFrames+=dropCountSinceLastInvocation;
+			totalFrames++;
+			if(frameMetrics.getMetric(FrameMetrics.TOTAL_DURATION)<=frameIntervalNanos)
+				return;
+			jankyFrames++;
+			// Choreographer gives frame callbacks the same vsync time that ends up in the metrics
+			long vsync=frameMetrics.getMetric(FrameMetrics.VSYNC_TIMESTAMP);
+			for(int i=0;i<FRAME_HISTORY;i++){
+				if(frameVsyncs[i]!=vsync)
+					continue;
+				long[] work=frameWork[i];
+				int worst=-1;
+				for(int j=0;j<work.length;j++){
+					if(work[j]==0)
+						continue;
+					stats[j].jankyFrames++;
+					stats[j].jankyFrameNanos+=work[j];
+					if(worst==-1 || work[j]>work[worst])
+						worst=j;
+				}
+				if(worst!=-1)
+					stats[worst].blamedFrames++;
+				break;
+			}
+		}
+
+		private void updateOverlay(){
+			if(overlay==null)
+				return;
+			sampleHeap();
+			StringBuilder sb=new StringBuilder(getFramesSummary()).append('\n').append(getMemorySummary());
+			sb.append(String.format(Locale.US, "\n%-20s %8s %8s %5s", "type", "bind p90", "make p90", "blame"));
+			ArrayList<TypeStats> sorted=getSortedStats();
+			for(int i=0;i<Math.min(OVERLAY_TYPE_COUNT, sorted.size());i++){
+				TypeStats s=sorted.get(i);
+				sb.append(String.format(Locale.US, "\n%-20s %8s %8s %5d", s.type, LatencyHistogram.formatMicros(s.bind.getPercentileMicros(90)),
+						LatencyHistogram.formatMicros(s.create.getPercentileMicros(90)), s.blamedFrames));
+			}
+			overlay.setText(sb);
+			mainHandler.postDelayed(overlayUpdater, OVERLAY_UPDATE_INTERVAL);
+		}
+	}
+}
@@ -157,14 +157,13 @@ public class AccountViewHolder extends BindableViewHolder<AccountViewModel> impl
 	public void setImage(int index, Drawable image){
 		if(index==0){
 			avatar.setImageDrawable(image);
+			if(image instanceof Animatable a && !a.isRunning())
+				a.start();
 		}else{
 			item.emojiHelper.setImageDrawable(index-1, image);
 			name.invalidate();
 			bio.invalidate();
 		}
-
-		if(image instanceof Animatable a && !a.isRunning())
-			a.start();
 	}
 
 	@Override
@@ -19,6 +19,7 @@ import android.view.MotionEvent;
 import android.widget.TextView;
 
 import app.kabinka.social.R;
+import app.kabinka.social.ui.text.AnimatedEmojiController;
 import app.kabinka.social.ui.text.ClickableLinksDelegate;
 import app.kabinka.social.ui.text.CodeBlockSpan;
 import app.kabinka.social.ui.text.DeleteWhenCopiedSpan;
@@ -105,14 +106,25 @@ public class LinkedTextView extends TextView{
 		super.onDraw(c);
 		delegate.onDraw(c);
 		if(needInvalidate)
-			invalidate();
+			AnimatedEmojiController.getInstance().addInvalidatingView(this);
+	}
+
+	@Override
+	protected void onDetachedFromWindow(){
+		super.onDetachedFromWindow();
+		if(needInvalidate)
+			AnimatedEmojiController.getInstance().removeInvalidatingView(this);
 	}
 
 	// a hack to support animated emoji on <9.0
 	public void setInvalidateOnEveryFrame(boolean invalidate){
+		if(needInvalidate==invalidate)
+			return;
 		needInvalidate=invalidate;
 		if(invalidate)
 			invalidate();
+		else
+			AnimatedEmojiController.getInstance().removeInvalidatingView(this);
 	}
 
 	@Override
@@ -0,0 +1,65 @@
+package app.kabinka.social.utils;
+
+import android.media.MediaDataSource;
+import android.media.MediaPlayer;
+
+import java.io.IOException;
+
+/**
+ * Plays a remote audio or video file through {@link MediaCache}, so that replaying and seeking read from disk.
+ * Set it with {@link #setDataSource(MediaPlayer, String)}, which passes the URL itself instead for files that can't be cached.
+ * If the player fails because a file turned out to be uncacheable, {@link #retryWithoutCache(MediaPlayer, String, boolean)} starts it over from the URL.
+ */
+public class CachingMediaDataSource extends MediaDataSource{
+	private final MediaCache.Entry entry;
+	private boolean closed;
+
+	public CachingMediaDataSource(String url){
+		entry=MediaCache.getInstance().open(url);
+	}
+
+	public static void setDataSource(MediaPlayer player, String url){
+		if(MediaCache.getInstance().canCache(url)){
+			player.setDataSource(new CachingMediaDataSource(url));
+		}else{
+			try{
+				player.setDataSource(url);
+			}catch(IOException x){
+				// Only thrown for local files
+				throw new IllegalArgumentException(x);
+			}
+		}
+	}
+
+	/**
+	 * Call from the player's error listener.
+	 * @param alreadyRetried whether this player was already started over once, it's only done once
+	 * @return true if the error came from a file that can't be cached and the player is being prepared again with its URL
+	 */
+	public static boolean retryWithoutCache(MediaPlayer player, String url, boolean alreadyRetried){
+		if(alreadyRetried || MediaCache.getInstance().canCache(url))
+			return false;
+		player.reset();
+		setDataSource(player, url);
+		player.prepareAsync();
+		return true;
+	}
+
+	@Override
+	public int readAt(long position, byte[] buffer, int offset, int size) throws IOException{
+		return entry.read(position, buffer, offset, size);
+	}
+
+	@Override
+	public long getSize() throws IOException{
+		return entry.getSize();
+	}
+
+	@Override
+	public synchronized void close(){
+		if(closed)
+			return;
+		closed=true;
+		MediaCache.getInstance().close(entry);
+	}
+}
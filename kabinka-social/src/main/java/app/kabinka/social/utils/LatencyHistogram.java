@@ -0,0 +1,115 @@
+package app.kabinka.social.utils;
+
+import com.google.gson.JsonObject;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A histogram of durations that can be recorded into from any thread without locking.
+ * <p>
+ * Buckets are spaced logarithmically, two per power of two microseconds, so percentiles are accurate to within
+ * about 20% from a microsecond up to a minute. Longer durations go into the last bucket.
+ */
+public class LatencyHistogram{
+	private static final int BUCKET_COUNT=54;
+
+	private final AtomicLongArray buckets=new AtomicLongArray(BUCKET_COUNT);
+	private final AtomicLong count=new AtomicLong(), sumMicros=new AtomicLong(), maxMicros=new AtomicLong();
+
+	public void recordNanos(long nanos){
+		long micros=Math.max(0, nanos/1000);
+		buckets.incrementAndGet(bucketFor(micros));
+		count.incrementAndGet();
+		sumMicros.addAndGet(micros);
+		maxMicros.accumulateAndGet(micros, Math::max);
+	}
+
+	public long getCount(){
+		return count.get();
+	}
+
+	public long getMeanMicros(){
+		long c=count.get();
+		return c==0 ? 0 : sumMicros.get()/c;
+	}
+
+	public long getMaxMicros(){
+		return maxMicros.get();
+	}
+
+	/**
+	 * @param percentile between 0 and 100
+	 * @return the middle of the bucket the percentile falls into, or 0 if nothing was recorded
+	 */
+	public long getPercentileMicros(double percentile){
+		long total=0;
+		long[] snapshot=new long[BUCKET_COUNT];
+		for(int i=0;i<BUCKET_COUNT;i++){
+			snapshot[i]=buckets.get(i);
+			total+=snapshot[i];
+		}
+		if(total==0)
+			return 0;
+		long target=Math.max(1, (long)Math.ceil(total*percentile/100.0));
+		long seen=0;
+		for(int i=0;i<BUCKET_COUNT;i++){
+			seen+=snapshot[i];
+			if(seen>=target)
+				return Math.min(maxMicros.get(), (bucketLowerBound(i)+bucketLowerBound(i+1))/2);
+		}
+		return maxMicros.get();
+	}
+
+	public void reset(){
+		for(int i=0;i<BUCKET_COUNT;i++)
+			buckets.set(i, 0);
+		count.set(0);
+		sumMicros.set(0);
+		maxMicros.set(0);
+	}
+
+	public JsonObject toJson(){
+		JsonObject obj=new JsonObject();
+		obj.addProperty("count", getCount());
+		obj.addProperty("mean_us", getMeanMicros());
+		obj.addProperty("p50_us", getPercentileMicros(50));
+		obj.addProperty("p90_us", getPercentileMicros(90));
+		obj.addProperty("p99_us", getPercentileMicros(99));
+		obj.addProperty("max_us", getMaxMicros());
+		return obj;
+	}
+
+	/**
+	 * @return e.g. "p50 120 ms, p90 480 ms", or "–" if nothing was recorded
+	 */
+	public String getSummary(){
+		if(getCount()==0)
+			return "–";
+		return "p50 "+formatMicros(getPercentileMicros(50))+", p90 "+formatMicros(getPercentileMicros(90));
+	}
+
+	public static String formatMicros(long micros){
+		if(micros<1000)
+			return micros+" µs";
+		if(micros<10_000)
+			return String.format("%.1f ms", micros/1000.0);
+		return (micros/1000)+" ms";
+	}
+
+	private static int bucketFor(long micros){
+		if(micros<2)
+			return (int)micros;
+		int exp=63-Long.numberOfLeadingZeros(micros);
+		int half=(int)(micros >>> (exp-1)) & 1;
+		return Math.min(BUCKET_COUNT-1, exp*2+half);
+	}
+
+	private static long bucketLowerBound(int bucket){
+		if(bucket<2)
+			return bucket;
+		int exp=bucket >> 1;
+		int half=bucket & 1;
+		return (long)(2+half) << (exp-1);
+	}
+}
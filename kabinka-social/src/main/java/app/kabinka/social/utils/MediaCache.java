@@ -0,0 +1,362 @@
+package app.kabinka.social.utils;
+
+import android.net.ConnectivityManager;
+import android.util.Log;
+
+import app.kabinka.social.BuildConfig;
+import app.kabinka.social.MastodonApp;
+import app.kabinka.social.api.MastodonAPIController;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import me.grishka.appkit.utils.WorkerThread;
+import okhttp3.Call;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+
+/**
+ * A size-bounded disk cache for audio and video files that supports reading arbitrary byte ranges, for {@link CachingMediaDataSource}.
+ * <p>
+ * Each file is stored as a sparse file split into chunks of {@link #CHUNK_SIZE} bytes, with a separate index of the chunks that
+ * were downloaded. Missing chunks are fetched with HTTP range requests when they're first read, so seeking doesn't require
+ * downloading everything before the seek position, and playing the same file again, or seeking back, doesn't hit the network.
+ * Files that haven't been used for the longest time are deleted once the cache grows over {@link #MAX_SIZE}.
+ * <p>
+ * Files from servers that don't support ranges and don't say how big the file is can't be cached this way. Reading them fails with
+ * {@link UncacheableException}, and {@link #canCache(String)} returns false for them from then on, so that they're played from the URL.
+ */
+public class MediaCache{
+	private static final String TAG="MediaCache";
+	private static final int CHUNK_SIZE=256*1024;
+	private static final int MAX_CHUNKS_PER_REQUEST=8;
+	private static final long MAX_SIZE=200L*1024*1024;
+	private static final int PREFETCH_CHUNKS=2;
+	private static final Pattern CONTENT_RANGE_PATTERN=Pattern.compile("bytes (\\d+)-(\\d+)/(\\d+)");
+
+	private static MediaCache instance;
+
+	private final File dir;
+	private final HashMap<String, Entry> openEntries=new HashMap<>();
+	private final HashSet<String> prefetchedURLs=new HashSet<>();
+	private final HashSet<String> uncacheableURLs=new HashSet<>();
+	private final WorkerThread prefetchThread;
+	private final AtomicLong bytesFromCache=new AtomicLong(), bytesFromNetwork=new AtomicLong();
+
+	// The first call is usually from the main thread, so the directory is only created when a file is written to it
+	private MediaCache(){
+		dir=new File(MastodonApp.context.getCacheDir(), "media");
+		prefetchThread=new WorkerThread("MediaCachePrefetch");
+		prefetchThread.start();
+	}
+
+	public static synchronized MediaCache getInstance(){
+		if(instance==null)
+			instance=new MediaCache();
+		return instance;
+	}
+
+	/**
+	 * Open a cached file for reading. Must be closed with {@link #close(Entry)} when no longer needed.
+	 */
+	public synchronized Entry open(String url){
+		Entry entry=openEntries.get(url);
+		if(entry==null){
+			entry=new Entry(url, hashURL(url));
+			openEntries.put(url, entry);
+		}
+		entry.refCount++;
+		return entry;
+	}
+
+	public void close(Entry entry){
+		synchronized(this){
+			if(--entry.refCount>0)
+				return;
+			openEntries.remove(entry.url);
+		}
+		entry.close();
+		if(BuildConfig.DEBUG)
+			Log.d(TAG, getStats());
+		prefetchThread.postRunnable(this::trim, 0);
+	}
+
+	/**
+	 * @return false if the server of this file doesn't allow caching it and it has to be played from the URL
+	 */
+	public synchronized boolean canCache(String url){
+		return !uncacheableURLs.contains(url);
+	}
+
+	/**
+	 * Download the beginning of a file in the background, if it isn't cached yet, so that it can start playing right away.
+	 * Meant for GIFVs as they appear on screen. Nothing is downloaded on metered networks or with data saver on.
+	 */
+	public void prefetch(String url){
+		synchronized(this){
+			if(uncacheableURLs.contains(url) || !prefetchedURLs.add(url))
+				return;
+		}
+		prefetchThread.postRunnable(()->{
+			if(isDataUsageRestricted()){
+				// Might be on another network by the time it's shown again
+				synchronized(this){
+					prefetchedURLs.remove(url);
+				}
+				return;
+			}
+			Entry entry=open(url);
+			try{
+				entry.ensureChunksCached(0, PREFETCH_CHUNKS);
+			}catch(UncacheableException ignore){
+			}catch(IOException x){
+				Log.w(TAG, "Failed to prefetch "+url, x);
+			}finally{
+				close(entry);
+			}
+		}, 0);
+	}
+
+	private static boolean isDataUsageRestricted(){
+		ConnectivityManager cm=MastodonApp.context.getSystemService(ConnectivityManager.class);
+		return cm.isActiveNetworkMetered() || cm.getRestrictBackgroundStatus()==ConnectivityManager.RESTRICT_BACKGROUND_STATUS_ENABLED;
+	}
+
+	/**
+	 * @return the size of the cache, the share of bytes that were read from the cache, and the number of bytes that didn't have to be downloaded, for debugging
+	 */
+	public String getStats(){
+		long fromCache=bytesFromCache.get(), fromNetwork=bytesFromNetwork.get();
+		long total=fromCache+fromNetwork;
+		return String.format("%d KB cached, %.1f%% hit rate, %d KB saved", getCacheSize()/1024, total==0 ? 0f : fromCache*100f/total, fromCache/1024);
+	}
+
+	private long getCacheSize(){
+		File[] files=dir.listFiles();
+		if(files==null)
+			return 0;
+		long size=0;
+		for(File f:files)
+			size+=f.length();
+		return size;
+	}
+
+	private void trim(){
+		File[] files=dir.listFiles((d, name)->name.endsWith(".data"));
+		if(files==null)
+			return;
+		long size=0;
+		for(File f:files)
+			size+=f.length();
+		if(size<=MAX_SIZE)
+			return;
+		Arrays.sort(files, Comparator.comparingLong(File::lastModified));
+		HashSet<String> inUse=new HashSet<>();
+		synchronized(this){
+			for(Entry e:openEntries.values())
+				inUse.add(e.key);
+		}
+		for(File f:files){
+			if(size<=MAX_SIZE)
+				break;
+			String key=f.getName().substring(0, f.getName().length()-5);
+			if(inUse.contains(key))
+				continue;
+			size-=f.length();
+			f.delete();
+			new File(dir, key+".index").delete();
+		}
+	}
+
+	private static String hashURL(String url){
+		try{
+			byte[] hash=MessageDigest.getInstance("SHA-1").digest(url.getBytes(StandardCharsets.UTF_8));
+			StringBuilder sb=new StringBuilder();
+			for(byte b:hash)
+				sb.append(String.format("%02x", b));
+			return sb.toString();
+		}catch(NoSuchAlgorithmException x){
+			throw new RuntimeException(x);
+		}
+	}
+
+	public class Entry{
+		private final String url, key;
+		private final File dataFile, indexFile;
+		private int refCount;
+		private RandomAccessFile file;
+		private long size=-1;
+		private BitSet chunks=new BitSet();
+		private boolean indexChanged;
+
+		private Entry(String url, String key){
+			this.url=url;
+			this.key=key;
+			dataFile=new File(dir, key+".data");
+			indexFile=new File(dir, key+".index");
+			if(dataFile.exists() && indexFile.exists()){
+				try(DataInputStream in=new DataInputStream(new FileInputStream(indexFile))){
+					size=in.readLong();
+					byte[] bits=new byte[in.readInt()];
+					in.readFully(bits);
+					chunks=BitSet.valueOf(bits);
+				}catch(IOException x){
+					Log.w(TAG, "Failed to read cache index for "+url, x);
+					size=-1;
+					chunks=new BitSet();
+					dataFile.delete();
+				}
+			}
+			dataFile.setLastModified(System.currentTimeMillis());
+		}
+
+		/**
+		 * @return the size of the file in bytes, downloading its first chunk if it's not known yet
+		 */
+		public synchronized long getSize() throws IOException{
+			if(size<0)
+				ensureChunksCached(0, 1);
+			return size;
+		}
+
+		/**
+		 * Same semantics as {@link android.media.MediaDataSource#readAt(long, byte[], int, int)}
+		 */
+		public synchronized int read(long position, byte[] buffer, int offset, int length) throws IOException{
+			if(length==0)
+				return 0;
+			if(getSize()<=position)
+				return -1;
+			int chunk=(int)(position/CHUNK_SIZE);
+			long chunkEnd=Math.min(size, (long)(chunk+1)*CHUNK_SIZE);
+			length=(int)Math.min(length, chunkEnd-position);
+			if(chunks.get(chunk))
+				bytesFromCache.addAndGet(length);
+			else
+				ensureChunksCached(chunk, MAX_CHUNKS_PER_REQUEST);
+			RandomAccessFile f=getFile();
+			f.seek(position);
+			f.readFully(buffer, offset, length);
+			return length;
+		}
+
+		/**
+		 * Download the first chunk and as many of the following ones as are missing, up to count, in one request.
+		 */
+		private synchronized void ensureChunksCached(int firstChunk, int count) throws IOException{
+			if(chunks.get(firstChunk) && size>=0)
+				return;
+			int lastChunk=firstChunk;
+			while(lastChunk-firstChunk+1<count && !chunks.get(lastChunk+1) && (size<0 || (long)(lastChunk+1)*CHUNK_SIZE<size))
+				lastChunk++;
+			long start=(long)firstChunk*CHUNK_SIZE, end=(long)(lastChunk+1)*CHUNK_SIZE-1;
+			if(size>=0)
+				end=Math.min(end, size-1);
+
+			Request req=new Request.Builder()
+					.url(url)
+					.header("Range", "bytes="+start+"-"+end)
+					.build();
+			Call call=MastodonAPIController.getHttpClient().newCall(req);
+			try(Response resp=call.execute()){
+				if(!resp.isSuccessful())
+					throw new IOException("HTTP "+resp.code()+" for "+url);
+				ResponseBody body=resp.body();
+				long position;
+				if(resp.code()==206){
+					Matcher matcher=CONTENT_RANGE_PATTERN.matcher(resp.header("Content-Range", ""));
+					if(!matcher.matches())
+						throw new IOException("Invalid Content-Range for "+url);
+					position=Long.parseLong(matcher.group(1));
+					size=Long.parseLong(matcher.group(3));
+				}else{
+					// The server doesn't support ranges and sends the whole file. Read it from the beginning up to the end of what's needed.
+					if(body.contentLength()<0){
+						synchronized(MediaCache.this){
+							uncacheableURLs.add(url);
+						}
+						throw new UncacheableException(url);
+					}
+					position=0;
+					size=body.contentLength();
+				}
+				end=Math.min(end, size-1);
+				long writeStart=position;
+				RandomAccessFile f=getFile();
+				f.seek(position);
+				byte[] buf=new byte[16384];
+				InputStream in=body.byteStream();
+				int read;
+				while(position<=end && (read=in.read(buf))>0){
+					f.write(buf, 0, read);
+					long newPosition=position+read;
+					// Mark the chunks that were fully written
+					for(long c=position/CHUNK_SIZE;c<=(newPosition-1)/CHUNK_SIZE;c++){
+						if(c*CHUNK_SIZE>=writeStart && newPosition>=Math.min(size, (c+1)*CHUNK_SIZE))
+							chunks.set((int)c);
+					}
+					bytesFromNetwork.addAndGet(read);
+					position=newPosition;
+				}
+				indexChanged=true;
+				if(!chunks.get(firstChunk))
+					throw new IOException("Response ended prematurely for "+url);
+			}
+		}
+
+		private RandomAccessFile getFile() throws IOException{
+			if(file==null){
+				dir.mkdirs();
+				file=new RandomAccessFile(dataFile, "rw");
+			}
+			return file;
+		}
+
+		private synchronized void close(){
+			try{
+				if(file!=null){
+					file.close();
+					file=null;
+				}
+				if(indexChanged){
+					try(DataOutputStream out=new DataOutputStream(new FileOutputStream(indexFile))){
+						out.writeLong(size);
+						byte[] bits=chunks.toByteArray();
+						out.writeInt(bits.length);
+						out.write(bits);
+					}
+					indexChanged=false;
+				}
+			}catch(IOException x){
+				Log.w(TAG, "Failed to close cache entry for "+url, x);
+			}
+		}
+	}
+
+	/**
+	 * The server sent the whole file without its length, so it can't be read in chunks
+	 */
+	public static class UncacheableException extends IOException{
+		public UncacheableException(String url){
+			super("Unknown content length for "+url);
+		}
+	}
+}
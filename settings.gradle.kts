@@ -28,6 +28,7 @@ rootProject.name = "kabinka-social-app"
 include(":kabinka-social")
 include(":kabinka-frontend")
 include(":core-ui")
+include(":benchmarks")
 
 // bolt-new-mockup is included as reference only (not built)
 // See bolt-new-mockup/ folder for frontend implementation examples